@@ -1,3 +1,4 @@
 @echo off
 
-call "./build/install/jmm/bin/jmm.bat" %*
+rem Compiles through a running compile server (jmm --server), or in-process when none is listening
+call "./build/install/jmm/bin/jmm.bat" --client %*
@@ -0,0 +1,160 @@
+package pt.up.fe.comp2023;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import pt.up.fe.comp2023.JavammParser.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the AST straight from the JavammParser parse tree, with the same node kinds, children and attributes that
+ * AntlrParser produces, but without reflection and with AstNode's typed attributes. Identifiers are interned per
+ * build, so every occurrence of a name shares one String.
+ */
+public class AstBuilder {
+
+    private static final Map<Class<? extends ParserRuleContext>, AstNode.Kind> KINDS = new HashMap<>();
+
+    static {
+        KINDS.put(ProgramContext.class, AstNode.Kind.PROGRAM);
+        KINDS.put(ImportDeclarationContext.class, AstNode.Kind.IMPORT_DECLARATION);
+        KINDS.put(SubImportContext.class, AstNode.Kind.SUB_IMPORT);
+        KINDS.put(ClassDeclarationContext.class, AstNode.Kind.CLASS_DECLARATION);
+        KINDS.put(VarDeclarationContext.class, AstNode.Kind.VAR_DECLARATION);
+        KINDS.put(ReturnStmtContext.class, AstNode.Kind.RETURN_STMT);
+        KINDS.put(MethodArgumentContext.class, AstNode.Kind.METHOD_ARGUMENT);
+        KINDS.put(MethodDeclarationContext.class, AstNode.Kind.METHOD_DECLARATION);
+        KINDS.put(ReturnTypeContext.class, AstNode.Kind.RETURN_TYPE);
+        KINDS.put(DeclarationTypeContext.class, AstNode.Kind.DECLARATION_TYPE);
+        KINDS.put(TypeContext.class, AstNode.Kind.TYPE);
+        KINDS.put(ElseStmtBodyContext.class, AstNode.Kind.ELSE_STMT_BODY);
+        KINDS.put(ConditionContext.class, AstNode.Kind.CONDITION);
+        KINDS.put(BodyContext.class, AstNode.Kind.BODY);
+        KINDS.put(IfStatementContext.class, AstNode.Kind.IF_STATEMENT);
+        KINDS.put(WhileLoopContext.class, AstNode.Kind.WHILE_LOOP);
+        KINDS.put(ForLoopContext.class, AstNode.Kind.FOR_LOOP);
+        KINDS.put(AssignmentContext.class, AstNode.Kind.ASSIGNMENT);
+        KINDS.put(AssignmentArrayContext.class, AstNode.Kind.ASSIGNMENT_ARRAY);
+        KINDS.put(ArrayDeclarationContext.class, AstNode.Kind.ARRAY_DECLARATION);
+        KINDS.put(StmtContext.class, AstNode.Kind.STMT);
+        KINDS.put(ParenthesisContext.class, AstNode.Kind.PARENTHESIS);
+        KINDS.put(ArrayIndexContext.class, AstNode.Kind.ARRAY_INDEX);
+        KINDS.put(MethodCallContext.class, AstNode.Kind.METHOD_CALL);
+        KINDS.put(LengthContext.class, AstNode.Kind.LENGTH);
+        KINDS.put(ClassVariableContext.class, AstNode.Kind.CLASS_VARIABLE);
+        KINDS.put(NewArrayInstantiationContext.class, AstNode.Kind.NEW_ARRAY_INSTANTIATION);
+        KINDS.put(UnaryOpContext.class, AstNode.Kind.UNARY_OP);
+        KINDS.put(BinaryOpContext.class, AstNode.Kind.BINARY_OP);
+        KINDS.put(ObjectInstantiationContext.class, AstNode.Kind.OBJECT_INSTANTIATION);
+        KINDS.put(LiteralContext.class, AstNode.Kind.LITERAL);
+        KINDS.put(LiteralSContext.class, AstNode.Kind.LITERAL_S);
+        KINDS.put(ObjectContext.class, AstNode.Kind.OBJECT);
+    }
+
+    private final TokenStream tokens;
+    private final Map<String, String> names = new HashMap<>();
+
+    public AstBuilder(TokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    public AstNode build(ParserRuleContext context) {
+        AstNode.Kind kind = KINDS.get(context.getClass());
+        if (kind == null)
+            throw new RuntimeException("No AST node for parse tree node " + context.getClass().getSimpleName());
+
+        AstNode node = new AstNode(kind);
+        Interval interval = context.getSourceInterval();
+        Token start = tokens.get(interval.a), end = tokens.get(interval.b);
+        node.setPosition(start.getLine(), start.getCharPositionInLine(), end.getLine(), end.getCharPositionInLine());
+        addAttributes(node, context);
+
+        for (int i = 0; i < context.getChildCount(); i++) {
+            ParseTree child = context.getChild(i);
+            if (child instanceof ParserRuleContext)
+                node.add(build((ParserRuleContext) child));
+        }
+        return node;
+    }
+
+    private void addAttributes(AstNode node, ParserRuleContext context) {
+        switch (node.getAstKind()) {
+            case SUB_IMPORT -> setName(node, "subImportName", ((SubImportContext) context).subImportName);
+            case CLASS_DECLARATION -> {
+                ClassDeclarationContext classDeclaration = (ClassDeclarationContext) context;
+                setName(node, "className", classDeclaration.className);
+                putToken(node, "extendedClassName", classDeclaration.extendedClassName);
+            }
+            case VAR_DECLARATION -> setName(node, "variableName", ((VarDeclarationContext) context).variableName);
+            case METHOD_ARGUMENT -> setName(node, "argumentName", ((MethodArgumentContext) context).argumentName);
+            case METHOD_DECLARATION -> {
+                MethodDeclarationContext method = (MethodDeclarationContext) context;
+                setName(node, "methodName", method.methodName);
+                putToken(node, "accessModifier", method.accessModifier);
+                putToken(node, "isStatic", method.isStatic);
+                putToken(node, "argumentType", method.argumentType);
+                if (method.argumentName != null)
+                    node.put("argumentName", intern(method.argumentName.getText()));
+            }
+            case TYPE -> {
+                Token varType = ((TypeContext) context).varType;
+                if (varType != null)
+                    node.put("varType", intern(varType.getText()));
+            }
+            case ASSIGNMENT -> {
+                AssignmentContext assignment = (AssignmentContext) context;
+                setName(node, "variable", assignment.variable);
+                setName(node, "id", assignment.id);
+            }
+            case ARRAY_DECLARATION -> setName(node, "variable", ((ArrayDeclarationContext) context).variable);
+            case ASSIGNMENT_ARRAY -> {
+                AssignmentArrayContext assignment = (AssignmentArrayContext) context;
+                setName(node, "variable", assignment.variable);
+                putToken(node, "INT", assignment.INT);
+                List<String> contents = new ArrayList<>(assignment.contents.size());
+                for (Token token : assignment.contents) {
+                    contents.add(token.getText());
+                }
+                node.putObject("contents", contents);
+            }
+            case UNARY_OP -> node.setOperator(AstNode.Operator.fromSymbol(((UnaryOpContext) context).op.getText()));
+            case BINARY_OP -> node.setOperator(AstNode.Operator.fromSymbol(((BinaryOpContext) context).op.getText()));
+            case OBJECT_INSTANTIATION -> setName(node, "objectName", ((ObjectInstantiationContext) context).objectName);
+            case LENGTH -> setName(node, "method", ((LengthContext) context).method);
+            case CLASS_VARIABLE -> setName(node, "method", ((ClassVariableContext) context).method);
+            case METHOD_CALL -> setName(node, "method", ((MethodCallContext) context).method);
+            case LITERAL -> {
+                LiteralContext literal = (LiteralContext) context;
+                if (literal.integer != null)
+                    node.put("integer", literal.integer.getText());
+                if (literal.bool != null)
+                    node.setBool(literal.bool.getText().equals("true"));
+            }
+            case LITERAL_S -> setName(node, "id", ((LiteralSContext) context).id);
+            case OBJECT -> setName(node, "id", ((ObjectContext) context).id);
+            default -> {
+            }
+        }
+    }
+
+    private void setName(AstNode node, String key, Token token) {
+        if (token != null)
+            node.setName(key, intern(token.getText()));
+    }
+
+    private void putToken(AstNode node, String key, Token token) {
+        if (token != null)
+            node.put(key, intern(token.getText()));
+    }
+
+    private String intern(String name) {
+        String interned = names.putIfAbsent(name, name);
+        return interned == null ? name : interned;
+    }
+}
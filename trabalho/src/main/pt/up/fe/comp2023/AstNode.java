@@ -0,0 +1,412 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.specs.util.SpecsCheck;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * AST node built by AstBuilder. The attributes every stage reads (position, identifier, operator, literal value,
+ * varType and isArray) are kept in fields instead of the string map of JmmNodeImpl; any other attribute still goes to
+ * the map. The compiler stages read them through the typed accessors; through the JmmNode interface the node behaves
+ * exactly like the nodes made by AntlrParser, which is what the library code (toJson, toTree, the visitors) relies on.
+ */
+public class AstNode extends JmmNodeImpl {
+
+    public enum Kind {
+        PROGRAM("Program", null),
+        IMPORT_DECLARATION("ImportDeclaration", null),
+        SUB_IMPORT("SubImport", null),
+        CLASS_DECLARATION("ClassDeclaration", null),
+        VAR_DECLARATION("VarDeclaration", null),
+        RETURN_STMT("ReturnStmt", null),
+        METHOD_ARGUMENT("MethodArgument", "Argument"),
+        METHOD_DECLARATION("MethodDeclaration", null),
+        RETURN_TYPE("ReturnType", "TypeRet"),
+        DECLARATION_TYPE("DeclarationType", "TypeDecl"),
+        TYPE("Type", null),
+        ELSE_STMT_BODY("ElseStmtBody", "ElseStmt"),
+        CONDITION("Condition", null),
+        BODY("Body", "Statement"),
+        IF_STATEMENT("IfStatement", "Statement"),
+        WHILE_LOOP("WhileLoop", "Statement"),
+        FOR_LOOP("ForLoop", "Statement"),
+        ASSIGNMENT("Assignment", "Statement"),
+        ASSIGNMENT_ARRAY("AssignmentArray", "Statement"),
+        ARRAY_DECLARATION("ArrayDeclaration", "Statement"),
+        STMT("Stmt", "Statement"),
+        PARENTHESIS("Parenthesis", "Expression"),
+        ARRAY_INDEX("ArrayIndex", "Expression"),
+        METHOD_CALL("MethodCall", "Expression"),
+        LENGTH("Length", "Expression"),
+        CLASS_VARIABLE("ClassVariable", "Expression"),
+        NEW_ARRAY_INSTANTIATION("NewArrayInstantiation", "Expression"),
+        UNARY_OP("UnaryOp", "Expression"),
+        BINARY_OP("BinaryOp", "Expression"),
+        OBJECT_INSTANTIATION("ObjectInstantiation", "Expression"),
+        LITERAL("Literal", "Expression"),
+        LITERAL_S("LiteralS", "Expression"),
+        OBJECT("Object", "Expression");
+
+        private static final Map<String, Kind> BY_NAME = new HashMap<>();
+
+        static {
+            for (Kind kind : values()) {
+                BY_NAME.put(kind.name, kind);
+            }
+        }
+
+        private final String name;
+        private final List<String> hierarchy;
+
+        Kind(String name, String rule) {
+            this.name = name;
+            this.hierarchy = rule == null ? List.of(name) : List.of(name, rule);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getHierarchy() {
+            return hierarchy;
+        }
+
+        /**
+         * Kind with the given JmmNode name, or null if the grammar has no such node.
+         */
+        public static Kind fromName(String name) {
+            return BY_NAME.get(name);
+        }
+    }
+
+    public enum Operator {
+        NOT("!"), MUL("*"), DIV("/"), ADD("+"), SUB("-"),
+        LT("<"), GT(">"), LE("<="), GE(">="), NE("!="), EQ("=="),
+        AND("&&"), OR("||");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public boolean isComparison() {
+            return this == LT || this == GT || this == LE || this == GE || this == NE || this == EQ;
+        }
+
+        public static Operator fromSymbol(String symbol) {
+            for (Operator op : values()) {
+                if (op.symbol.equals(symbol))
+                    return op;
+            }
+            return null;
+        }
+    }
+
+    private static final String LINE_START = "lineStart";
+    private static final String COL_START = "colStart";
+    private static final String LINE_END = "lineEnd";
+    private static final String COL_END = "colEnd";
+
+    // Attributes that name something; a node has at most one of them in the typed slot
+    private static final List<String> NAME_KEYS = List.of("id", "variable", "method", "methodName", "objectName",
+            "className", "variableName", "argumentName", "subImportName");
+
+    private static final byte UNSET = -1;
+
+    private final Kind astKind;
+    private boolean hasPosition;
+    private int lineStart, colStart, lineEnd, colEnd;
+    private String nameKey;
+    private String name;
+    private Operator op;
+    private boolean hasInteger;
+    private int integer;
+    private byte bool = UNSET;
+    private String varType;
+    private byte isArray = UNSET;
+
+    public AstNode(Kind kind) {
+        super(kind.getName());
+        this.astKind = kind;
+    }
+
+    public static AstNode literal(int value) {
+        AstNode node = new AstNode(Kind.LITERAL);
+        node.varType = "integer";
+        node.isArray = 0;
+        node.setInteger(value);
+        return node;
+    }
+
+    public static AstNode literal(boolean value) {
+        AstNode node = new AstNode(Kind.LITERAL);
+        node.varType = "boolean";
+        node.isArray = 0;
+        node.bool = (byte) (value ? 1 : 0);
+        return node;
+    }
+
+    public Kind getAstKind() {
+        return astKind;
+    }
+
+    public boolean is(Kind kind) {
+        return astKind == kind;
+    }
+
+    void setPosition(int lineStart, int colStart, int lineEnd, int colEnd) {
+        this.hasPosition = true;
+        this.lineStart = lineStart;
+        this.colStart = colStart;
+        this.lineEnd = lineEnd;
+        this.colEnd = colEnd;
+    }
+
+    /**
+     * Line where the node starts, or -1 for nodes created by the optimizations.
+     */
+    public int getLine() {
+        return hasPosition ? lineStart : -1;
+    }
+
+    void setName(String key, String name) {
+        this.nameKey = key;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Operator getOperator() {
+        return op;
+    }
+
+    void setOperator(Operator op) {
+        this.op = op;
+    }
+
+    public boolean hasInteger() {
+        return hasInteger;
+    }
+
+    public int getInteger() {
+        return integer;
+    }
+
+    void setInteger(int value) {
+        this.hasInteger = true;
+        this.integer = value;
+    }
+
+    public boolean hasBool() {
+        return bool != UNSET;
+    }
+
+    public boolean getBool() {
+        return bool == 1;
+    }
+
+    void setBool(boolean value) {
+        this.bool = (byte) (value ? 1 : 0);
+    }
+
+    public String getVarType() {
+        return varType;
+    }
+
+    public boolean isArray() {
+        return isArray == 1;
+    }
+
+    public void setType(String varType, boolean isArray) {
+        this.varType = varType;
+        this.isArray = (byte) (isArray ? 1 : 0);
+    }
+
+    /**
+     * Whether the semantic analysis gave the node a type, with both varType and isArray.
+     */
+    public boolean hasType() {
+        return varType != null && isArray != UNSET;
+    }
+
+    public AstNode getChild(int index) {
+        return (AstNode) children.get(index);
+    }
+
+    public AstNode getParent() {
+        return (AstNode) getJmmParent();
+    }
+
+    /**
+     * Closest ancestor of the given kind, or null if there is none.
+     */
+    public AstNode getAncestor(Kind kind) {
+        for (JmmNode node = getJmmParent(); node != null; node = node.getJmmParent()) {
+            if (node instanceof AstNode && ((AstNode) node).astKind == kind)
+                return (AstNode) node;
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<String> getHierarchy() {
+        return astKind.getHierarchy();
+    }
+
+    @Override
+    public JmmNode getJmmChild(int index) {
+        return children.get(index);
+    }
+
+    @Override
+    public int getIndexOfSelf() {
+        JmmNode parent = getJmmParent();
+        if (parent instanceof AstNode)
+            return ((AstNode) parent).children.indexOf(this);
+        return super.getIndexOfSelf();
+    }
+
+    @Override
+    public Collection<String> getAttributes() {
+        List<String> attributes = new ArrayList<>();
+        if (hasPosition) {
+            attributes.add(LINE_START);
+            attributes.add(COL_START);
+            attributes.add(LINE_END);
+            attributes.add(COL_END);
+        }
+        if (name != null)
+            attributes.add(nameKey);
+        if (op != null)
+            attributes.add("op");
+        if (hasInteger)
+            attributes.add("integer");
+        if (bool != UNSET)
+            attributes.add("bool");
+        if (varType != null)
+            attributes.add("varType");
+        if (isArray != UNSET)
+            attributes.add("isArray");
+        attributes.addAll(getAttributesMap().keySet());
+        return attributes;
+    }
+
+    @Override
+    public boolean hasAttribute(String attribute) {
+        return lookup(attribute) != null;
+    }
+
+    @Override
+    public Object getObject(String attribute) {
+        Object value = lookup(attribute);
+        SpecsCheck.checkNotNull(value, () -> "Node " + getKind() + " does not contain attribute '" + attribute + "'");
+        return value;
+    }
+
+    @Override
+    public Optional<Object> getOptionalObject(String attribute) {
+        return Optional.ofNullable(lookup(attribute));
+    }
+
+    private Object lookup(String attribute) {
+        switch (attribute) {
+            case LINE_START:
+                if (hasPosition)
+                    return Integer.toString(lineStart);
+                break;
+            case COL_START:
+                if (hasPosition)
+                    return Integer.toString(colStart);
+                break;
+            case LINE_END:
+                if (hasPosition)
+                    return Integer.toString(lineEnd);
+                break;
+            case COL_END:
+                if (hasPosition)
+                    return Integer.toString(colEnd);
+                break;
+            case "op":
+                if (op != null)
+                    return op.getSymbol();
+                break;
+            case "integer":
+                if (hasInteger)
+                    return Integer.toString(integer);
+                break;
+            case "bool":
+                if (bool != UNSET)
+                    return bool == 1 ? "true" : "false";
+                break;
+            case "varType":
+                if (varType != null)
+                    return varType;
+                break;
+            case "isArray":
+                if (isArray != UNSET)
+                    return isArray == 1 ? "true" : "false";
+                break;
+            default:
+                if (name != null && attribute.equals(nameKey))
+                    return name;
+        }
+        return getAttributesMap().get(attribute);
+    }
+
+    @Override
+    public void putObject(String attribute, Object value) {
+        if (value instanceof String && putTyped(attribute, (String) value)) {
+            getAttributesMap().remove(attribute);
+            return;
+        }
+        getAttributesMap().put(attribute, value);
+    }
+
+    private boolean putTyped(String attribute, String value) {
+        switch (attribute) {
+            case "op" -> {
+                Operator operator = Operator.fromSymbol(value);
+                if (operator == null)
+                    return false;
+                op = operator;
+            }
+            case "integer" -> {
+                try {
+                    setInteger(Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            case "bool", "isArray" -> {
+                if (!value.equals("true") && !value.equals("false"))
+                    return false;
+                byte flag = (byte) (value.equals("true") ? 1 : 0);
+                if (attribute.equals("bool"))
+                    bool = flag;
+                else
+                    isArray = flag;
+            }
+            case "varType" -> varType = value;
+            default -> {
+                if (!NAME_KEYS.contains(attribute) || (nameKey != null && !nameKey.equals(attribute)))
+                    return false;
+                setName(attribute, value);
+            }
+        }
+        return true;
+    }
+}
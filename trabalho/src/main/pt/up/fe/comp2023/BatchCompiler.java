@@ -0,0 +1,166 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.jasmin.JasminUtils;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles several .jmm files concurrently on a bounded pool of workers. Results are returned in the same order as the
+ * input files, independently of the order in which the workers finish.
+ */
+public class BatchCompiler {
+
+    public static class FileResult {
+        private final File file;
+        private final JmmCompiler.Result result;
+        private final File classFile;
+
+        FileResult(File file, JmmCompiler.Result result, File classFile) {
+            this.file = file;
+            this.result = result;
+            this.classFile = classFile;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public JmmCompiler.Result getResult() {
+            return result;
+        }
+
+        public File getClassFile() {
+            return classFile;
+        }
+    }
+
+    private final Map<String, String> config;
+    private final int numThreads;
+    private final File outputDir;
+    private final CompilationCache cache;
+
+    public BatchCompiler(Map<String, String> config, int numThreads, File outputDir, CompilationCache cache) {
+        this.config = config;
+        this.numThreads = Math.max(1, numThreads);
+        this.outputDir = outputDir;
+        this.cache = cache;
+    }
+
+    public List<FileResult> compile(List<File> files) {
+        JmmCompiler.prepareConcurrentUse();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(numThreads, Math.max(1, files.size())));
+        try {
+            List<Future<FileResult>> futures = new ArrayList<>();
+            for (File file : files) {
+                futures.add(workers.submit(() -> compileFile(file)));
+            }
+
+            List<FileResult> results = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(crashed(files.get(i), e.getCause()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(crashed(files.get(i), e));
+                }
+            }
+            return results;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private FileResult compileFile(File file) {
+        // Every worker gets its own copy of the config, so stages that write into it never race
+        JmmCompiler.Result result;
+        try {
+            result = new JmmCompiler(cache).compile(SpecsIo.read(file), new HashMap<>(config));
+        } catch (RuntimeException e) {
+            return crashed(file, e);
+        }
+
+        File classFile = null;
+        if (result.isSuccess() && outputDir != null) {
+            // The class file backend already has the bytes, only the Jasmin text has to go through jasmin.jar
+            classFile = result.getJasminResult().compile(outputDir);
+        }
+        return new FileResult(file, result, classFile);
+    }
+
+    /**
+     * Assembles the given Jasmin code into outputDir. JasminResult.compile() always writes to the same temporary
+     * file, which is not safe when several compilations run at the same time, so each call uses its own .j file.
+     * InProcessRunner.Result.compile goes through here.
+     */
+    static File assemble(String name, String jasminCode, File outputDir) {
+        File jasminFile = null;
+        try {
+            jasminFile = Files.createTempFile(name, ".j").toFile();
+            SpecsIo.write(jasminFile, jasminCode);
+            return JasminUtils.assemble(jasminFile, outputDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create temporary Jasmin file for " + name, e);
+        } finally {
+            if (jasminFile != null) {
+                jasminFile.delete();
+            }
+        }
+    }
+
+    private FileResult crashed(File file, Throwable e) {
+        Report report = new Report(ReportType.ERROR, Stage.OTHER, -1, -1, "Compilation crashed: " + e);
+        return new FileResult(file, new JmmCompiler.Result(Collections.singletonList(report), null, null), null);
+    }
+
+    /**
+     * Expands the given paths into the list of files to compile. Directories contribute their .jmm files (sorted by
+     * name, so the order does not depend on the file system) and paths starting with '@' are files with one path
+     * per line.
+     */
+    public static List<File> collectInputFiles(List<String> paths) {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            if (path.startsWith("@")) {
+                List<String> listed = new ArrayList<>();
+                for (String line : SpecsIo.read(new File(path.substring(1))).split("\\R")) {
+                    if (!line.isBlank())
+                        listed.add(line.strip());
+                }
+                files.addAll(collectInputFiles(listed));
+                continue;
+            }
+
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] sources = file.listFiles((dir, name) -> name.endsWith(".jmm"));
+                if (sources != null) {
+                    Arrays.sort(sources);
+                    files.addAll(Arrays.asList(sources));
+                }
+            } else if (file.isFile()) {
+                files.add(file);
+            } else {
+                throw new RuntimeException("Expected a path to an existing input file or folder, got '" + file + "'.");
+            }
+        }
+        return files;
+    }
+}
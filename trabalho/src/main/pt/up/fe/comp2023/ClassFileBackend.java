@@ -0,0 +1,86 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backend that writes class files directly from the code generated by JasminConverter, without printing Jasmin text
+ * and assembling it again. The text is only produced if someone asks for it (e.g. to debug). It is the default backend;
+ * the "backend" option set to "jasmin" goes back to assembling the text with jasmin.jar.
+ */
+public class ClassFileBackend implements JasminBackend {
+
+    public static class ClassFileResult extends InProcessRunner.Result {
+        private final JasminClass jasminClass;
+        private final byte[] classFile;
+        private String jasminCode;
+
+        ClassFileResult(JasminClass jasminClass, byte[] classFile, Map<String, String> config) {
+            super(jasminClass.getName(), "", Collections.<Report>emptyList(), config);
+            this.jasminClass = jasminClass;
+            this.classFile = classFile;
+        }
+
+        /**
+         * A class file written earlier (e.g. read back from the cache), together with its Jasmin text.
+         */
+        ClassFileResult(String className, String jasminCode, byte[] classFile, List<Report> reports, Map<String, String> config) {
+            super(className, jasminCode, reports, config);
+            this.jasminClass = null;
+            this.classFile = classFile;
+            this.jasminCode = jasminCode;
+        }
+
+        public byte[] getClassFile() {
+            return classFile;
+        }
+
+        @Override
+        public String getJasminCode() {
+            if (jasminCode == null)
+                jasminCode = jasminClass.toJasmin();
+            return jasminCode;
+        }
+
+        @Override
+        public File compile(File outputDir) {
+            File file = new File(outputDir, getClassName() + ".class");
+            try {
+                Files.createDirectories(outputDir.toPath());
+                Files.write(file.toPath(), classFile);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not write class file " + file, e);
+            }
+            return file;
+        }
+    }
+
+    public static boolean isEnabled(Map<String, String> config) {
+        return config == null || !"jasmin".equals(config.get("backend"));
+    }
+
+    /**
+     * The backend the given options ask for.
+     */
+    public static JasminBackend of(Map<String, String> config) {
+        return isEnabled(config) ? new ClassFileBackend() : new JasminConverter();
+    }
+
+    @Override
+    public JasminResult toJasmin(OllirResult ollirResult) {
+        JasminClass jasminClass = new JasminConverter().buildClass(ollirResult);
+        CompilerStats.Timer timer = CompilerStats.start("writeClassFile");
+        byte[] classFile = new ClassFileWriter().write(jasminClass);
+        CompilerStats.stop(timer);
+        return new ClassFileResult(jasminClass, classFile, ollirResult.getConfig());
+    }
+}
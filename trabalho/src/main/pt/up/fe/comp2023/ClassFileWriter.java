@@ -0,0 +1,427 @@
+package pt.up.fe.comp2023;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a {@link JasminClass} as a JVM class file, doing the work jasmin.jar would do on the printed text: the
+ * constant pool, the instruction encoding and the label offsets. The class file version is the same one Jasmin uses
+ * (45.3), so no StackMapTable is needed.
+ */
+public class ClassFileWriter {
+
+    private enum OperandKind {NONE, LOCAL, BYTE, SHORT, CONSTANT, BRANCH, CLASS, FIELD, METHOD, INTERFACE_METHOD, ARRAY_TYPE, IINC}
+
+    private static class Opcode {
+        final int code;
+        final OperandKind kind;
+
+        Opcode(int code, OperandKind kind) {
+            this.code = code;
+            this.kind = kind;
+        }
+    }
+
+    private static final Map<String, Opcode> OPCODES = new HashMap<>();
+    private static final Map<String, Integer> ARRAY_TYPES = Map.of("boolean", 4, "char", 5, "float", 6, "double", 7,
+            "byte", 8, "short", 9, "int", 10, "long", 11);
+    private static final Map<String, Integer> ACCESS_FLAGS = Map.of("public", 0x0001, "private", 0x0002, "protected", 0x0004);
+
+    private static void opcode(String name, int code, OperandKind kind) {
+        OPCODES.put(name, new Opcode(code, kind));
+    }
+
+    static {
+        String[] simple = {"nop", "aconst_null", "iconst_m1", "iconst_0", "iconst_1", "iconst_2", "iconst_3", "iconst_4", "iconst_5"};
+        for (int i = 0; i < simple.length; i++) {
+            opcode(simple[i], i, OperandKind.NONE);
+        }
+        opcode("bipush", 16, OperandKind.BYTE);
+        opcode("sipush", 17, OperandKind.SHORT);
+        opcode("ldc", 18, OperandKind.CONSTANT);
+        opcode("iload", 21, OperandKind.LOCAL);
+        opcode("aload", 25, OperandKind.LOCAL);
+        opcode("istore", 54, OperandKind.LOCAL);
+        opcode("astore", 58, OperandKind.LOCAL);
+        for (int i = 0; i <= 3; i++) {
+            opcode("iload_" + i, 26 + i, OperandKind.NONE);
+            opcode("aload_" + i, 42 + i, OperandKind.NONE);
+            opcode("istore_" + i, 59 + i, OperandKind.NONE);
+            opcode("astore_" + i, 75 + i, OperandKind.NONE);
+        }
+        opcode("iaload", 46, OperandKind.NONE);
+        opcode("aaload", 50, OperandKind.NONE);
+        opcode("baload", 51, OperandKind.NONE);
+        opcode("iastore", 79, OperandKind.NONE);
+        opcode("aastore", 83, OperandKind.NONE);
+        opcode("bastore", 84, OperandKind.NONE);
+        opcode("pop", 87, OperandKind.NONE);
+        opcode("pop2", 88, OperandKind.NONE);
+        opcode("dup", 89, OperandKind.NONE);
+        opcode("dup_x1", 90, OperandKind.NONE);
+        opcode("dup_x2", 91, OperandKind.NONE);
+        opcode("dup2", 92, OperandKind.NONE);
+        opcode("swap", 95, OperandKind.NONE);
+        opcode("iadd", 96, OperandKind.NONE);
+        opcode("isub", 100, OperandKind.NONE);
+        opcode("imul", 104, OperandKind.NONE);
+        opcode("idiv", 108, OperandKind.NONE);
+        opcode("irem", 112, OperandKind.NONE);
+        opcode("ineg", 116, OperandKind.NONE);
+        opcode("ishl", 120, OperandKind.NONE);
+        opcode("ishr", 122, OperandKind.NONE);
+        opcode("iushr", 124, OperandKind.NONE);
+        opcode("iand", 126, OperandKind.NONE);
+        opcode("ior", 128, OperandKind.NONE);
+        opcode("ixor", 130, OperandKind.NONE);
+        opcode("iinc", 132, OperandKind.IINC);
+        String[] branches = {"ifeq", "ifne", "iflt", "ifge", "ifgt", "ifle", "if_icmpeq", "if_icmpne", "if_icmplt",
+                "if_icmpge", "if_icmpgt", "if_icmple", "if_acmpeq", "if_acmpne", "goto"};
+        for (int i = 0; i < branches.length; i++) {
+            opcode(branches[i], 153 + i, OperandKind.BRANCH);
+        }
+        opcode("ifnull", 198, OperandKind.BRANCH);
+        opcode("ifnonnull", 199, OperandKind.BRANCH);
+        opcode("ireturn", 172, OperandKind.NONE);
+        opcode("areturn", 176, OperandKind.NONE);
+        opcode("return", 177, OperandKind.NONE);
+        opcode("getstatic", 178, OperandKind.FIELD);
+        opcode("putstatic", 179, OperandKind.FIELD);
+        opcode("getfield", 180, OperandKind.FIELD);
+        opcode("putfield", 181, OperandKind.FIELD);
+        opcode("invokevirtual", 182, OperandKind.METHOD);
+        opcode("invokespecial", 183, OperandKind.METHOD);
+        opcode("invokestatic", 184, OperandKind.METHOD);
+        opcode("invokeinterface", 185, OperandKind.INTERFACE_METHOD);
+        opcode("new", 187, OperandKind.CLASS);
+        opcode("newarray", 188, OperandKind.ARRAY_TYPE);
+        opcode("anewarray", 189, OperandKind.CLASS);
+        opcode("arraylength", 190, OperandKind.NONE);
+        opcode("checkcast", 192, OperandKind.CLASS);
+        opcode("instanceof", 193, OperandKind.CLASS);
+    }
+
+    private static final int LDC_W = 19;
+    private static final int WIDE = 196;
+
+    /**
+     * Constant pool under construction. Equal constants share the same entry.
+     */
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        private int entry(String key, int slots, EntryWriter writer) {
+            Integer index = indexes.get(key);
+            if (index != null)
+                return index;
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            index = count;
+            count += slots;
+            indexes.put(key, index);
+            return index;
+        }
+
+        int utf8(String value) {
+            return entry("Utf8:" + value, 1, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int integer(int value) {
+            return entry("Integer:" + value, 1, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int string(String value) {
+            int utf8 = utf8(value);
+            return entry("String:" + value, 1, () -> {
+                out.writeByte(8);
+                out.writeShort(utf8);
+            });
+        }
+
+        int classRef(String name) {
+            int utf8 = utf8(name);
+            return entry("Class:" + name, 1, () -> {
+                out.writeByte(7);
+                out.writeShort(utf8);
+            });
+        }
+
+        int nameAndType(String name, String descriptor) {
+            int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+            return entry("NameAndType:" + name + ":" + descriptor, 1, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+        }
+
+        int memberRef(int tag, String owner, String name, String descriptor) {
+            int classIndex = classRef(owner), nameAndType = nameAndType(name, descriptor);
+            return entry(tag + ":" + owner + "." + name + ":" + descriptor, 1, () -> {
+                out.writeByte(tag);
+                out.writeShort(classIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+    }
+
+    private interface EntryWriter {
+        void write() throws IOException;
+    }
+
+    public byte[] write(JasminClass jasminClass) {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(jasminClass.getName());
+        int superClass = pool.classRef(jasminClass.getSuperName());
+        int codeAttribute = pool.utf8("Code");
+
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeShort(0x0021); // public, super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+
+            out.writeShort(jasminClass.getFields().size());
+            for (JasminClass.Field field : jasminClass.getFields()) {
+                out.writeShort(accessFlags(field.getAccess(), field.isStatic(), field.isFinal()));
+                out.writeShort(pool.utf8(field.getName()));
+                out.writeShort(pool.utf8(field.getDescriptor()));
+                out.writeShort(0);
+            }
+
+            out.writeShort(jasminClass.getMethods().size());
+            for (JasminClass.Method method : jasminClass.getMethods()) {
+                out.writeShort(accessFlags(method.getAccess(), method.isStatic(), method.isFinal()));
+                out.writeShort(pool.utf8(method.getName()));
+                out.writeShort(pool.utf8(method.getDescriptor()));
+                out.writeShort(1);
+
+                byte[] code = encode(method, pool);
+                out.writeShort(codeAttribute);
+                out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+                out.writeShort(method.getMaxStack());
+                out.writeShort(method.getMaxLocals());
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            }
+            out.writeShort(0); // class attributes
+
+            ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(classFile);
+            header.writeInt(0xCAFEBABE);
+            header.writeShort(3);
+            header.writeShort(45);
+            header.writeShort(pool.count);
+            pool.bytes.writeTo(classFile);
+            body.writeTo(classFile);
+            return classFile.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int accessFlags(String access, boolean isStatic, boolean isFinal) {
+        return ACCESS_FLAGS.getOrDefault(access, 0) | (isStatic ? 0x0008 : 0) | (isFinal ? 0x0010 : 0);
+    }
+
+    /**
+     * Two passes: the first one resolves the constants and finds the offset of every instruction and label, the
+     * second one writes the bytes with the branch offsets filled in.
+     */
+    private byte[] encode(JasminClass.Method method, ConstantPool pool) throws IOException {
+        List<JasminInstruction> code = method.getCode();
+        List<Integer> offsets = new ArrayList<>();
+        List<Integer> constants = new ArrayList<>();
+        Map<String, Integer> labels = new HashMap<>();
+
+        int offset = 0;
+        for (JasminInstruction instruction : code) {
+            offsets.add(offset);
+            if (instruction.isLabel()) {
+                labels.put(instruction.getLabel(), offset);
+                constants.add(-1);
+                continue;
+            }
+            Opcode opcode = opcode(instruction, method);
+            int constant = constant(instruction, opcode.kind, pool);
+            constants.add(constant);
+            offset += size(instruction, opcode.kind, constant);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < code.size(); i++) {
+            JasminInstruction instruction = code.get(i);
+            if (instruction.isLabel())
+                continue;
+
+            Opcode opcode = opcode(instruction, method);
+            int constant = constants.get(i);
+            switch (opcode.kind) {
+                case NONE -> out.writeByte(opcode.code);
+                case LOCAL -> {
+                    int local = Integer.parseInt(instruction.getOperand(0));
+                    if (local > 255) {
+                        out.writeByte(WIDE);
+                        out.writeByte(opcode.code);
+                        out.writeShort(local);
+                    } else {
+                        out.writeByte(opcode.code);
+                        out.writeByte(local);
+                    }
+                }
+                case BYTE -> {
+                    out.writeByte(opcode.code);
+                    out.writeByte(Integer.parseInt(instruction.getOperand(0)));
+                }
+                case SHORT -> {
+                    out.writeByte(opcode.code);
+                    out.writeShort(Integer.parseInt(instruction.getOperand(0)));
+                }
+                case CONSTANT -> {
+                    if (constant > 255) {
+                        out.writeByte(LDC_W);
+                        out.writeShort(constant);
+                    } else {
+                        out.writeByte(opcode.code);
+                        out.writeByte(constant);
+                    }
+                }
+                case BRANCH -> {
+                    Integer target = labels.get(instruction.getOperand(0));
+                    if (target == null)
+                        throw new RuntimeException("Undefined label '" + instruction.getOperand(0) + "' in method " + method.getName());
+                    int jump = target - offsets.get(i);
+                    if (jump < Short.MIN_VALUE || jump > Short.MAX_VALUE)
+                        throw new RuntimeException("Branch to '" + instruction.getOperand(0) + "' is too far in method " + method.getName());
+                    out.writeByte(opcode.code);
+                    out.writeShort(jump);
+                }
+                case CLASS, FIELD, METHOD -> {
+                    out.writeByte(opcode.code);
+                    out.writeShort(constant);
+                }
+                case INTERFACE_METHOD -> {
+                    out.writeByte(opcode.code);
+                    out.writeShort(constant);
+                    out.writeByte(Integer.parseInt(instruction.getOperand(1)));
+                    out.writeByte(0);
+                }
+                case ARRAY_TYPE -> {
+                    out.writeByte(opcode.code);
+                    out.writeByte(ARRAY_TYPES.get(instruction.getOperand(0)));
+                }
+                case IINC -> {
+                    int local = Integer.parseInt(instruction.getOperand(0));
+                    int amount = Integer.parseInt(instruction.getOperand(1));
+                    if (local > 255 || amount < Byte.MIN_VALUE || amount > Byte.MAX_VALUE) {
+                        out.writeByte(WIDE);
+                        out.writeByte(opcode.code);
+                        out.writeShort(local);
+                        out.writeShort(amount);
+                    } else {
+                        out.writeByte(opcode.code);
+                        out.writeByte(local);
+                        out.writeByte(amount);
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private Opcode opcode(JasminInstruction instruction, JasminClass.Method method) {
+        Opcode opcode = OPCODES.get(instruction.getOpcode());
+        if (opcode == null)
+            throw new RuntimeException("Unsupported instruction '" + instruction + "' in method " + method.getName());
+        return opcode;
+    }
+
+    private int size(JasminInstruction instruction, OperandKind kind, int constant) {
+        return switch (kind) {
+            case NONE -> 1;
+            case LOCAL -> Integer.parseInt(instruction.getOperand(0)) > 255 ? 4 : 2;
+            case BYTE, ARRAY_TYPE -> 2;
+            case SHORT, BRANCH, CLASS, FIELD, METHOD -> 3;
+            case CONSTANT -> constant > 255 ? 3 : 2;
+            case INTERFACE_METHOD -> 5;
+            case IINC -> {
+                int local = Integer.parseInt(instruction.getOperand(0));
+                int amount = Integer.parseInt(instruction.getOperand(1));
+                yield local > 255 || amount < Byte.MIN_VALUE || amount > Byte.MAX_VALUE ? 6 : 3;
+            }
+        };
+    }
+
+    private int constant(JasminInstruction instruction, OperandKind kind, ConstantPool pool) {
+        switch (kind) {
+            case CONSTANT -> {
+                String value = instruction.getOperand(0);
+                if (value.startsWith("\""))
+                    return pool.string(unquote(value));
+                return pool.integer(Integer.parseInt(value));
+            }
+            case CLASS -> {
+                return pool.classRef(instruction.getOperand(0));
+            }
+            case FIELD -> {
+                // "Owner/name descriptor"
+                String reference = instruction.getOperand(0);
+                int split = reference.lastIndexOf('/');
+                return pool.memberRef(9, reference.substring(0, split), reference.substring(split + 1), instruction.getOperand(1));
+            }
+            case METHOD, INTERFACE_METHOD -> {
+                // "Owner/name(arguments)return"
+                String reference = instruction.getOperand(0);
+                int descriptorStart = reference.indexOf('(');
+                int split = reference.lastIndexOf('/', descriptorStart);
+                return pool.memberRef(kind == OperandKind.METHOD ? 10 : 11, reference.substring(0, split),
+                        reference.substring(split + 1, descriptorStart), reference.substring(descriptorStart));
+            }
+            default -> {
+                return -1;
+            }
+        }
+    }
+
+    private static String unquote(String literal) {
+        String text = literal.substring(1, literal.length() - 1);
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                switch (next) {
+                    case 'n' -> res.append('\n');
+                    case 't' -> res.append('\t');
+                    case 'r' -> res.append('\r');
+                    default -> res.append(next);
+                }
+            } else {
+                res.append(c);
+            }
+        }
+        return res.toString();
+    }
+}
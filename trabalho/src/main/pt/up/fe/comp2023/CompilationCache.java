@@ -0,0 +1,190 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Disk cache of finished compilations, keyed by a SHA-256 of the source and of the options that change the output.
+ * Entries are written to a temporary file and moved into place, so readers (other batch workers or other processes
+ * sharing the folder) never see half of an entry. The folder is kept under a size limit by deleting the entries that
+ * were least recently used, using the modification time as the access time. The folder is only listed on the first
+ * write and when the running total of the bytes written goes over the limit; temporary files left behind by writes
+ * that were interrupted are deleted at the same time.
+ */
+public class CompilationCache {
+
+    public static final long DEFAULT_LIMIT = 64L * 1024 * 1024;
+
+    // Bump when the generated code changes, so entries from older compilers are not reused
+    private static final String VERSION = "2";
+    private static final String[] KEY_OPTIONS = {"optimize", "registerAllocation", "rotateLoops", "peephole", "debug", "backend"};
+    private static final String EXTENSION = ".json";
+    private static final String TEMPORARY = ".tmp";
+    // Older temporary files were left behind by interrupted writes; newer ones may still be being written
+    private static final long STALE_TEMPORARY_MS = 10 * 60 * 1000;
+
+    static class Entry {
+        String className;
+        String ollir;
+        String jasmin;
+        // Base64, only when the class file backend produced it
+        String classFile;
+        List<CompileServer.ReportEntry> reports = new ArrayList<>();
+    }
+
+    static Entry entryOf(List<Report> reports, String ollirCode, JasminResult jasminResult) {
+        Entry entry = new Entry();
+        for (Report report : reports) {
+            entry.reports.add(CompileServer.ReportEntry.of(report));
+        }
+        entry.ollir = ollirCode;
+        if (jasminResult != null) {
+            entry.className = jasminResult.getClassName();
+            entry.jasmin = jasminResult.getJasminCode();
+            if (jasminResult instanceof ClassFileBackend.ClassFileResult)
+                entry.classFile = Base64.getEncoder().encodeToString(((ClassFileBackend.ClassFileResult) jasminResult).getClassFile());
+        }
+        return entry;
+    }
+
+    /**
+     * The warning for an entry that could not be written. The cache is only an accelerator, so a failed write must not
+     * fail the compilation.
+     */
+    static Report failedWrite(String key, IOException e) {
+        return new Report(ReportType.WARNING, Stage.OTHER, -1, "Could not write cache entry " + key + ": " + e.getMessage());
+    }
+
+    private final Path folder;
+    private final long limit;
+    private final Gson gson = new Gson();
+    // Bytes in the folder at the last listing plus the ones written since, -1 before the first listing. Entries written
+    // by other processes sharing the folder are only counted at the next listing.
+    private long size = -1;
+
+    public CompilationCache(File folder, long limit) {
+        this.folder = folder.toPath();
+        this.limit = limit;
+        try {
+            Files.createDirectories(this.folder);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create cache folder '" + folder + "'", e);
+        }
+    }
+
+    public static String key(String code, Map<String, String> config) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+            for (String option : KEY_OPTIONS) {
+                digest.update((byte) 0);
+                digest.update(String.valueOf(config.get(option)).getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+            digest.update(code.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns null when there is no usable entry for the key.
+     */
+    public Entry get(String key) {
+        Path file = folder.resolve(key + EXTENSION);
+        try {
+            Entry entry = gson.fromJson(Files.readString(file), Entry.class);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (IOException | JsonParseException e) {
+            // Missing, evicted meanwhile or unreadable: all of them are just misses
+            return null;
+        }
+    }
+
+    public void put(String key, Entry entry) throws IOException {
+        Path file = folder.resolve(key + EXTENSION);
+        byte[] json = gson.toJson(entry).getBytes(StandardCharsets.UTF_8);
+        Path temp = Files.createTempFile(folder, key, TEMPORARY);
+        try {
+            Files.write(temp, json);
+            // 0 when there is no entry to replace
+            long replaced = file.toFile().length();
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            written(json.length - replaced);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private synchronized void written(long bytes) {
+        if (size >= 0)
+            size += bytes;
+        if (size < 0 || size > limit)
+            evict();
+    }
+
+    private void evict() {
+        // Times are read once, since other workers keep touching entries while they are sorted
+        Map<Path, Long> lastUsed = new HashMap<>();
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        long stale = System.currentTimeMillis() - STALE_TEMPORARY_MS;
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(TEMPORARY) && file.toFile().lastModified() < stale) {
+                    file.toFile().delete();
+                } else if (file.getFileName().toString().endsWith(EXTENSION)) {
+                    entries.add(file);
+                    lastUsed.put(file, file.toFile().lastModified());
+                    total += file.toFile().length();
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        if (total > limit) {
+            entries.sort(Comparator.comparingLong(lastUsed::get));
+            for (Path file : entries) {
+                if (total <= limit)
+                    break;
+                long length = file.toFile().length();
+                if (file.toFile().delete())
+                    total -= length;
+            }
+        }
+        size = total;
+    }
+}
@@ -0,0 +1,101 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.Gson;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thin client for {@link CompileServer}: sends every input file over a single connection and prints what comes back.
+ * When an output folder is given, the class files the server sends are written there (or assembled locally from the
+ * Jasmin text, with the jasmin backend).
+ */
+public class CompileClient {
+
+    private final int port;
+    private final Gson gson = new Gson();
+
+    public CompileClient(int port) {
+        this.port = port;
+    }
+
+    public int compile(List<File> files, Map<String, String> config, File outputDir) throws IOException {
+        int failed = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            for (File file : files) {
+                CompileServer.Request request = new CompileServer.Request();
+                request.code = SpecsIo.read(file);
+                request.config = config;
+                out.println(gson.toJson(request));
+
+                String line = in.readLine();
+                if (line == null)
+                    throw new IOException("Compile server closed the connection");
+
+                CompileServer.Response response = gson.fromJson(line, CompileServer.Response.class);
+                if (!response.success)
+                    failed++;
+                print(file, response, files.size() == 1, outputDir);
+            }
+        }
+
+        if (files.size() > 1)
+            System.out.println((files.size() - failed) + "/" + files.size() + " files compiled successfully.");
+        return failed;
+    }
+
+    public void shutdownServer() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            CompileServer.Request request = new CompileServer.Request();
+            request.shutdown = true;
+            out.println(gson.toJson(request));
+        }
+    }
+
+    private void print(File file, CompileServer.Response response, boolean showCode, File outputDir) {
+        System.out.println((response.success ? "[OK] " : "[FAILED] ") + file.getPath());
+        for (CompileServer.ReportEntry report : response.reports) {
+            System.out.println("    " + report.toReport());
+        }
+
+        if (showCode && response.ollir != null) {
+            System.out.println("Ollir code:");
+            System.out.println(response.ollir);
+        }
+        if (showCode && response.jasmin != null) {
+            System.out.println("Jasmin code:");
+            System.out.println(response.jasmin);
+        }
+        if (response.success && outputDir != null) {
+            File classFile = response.classFile != null ? write(response, outputDir) : BatchCompiler.assemble(response.className, response.jasmin, outputDir);
+            System.out.println("    -> " + classFile.getPath());
+        }
+    }
+
+    private File write(CompileServer.Response response, File outputDir) {
+        File classFile = new File(outputDir, response.className + ".class");
+        try {
+            Files.createDirectories(outputDir.toPath());
+            Files.write(classFile.toPath(), Base64.getDecoder().decode(response.classFile));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write class file " + classFile, e);
+        }
+        return classFile;
+    }
+}
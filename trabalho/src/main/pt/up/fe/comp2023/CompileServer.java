@@ -0,0 +1,191 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Long-lived compiler that keeps the JVM, the JIT and the ANTLR caches warm between compilations. It listens on the
+ * loopback interface only and speaks one JSON object per line: the client sends a {@link Request} and gets back a
+ * {@link Response} for each one, on the same connection. Each connection has its own thread, but only as many
+ * compilations as there are worker threads run at once, so idle clients never hold a worker; a connection that
+ * stays idle for IDLE_TIMEOUT_MS is closed.
+ */
+public class CompileServer {
+
+    public static final int DEFAULT_PORT = 5757;
+    public static final int IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    static class Request {
+        String code;
+        Map<String, String> config;
+        boolean shutdown;
+    }
+
+    static class Response {
+        boolean success;
+        String ollir;
+        String jasmin;
+        String className;
+        // Base64, only when the class file backend produced it
+        String classFile;
+        List<ReportEntry> reports = new ArrayList<>();
+    }
+
+    static class ReportEntry {
+        String type;
+        String stage;
+        int line;
+        int column;
+        String message;
+
+        static ReportEntry of(Report report) {
+            ReportEntry entry = new ReportEntry();
+            entry.type = report.getType().name();
+            entry.stage = report.getStage().name();
+            entry.line = report.getLine();
+            entry.column = report.getColumn();
+            entry.message = report.getMessage();
+            return entry;
+        }
+
+        Report toReport() {
+            return new Report(ReportType.valueOf(type), Stage.valueOf(stage), line, column, message);
+        }
+    }
+
+    private final int port;
+    private final CompilationCache cache;
+    private final Semaphore workers;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final Gson gson = new Gson();
+    private volatile boolean running;
+
+    public CompileServer(int port, int numThreads, CompilationCache cache) {
+        this.port = port;
+        this.cache = cache;
+        this.workers = new Semaphore(Math.max(1, numThreads), true);
+    }
+
+    public void run() throws IOException {
+        JmmCompiler.prepareConcurrentUse();
+        ExecutorService connections = Executors.newCachedThreadPool();
+        running = true;
+
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Compile server listening on " + serverSocket.getLocalSocketAddress());
+            while (running) {
+                Socket socket = serverSocket.accept();
+                socket.setSoTimeout(IDLE_TIMEOUT_MS);
+                open.add(socket);
+                connections.submit(() -> serve(socket, serverSocket));
+            }
+        } catch (IOException e) {
+            // Closing the socket is how a shutdown request stops accept()
+            if (running)
+                throw e;
+        } finally {
+            // Threads blocked reading from a client only notice the shutdown when their socket is closed
+            connections.shutdownNow();
+            for (Socket socket : open) {
+                socket.close();
+            }
+        }
+    }
+
+    private void serve(Socket socket, ServerSocket serverSocket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+
+                Request request;
+                try {
+                    request = gson.fromJson(line, Request.class);
+                } catch (JsonParseException e) {
+                    out.println(gson.toJson(failure("Malformed request: " + e.getMessage())));
+                    continue;
+                }
+                if (request == null) {
+                    out.println(gson.toJson(failure("Malformed request: expected a JSON object")));
+                    continue;
+                }
+                if (request.shutdown) {
+                    running = false;
+                    serverSocket.close();
+                    return;
+                }
+                out.println(gson.toJson(compile(request)));
+            }
+        } catch (IOException e) {
+            if (running)
+                System.err.println("Compile server connection closed: " + e.getMessage());
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    private Response compile(Request request) {
+        Map<String, String> config = request.config == null ? new HashMap<>() : new HashMap<>(request.config);
+        Response response = new Response();
+
+        // Anything that goes wrong becomes an error report, so the connection stays open for the next request
+        try {
+            workers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failure("Compile server is shutting down");
+        }
+        try {
+            JmmCompiler.Result result = new JmmCompiler(cache).compile(request.code == null ? "" : request.code, config);
+            response.ollir = result.getOllirCode();
+            if (result.getJasminResult() != null) {
+                response.jasmin = result.getJasminResult().getJasminCode();
+                response.className = result.getJasminResult().getClassName();
+                if (result.getJasminResult() instanceof ClassFileBackend.ClassFileResult)
+                    response.classFile = Base64.getEncoder().encodeToString(((ClassFileBackend.ClassFileResult) result.getJasminResult()).getClassFile());
+            }
+            for (Report report : result.getReports()) {
+                response.reports.add(ReportEntry.of(report));
+            }
+            response.success = result.isSuccess();
+        } catch (RuntimeException e) {
+            return failure("Compilation crashed: " + e);
+        } finally {
+            workers.release();
+        }
+        return response;
+    }
+
+    private static Response failure(String message) {
+        Response response = new Response();
+        response.reports.add(ReportEntry.of(new Report(ReportType.ERROR, Stage.OTHER, -1, -1, message)));
+        return response;
+    }
+}
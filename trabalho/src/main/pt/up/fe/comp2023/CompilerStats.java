@@ -0,0 +1,201 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-compilation metrics: wall time, CPU time and allocated bytes of each phase, plus counters filled in by the
+ * stages (AST nodes, temporaries, interference graph sizes...). Stats are attached to the thread running the
+ * compilation, so the stages can record into them without changing their interfaces; when no stats are active every
+ * call is a no-op. Each finished phase is also committed as a JFR event.
+ */
+public class CompilerStats {
+
+    private static final ThreadLocal<CompilerStats> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @Name("pt.up.fe.comp2023.Phase")
+    @Label("Jmm Compiler Phase")
+    @Category("Jmm Compiler")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("CPU Time")
+        @Timespan
+        long cpuTime;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    public static class Phase {
+        private final String name;
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        Phase(String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.name = name;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    /**
+     * A phase that is being measured. Obtained from {@link #start(String)} and finished with {@link #stop()}.
+     */
+    public static class Timer {
+        private final CompilerStats stats;
+        private final String name;
+        private final PhaseEvent event;
+        private final long wallStart;
+        private final long cpuStart;
+        private final long allocatedStart;
+
+        private Timer(CompilerStats stats, String name) {
+            this.stats = stats;
+            this.name = name;
+            this.event = new PhaseEvent();
+            this.event.begin();
+            this.wallStart = System.nanoTime();
+            this.cpuStart = cpuTime();
+            this.allocatedStart = allocatedBytes();
+        }
+
+        public void stop() {
+            long wall = System.nanoTime() - wallStart;
+            long cpu = cpuTime() - cpuStart;
+            long allocated = allocatedBytes() - allocatedStart;
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.cpuTime = cpu;
+                event.allocated = allocated;
+                event.commit();
+            }
+            stats.add(new Phase(name, wall, cpu, allocated));
+        }
+    }
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    /**
+     * Makes these stats the ones recorded into by the current thread, until {@link #detach()}.
+     */
+    public void attach() {
+        CURRENT.set(this);
+    }
+
+    public void detach() {
+        CURRENT.remove();
+    }
+
+    public static CompilerStats current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Starts measuring a phase on the current thread. Returns null when no stats are active, which
+     * {@link #stop(Timer)} accepts.
+     */
+    public static Timer start(String phase) {
+        CompilerStats stats = CURRENT.get();
+        return stats == null ? null : new Timer(stats, phase);
+    }
+
+    public static void stop(Timer timer) {
+        if (timer != null)
+            timer.stop();
+    }
+
+    public static void count(String counter, long amount) {
+        CompilerStats stats = CURRENT.get();
+        if (stats != null)
+            stats.increment(counter, amount);
+    }
+
+    public synchronized void add(Phase phase) {
+        phases.add(phase);
+    }
+
+    public synchronized void increment(String counter, long amount) {
+        counters.merge(counter, amount, Long::sum);
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    public JsonElement toJsonTree() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("phases", getPhases());
+        summary.put("counters", getCounters());
+        return new Gson().toJsonTree(summary);
+    }
+
+    public String toJson() {
+        return new GsonBuilder().setPrettyPrinting().create().toJson(toJsonTree());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder();
+        res.append(String.format("%-40s %12s %12s %14s%n", "phase", "wall (ms)", "cpu (ms)", "alloc (KiB)"));
+        for (Phase phase : getPhases()) {
+            res.append(String.format("%-40s %12.3f %12.3f %14d%n", phase.name, phase.wallNanos / 1e6, phase.cpuNanos / 1e6, phase.allocatedBytes / 1024));
+        }
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            res.append(String.format("%-40s %12d%n", counter.getKey(), counter.getValue()));
+        }
+        return res.toString();
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+}
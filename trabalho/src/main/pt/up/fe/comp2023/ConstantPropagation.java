@@ -0,0 +1,289 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) on the SSA form of a method. Values start unknown and
+ * only go down, to a constant and then to not constant, and an instruction is only evaluated once an edge into it is
+ * known to execute, so constants flow through branches and loops and the arms of a branch on a constant are never
+ * reached. Each SSA edge and CFG edge is processed a bounded number of times.
+ * apply() then writes the constants into the uses, folds the instructions that compute one, and turns the branches on
+ * a constant into a goto or removes them.
+ */
+public class ConstantPropagation {
+
+    // Lattice values: an int constant, or one of these two outside the int range
+    private static final long TOP = Long.MIN_VALUE;
+    private static final long BOTTOM = Long.MAX_VALUE;
+
+    private final Method method;
+    private final SsaForm ssa;
+    private final DominatorTree dominators;
+    private final long[] values;
+    private final boolean[] reached;
+    private final Set<Long> executable = new HashSet<>();
+    private final Deque<Long> flow_worklist = new ArrayDeque<>();
+    private final Deque<Integer> ssa_worklist = new ArrayDeque<>();
+
+    public ConstantPropagation(Method method) {
+        this(new SsaForm(method));
+    }
+
+    public ConstantPropagation(SsaForm ssa) {
+        this.method = ssa.getMethod();
+        this.ssa = ssa;
+        this.dominators = ssa.getDominators();
+        this.values = new long[ssa.numValues()];
+        this.reached = new boolean[dominators.numInstructions()];
+        Arrays.fill(values, TOP);
+        // Parameters and locals read before being assigned could hold anything
+        for (int v = 0; v < ssa.numVariables(); v++) {
+            values[v] = BOTTOM;
+        }
+        solve();
+    }
+
+    /**
+     * Whether an instruction can execute, as far as the constants tell.
+     */
+    public boolean isReachable(int instruction) {
+        return reached[instruction];
+    }
+
+    public boolean isConstant(int value) {
+        return values[value] != TOP && values[value] != BOTTOM;
+    }
+
+    public int getConstant(int value) {
+        return (int) values[value];
+    }
+
+    private long edge(int from, int to) {
+        return (long) (from + 1) * (reached.length + 1) + to;
+    }
+
+    private boolean isExecutable(int from, int to) {
+        return executable.contains(edge(from, to));
+    }
+
+    private void solve() {
+        if (reached.length == 0)
+            return;
+        flow_worklist.add(edge(-1, 0));
+        int visits = 0;
+        while (!flow_worklist.isEmpty() || !ssa_worklist.isEmpty()) {
+            while (!flow_worklist.isEmpty()) {
+                long edge = flow_worklist.poll();
+                if (!executable.add(edge))
+                    continue;
+                int to = (int) (edge % (reached.length + 1));
+                for (int phi : ssa.getPhis(to)) {
+                    visit_phi(phi);
+                }
+                if (!reached[to]) {
+                    reached[to] = true;
+                    visit(to);
+                    visits++;
+                }
+            }
+            while (!ssa_worklist.isEmpty()) {
+                int value = ssa_worklist.poll();
+                for (int phi : ssa.getPhiUsers(value)) {
+                    if (reached[ssa.getInstruction(phi)])
+                        visit_phi(phi);
+                }
+                for (int user : ssa.getUsers(value)) {
+                    if (reached[user]) {
+                        visit(user);
+                        visits++;
+                    }
+                }
+            }
+        }
+        CompilerStats.count("sccp.visits", visits);
+    }
+
+    private static long meet(long a, long b) {
+        if (a == TOP)
+            return b;
+        if (b == TOP || a == b)
+            return a;
+        return BOTTOM;
+    }
+
+    private void lower(int value, long result) {
+        long lowered = meet(values[value], result);
+        if (lowered != values[value]) {
+            values[value] = lowered;
+            ssa_worklist.add(value);
+        }
+    }
+
+    private void visit_phi(int phi) {
+        int instruction = ssa.getInstruction(phi);
+        int[] predecessors = dominators.getPredecessors(instruction);
+        int[] operands = ssa.getPhiOperands(phi);
+        long result = TOP;
+        for (int k = 0; k < operands.length; k++) {
+            int from = k < predecessors.length ? predecessors[k] : -1;
+            if (operands[k] != -1 && isExecutable(from, instruction))
+                result = meet(result, values[operands[k]]);
+        }
+        lower(phi, result);
+    }
+
+    private void visit(int i) {
+        Instruction instruction = dominators.getInstruction(i);
+        if (instruction instanceof AssignInstruction assign) {
+            int def = ssa.getDefinedValue(i);
+            if (def != -1)
+                lower(def, evaluate(i, assign.getRhs()));
+        } else if (instruction instanceof CondBranchInstruction branch) {
+            long condition = evaluate(i, branch.getCondition());
+            if (condition == TOP)
+                return;
+            if (condition != BOTTOM) {
+                int target = condition != 0 ? label_target(branch) : i + 1;
+                if (target < reached.length)
+                    flow_worklist.add(edge(i, target));
+                return;
+            }
+        }
+        for (int s : dominators.getSuccessors(i)) {
+            flow_worklist.add(edge(i, s));
+        }
+    }
+
+    private int label_target(CondBranchInstruction branch) {
+        return dominators.indexOf(method.getLabels().get(branch.getLabel()));
+    }
+
+    private long evaluate(int i, Element element) {
+        if (element.isLiteral()) {
+            ElementType type = element.getType().getTypeOfElement();
+            if (type != ElementType.INT32 && type != ElementType.BOOLEAN)
+                return BOTTOM;
+            try {
+                return Integer.parseInt(((LiteralElement) element).getLiteral());
+            } catch (NumberFormatException e) {
+                return BOTTOM;
+            }
+        }
+        if (element instanceof ArrayOperand || !(element instanceof Operand operand))
+            return BOTTOM;
+        if (element.getType().getTypeOfElement() == ElementType.BOOLEAN && !method.getVarTable().containsKey(operand.getName())
+                && (operand.getName().equals("true") || operand.getName().equals("false")))
+            return operand.getName().equals("true") ? 1 : 0;
+        int value = ssa.getUse(i, operand.getName());
+        return value == -1 ? BOTTOM : values[value];
+    }
+
+    private long evaluate(int i, Instruction instruction) {
+        if (instruction instanceof SingleOpInstruction single)
+            return evaluate(i, single.getSingleOperand());
+        if (instruction instanceof UnaryOpInstruction unary) {
+            long operand = evaluate(i, unary.getOperand());
+            OperationType operation = unary.getOperation().getOpType();
+            if (operand == TOP || operand == BOTTOM)
+                return operand;
+            return operation == OperationType.NOTB || operation == OperationType.NOT ? (operand == 0 ? 1 : 0) : BOTTOM;
+        }
+        if (instruction instanceof BinaryOpInstruction binary) {
+            long left = evaluate(i, binary.getLeftOperand());
+            long right = evaluate(i, binary.getRightOperand());
+            if (left == BOTTOM || right == BOTTOM)
+                return BOTTOM;
+            if (left == TOP || right == TOP)
+                return TOP;
+            return compute(binary.getOperation().getOpType(), (int) left, (int) right);
+        }
+        return BOTTOM;
+    }
+
+    private static long compute(OperationType operation, int left, int right) {
+        return switch (operation) {
+            case ADD -> left + right;
+            case SUB -> left - right;
+            case MUL -> left * right;
+            case DIV -> right == 0 ? BOTTOM : left / right;
+            case LTH -> left < right ? 1 : 0;
+            case GTH -> left > right ? 1 : 0;
+            case LTE -> left <= right ? 1 : 0;
+            case GTE -> left >= right ? 1 : 0;
+            case EQ -> left == right ? 1 : 0;
+            case NEQ -> left != right ? 1 : 0;
+            case AND, ANDB -> left & right;
+            case OR, ORB -> left | right;
+            default -> BOTTOM;
+        };
+    }
+
+    /**
+     * Rewrites the method with the constants found, and rebuilds its CFG. Returns the number of instructions changed.
+     */
+    public int apply() {
+        MethodEditor editor = new MethodEditor(method);
+        int operands = 0, folded = 0, branches = 0;
+        for (int i = 0; i < reached.length; i++) {
+            if (!reached[i])
+                continue;
+            Instruction instruction = dominators.getInstruction(i);
+            int node = i;
+            operands += MethodEditor.replaceOperands(instruction, element -> substituted(node, element));
+
+            if (instruction instanceof AssignInstruction assign) {
+                Element dest = assign.getDest();
+                int def = ssa.getDefinedValue(i);
+                if (def != -1 && isConstant(def) && !(assign.getRhs() instanceof SingleOpInstruction single && single.getSingleOperand().isLiteral())) {
+                    editor.replace(i, OllirBuilder.assign(dest, OllirBuilder.single(literal(getConstant(def), dest.getType()))));
+                    folded++;
+                } else if (dest instanceof ArrayOperand array && !array.getIndexOperands().isEmpty()) {
+                    Element index = constant_or_self(i, array.getIndexOperands().get(0));
+                    if (index != array.getIndexOperands().get(0))
+                        editor.replace(i, new AssignInstruction(MethodEditor.withIndex(array, index), assign.getTypeOfAssign(), assign.getRhs()));
+                }
+            } else if (instruction instanceof CondBranchInstruction branch) {
+                long condition = evaluate(i, branch.getCondition());
+                if (condition != TOP && condition != BOTTOM) {
+                    if (condition != 0)
+                        editor.replace(i, OllirBuilder.jump(branch.getLabel()));
+                    else
+                        editor.remove(i);
+                    branches++;
+                }
+            }
+        }
+        CompilerStats.count("sccp.constantOperands", operands);
+        CompilerStats.count("sccp.foldedInstructions", folded);
+        CompilerStats.count("sccp.foldedBranches", branches);
+        return editor.apply() + operands;
+    }
+
+    private static LiteralElement literal(int value, Type type) {
+        if (type.getTypeOfElement() == ElementType.BOOLEAN)
+            return OllirBuilder.literal(value != 0);
+        return OllirBuilder.literal(value);
+    }
+
+    /**
+     * The literal a use of a variable can be replaced with, or the element itself.
+     */
+    private Element constant_or_self(int i, Element element) {
+        if (element.isLiteral() || element instanceof ArrayOperand || !(element instanceof Operand operand))
+            return element;
+        int value = ssa.getUse(i, operand.getName());
+        if (value == -1 || !isConstant(value))
+            return element;
+        return literal(getConstant(value), element.getType());
+    }
+
+    private Element substituted(int i, Element element) {
+        if (element instanceof ArrayOperand array && !array.getIndexOperands().isEmpty()) {
+            Element index = constant_or_self(i, array.getIndexOperands().get(0));
+            return index == array.getIndexOperands().get(0) ? element : MethodEditor.withIndex(array, index);
+        }
+        return constant_or_self(i, element);
+    }
+}
@@ -0,0 +1,114 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Removes the instructions the entry of a method can't reach, like the arms of a branch ConstantPropagation folded,
+ * and the assignments to locals whose value is never needed. Needed values are found by marking on the SSA form
+ * (built on the liveness of the method): the instructions that have an effect need the values they use, and an
+ * assignment or phi that makes a needed value needs its own operands. Chains of dead temporaries go in one pass.
+ * Gotos left jumping to the instruction that follows them anyway go too.
+ */
+public class DeadCodeElimination {
+
+    private final Method method;
+    private final SsaForm ssa;
+    private final DominatorTree dominators;
+
+    public DeadCodeElimination(Method method) {
+        this(new SsaForm(method));
+    }
+
+    public DeadCodeElimination(SsaForm ssa) {
+        this.method = ssa.getMethod();
+        this.ssa = ssa;
+        this.dominators = ssa.getDominators();
+    }
+
+    /**
+     * Removes the dead instructions and rebuilds the CFG. Returns the number of instructions removed.
+     */
+    public int apply() {
+        int n = dominators.numInstructions();
+        boolean[] needed = new boolean[n];
+        boolean[] needed_values = new boolean[ssa.numValues()];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (dominators.isReachable(i) && !isRemovable(method, dominators.getInstruction(i))) {
+                needed[i] = true;
+                for (int value : ssa.getUses(i))
+                    worklist.add(value);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            int value = worklist.poll();
+            if (needed_values[value])
+                continue;
+            needed_values[value] = true;
+            if (ssa.isPhi(value)) {
+                for (int operand : ssa.getPhiOperands(value)) {
+                    if (operand != -1)
+                        worklist.add(operand);
+                }
+            } else if (ssa.getInstruction(value) != -1 && !needed[ssa.getInstruction(value)]) {
+                needed[ssa.getInstruction(value)] = true;
+                for (int operand : ssa.getUses(ssa.getInstruction(value)))
+                    worklist.add(operand);
+            }
+        }
+
+        MethodEditor editor = new MethodEditor(method);
+        int unreachable = 0, dead = 0, jumps = 0;
+        // Backwards, so a goto knows the first instruction left after it and after its target
+        int[] next_kept = new int[n + 1];
+        next_kept[n] = -1;
+        for (int i = n - 1; i >= 0; i--) {
+            Instruction instruction = dominators.getInstruction(i);
+            if (!dominators.isReachable(i)) {
+                editor.remove(i);
+                unreachable++;
+            } else if (!needed[i]) {
+                editor.remove(i);
+                dead++;
+            } else if (instruction instanceof GotoInstruction jump) {
+                int target = dominators.indexOf(method.getLabels().get(jump.getLabel()));
+                if (target > i && next_kept[target] != -1 && next_kept[target] == next_kept[i + 1]) {
+                    editor.remove(i);
+                    jumps++;
+                }
+            }
+            next_kept[i] = editor.isRemoved(i) ? next_kept[i + 1] : i;
+        }
+        CompilerStats.count("dce.unreachable", unreachable);
+        CompilerStats.count("dce.dead", dead);
+        CompilerStats.count("dce.jumps", jumps);
+        return editor.apply();
+    }
+
+    /**
+     * Whether an instruction only assigns a local, so it can go when the local isn't needed. Calls, stores and
+     * anything that can throw (array accesses, divisions that aren't by a non-zero literal) stay.
+     */
+    static boolean isRemovable(Method method, Instruction instruction) {
+        if (!(instruction instanceof AssignInstruction assign))
+            return false;
+        Element dest = assign.getDest();
+        if (dest instanceof ArrayOperand || !(dest instanceof Operand operand) || !RegisterAllocator.isAllocatable(method, operand.getName()))
+            return false;
+        Instruction rhs = assign.getRhs();
+        if (rhs instanceof SingleOpInstruction single)
+            return !(single.getSingleOperand() instanceof ArrayOperand);
+        if (rhs instanceof UnaryOpInstruction unary)
+            return !(unary.getOperand() instanceof ArrayOperand);
+        if (rhs instanceof BinaryOpInstruction binary) {
+            if (binary.getLeftOperand() instanceof ArrayOperand || binary.getRightOperand() instanceof ArrayOperand)
+                return false;
+            if (binary.getOperation().getOpType() == OperationType.DIV)
+                return binary.getRightOperand().isLiteral() && !((LiteralElement) binary.getRightOperand()).getLiteral().equals("0");
+            return true;
+        }
+        return rhs instanceof GetFieldInstruction;
+    }
+}
@@ -0,0 +1,274 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Dominator tree and dominance frontiers of a method, on its CFG (Method.buildCFGs must have run). Nodes are the
+ * instructions, numbered by their position in the method, and the first instruction is the entry. Immediate dominators
+ * are found with the iterative algorithm of Cooper, Harvey and Kennedy over reverse postorder. Instructions the entry
+ * doesn't reach have no dominator and are in no frontier.
+ */
+public class DominatorTree {
+
+    private final List<Instruction> instructions;
+    private final Map<Node, Integer> indexes = new IdentityHashMap<>();
+    private final int[][] predecessors;
+    private final int[][] successors;
+    private final int[] reverse_postorder;
+    private final int[] order_number;
+    private final int[] idom;
+    private final int[][] children;
+    private final int[][] frontiers;
+    // Preorder number and last preorder number in the subtree, for constant time dominance checks
+    private final int[] first;
+    private final int[] last;
+
+    public DominatorTree(Method method) {
+        this.instructions = method.getInstructions();
+        int n = instructions.size();
+        for (int i = 0; i < n; i++) {
+            indexes.put(instructions.get(i), i);
+        }
+        predecessors = new int[n][];
+        successors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            predecessors[i] = instruction_indexes(instructions.get(i).getPredecessors());
+            successors[i] = instruction_indexes(instructions.get(i).getSuccessors());
+        }
+
+        reverse_postorder = reverse_postorder();
+        order_number = new int[n];
+        Arrays.fill(order_number, -1);
+        for (int k = 0; k < reverse_postorder.length; k++) {
+            order_number[reverse_postorder[k]] = k;
+        }
+
+        idom = new int[n];
+        Arrays.fill(idom, -1);
+        solve();
+        children = children();
+        frontiers = frontiers();
+        first = new int[n];
+        last = new int[n];
+        number_tree();
+    }
+
+    public int numInstructions() {
+        return instructions.size();
+    }
+
+    public Instruction getInstruction(int index) {
+        return instructions.get(index);
+    }
+
+    public int indexOf(Instruction instruction) {
+        return indexes.get(instruction);
+    }
+
+    public int[] getPredecessors(int instruction) {
+        return predecessors[instruction];
+    }
+
+    /**
+     * Successors of an instruction, without the end node.
+     */
+    public int[] getSuccessors(int instruction) {
+        return successors[instruction];
+    }
+
+    public boolean isReachable(int instruction) {
+        return order_number[instruction] != -1;
+    }
+
+    /**
+     * The reachable instructions in reverse postorder, the entry first.
+     */
+    public int[] getReversePostorder() {
+        return reverse_postorder;
+    }
+
+    /**
+     * Immediate dominator of an instruction, -1 for the entry and for unreachable instructions.
+     */
+    public int getImmediateDominator(int instruction) {
+        return idom[instruction];
+    }
+
+    public int[] getChildren(int instruction) {
+        return children[instruction];
+    }
+
+    public int[] getFrontier(int instruction) {
+        return frontiers[instruction];
+    }
+
+    /**
+     * Whether a dominates b. Every reachable instruction dominates itself.
+     */
+    public boolean dominates(int a, int b) {
+        if (!isReachable(a) || !isReachable(b))
+            return false;
+        return first[a] <= first[b] && first[b] <= last[a];
+    }
+
+    private int[] reverse_postorder() {
+        int n = instructions.size();
+        if (n == 0)
+            return new int[0];
+        int[] order = new int[n];
+        int count = 0;
+        boolean[] seen = new boolean[n];
+        int[] nodes = new int[n];
+        int[] next_successor = new int[n];
+        int size = 0;
+        nodes[size++] = 0;
+        seen[0] = true;
+        while (size > 0) {
+            int node = nodes[size - 1];
+            if (next_successor[node] < successors[node].length) {
+                int successor = successors[node][next_successor[node]++];
+                if (!seen[successor]) {
+                    seen[successor] = true;
+                    nodes[size++] = successor;
+                }
+            } else {
+                size--;
+                order[count++] = node;
+            }
+        }
+        int[] res = new int[count];
+        for (int k = 0; k < count; k++) {
+            res[k] = order[count - 1 - k];
+        }
+        return res;
+    }
+
+    private void solve() {
+        if (reverse_postorder.length == 0)
+            return;
+        int entry = reverse_postorder[0];
+        idom[entry] = entry;
+        boolean changed = true;
+        int passes = 0;
+        while (changed) {
+            changed = false;
+            passes++;
+            for (int k = 1; k < reverse_postorder.length; k++) {
+                int node = reverse_postorder[k];
+                int new_idom = -1;
+                for (int p : predecessors[node]) {
+                    if (idom[p] == -1)
+                        continue;
+                    new_idom = new_idom == -1 ? p : intersect(p, new_idom);
+                }
+                if (idom[node] != new_idom) {
+                    idom[node] = new_idom;
+                    changed = true;
+                }
+            }
+        }
+        idom[entry] = -1;
+        CompilerStats.count("dominators.passes", passes);
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (order_number[a] > order_number[b])
+                a = idom[a];
+            while (order_number[b] > order_number[a])
+                b = idom[b];
+        }
+        return a;
+    }
+
+    private int[][] children() {
+        int n = instructions.size();
+        int[] counts = new int[n];
+        for (int node = 0; node < n; node++) {
+            if (idom[node] != -1)
+                counts[idom[node]]++;
+        }
+        int[][] res = new int[n][];
+        for (int node = 0; node < n; node++) {
+            res[node] = new int[counts[node]];
+            counts[node] = 0;
+        }
+        // In reverse postorder, so the tree is walked in roughly program order
+        for (int node : reverse_postorder) {
+            if (idom[node] != -1)
+                res[idom[node]][counts[idom[node]]++] = node;
+        }
+        return res;
+    }
+
+    private int[][] frontiers() {
+        int n = instructions.size();
+        List<List<Integer>> sets = new ArrayList<>(n);
+        for (int node = 0; node < n; node++) {
+            sets.add(new ArrayList<>());
+        }
+        for (int node : reverse_postorder) {
+            // The entry is also reached from the begin node
+            int joins = predecessors[node].length + (node == reverse_postorder[0] ? 1 : 0);
+            if (joins < 2)
+                continue;
+            for (int p : predecessors[node]) {
+                // The frontier of every node from the predecessor up to the join's dominator includes the join
+                int runner = p;
+                while (isReachable(runner) && runner != idom[node]) {
+                    List<Integer> frontier = sets.get(runner);
+                    if (frontier.isEmpty() || frontier.get(frontier.size() - 1) != node)
+                        frontier.add(node);
+                    if (idom[runner] == -1)
+                        break;
+                    runner = idom[runner];
+                }
+            }
+        }
+        int[][] res = new int[n][];
+        for (int node = 0; node < n; node++) {
+            List<Integer> frontier = sets.get(node);
+            res[node] = new int[frontier.size()];
+            for (int k = 0; k < frontier.size(); k++) {
+                res[node][k] = frontier.get(k);
+            }
+        }
+        return res;
+    }
+
+    private void number_tree() {
+        if (reverse_postorder.length == 0)
+            return;
+        int n = instructions.size();
+        int[] nodes = new int[n];
+        int[] next_child = new int[n];
+        int size = 0;
+        int count = 0;
+        nodes[size++] = reverse_postorder[0];
+        first[reverse_postorder[0]] = count++;
+        while (size > 0) {
+            int node = nodes[size - 1];
+            if (next_child[node] < children[node].length) {
+                int child = children[node][next_child[node]++];
+                first[child] = count++;
+                nodes[size++] = child;
+            } else {
+                last[node] = count - 1;
+                size--;
+            }
+        }
+    }
+
+    private int[] instruction_indexes(List<Node> nodes) {
+        int[] res = new int[nodes.size()];
+        int count = 0;
+        for (Node node : nodes) {
+            Integer index = indexes.get(node);
+            if (index != null)
+                res[count++] = index;
+        }
+        return count == res.length ? res : Arrays.copyOf(res, count);
+    }
+}
@@ -0,0 +1,288 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.specs.util.SpecsIo;
+import pt.up.fe.specs.util.system.ProcessOutputAsString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs compiled programs inside the current JVM instead of spawning "java" for each one. The program and the runtime
+ * classes (libs-jmm/compiled) are loaded by a fresh class loader that only sees the platform classes, so every run
+ * starts from clean static state and cannot reach the compiler. System.out, System.err and System.in are routed per
+ * thread, so the output of concurrent runs is captured separately (and still echoed to the console, like the process
+ * runner does).
+ *
+ * A program that calls System.exit (io.read does on bad input) would stop the whole JVM, and one that is still running
+ * after the timeout can only be abandoned, not killed; the "fork" option keeps the old behaviour for those cases.
+ */
+public class InProcessRunner {
+
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    private static final InheritableThreadLocal<Capture> CAPTURE = new InheritableThreadLocal<>();
+    private static PrintStream routedOut;
+    private static PrintStream routedErr;
+    private static InputStream routedIn;
+
+    /**
+     * JasminResult whose run methods go through an InProcessRunner, unless the config sets "fork" to "true". The
+     * "runTimeout" option gives the timeout in milliseconds.
+     */
+    public static class Result extends JasminResult {
+
+        public Result(OllirResult ollirResult, String jasminCode, List<Report> reports) {
+            super(ollirResult, jasminCode, reports);
+        }
+
+        public Result(String className, String jasminCode, List<Report> reports, Map<String, String> config) {
+            super(className, jasminCode, reports, config);
+        }
+
+        /**
+         * JasminResult writes the .j file to a shared temporary folder, which concurrent compilations would race on.
+         */
+        @Override
+        public File compile(File outputDir) {
+            return BatchCompiler.assemble(getClassName(), getJasminCode(), outputDir);
+        }
+
+        @Override
+        public ProcessOutputAsString runWithFullOutput(List<String> args, List<String> classpath, String input) {
+            if ("true".equals(getConfig().get("fork")))
+                return super.runWithFullOutput(args, classpath, input);
+
+            // compile() reuses (and clears) one shared folder, so concurrent runs each get their own
+            File folder;
+            try {
+                folder = Files.createTempDirectory("jmm-run").toFile();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create a folder for the class file", e);
+            }
+            try {
+                File classFile = compile(folder);
+                List<File> fullClasspath = new ArrayList<>();
+                fullClasspath.add(classFile.getParentFile());
+                for (String element : classpath) {
+                    fullClasspath.add(new File(element));
+                }
+                return new InProcessRunner(fullClasspath, timeoutOf(getConfig())).run(SpecsIo.removeExtension(classFile.getName()), args, input);
+            } finally {
+                SpecsIo.deleteFolder(folder);
+            }
+        }
+    }
+
+    private static class Capture {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        private final InputStream in;
+        // Set when the run timed out: whatever the program still prints goes nowhere
+        private volatile boolean abandoned;
+
+        private Capture(String input) {
+            this.in = input == null ? null : new ByteArrayInputStream(input.getBytes());
+        }
+    }
+
+    private static class RoutingOutputStream extends OutputStream {
+        private final PrintStream console;
+        private final boolean isErr;
+
+        private RoutingOutputStream(PrintStream console, boolean isErr) {
+            this.console = console;
+            this.isErr = isErr;
+        }
+
+        @Override
+        public void write(int b) {
+            Capture capture = CAPTURE.get();
+            if (capture != null && capture.abandoned)
+                return;
+            if (capture != null)
+                (isErr ? capture.err : capture.out).write(b);
+            console.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            Capture capture = CAPTURE.get();
+            if (capture != null && capture.abandoned)
+                return;
+            if (capture != null)
+                (isErr ? capture.err : capture.out).write(b, off, len);
+            console.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            console.flush();
+        }
+    }
+
+    private static class RoutingInputStream extends InputStream {
+        private final InputStream console;
+
+        private RoutingInputStream(InputStream console) {
+            this.console = console;
+        }
+
+        private InputStream current() {
+            Capture capture = CAPTURE.get();
+            return capture == null || capture.in == null ? console : capture.in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return current().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return current().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current().available();
+        }
+    }
+
+    private final URL[] classpath;
+    private final long timeoutMillis;
+
+    public InProcessRunner(List<File> classpath, long timeoutMillis) {
+        this.classpath = new URL[classpath.size()];
+        for (int i = 0; i < classpath.size(); i++) {
+            try {
+                this.classpath[i] = classpath.get(i).getAbsoluteFile().toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new RuntimeException("Invalid classpath element " + classpath.get(i), e);
+            }
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static long timeoutOf(Map<String, String> config) {
+        String timeout = config == null ? null : config.get("runTimeout");
+        return timeout == null ? DEFAULT_TIMEOUT_MS : Long.parseLong(timeout);
+    }
+
+    /**
+     * Calls className.main(args) with the given input as stdin (or the console's, if null), and returns what it
+     * printed. The return value follows the java launcher: 0 on success, 1 if main could not be found or threw.
+     * If the program does not finish in time it is abandoned and -1 is returned.
+     */
+    public ProcessOutputAsString run(String className, List<String> args, String input) {
+        installRouting();
+
+        Capture capture = new Capture(input);
+        int[] returnValue = {0};
+        URLClassLoader loader = new URLClassLoader(classpath, ClassLoader.getPlatformClassLoader());
+
+        Thread thread = new Thread(() -> {
+            CAPTURE.set(capture);
+            Thread.currentThread().setContextClassLoader(loader);
+            Method main;
+            try {
+                main = Class.forName(className, true, loader).getMethod("main", String[].class);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Error: Could not find or load main class " + className);
+                System.err.println("Caused by: " + e);
+                returnValue[0] = 1;
+                return;
+            }
+            try {
+                main.invoke(null, (Object) args.toArray(new String[0]));
+            } catch (InvocationTargetException e) {
+                StringWriter trace = new StringWriter();
+                e.getCause().printStackTrace(new PrintWriter(trace));
+                System.err.print("Exception in thread \"main\" " + trace);
+                returnValue[0] = 1;
+            } catch (IllegalAccessException e) {
+                System.err.println("Error: main method not accessible in class " + className);
+                returnValue[0] = 1;
+            } finally {
+                System.out.flush();
+                System.err.flush();
+            }
+        }, "jmm-main-" + className);
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (thread.isAlive()) {
+            // Generated code never checks for interrupts and Thread.stop is gone from recent JVMs, so the daemon
+            // thread is left to run, and its output is dropped from then on
+            thread.interrupt();
+            ProcessOutputAsString output = toOutput(-1, capture);
+            capture.abandoned = true;
+            return new ProcessOutputAsString(-1, output.getOutput(),
+                    output.getStdErr() + "Timed out after " + timeoutMillis + " ms" + System.lineSeparator());
+        }
+
+        try {
+            loader.close();
+        } catch (IOException e) {
+            // Only releases open jar files, nothing to recover
+        }
+        return toOutput(returnValue[0], capture);
+    }
+
+    private static ProcessOutputAsString toOutput(int returnValue, Capture capture) {
+        return new ProcessOutputAsString(returnValue, terminated(capture.out), terminated(capture.err));
+    }
+
+    /**
+     * The process runner reads the output line by line, so its last line always ends in a newline; this does the same.
+     */
+    private static String terminated(ByteArrayOutputStream stream) {
+        String text;
+        synchronized (stream) {
+            text = stream.toString();
+        }
+        return text.isEmpty() || text.endsWith("\n") ? text : text + "\n";
+    }
+
+    /**
+     * Replaces the standard streams by routing ones, once (or again, if someone replaced them in the meantime).
+     */
+    private static synchronized void installRouting() {
+        if (System.out != routedOut) {
+            routedOut = new PrintStream(new RoutingOutputStream(System.out, false), true);
+            System.setOut(routedOut);
+        }
+        if (System.err != routedErr) {
+            routedErr = new PrintStream(new RoutingOutputStream(System.err, true), true);
+            System.setErr(routedErr);
+        }
+        if (System.in != routedIn) {
+            routedIn = new RoutingInputStream(System.in);
+            System.setIn(routedIn);
+        }
+    }
+}
@@ -1,171 +1,232 @@
 package pt.up.fe.comp2023;
 
-/*
-import org.graphstream.graph.implementations.SingleGraph;
-import org.graphstream.graph.Graph;
-import org.graphstream.ui.view.Viewer;
-import org.graphstream.ui.graphicGraph.stylesheet.StyleConstants.FillMode;
-import org.graphstream.ui.graphicGraph.stylesheet.StyleConstants.Units;
-import org.graphstream.ui.graphicGraph.stylesheet.StyleSheet;
-*/
-
-import java.lang.reflect.Array;
 import java.util.*;
 
+/**
+ * Interference graph with dense integer node ids. Edges are kept twice: in a triangular bit matrix, for O(1) insertion
+ * and lookup, and in per-node adjacency arrays, for iterating over the neighbours. Colours are integers from 0.
+ */
 public class InterferenceGraph {
-    private Map<InterferenceGraphNode, List<InterferenceGraphNode>> adjList;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private long[] matrix = new long[1];
+    private int[][] adjacency = new int[8][];
+    private int[] degrees = new int[8];
+    private int[] colors = new int[8];
+    private int numEdges;
+    private int cliqueSize;
+
+    public int addNode(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+
+        int node = names.size();
+        ids.put(name, node);
+        names.add(name);
+        if (node == degrees.length) {
+            adjacency = Arrays.copyOf(adjacency, node * 2);
+            degrees = Arrays.copyOf(degrees, node * 2);
+            colors = Arrays.copyOf(colors, node * 2);
+        }
+        adjacency[node] = new int[4];
+        colors[node] = -1;
+        // Row n of the triangle holds the pairs (n, 0..n-1), so a new node only appends to the matrix
+        long bits = (long) (node + 1) * node / 2;
+        if (bits > (long) matrix.length << 6)
+            matrix = Arrays.copyOf(matrix, (int) Math.max(matrix.length * 2L, (bits >>> 6) + 1));
+        return node;
+    }
 
-    public InterferenceGraph() {
-        adjList = new HashMap<>();
+    public InterferenceGraph copy() {
+        InterferenceGraph copy = new InterferenceGraph();
+        copy.ids.putAll(ids);
+        copy.names.addAll(names);
+        copy.matrix = matrix.clone();
+        copy.adjacency = new int[adjacency.length][];
+        for (int node = 0; node < names.size(); node++) {
+            copy.adjacency[node] = adjacency[node].clone();
+        }
+        copy.degrees = degrees.clone();
+        copy.colors = colors.clone();
+        copy.numEdges = numEdges;
+        return copy;
     }
 
-    public Set<InterferenceGraphNode> getNodes() {
-        return adjList.keySet();
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
     }
 
-    public void addInterferenceGraphNode(InterferenceGraphNode node) {
-        for (Map.Entry<InterferenceGraphNode, List<InterferenceGraphNode>> entry : adjList.entrySet()) {
-            if (Objects.equals(entry.getKey().getRegister(), node.getRegister())) {
-                return;
-            }
-        }
-        adjList.put(node, new LinkedList<>());
+    public String getName(int node) {
+        return names.get(node);
     }
 
     public int numNodes() {
-        return adjList.size();
+        return names.size();
     }
 
-    public void addEdge(String node1, String node2) {
-        InterferenceGraphNode new1 = null;
-        InterferenceGraphNode new2 = null;
-        for (Map.Entry<InterferenceGraphNode, List<InterferenceGraphNode>> entry : adjList.entrySet()) {
-            if (Objects.equals(entry.getKey().getRegister(), node1)) {
-                new1 = entry.getKey();
-            }
-            if (Objects.equals(entry.getKey().getRegister(), node2)) {
-                new2 = entry.getKey();
-            }
+    public int numEdges() {
+        return numEdges;
+    }
 
-            if (new1 != null && new2 != null)
-                break;
-        }
+    public void addEdge(String node1, String node2) {
+        int id1 = getId(node1);
+        int id2 = getId(node2);
+        if (id1 != -1 && id2 != -1)
+            addEdge(id1, id2);
+    }
 
-        if (new1 != null && new2 != null)
-            addEdge(new1, new2);
+    public void addEdge(int node1, int node2) {
+        if (node1 == node2)
+            return;
+        long bit = bit(node1, node2);
+        int word = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        if ((matrix[word] & mask) != 0)
+            return;
+        matrix[word] |= mask;
+        addNeighbour(node1, node2);
+        addNeighbour(node2, node1);
+        numEdges++;
     }
 
-    public void addEdge(InterferenceGraphNode node1, InterferenceGraphNode node2) {
-        if (!adjList.get(node1).contains(node2)) {
-            adjList.get(node1).add(node2);
-            adjList.get(node2).add(node1);
-        }
+    public boolean interferes(int node1, int node2) {
+        if (node1 == node2)
+            return false;
+        long bit = bit(node1, node2);
+        return (matrix[(int) (bit >>> 6)] & (1L << bit)) != 0;
     }
 
-    public List<InterferenceGraphNode> getAdjacentInterferenceGraphNodes(InterferenceGraphNode node) {
-        return adjList.get(node);
+    public int degree(int node) {
+        return degrees[node];
     }
 
-/*
-    public void visualizeGraph() {
-        Graph graph = new SingleGraph("Interference Graph");
+    /**
+     * The k-th neighbour of a node, for k < degree(node).
+     */
+    public int neighbour(int node, int k) {
+        return adjacency[node][k];
+    }
 
-        for (Map.Entry<InterferenceGraphNode, List<InterferenceGraphNode>> entry : adjList.entrySet()) {
-            org.graphstream.graph.Node graphNode = graph.addNode(entry.getKey().getRegister());
-            graphNode.setAttribute("label", entry.getKey().getRegister());
+    /**
+     * Size of the clique found by the last colorSmallestLast, a lower bound on the colours any colouring needs.
+     */
+    public int getCliqueSize() {
+        return cliqueSize;
+    }
 
-            // Set the fill color based on the node's color
-            if (entry.getKey().getColor().equals("black")) {
-                graphNode.setAttribute("ui.style", "fill-color: black;");
-            } else if (entry.getKey().getColor().equals("color1")) {
-                graphNode.setAttribute("ui.style", "fill-color: red;");
-            } else if (entry.getKey().getColor().equals("color2")) {
-                graphNode.setAttribute("ui.style", "fill-color: blue;");
-            } else if (entry.getKey().getColor().equals("color3")) {
-                graphNode.setAttribute("ui.style", "fill-color: yellow;");
-            } else if (entry.getKey().getColor().equals("color4")) {
-                graphNode.setAttribute("ui.style", "fill-color: green;");
-            } else if (entry.getKey().getColor().equals("color5")) {
-                graphNode.setAttribute("ui.style", "fill-color: orange;");
-            }
-        }
+    public int getColor(int node) {
+        return colors[node];
+    }
 
-        for (Map.Entry<InterferenceGraphNode, List<InterferenceGraphNode>> entry : adjList.entrySet()) {
-            for (InterferenceGraphNode n : entry.getValue()) {
-                if (graph.getEdge(n.getRegister() + "-" + entry.getKey().getRegister()) == null)
-                    graph.addEdge(entry.getKey().getRegister() + "-" + n.getRegister(), entry.getKey().getRegister(), n.getRegister());
-            }
-        }
+    public void setColor(int node, int color) {
+        colors[node] = color;
+    }
 
-        Viewer viewer = graph.display();
-        viewer.setCloseFramePolicy(Viewer.CloseFramePolicy.HIDE_ONLY);
+    private static long bit(int node1, int node2) {
+        int high = Math.max(node1, node2);
+        int low = Math.min(node1, node2);
+        return (long) high * (high - 1) / 2 + low;
     }
-*/
 
+    private void addNeighbour(int node, int neighbour) {
+        int[] neighbours = adjacency[node];
+        if (degrees[node] == neighbours.length)
+            adjacency[node] = neighbours = Arrays.copyOf(neighbours, neighbours.length * 2);
+        neighbours[degrees[node]++] = neighbour;
+    }
 
-    public int colorGraph(int maxNumColors) {
-        ArrayList<String> colors = new ArrayList<>();
-        colors.add("black");
+    /**
+     * Colours the graph in one pass, without a limit on the colours: nodes are removed smallest degree first and
+     * coloured in the reverse order, each with the lowest colour from firstColor that its neighbours don't use.
+     * Nodes with a precolor (>= 0) keep it. Once every node left has all the others as neighbours they form a clique,
+     * whose size is kept as a lower bound. The edges are not modified. Returns the number of colours used, counting
+     * from 0.
+     */
+    public int colorSmallestLast(int[] precolors, int firstColor) {
+        int n = numNodes();
+        int[] degree = Arrays.copyOf(degrees, n);
+        int max_degree = 0;
+        for (int node = 0; node < n; node++) {
+            max_degree = Math.max(max_degree, degree[node]);
+        }
 
-        for (int i = 1; i < maxNumColors; i++) {
-            colors.add("color" + i);
+        // Bucket queue of the nodes by their degree in what is left of the graph
+        int[] head = new int[max_degree + 1];
+        int[] next = new int[n];
+        int[] previous = new int[n];
+        Arrays.fill(head, -1);
+        for (int node = 0; node < n; node++) {
+            previous[node] = -1;
+            next[node] = head[degree[node]];
+            if (head[degree[node]] != -1)
+                previous[head[degree[node]]] = node;
+            head[degree[node]] = node;
         }
 
-        Map<InterferenceGraphNode, List<InterferenceGraphNode>> temp_adjList = new HashMap<>(adjList);
-        Stack<InterferenceGraphNode> removed_nodes = new Stack<>();
-
-        boolean was_removed = false;
-        for (Map.Entry<InterferenceGraphNode, List<InterferenceGraphNode>> entry : temp_adjList.entrySet()) {
-            if (entry.getValue().size() < maxNumColors) {
-                removed_nodes.push(entry.getKey());
-                for (Map.Entry<InterferenceGraphNode, List<InterferenceGraphNode>> entry_neighbour : temp_adjList.entrySet()) {
-                    List<InterferenceGraphNode> values = entry_neighbour.getValue();
-                    values.remove(entry.getKey());
-                    temp_adjList.put(entry.getKey(), values);
-                }
-                was_removed = true;
-            } else {
-                return -1;
+        boolean[] removed = new boolean[n];
+        int[] order = new int[n];
+        int min = 0;
+        cliqueSize = 0;
+        for (int i = 0; i < n; i++) {
+            while (head[min] == -1)
+                min++;
+            int left = n - i;
+            if (cliqueSize == 0 && min == left - 1)
+                cliqueSize = left;
+
+            int node = head[min];
+            head[min] = next[node];
+            if (next[node] != -1)
+                previous[next[node]] = -1;
+            removed[node] = true;
+            order[i] = node;
+
+            for (int k = 0; k < degrees[node]; k++) {
+                int neighbour = adjacency[node][k];
+                if (removed[neighbour])
+                    continue;
+                int d = degree[neighbour]--;
+                if (previous[neighbour] != -1)
+                    next[previous[neighbour]] = next[neighbour];
+                else
+                    head[d] = next[neighbour];
+                if (next[neighbour] != -1)
+                    previous[next[neighbour]] = previous[neighbour];
+                previous[neighbour] = -1;
+                next[neighbour] = head[d - 1];
+                if (head[d - 1] != -1)
+                    previous[head[d - 1]] = neighbour;
+                head[d - 1] = neighbour;
             }
+            min = Math.max(0, min - 1);
         }
 
-        if (!was_removed)
-            return -1;
-
         int colorsUsed = 0;
-
-        while (!removed_nodes.empty()) {
-            InterferenceGraphNode checking_node = removed_nodes.pop();
-            ArrayList<Integer> used_colors = new ArrayList<>();
-            for (int j = 0; j < maxNumColors; j++) {
-                used_colors.add(j);
-            }
-
-            for (InterferenceGraphNode node : adjList.get(checking_node)) {
-                used_colors.remove((Object) colors.indexOf(node.getColor()));
+        for (int node = 0; node < n; node++) {
+            colors[node] = precolors[node];
+            colorsUsed = Math.max(colorsUsed, colors[node] + 1);
+        }
+        // used[c] == node when a neighbour of node has colour c
+        int[] used = new int[n + firstColor + colorsUsed + 1];
+        Arrays.fill(used, -1);
+        for (int i = n - 1; i >= 0; i--) {
+            int node = order[i];
+            if (colors[node] != -1)
+                continue;
+            for (int k = 0; k < degrees[node]; k++) {
+                int color = colors[adjacency[node][k]];
+                if (color != -1 && color < used.length)
+                    used[color] = node;
             }
-
-            if (used_colors.isEmpty())
-                return -1;
-
-            if (colorsUsed < used_colors.get(0) + 1)
-                colorsUsed = used_colors.get(0) + 1;
-
-            checking_node.setColor(colors.get(used_colors.get(0)));
-            adjList.put(checking_node, adjList.get(checking_node));
+            int color = firstColor;
+            while (used[color] == node)
+                color++;
+            colors[node] = color;
+            colorsUsed = Math.max(colorsUsed, color + 1);
         }
-
+        CompilerStats.count("regalloc.colouringAttempts", 1);
         return colorsUsed;
     }
-
-
-    private List<String> getAvailableColors(int numColors) {
-        List<String> colors = new ArrayList<>(numColors);
-
-        for (int i = 1; i <= numColors; i++) {
-            colors.add("color" + i);
-        }
-
-        return colors;
-    }
 }
@@ -0,0 +1,164 @@
+package pt.up.fe.comp2023;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class generated by JasminConverter, before it is written out. It can be printed as Jasmin text or encoded straight
+ * into a class file by ClassFileWriter.
+ */
+public class JasminClass {
+
+    public static class Field {
+        private final String access;
+        private final boolean isStatic;
+        private final boolean isFinal;
+        private final String name;
+        private final String descriptor;
+
+        public Field(String access, boolean isStatic, boolean isFinal, String name, String descriptor) {
+            this.access = access;
+            this.isStatic = isStatic;
+            this.isFinal = isFinal;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public String getAccess() {
+            return access;
+        }
+
+        public boolean isStatic() {
+            return isStatic;
+        }
+
+        public boolean isFinal() {
+            return isFinal;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+    }
+
+    public static class Method {
+        private final String access;
+        private final boolean isStatic;
+        private final boolean isFinal;
+        private final String name;
+        private final String descriptor;
+        private final List<JasminInstruction> code;
+        private int maxStack;
+        private int maxLocals;
+
+        public Method(String access, boolean isStatic, boolean isFinal, String name, String descriptor, List<JasminInstruction> code) {
+            this.access = access;
+            this.isStatic = isStatic;
+            this.isFinal = isFinal;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+        }
+
+        public String getAccess() {
+            return access;
+        }
+
+        public boolean isStatic() {
+            return isStatic;
+        }
+
+        public boolean isFinal() {
+            return isFinal;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        public List<JasminInstruction> getCode() {
+            return code;
+        }
+
+        public int getMaxStack() {
+            return maxStack;
+        }
+
+        public void setMaxStack(int maxStack) {
+            this.maxStack = maxStack;
+        }
+
+        public int getMaxLocals() {
+            return maxLocals;
+        }
+
+        public void setMaxLocals(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+    }
+
+    private final String name;
+    private final String superName;
+    private final List<Field> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+
+    public JasminClass(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSuperName() {
+        return superName;
+    }
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    public List<Method> getMethods() {
+        return methods;
+    }
+
+    public void addField(Field field) {
+        fields.add(field);
+    }
+
+    public void addMethod(Method method) {
+        methods.add(method);
+    }
+
+    public String toJasmin() {
+        StringBuilder code = new StringBuilder();
+        code.append(".class public ").append(name).append("\n");
+        code.append(".super ").append(superName).append("\n\n\n");
+        for (Field field : fields) {
+            code.append(".field ").append(field.access).append(" ").append(field.isStatic ? " static " : "").append(field.isFinal ? " final " : "")
+                    .append(field.name).append(" ").append(field.descriptor).append("\n");
+        }
+
+        for (Method method : methods) {
+            code.append(".method ").append(method.access).append(method.isStatic ? " static " : " ").append(method.isFinal ? " final " : "")
+                    .append(method.name).append(method.descriptor).append("\n");
+            code.append(".limit stack ").append(method.maxStack).append("\n");
+            code.append(".limit locals ").append(method.maxLocals).append("\n");
+            for (JasminInstruction instruction : method.code) {
+                instruction.appendTo(code);
+                code.append('\n');
+            }
+            code.append(".end method").append("\n\n");
+        }
+        return code.toString();
+    }
+}
@@ -5,10 +5,7 @@ import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import org.specs.comp.ollir.AccessModifiers;
 
-import java.rmi.AccessException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
@@ -64,10 +61,16 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
         put("ifne", -1);
         put("ifle", -1);
         put("ifge", -1);
+        put("if_icmplt", -2);
+        put("if_icmpgt", -2);
+        put("if_icmpeq", -2);
+        put("if_icmpne", -2);
+        put("if_icmple", -2);
+        put("if_icmpge", -2);
         put("goto", 0);
         put("ireturn", -1);
         put("areturn", -1);
-        put("return", -1);
+        put("return", 0);
         put("arraylength", -1 + 1);
         put("putfield", -2);
         put("getfield", -1 + 1);
@@ -87,72 +90,84 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
         put("VOID", "V");
     }};
 
-    private int computeStackLimit(String jasminCode, HashMap<String, Method> methods) {
-        int currentStackSize = 0, maxStackSize = 0;
-
-        for (String fullInstruction : jasminCode.split("\n")) {
-            if (fullInstruction.isBlank())
-                continue;
-            String[] instructionParts = fullInstruction.split(" ");
-            String instruction = fullInstruction.split(" ")[0];
-            Integer cost = instructionToCost.get(instruction);
-            if (cost != null) {
-                currentStackSize += cost;
-            } else {
-                if (instruction.contains("invoke")) {
-                    Method method = methods.get(instructionParts[1]);
-                    if (method != null) {
-                        currentStackSize -= method.getParams().size();
-                        currentStackSize += method.getReturnType().getTypeOfElement().name().equals("VOID") ? 0 : 1;
-                    } else {
-                        currentStackSize -= getNumArgs(instructionParts[1]);
-                        currentStackSize += instructionParts[1].substring(instructionParts[1].indexOf(')') + 1).startsWith("V") ? 0 : 1;
-                    }
-                } else {
-                    System.out.println("UNKNOWN INSTRUCTION: " + fullInstruction);
-                }
+    /**
+     * The deepest the operand stack gets in a method. The depth before each instruction is propagated along the edges
+     * of the control flow graph from 0 at the start, so what one arm of a branch pushes isn't counted on the other, and
+     * instructions that can't be reached don't count. Valid code reaches an instruction with the same depth on every
+     * path, so each one is only visited once.
+     */
+    private int computeStackLimit(List<JasminInstruction> code, String methodName) {
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).isLabel())
+                labels.put(code.get(i).getLabel(), i);
+        }
+        int[] depths = new int[code.size()];
+        Arrays.fill(depths, -1);
+        Deque<Integer> worklist = new ArrayDeque<>();
+        if (!code.isEmpty()) {
+            depths[0] = 0;
+            worklist.push(0);
+        }
+
+        int maxStackSize = 0;
+        while (!worklist.isEmpty()) {
+            int i = worklist.pop();
+            JasminInstruction instruction = code.get(i);
+            int depth = depths[i];
+            if (!instruction.isLabel()) {
+                depth += stackEffect(instruction, methodName);
+                maxStackSize = Math.max(maxStackSize, depth);
             }
-            if (currentStackSize > maxStackSize)
-                maxStackSize = currentStackSize;
+            String opcode = instruction.getOpcode();
+            if (opcode != null && (opcode.equals("goto") || opcode.startsWith("if")))
+                visit(labels.get(instruction.getOperand(0)), depth, depths, worklist);
+            if (i + 1 < code.size() && (opcode == null || !opcode.equals("goto") && !opcode.endsWith("return")))
+                visit(i + 1, depth, depths, worklist);
         }
         return maxStackSize;
     }
 
-    public static boolean containsRegex(String str, String regex) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(str);
-        return matcher.find();
+    private static void visit(Integer instruction, int depth, int[] depths, Deque<Integer> worklist) {
+        if (instruction != null && depths[instruction] == -1) {
+            depths[instruction] = depth;
+            worklist.push(instruction);
+        }
     }
 
+    /**
+     * How many values an instruction leaves on the stack minus how many it takes from it.
+     */
+    private int stackEffect(JasminInstruction instruction, String methodName) {
+        Integer cost = instructionToCost.get(instruction.getOpcode());
+        if (cost != null)
+            return cost;
+        if (!instruction.getOpcode().startsWith("invoke"))
+            throw new RuntimeException("Unsupported instruction '" + instruction + "' in method " + methodName);
+        String methodId = instruction.getOperand(0);
+        String descriptor = methodId.substring(methodId.indexOf('('));
+        int effect = -getNumArgs(descriptor) + (descriptor.endsWith(")V") ? 0 : 1);
+        // Everything but invokestatic also takes the object
+        return instruction.getOpcode().equals("invokestatic") ? effect : effect - 1;
+    }
+
+    /**
+     * The number of arguments in a method descriptor, e.g. 3 for (I[ILjava/lang/String;)V.
+     */
     public static int getNumArgs(String methodSig) {
         int numArgs = 0;
-        String regexPattern = "L[^;]+?;";
-
-        methodSig = methodSig.substring(methodSig.indexOf('(') + 1, methodSig.indexOf(')'));
-
-        String tmpMethodSig = methodSig;
-        while (containsRegex(tmpMethodSig, regexPattern)) {
-            tmpMethodSig = tmpMethodSig.replaceFirst(regexPattern, "");
-            numArgs++;
-        }
-        for (int i = 0; i < methodSig.length(); i++) {
+        for (int i = methodSig.indexOf('(') + 1; methodSig.charAt(i) != ')'; i++) {
             char c = methodSig.charAt(i);
-            if (Character.isUpperCase(c)) {
-                numArgs++;
-            }
+            if (c == '[')
+                continue;
+            if (c == 'L')
+                i = methodSig.indexOf(';', i);
+            numArgs++;
         }
-
         return numArgs;
     }
 
     private String handleType(Type type, String suffix) {
-        if (suffix.contains("load ") || suffix.contains("store ")) {
-            String indexStr = suffix.substring(suffix.indexOf(' ') + 1);
-            int index = Integer.parseInt(indexStr);
-            if (index <= 3)
-                suffix = suffix.replace(" ", "_");
-        }
-
         StringBuilder jasminCode = new StringBuilder();
         switch (type.getTypeOfElement().name()) {
             case "THIS", "ARRAYREF", "STRING", "OBJECTREF" -> jasminCode.append("a").append(suffix);
@@ -162,24 +177,29 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
         return jasminCode.toString();
     }
 
-    private String dispatcher(Instruction instruction, HashMap<String, Descriptor> varTable, List<String> methods, List<String> imports, String parentClass) {
-        StringBuilder jasminCode = new StringBuilder();
+    private JasminInstruction handleType(Type type, String suffix, int register) {
+        if (register <= 3)
+            return new JasminInstruction(handleType(type, suffix + "_" + register));
+        return new JasminInstruction(handleType(type, suffix), String.valueOf(register));
+    }
+
+    /**
+     * Appends the code of an instruction to the code of its method.
+     */
+    private void dispatcher(Instruction instruction, HashMap<String, Descriptor> varTable, List<String> methods, List<String> imports, String parentClass, List<JasminInstruction> code) {
         switch (instruction.getInstType()) {
-            case CALL ->
-                    jasminCode.append(processCall((CallInstruction) instruction, varTable, methods, imports, parentClass));
-            case GOTO -> jasminCode.append(processGoTo((GotoInstruction) instruction));
-            case NOPER -> jasminCode.append(processNoper((SingleOpInstruction) instruction, varTable));
-            case ASSIGN ->
-                    jasminCode.append(processAssign((AssignInstruction) instruction, varTable, methods, imports, parentClass));
-            case BRANCH -> jasminCode.append(processBranch((CondBranchInstruction) instruction, varTable));
-            case RETURN -> jasminCode.append(processReturn((ReturnInstruction) instruction, varTable));
-            case GETFIELD -> jasminCode.append(processGetField((GetFieldInstruction) instruction, varTable));
-            case PUTFIELD -> jasminCode.append(processPutField((PutFieldInstruction) instruction, varTable));
-            case UNARYOPER -> jasminCode.append(processUnaryOp((UnaryOpInstruction) instruction, varTable));
-            case BINARYOPER -> jasminCode.append(processBinaryOp((BinaryOpInstruction) instruction, varTable));
-            default -> jasminCode.append("UNKNOWN INSTRUCTION TYPE");
+            case CALL -> processCall((CallInstruction) instruction, varTable, methods, imports, parentClass, code);
+            case GOTO -> processGoTo((GotoInstruction) instruction, code);
+            case NOPER -> processNoper((SingleOpInstruction) instruction, varTable, code);
+            case ASSIGN -> processAssign((AssignInstruction) instruction, varTable, methods, imports, parentClass, code);
+            case BRANCH -> processBranch((CondBranchInstruction) instruction, varTable, code);
+            case RETURN -> processReturn((ReturnInstruction) instruction, varTable, code);
+            case GETFIELD -> processGetField((GetFieldInstruction) instruction, varTable, code);
+            case PUTFIELD -> processPutField((PutFieldInstruction) instruction, varTable, code);
+            case UNARYOPER -> processUnaryOp((UnaryOpInstruction) instruction, varTable, code);
+            case BINARYOPER -> processBinaryOp((BinaryOpInstruction) instruction, varTable, code);
+            default -> code.add(new JasminInstruction("UNKNOWN INSTRUCTION TYPE"));
         }
-        return jasminCode.toString();
     }
 
     private String outputMethodId(String methodName, List<Element> args, Type returnType) {
@@ -195,12 +215,15 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
     }
 
     private String outputMethodId(Method method) {
+        return outputMethodName(method) + outputMethodDescriptor(method);
+    }
+
+    private String outputMethodName(Method method) {
+        return method.isConstructMethod() ? "<init>" : method.getMethodName();
+    }
+
+    private String outputMethodDescriptor(Method method) {
         StringBuilder code = new StringBuilder();
-        if (method.isConstructMethod()) {
-            code.append("<init>");
-        } else {
-            code.append(method.getMethodName());
-        }
         code.append("(");
         for (Element element : method.getParams()) {
             Type type = element.getType();
@@ -220,21 +243,21 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
             return JasminConverter.typeToDescriptor.get(type.getTypeOfElement().name());
     }
 
-    private String addToOperandStack(int value) {
+    private JasminInstruction addToOperandStack(int value) {
         if (value >= -1 && value <= 5) {
             if (value == -1)
-                return "iconst_m1\n";
-            return "iconst_" + value + "\n";
+                return new JasminInstruction("iconst_m1");
+            return new JasminInstruction("iconst_" + value);
         }
         if (value >= -128 && value <= 127)
-            return "bipush " + value + "\n";
+            return new JasminInstruction("bipush", String.valueOf(value));
         if (value >= -32768 && value <= 32767)
-            return "sipush " + value + "\n";
-        return "ldc " + value + "\n";
+            return new JasminInstruction("sipush", String.valueOf(value));
+        return new JasminInstruction("ldc", String.valueOf(value));
     }
 
-    private String addToOperandStack(String value) {
-        return "ldc " + value + "\n";
+    private JasminInstruction addToOperandStack(String value) {
+        return new JasminInstruction("ldc", value);
     }
 
     private String checkImport(String importName, List<String> imports) {
@@ -269,7 +292,16 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
 
     @Override
     public JasminResult toJasmin(OllirResult ollirResult) {
-        StringBuilder jasminCode = new StringBuilder();
+        JasminClass jasminClass = buildClass(ollirResult);
+        return new InProcessRunner.Result(ollirResult, jasminClass.toJasmin(), Collections.emptyList());
+    }
+
+    /**
+     * Generates the code of every method of the class, without committing to a textual or binary output.
+     */
+    public JasminClass buildClass(OllirResult ollirResult) {
+        this.label = 0;
+        this.dest = null;
         ClassUnit ollirClassUnit = ollirResult.getOllirClass();
 
         boolean foundMain = false;
@@ -279,42 +311,26 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
                 break;
             }
         }
-        if (!foundMain) {
-            Method main = new Method(ollirClassUnit);
-            main.setReturnType(new Type(ElementType.VOID));
-            main.setMethodName("main");
-            main.setMethodAccessModifier(AccessModifiers.PUBLIC);
-            main.buildVarTable();
-            main.getVarTable().put("args", new Descriptor(VarScope.PARAMETER, 0));
-            main.addInstr(new ReturnInstruction());
-            main.setStaticMethod();
-            ArrayType arg = new ArrayType();
-            arg.setTypeOfElements(ElementType.STRING);
-            arg.setNumDimensions(1);
-            main.addParam(new ArrayOperand("args", arg));
-            ollirClassUnit.addMethod(main);
-        }
-
-        if (ollirClassUnit.getSuperClass() == null) {
-            ollirClassUnit.setSuperClass("java/lang/Object");
-        }
+        // The ClassUnit is only read: its OLLIR code can still be printed after this
+        String superClass = ollirClassUnit.getSuperClass() == null ? "java/lang/Object" : ollirClassUnit.getSuperClass();
 
         List<String> methods = new ArrayList<>();
         for (Method m : ollirClassUnit.getMethods()) {
             methods.add(m.getMethodName());
         }
+        if (!foundMain)
+            methods.add("main");
         List<String> imports = new ArrayList<>();
         for (String importString : ollirClassUnit.getImports()) {
             imports.add(importString.replace('.', '/'));
         }
 
-        jasminCode.append(".class ").append("public").append(" ").append(ollirClassUnit.getClassName()).append("\n");
-        jasminCode.append(".super ").append(ollirClassUnit.getSuperClass()).append("\n\n\n");
+        JasminClass jasminClass = new JasminClass(ollirClassUnit.getClassName(), superClass);
         for (Field field : ollirClassUnit.getFields()) {
-            jasminCode.append(processField(field));
+            jasminClass.addField(processField(field));
         }
 
-        ArrayList<Method> methodsObject = ollirClassUnit.getMethods();
+        List<Method> methodsObject = new ArrayList<>(ollirClassUnit.getMethods());
         methodsObject.sort((m1, m2) -> {
             boolean m1IsConstructor = m1.isConstructMethod();
             boolean m2IsConstructor = m2.isConstructMethod();
@@ -326,100 +342,110 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
                 return 0;
             }
         });
-        HashMap<String, Method> methodMap = new HashMap<>();
-        for (Method method : methodsObject) {
-            methodMap.put(method.getMethodName(), method);
-        }
+        boolean peephole = JasminPeephole.isEnabled(ollirResult.getConfig());
         for (Method method : methodsObject) {
+            CompilerStats.Timer timer = CompilerStats.start("toJasmin/" + method.getMethodName());
             List<Instruction> instructions = method.getInstructions();
-            String staticStr = " static ", finalStr = " final ";
-            if (!method.isStaticMethod()) {
-                staticStr = " ";
-            }
-            if (!method.isFinalMethod()) {
-                finalStr = "";
-            }
+            String access;
             if (method.isConstructMethod()) {
-                jasminCode.append(".method public ");
-                method.addInstr(new ReturnInstruction());
+                access = "public";
             } else {
-                jasminCode.append(".method ").append(method.getMethodAccessModifier().toString().equalsIgnoreCase("default") ? "private" : method.getMethodAccessModifier().toString().toLowerCase()).append(staticStr).append(finalStr);
+                access = method.getMethodAccessModifier().toString().equalsIgnoreCase("default") ? "private" : method.getMethodAccessModifier().toString().toLowerCase();
             }
-            jasminCode.append(outputMethodId(method));
-            jasminCode.append("\n");
-            StringBuilder limits = new StringBuilder();
-            HashSet<Integer> registers = new HashSet<>();
+            // Register allocation can leave unused locals below the highest one
+            int maxLocals = method.isStaticMethod() ? 0 : 1;
             for (Descriptor descriptor : method.getVarTable().values()) {
-                if (descriptor.getVirtualReg() != -1)
-                    registers.add(descriptor.getVirtualReg());
+                maxLocals = Math.max(maxLocals, descriptor.getVirtualReg() + 1);
             }
-            if (method.isStaticMethod())
-                limits.append(".limit locals ").append(registers.size()).append("\n");
-            else {
-                if (method.getVarTable().containsKey("this"))
-                    limits.append(".limit locals ").append(registers.size()).append("\n");
-                else
-                    limits.append(".limit locals ").append(registers.size() + 1).append("\n");
-            }
-            StringBuilder methodBody = new StringBuilder();
-            for (Instruction instruction : instructions) {
-                for (Map.Entry<String, Instruction> entry : method.getLabels().entrySet()) {
-                    String key = entry.getKey();
-                    Instruction value = entry.getValue();
-                    if (instruction.equals(value)) {
-                        methodBody.append(key).append(":\n");
-                    }
+
+            List<JasminInstruction> methodBody = new ArrayList<>();
+            Map<String, Integer> uses = countUses(instructions);
+            Map<Instruction, List<String>> labels = labelsByInstruction(method);
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                for (String name : labels.getOrDefault(instruction, List.of())) {
+                    methodBody.add(JasminInstruction.label(name));
                 }
-                methodBody.append(this.dispatcher(instruction, method.getVarTable(), methods, imports, ollirClassUnit.getSuperClass()));
+                if (i + 1 < instructions.size() && !labels.containsKey(instructions.get(i + 1))
+                        && fuseCompareAndBranch(instruction, instructions.get(i + 1), uses, method.getVarTable(), methodBody)) {
+                    i++;
+                    continue;
+                }
+                this.dispatcher(instruction, method.getVarTable(), methods, imports, superClass, methodBody);
             }
 
+            if (method.isConstructMethod())
+                methodBody.add(new JasminInstruction("return"));
+
+            if (peephole)
+                methodBody = new JasminPeephole(methodBody).apply();
+
             if (method.isConstructMethod() && method.getParams().isEmpty())
                 methods.add("<init>");
 
-            jasminCode.append(".limit stack ").append(computeStackLimit(methodBody.toString().replaceAll("\\b\\w+\\s*:", ""), methodMap)).append("\n");
-            jasminCode.append(limits);
-            jasminCode.append(methodBody);
-            jasminCode.append(".end method").append("\n\n");
+            JasminClass.Method jasminMethod = new JasminClass.Method(access, method.isStaticMethod(), method.isFinalMethod(),
+                    outputMethodName(method), outputMethodDescriptor(method), methodBody);
+            jasminMethod.setMaxStack(computeStackLimit(methodBody, method.getMethodName()));
+            jasminMethod.setMaxLocals(maxLocals);
+            jasminClass.addMethod(jasminMethod);
+            CompilerStats.stop(timer);
         }
-        return new JasminResult(jasminCode.toString());
+        if (!foundMain) {
+            // Every class gets a main, so it can be run
+            JasminClass.Method main = new JasminClass.Method("public", true, false, "main", "([Ljava/lang/String;)V",
+                    new ArrayList<>(List.of(new JasminInstruction("return"))));
+            main.setMaxLocals(1);
+            jasminClass.addMethod(main);
+        }
+        return jasminClass;
     }
 
-    private String processField(Field field) {
-        StringBuilder code = new StringBuilder();
-        String staticStr = " static ", finalStr = " final ";
-        if (!field.isStaticField()) {
-            staticStr = "";
+    /**
+     * The labels of each instruction of a method, so placing them doesn't go through every label at every instruction.
+     */
+    private static Map<Instruction, List<String>> labelsByInstruction(Method method) {
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (Map.Entry<String, Instruction> entry : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(entry.getValue(), instruction -> new ArrayList<>(1)).add(entry.getKey());
         }
-        if (!field.isFinalField()) {
-            finalStr = "";
-        }
-        code.append(".field ").append(field.getFieldAccessModifier().toString().equals("DEFAULT") ? "private" : field.getFieldAccessModifier().toString().toLowerCase()).append(" ").append(staticStr).append(finalStr).append(field.getFieldName()).append(" ").append(outputType(field.getFieldType()));
-        return code.append("\n").toString();
+        return labels;
     }
 
-    private String processCall(CallInstruction instruction, HashMap<String, Descriptor> varTable, List<String> methods, List<String> imports, String parentClass) {
-        StringBuilder code = new StringBuilder();
-        String pop = instruction.getReturnType().getTypeOfElement().name().equals("VOID") ? "" : "pop\n";
+    private JasminClass.Field processField(Field field) {
+        String access = field.getFieldAccessModifier().toString().equals("DEFAULT") ? "private" : field.getFieldAccessModifier().toString().toLowerCase();
+        return new JasminClass.Field(access, field.isStaticField(), field.isFinalField(), field.getFieldName(), outputType(field.getFieldType()));
+    }
+
+    private void processCall(CallInstruction instruction, HashMap<String, Descriptor> varTable, List<String> methods, List<String> imports, String parentClass, List<JasminInstruction> code) {
+        boolean pop = !instruction.getReturnType().getTypeOfElement().name().equals("VOID");
         if (instruction.getInvocationType().name().equals("NEW")) {
             for (Element arg : instruction.getListOfOperands()) {
-                code.append(handleLiteral(arg, varTable));
+                handleLiteral(arg, varTable, code);
             }
-            if (!((Operand) instruction.getFirstArg()).getType().getTypeOfElement().name().equals("ARRAYREF"))
-                return code.append("new ").append(((Operand) instruction.getFirstArg()).getName()).append("\n").append(pop).toString();
-            else {
+            if (!((Operand) instruction.getFirstArg()).getType().getTypeOfElement().name().equals("ARRAYREF")) {
+                code.add(new JasminInstruction("new", ((Operand) instruction.getFirstArg()).getName()));
+            } else {
                 String type = ((ArrayType) instruction.getReturnType()).getElementType().getTypeOfElement().name().toLowerCase();
                 type = type.substring(0, type.indexOf("32"));
-                return code.append("newarray ").append(type).append("\n").append(pop).toString();
+                code.add(new JasminInstruction("newarray", type));
             }
+            if (pop)
+                code.add(new JasminInstruction("pop"));
+            return;
+        }
+        if (instruction.getInvocationType().toString().equals("arraylength")) {
+            handleLiteral(instruction.getFirstArg(), varTable, code);
+            code.add(new JasminInstruction(instruction.getInvocationType().toString()));
+            if (pop)
+                code.add(new JasminInstruction("pop"));
+            return;
         }
-        if (instruction.getInvocationType().toString().equals("arraylength"))
-            return code.append(handleLiteral(instruction.getFirstArg(), varTable)).append(instruction.getInvocationType().toString()).append("\n").append(pop).toString();
         if (!instruction.getInvocationType().name().contains("static"))
-            code.append(handleLiteral(instruction.getFirstArg(), varTable));
+            handleLiteral(instruction.getFirstArg(), varTable, code);
 
         if (!instruction.getFirstArg().isLiteral()) {
             for (Element arg : instruction.getListOfOperands()) {
-                code.append(handleLiteral(arg, varTable));
+                handleLiteral(arg, varTable, code);
             }
         }
 
@@ -432,146 +458,277 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
             }
             prefix = getMethodOrigin(instruction, methods, imports, parentClass) + "/";
         }
-        return code.append(instruction.getInvocationType().name().toLowerCase()).append(" ").append(prefix).append(outputMethodId(secondArg, instruction.getListOfOperands(), instruction.getReturnType())).append("\n").append(pop).toString();
+        code.add(new JasminInstruction(instruction.getInvocationType().name().toLowerCase(), prefix + outputMethodId(secondArg, instruction.getListOfOperands(), instruction.getReturnType())));
+        if (pop)
+            code.add(new JasminInstruction("pop"));
     }
 
-    private String processGoTo(GotoInstruction instruction) {
-        return "goto " + instruction.getLabel() + "\n";
+    private void processGoTo(GotoInstruction instruction, List<JasminInstruction> code) {
+        code.add(new JasminInstruction("goto", instruction.getLabel()));
     }
 
-    private String processNoper(SingleOpInstruction instruction, HashMap<String, Descriptor> varTable) {
+    private void processNoper(SingleOpInstruction instruction, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
         Element operand = instruction.getSingleOperand();
-        return handleLiteral(operand, varTable);
+        handleLiteral(operand, varTable, code);
     }
 
-    private String processAssign(AssignInstruction instruction, HashMap<String, Descriptor> varTable, List<String> methods, List<String> imports, String parentClass) {
-        StringBuilder code = new StringBuilder();
+    private void processAssign(AssignInstruction instruction, HashMap<String, Descriptor> varTable, List<String> methods, List<String> imports, String parentClass, List<JasminInstruction> code) {
         this.dest = instruction.getDest();
-        String res = dispatcher(instruction.getRhs(), varTable, methods, imports, parentClass);
-        if (instruction.getRhs() instanceof CallInstruction) {
-            res = res.substring(0, res.lastIndexOf("pop\n"));
+        List<JasminInstruction> res = new ArrayList<>();
+        dispatcher(instruction.getRhs(), varTable, methods, imports, parentClass, res);
+        if (instruction.getRhs() instanceof CallInstruction && !res.isEmpty() && "pop".equals(res.get(res.size() - 1).getOpcode())) {
+            res.remove(res.size() - 1);
         }
         if (instruction.getDest() instanceof ArrayOperand arrayOperand) {
             Type type = new Type(ElementType.ARRAYREF);
-            code.append(handleType(type, "load " + varTable.get(arrayOperand.getName()).getVirtualReg())).append("\n");
-            code.append(handleLiteral(arrayOperand.getIndexOperands().get(0), varTable));
-            code.append(res);
-            code.append("iastore\n");
+            code.add(handleType(type, "load", varTable.get(arrayOperand.getName()).getVirtualReg()));
+            handleLiteral(arrayOperand.getIndexOperands().get(0), varTable, code);
+            code.addAll(res);
+            code.add(new JasminInstruction("iastore"));
         } else {
-            code.append(res);
-            if (!res.contains("iinc")) {
+            code.addAll(res);
+            boolean isIinc = false;
+            for (JasminInstruction jasminInstruction : res) {
+                if ("iinc".equals(jasminInstruction.getOpcode()))
+                    isIinc = true;
+            }
+            if (!isIinc) {
                 Operand tmpVariable = (Operand) instruction.getDest();
-                code.append(handleType(varTable.get(tmpVariable.getName()).getVarType(), "store " + varTable.get(tmpVariable.getName()).getVirtualReg())).append("\n");
+                code.add(handleType(varTable.get(tmpVariable.getName()).getVarType(), "store", varTable.get(tmpVariable.getName()).getVirtualReg()));
             }
         }
-        return code.toString();
     }
 
-    private String handleDifferentIfs(BinaryOpInstruction instruction, String label, HashMap<String, Descriptor> varTable) {
-        String loaders = handleLiteral(instruction.getLeftOperand(), varTable) + handleLiteral(instruction.getRightOperand(), varTable);
-        String res = switch (instruction.getOperation().getOpType().toString()) {
-            case "LTH" -> "isub\n" + "iflt";
-            case "GTH" -> "isub\n" + "ifgt";
-            case "EQ" -> "isub\n" + "ifeq";
-            case "NEQ" -> "isub\n" + "ifne";
-            case "LTE" -> "isub\n" + "ifle";
-            case "GTE" -> "isub\n" + "ifge";
-            case "ANDB" -> "iand\n" + "ifne";
-            default -> "IF ERROR";
+    private void handleDifferentIfs(BinaryOpInstruction instruction, String label, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        OperationType operation = instruction.getOperation().getOpType();
+        if (isComparison(operation)) {
+            compareAndBranch(instruction.getLeftOperand(), operation, instruction.getRightOperand(), label, varTable, code);
+            return;
+        }
+        handleLiteral(instruction.getLeftOperand(), varTable, code);
+        handleLiteral(instruction.getRightOperand(), varTable, code);
+        switch (operation) {
+            case ANDB -> code.addAll(List.of(new JasminInstruction("iand"), new JasminInstruction("ifne", label)));
+            case ORB -> code.addAll(List.of(new JasminInstruction("ior"), new JasminInstruction("ifne", label)));
+            default -> code.add(new JasminInstruction("IF ERROR", label));
+        }
+    }
+
+    private static boolean isComparison(OperationType operation) {
+        return switch (operation) {
+            case LTH, GTH, LTE, GTE, EQ, NEQ -> true;
+            default -> false;
         };
-        return loaders + res + " " + label + "\n";
     }
 
-    private String handleDifferentIfs(SingleOpInstruction singleOpInstruction, String label, HashMap<String, Descriptor> varTable) {
-        StringBuilder code = new StringBuilder();
-        code.append(handleLiteral(singleOpInstruction.getSingleOperand(), varTable));
-        code.append("ifne ").append(label).append("\n");
-        return code.toString();
+    private static boolean isZero(Element element) {
+        return element.isLiteral() && ((LiteralElement) element).getLiteral().equals("0");
     }
 
-    private String handleDifferentIfs(UnaryOpInstruction singleOpInstruction, String label, HashMap<String, Descriptor> varTable) {
-        StringBuilder code = new StringBuilder();
-        code.append(handleLiteral(singleOpInstruction.getOperand(), varTable));
-        code.append("ifeq ").append(label).append("\n");
-        return code.toString();
+    private static OperationType negated(OperationType operation) {
+        return switch (operation) {
+            case LTH -> OperationType.GTE;
+            case GTH -> OperationType.LTE;
+            case LTE -> OperationType.GTH;
+            case GTE -> OperationType.LTH;
+            case EQ -> OperationType.NEQ;
+            default -> OperationType.EQ;
+        };
+    }
+
+    /**
+     * The comparison with its operands swapped: a < b is b > a.
+     */
+    private static OperationType swapped(OperationType operation) {
+        return switch (operation) {
+            case LTH -> OperationType.GTH;
+            case GTH -> OperationType.LTH;
+            case LTE -> OperationType.GTE;
+            case GTE -> OperationType.LTE;
+            default -> operation;
+        };
+    }
+
+    private static String conditionCode(OperationType operation) {
+        return switch (operation) {
+            case LTH -> "lt";
+            case GTH -> "gt";
+            case LTE -> "le";
+            case GTE -> "ge";
+            case EQ -> "eq";
+            default -> "ne";
+        };
+    }
+
+    /**
+     * Jumps to the label when the comparison of two ints holds, with if_icmp<cond>, or if<cond> when one side is 0.
+     * Comparing the operands directly can't overflow like their difference can.
+     */
+    private void compareAndBranch(Element left, OperationType operation, Element right, String label, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        if (isZero(right)) {
+            handleLiteral(left, varTable, code);
+            code.add(new JasminInstruction("if" + conditionCode(operation), label));
+        } else if (isZero(left)) {
+            handleLiteral(right, varTable, code);
+            code.add(new JasminInstruction("if" + conditionCode(swapped(operation)), label));
+        } else {
+            handleLiteral(left, varTable, code);
+            handleLiteral(right, varTable, code);
+            code.add(new JasminInstruction("if_icmp" + conditionCode(operation), label));
+        }
+    }
+
+    /**
+     * How many times each local is read in a method.
+     */
+    private static Map<String, Integer> countUses(List<Instruction> instructions) {
+        Map<String, Integer> uses = new HashMap<>();
+        for (Instruction instruction : instructions) {
+            MethodEditor.replaceOperands(instruction, element -> {
+                if (element instanceof ArrayOperand array) {
+                    for (Element index : array.getIndexOperands()) {
+                        if (index instanceof Operand operand)
+                            uses.merge(operand.getName(), 1, Integer::sum);
+                    }
+                }
+                if (!element.isLiteral() && element instanceof Operand operand)
+                    uses.merge(operand.getName(), 1, Integer::sum);
+                return element;
+            });
+            if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof ArrayOperand array) {
+                uses.merge(array.getName(), 1, Integer::sum);
+                for (Element index : array.getIndexOperands()) {
+                    if (index instanceof Operand operand)
+                        uses.merge(operand.getName(), 1, Integer::sum);
+                }
+            }
+        }
+        return uses;
+    }
+
+    /**
+     * A comparison assigned to a local that is only read by the branch right after it, like the conditions OllirParser
+     * makes, is compiled as a single compare-and-branch, without the 0/1 value and its local.
+     */
+    private boolean fuseCompareAndBranch(Instruction instruction, Instruction next, Map<String, Integer> uses, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        if (!(instruction instanceof AssignInstruction assign) || !(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand
+                || !(assign.getRhs() instanceof BinaryOpInstruction comparison) || !isComparison(comparison.getOperation().getOpType())
+                || !(next instanceof CondBranchInstruction branch) || uses.getOrDefault(dest.getName(), 0) != 1)
+            return false;
+        OperationType operation = comparison.getOperation().getOpType();
+        Element tested;
+        if (branch.getCondition() instanceof SingleOpInstruction single) {
+            tested = single.getSingleOperand();
+        } else if (branch.getCondition() instanceof UnaryOpInstruction not && not.getOperation().getOpType() == OperationType.NOTB) {
+            tested = not.getOperand();
+            operation = negated(operation);
+        } else {
+            return false;
+        }
+        if (tested.isLiteral() || !((Operand) tested).getName().equals(dest.getName()))
+            return false;
+        compareAndBranch(comparison.getLeftOperand(), operation, comparison.getRightOperand(), branch.getLabel(), varTable, code);
+        CompilerStats.count("jasmin.fusedBranches", 1);
+        return true;
+    }
+
+    private void handleDifferentIfs(SingleOpInstruction singleOpInstruction, String label, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        handleLiteral(singleOpInstruction.getSingleOperand(), varTable, code);
+        code.add(new JasminInstruction("ifne", label));
+    }
+
+    private void handleDifferentIfs(UnaryOpInstruction singleOpInstruction, String label, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        handleLiteral(singleOpInstruction.getOperand(), varTable, code);
+        code.add(new JasminInstruction("ifeq", label));
     }
 
-    private String processBranch(CondBranchInstruction instruction, HashMap<String, Descriptor> varTable) {
+    private void processBranch(CondBranchInstruction instruction, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
         if (instruction.getCondition() instanceof BinaryOpInstruction op)
-            return handleDifferentIfs(op, instruction.getLabel(), varTable);
+            handleDifferentIfs(op, instruction.getLabel(), varTable, code);
         else if (instruction.getCondition() instanceof SingleOpInstruction singleOpInstruction)
-            return handleDifferentIfs(singleOpInstruction, instruction.getLabel(), varTable);
+            handleDifferentIfs(singleOpInstruction, instruction.getLabel(), varTable, code);
         else if (instruction.getCondition() instanceof UnaryOpInstruction unaryOpInstruction) {
-            return handleDifferentIfs(unaryOpInstruction, instruction.getLabel(), varTable);
+            handleDifferentIfs(unaryOpInstruction, instruction.getLabel(), varTable, code);
         } else
-            return "PROCESS BRANCH\n";
+            code.add(new JasminInstruction("PROCESS BRANCH"));
     }
 
-    private String processReturn(ReturnInstruction instruction, HashMap<String, Descriptor> varTable) {
+    private void processReturn(ReturnInstruction instruction, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
         Element returnVar = instruction.getOperand();
         if (returnVar != null) {
             if (returnVar.isLiteral()) {
-                return handleLiteral(returnVar, varTable) + "\n" + handleType(returnVar.getType(), "return\n");
+                handleLiteral(returnVar, varTable, code);
             } else {
                 Operand tmp = (Operand) returnVar;
                 if (tmp.getName().equals("this"))
-                    return "aload_0" + "\n" + handleType(returnVar.getType(), "return\n");
-                return handleType(varTable.get(tmp.getName()).getVarType(), "load " + varTable.get(tmp.getName()).getVirtualReg()) + "\n" + handleType(returnVar.getType(), "return\n");
+                    code.add(new JasminInstruction("aload_0"));
+                else
+                    code.add(handleType(varTable.get(tmp.getName()).getVarType(), "load", varTable.get(tmp.getName()).getVirtualReg()));
             }
+            code.add(new JasminInstruction(handleType(returnVar.getType(), "return")));
+            return;
         }
-        return "return\n";
+        code.add(new JasminInstruction("return"));
+    }
+
+    private String fieldReference(Element object, Element field) {
+        return ((ClassType) object.getType()).getName() + "/" + ((Operand) field).getName();
     }
 
-    private String processGetField(GetFieldInstruction instruction, HashMap<String, Descriptor> varTable) {
-        return handleType(varTable.get(((Operand) instruction.getFirstOperand()).getName()).getVarType(), "load_" + varTable.get(((Operand) instruction.getFirstOperand()).getName()).getVirtualReg()) + "\n" +
-                "getfield " + ((ClassType) instruction.getFirstOperand().getType()).getName() + "/" + ((Operand) instruction.getSecondOperand()).getName() + " " + outputType(instruction.getSecondOperand().getType()) + "\n";
+    private void processGetField(GetFieldInstruction instruction, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        Descriptor object = varTable.get(((Operand) instruction.getFirstOperand()).getName());
+        code.add(handleType(object.getVarType(), "load", object.getVirtualReg()));
+        code.add(new JasminInstruction("getfield", fieldReference(instruction.getFirstOperand(), instruction.getSecondOperand()), outputType(instruction.getSecondOperand().getType())));
     }
 
-    private String processPutField(PutFieldInstruction instruction, HashMap<String, Descriptor> varTable) {
-        return handleType(varTable.get(((Operand) instruction.getFirstOperand()).getName()).getVarType(), "load_" + varTable.get(((Operand) instruction.getFirstOperand()).getName()).getVirtualReg()) + "\n" +
-                handleLiteral(instruction.getThirdOperand(), varTable) +
-                "putfield " + ((ClassType) instruction.getFirstOperand().getType()).getName() + "/" + ((Operand) instruction.getSecondOperand()).getName() + " " + outputType(instruction.getThirdOperand().getType()) + "\n";
+    private void processPutField(PutFieldInstruction instruction, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        Descriptor object = varTable.get(((Operand) instruction.getFirstOperand()).getName());
+        code.add(handleType(object.getVarType(), "load", object.getVirtualReg()));
+        handleLiteral(instruction.getThirdOperand(), varTable, code);
+        code.add(new JasminInstruction("putfield", fieldReference(instruction.getFirstOperand(), instruction.getSecondOperand()), outputType(instruction.getThirdOperand().getType())));
     }
 
-    private String processUnaryOp(UnaryOpInstruction instruction, HashMap<String, Descriptor> varTable) {
-        String operation = instruction.getOperation().getOpType().name(), code = "";
+    private void processUnaryOp(UnaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
+        String operation = instruction.getOperation().getOpType().name();
+        handleLiteral(instruction.getOperand(), varTable, code);
         if (operation.equals("NOT") || operation.equals("NOTB")) {
-            code += "iconst_1\n";
-            code += "ixor";
-            return handleLiteral(instruction.getOperand(), varTable) + code + "\n";
+            code.add(new JasminInstruction("iconst_1"));
+            code.add(new JasminInstruction("ixor"));
+            return;
         }
-        return handleLiteral(instruction.getOperand(), varTable) + instruction.getOperation().getOpType().name().toLowerCase() + "\n";
+        code.add(new JasminInstruction(operation.toLowerCase()));
     }
 
-    private String handleLiteral(Element element, HashMap<String, Descriptor> varTable) {
+    private void handleLiteral(Element element, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
         if (element.isLiteral()) {
             LiteralElement tmp = ((LiteralElement) element);
 
             if (element.getType().getTypeOfElement().name().equals("INT32") || element.getType().getTypeOfElement().name().equals("BOOLEAN"))
-                return addToOperandStack(Integer.parseInt(tmp.getLiteral()));
-
-            if (element.getType().getTypeOfElement().name().equals("STRING"))
-                return addToOperandStack(tmp.getLiteral());
-
-            return "ERROR HANDLE LITERAL\n";
+                code.add(addToOperandStack(Integer.parseInt(tmp.getLiteral())));
+            else if (element.getType().getTypeOfElement().name().equals("STRING"))
+                code.add(addToOperandStack(tmp.getLiteral()));
+            else
+                code.add(new JasminInstruction("ERROR HANDLE LITERAL"));
+            return;
         }
 
         if (element instanceof Operand operand && element.getType().getTypeOfElement().name().equals("BOOLEAN") && (operand.getName().equals("true") || operand.getName().equals("false"))) {
-            return addToOperandStack(operand.getName().equals("true") ? 1 : 0);
+            code.add(addToOperandStack(operand.getName().equals("true") ? 1 : 0));
+            return;
         }
 
         if (element instanceof ArrayOperand tmp) {
-            String res = handleType(varTable.get(tmp.getName()).getVarType(), "load " + varTable.get(tmp.getName()).getVirtualReg()) + "\n";
-            res += handleLiteral(tmp.getIndexOperands().get(0), varTable) + "\n";
-            res += handleType(tmp.getType(), "aload") + "\n";
-            return res;
+            code.add(handleType(varTable.get(tmp.getName()).getVarType(), "load", varTable.get(tmp.getName()).getVirtualReg()));
+            handleLiteral(tmp.getIndexOperands().get(0), varTable, code);
+            code.add(new JasminInstruction(handleType(tmp.getType(), "aload")));
+            return;
         }
 
-        return (handleType(varTable.get(((Operand) element).getName()).getVarType(), "load " + varTable.get(((Operand) element).getName()).getVirtualReg())) + "\n";
+        Descriptor descriptor = varTable.get(((Operand) element).getName());
+        code.add(handleType(descriptor.getVarType(), "load", descriptor.getVirtualReg()));
     }
 
-    private String processBinaryOp(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable) {
-        StringBuilder code = new StringBuilder();
+    private void processBinaryOp(BinaryOpInstruction instruction, HashMap<String, Descriptor> varTable, List<JasminInstruction> code) {
         String operation = instruction.getOperation().getOpType().toString().toLowerCase();
         Element leftOperand = instruction.getLeftOperand(), rightOperand = instruction.getRightOperand();
         if (this.dest instanceof Operand destOperand) {
@@ -582,8 +739,8 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
                 if (sameVariable) {
                     int amount = Integer.parseInt(((LiteralElement) rightOperand).getLiteral()) * (operation.equals("sub") ? -1 : 1);
                     if (amount >= -128 && amount <= 127 && varTable.get(((Operand) leftOperand).getName()) != null) {
-                        code.append("iinc ").append(varTable.get(((Operand) leftOperand).getName()).getVirtualReg()).append(" ").append(amount).append("\n");
-                        return code.toString();
+                        code.add(new JasminInstruction("iinc", String.valueOf(varTable.get(((Operand) leftOperand).getName()).getVirtualReg()), String.valueOf(amount)));
+                        return;
                     }
                 }
             }
@@ -593,37 +750,33 @@ public class JasminConverter implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
                 if (sameVariable) {
                     int amount = Integer.parseInt(((LiteralElement) leftOperand).getLiteral()) * (operation.equals("sub") ? -1 : 1);
                     if (amount >= -128 && amount <= 127 && varTable.get(((Operand) rightOperand).getName()) != null) {
-                        code.append("iinc ").append(varTable.get(((Operand) rightOperand).getName()).getVirtualReg()).append(" ").append(amount).append("\n");
-                        return code.toString();
+                        code.add(new JasminInstruction("iinc", String.valueOf(varTable.get(((Operand) rightOperand).getName()).getVirtualReg()), String.valueOf(amount)));
+                        return;
                     }
                 }
             }
         }
 
-        code.append(handleLiteral(leftOperand, varTable));
-        code.append(handleLiteral(rightOperand, varTable));
+        // a < b: jump to push 1 when it holds
+        if (isComparison(instruction.getOperation().getOpType())) {
+            String trueLabel = getNextLabel(), doneLabel = getNextLabel();
+            compareAndBranch(leftOperand, instruction.getOperation().getOpType(), rightOperand, trueLabel, varTable, code);
+            code.add(addToOperandStack(0));
+            code.add(new JasminInstruction("goto", doneLabel));
+            code.add(JasminInstruction.label(trueLabel));
+            code.add(addToOperandStack(1));
+            code.add(JasminInstruction.label(doneLabel));
+            return;
+        }
+        handleLiteral(leftOperand, varTable, code);
+        handleLiteral(rightOperand, varTable, code);
+        String prefix = "";
         if (operation.equals("add") || operation.equals("mul") || operation.equals("div") || operation.equals("sub"))
-            code.append("i");
+            prefix = "i";
         if (operation.equals("andb") || operation.equals("orb")) {
-            code.append("i");
+            prefix = "i";
             operation = operation.substring(0, operation.length() - 1);
         }
-        // a < b: a-b < 0
-        if (operation.equals("lth") || operation.equals("gth") || operation.equals("lte") || operation.equals("gte") || operation.equals("eq") || operation.equals("neq")) {
-            String ifType = "";
-            switch (operation) {
-                case "lth" -> ifType = "iflt";
-                case "gth" -> ifType = "ifgt";
-                case "lte" -> ifType = "ifle";
-                case "gte" -> ifType = "ifge";
-                case "eq" -> ifType = "ifeq";
-                case "neq" -> ifType = "ifne";
-            }
-            String trueLabel = getNextLabel(), doneLabel = getNextLabel();
-            code.append("isub\n").append(ifType).append(" ").append(trueLabel).append("\n").append(addToOperandStack(0)).append("goto ").append(doneLabel).append("\n").append(trueLabel).append(":\n").append(addToOperandStack(1)).append(doneLabel).append(":\n");
-        } else {
-            code.append(operation).append("\n");
-        }
-        return code.toString();
+        code.add(new JasminInstruction(prefix + operation));
     }
 }
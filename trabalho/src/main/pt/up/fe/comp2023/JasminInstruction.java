@@ -0,0 +1,72 @@
+package pt.up.fe.comp2023;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One line of a Jasmin method body: either an instruction with its operands (written as Jasmin would read them, e.g.
+ * "io/println(I)V" or "Foo/a I") or a label.
+ */
+public class JasminInstruction {
+
+    private final String opcode;
+    private final List<String> operands;
+    private final String label;
+
+    public JasminInstruction(String opcode, String... operands) {
+        this.opcode = opcode;
+        this.operands = Arrays.asList(operands);
+        this.label = null;
+    }
+
+    private JasminInstruction(String label) {
+        this.opcode = null;
+        this.operands = List.of();
+        this.label = label;
+    }
+
+    public static JasminInstruction label(String name) {
+        return new JasminInstruction(name);
+    }
+
+    public boolean isLabel() {
+        return label != null;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getOpcode() {
+        return opcode;
+    }
+
+    public List<String> getOperands() {
+        return operands;
+    }
+
+    public String getOperand(int index) {
+        return operands.get(index);
+    }
+
+    /**
+     * Writes the line as Jasmin reads it, without building a string for it first.
+     */
+    public void appendTo(StringBuilder out) {
+        if (isLabel()) {
+            out.append(label).append(':');
+            return;
+        }
+        out.append(opcode);
+        for (String operand : operands) {
+            out.append(' ').append(operand);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        appendTo(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,270 @@
+package pt.up.fe.comp2023;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Peephole optimizer over the code of a Jasmin method. Each rule looks at a window of consecutive instructions and
+ * either leaves it alone or gives the instructions that replace it. The code is streamed into an output list, and the
+ * rules are tried on the window that ends at each instruction added; a replacement goes back to the input, so it can
+ * match again with the instructions before it. Passes repeat until one changes nothing. The rules that depend on the
+ * rest of the method (whether a local is read elsewhere, whether a label is jumped to) use counts that are kept up to
+ * date as the code changes.
+ */
+public class JasminPeephole {
+
+    private static class Rule {
+        private final String name;
+        private final int size;
+        private final Function<List<JasminInstruction>, List<JasminInstruction>> rewrite;
+
+        private Rule(String name, int size, Function<List<JasminInstruction>, List<JasminInstruction>> rewrite) {
+            this.name = name;
+            this.size = size;
+            this.rewrite = rewrite;
+        }
+    }
+
+    private static final Pattern LOCAL = Pattern.compile("([ia])(load|store)(?:_(\\d))?");
+    private static final Set<String> PUSHES = Set.of("iconst_m1", "iconst_0", "iconst_1", "iconst_2", "iconst_3",
+            "iconst_4", "iconst_5", "bipush", "sipush", "ldc", "dup");
+    private static final Set<String> ENDS = Set.of("goto", "return", "ireturn", "areturn");
+
+    // A null replacement means the rule doesn't apply to the window
+    private final List<Rule> rules = List.of(
+            new Rule("storeLoad", 2, this::storeLoad),
+            new Rule("deadStore", 1, this::deadStore),
+            new Rule("pushPop", 2, this::pushPop),
+            new Rule("constantBranch", 2, this::constantBranch),
+            new Rule("negatedBranch", 3, this::negatedBranch),
+            new Rule("materializedBranch", 7, this::materializedBranch),
+            new Rule("jumpToNext", 2, this::jumpToNext),
+            new Rule("unreachable", 2, this::unreachable),
+            new Rule("unusedLabel", 1, this::unusedLabel)
+    );
+
+    private List<JasminInstruction> code;
+    // Label -> jumps to it, local -> instructions that read it
+    private final Map<String, Integer> jumps = new HashMap<>();
+    private final Map<Integer, Integer> reads = new HashMap<>();
+    private final Map<String, Integer> hits = new LinkedHashMap<>();
+
+    public JasminPeephole(List<JasminInstruction> code) {
+        this.code = new ArrayList<>(code);
+        for (JasminInstruction instruction : code) {
+            track(instruction, 1);
+        }
+    }
+
+    /**
+     * Whether the peephole optimizer runs: when the peephole option says so, otherwise with the optimizations.
+     */
+    public static boolean isEnabled(Map<String, String> config) {
+        if (config == null)
+            return false;
+        String peephole = config.get("peephole");
+        return peephole != null ? peephole.equals("true") : "true".equals(config.get("optimize"));
+    }
+
+    /**
+     * Applies the rules until none matches and returns the optimized code. The number of times each rule applied is
+     * recorded in the stats as peephole.&lt;rule&gt;.
+     */
+    public List<JasminInstruction> apply() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Deque<JasminInstruction> input = new ArrayDeque<>(code);
+            List<JasminInstruction> output = new ArrayList<>(code.size());
+            while (!input.isEmpty()) {
+                output.add(input.poll());
+                for (Rule rule : rules) {
+                    if (output.size() < rule.size)
+                        continue;
+                    List<JasminInstruction> window = output.subList(output.size() - rule.size, output.size());
+                    List<JasminInstruction> replacement = rule.rewrite.apply(window);
+                    if (replacement == null)
+                        continue;
+                    for (JasminInstruction instruction : window) {
+                        track(instruction, -1);
+                    }
+                    window.clear();
+                    for (int i = replacement.size() - 1; i >= 0; i--) {
+                        track(replacement.get(i), 1);
+                        input.push(replacement.get(i));
+                    }
+                    hits.merge(rule.name, 1, Integer::sum);
+                    changed = true;
+                    break;
+                }
+            }
+            code = output;
+        }
+        for (Map.Entry<String, Integer> entry : hits.entrySet()) {
+            CompilerStats.count("peephole." + entry.getKey(), entry.getValue());
+        }
+        return code;
+    }
+
+    public Map<String, Integer> getHits() {
+        return hits;
+    }
+
+    private void track(JasminInstruction instruction, int amount) {
+        if (isJump(instruction))
+            jumps.merge(instruction.getOperand(0), amount, Integer::sum);
+        else if (isLoad(instruction) || "iinc".equals(instruction.getOpcode()))
+            reads.merge(local(instruction), amount, Integer::sum);
+    }
+
+    private static boolean isJump(JasminInstruction instruction) {
+        return !instruction.isLabel() && (instruction.getOpcode().equals("goto") || instruction.getOpcode().startsWith("if"));
+    }
+
+    private static boolean isBranchOnZero(JasminInstruction instruction) {
+        return !instruction.isLabel() && (instruction.getOpcode().equals("ifeq") || instruction.getOpcode().equals("ifne"));
+    }
+
+    private static boolean isLoad(JasminInstruction instruction) {
+        return !instruction.isLabel() && LOCAL.matcher(instruction.getOpcode()).matches() && instruction.getOpcode().contains("load");
+    }
+
+    private static boolean isStore(JasminInstruction instruction) {
+        return !instruction.isLabel() && LOCAL.matcher(instruction.getOpcode()).matches() && instruction.getOpcode().contains("store");
+    }
+
+    /**
+     * The local an instruction loads, stores or increments, in either the short (iload_1) or the long (iload 4) form.
+     */
+    private static int local(JasminInstruction instruction) {
+        Matcher matcher = LOCAL.matcher(instruction.getOpcode());
+        if (matcher.matches() && matcher.group(3) != null)
+            return Integer.parseInt(matcher.group(3));
+        return Integer.parseInt(instruction.getOperand(0));
+    }
+
+    private static boolean is(JasminInstruction instruction, String opcode) {
+        return !instruction.isLabel() && instruction.getOpcode().equals(opcode);
+    }
+
+    /**
+     * The branch taken exactly when the given one isn't: ifeq is ifne, if_icmplt is if_icmpge, ifnull is ifnonnull...
+     */
+    private static String negated(String opcode) {
+        if (opcode.equals("ifnull"))
+            return "ifnonnull";
+        if (opcode.equals("ifnonnull"))
+            return "ifnull";
+        int split = opcode.startsWith("if_icmp") || opcode.startsWith("if_acmp") ? "if_icmp".length() : "if".length();
+        String condition = switch (opcode.substring(split)) {
+            case "eq" -> "ne";
+            case "ne" -> "eq";
+            case "lt" -> "ge";
+            case "ge" -> "lt";
+            case "gt" -> "le";
+            case "le" -> "gt";
+            default -> throw new RuntimeException("No negation for branch " + opcode);
+        };
+        return opcode.substring(0, split) + condition;
+    }
+
+    /**
+     * istore n; iload n, when nothing else reads n: the value stays on the stack.
+     */
+    private List<JasminInstruction> storeLoad(List<JasminInstruction> window) {
+        JasminInstruction store = window.get(0), load = window.get(1);
+        if (!isStore(store) || !isLoad(load) || store.getOpcode().charAt(0) != load.getOpcode().charAt(0))
+            return null;
+        int local = local(store);
+        return local == local(load) && reads.getOrDefault(local, 0) == 1 ? List.of() : null;
+    }
+
+    /**
+     * A store to a local that is never read, or an iinc of one, only has to drop the value.
+     */
+    private List<JasminInstruction> deadStore(List<JasminInstruction> window) {
+        JasminInstruction instruction = window.get(0);
+        if (isStore(instruction) && reads.getOrDefault(local(instruction), 0) == 0)
+            return List.of(new JasminInstruction("pop"));
+        if (is(instruction, "iinc") && reads.getOrDefault(local(instruction), 0) == 1)
+            return List.of();
+        return null;
+    }
+
+    /**
+     * A value without side effects that is pushed and popped right away.
+     */
+    private List<JasminInstruction> pushPop(List<JasminInstruction> window) {
+        JasminInstruction push = window.get(0);
+        if (!is(window.get(1), "pop") || push.isLabel() || !PUSHES.contains(push.getOpcode()) && !isLoad(push))
+            return null;
+        return List.of();
+    }
+
+    /**
+     * iconst_0; ifeq L always jumps, iconst_0; ifne L never does (and the same with 1).
+     */
+    private List<JasminInstruction> constantBranch(List<JasminInstruction> window) {
+        JasminInstruction constant = window.get(0), branch = window.get(1);
+        if (!isBranchOnZero(branch) || !is(constant, "iconst_0") && !is(constant, "iconst_1"))
+            return null;
+        boolean zero = is(constant, "iconst_0");
+        if (zero == is(branch, "ifeq"))
+            return List.of(new JasminInstruction("goto", branch.getOperand(0)));
+        return List.of();
+    }
+
+    /**
+     * iconst_1; ixor; ifeq L, the negation of a boolean followed by a branch on it, branches on the boolean itself.
+     */
+    private List<JasminInstruction> negatedBranch(List<JasminInstruction> window) {
+        JasminInstruction branch = window.get(2);
+        if (!is(window.get(0), "iconst_1") || !is(window.get(1), "ixor") || !isBranchOnZero(branch))
+            return null;
+        return List.of(new JasminInstruction(negated(branch.getOpcode()), branch.getOperand(0)));
+    }
+
+    /**
+     * if&lt;cond&gt; T; iconst_0; goto D; T: iconst_1; D: ifeq L, a comparison turned into 0 or 1 only to be branched on,
+     * branches on the comparison when nothing else jumps to T or D.
+     */
+    private List<JasminInstruction> materializedBranch(List<JasminInstruction> window) {
+        JasminInstruction compare = window.get(0), branch = window.get(6);
+        if (!isJump(compare) || is(compare, "goto") || !is(window.get(1), "iconst_0") || !is(window.get(2), "goto")
+                || !window.get(3).isLabel() || !is(window.get(4), "iconst_1") || !window.get(5).isLabel() || !isBranchOnZero(branch))
+            return null;
+        String true_label = window.get(3).getLabel(), done_label = window.get(5).getLabel();
+        if (!compare.getOperand(0).equals(true_label) || !window.get(2).getOperand(0).equals(done_label)
+                || jumps.get(true_label) != 1 || jumps.get(done_label) != 1)
+            return null;
+        String opcode = is(branch, "ifne") ? compare.getOpcode() : negated(compare.getOpcode());
+        return List.of(new JasminInstruction(opcode, branch.getOperand(0)));
+    }
+
+    /**
+     * goto L; L: falls through to L anyway.
+     */
+    private List<JasminInstruction> jumpToNext(List<JasminInstruction> window) {
+        JasminInstruction jump = window.get(0), label = window.get(1);
+        if (!is(jump, "goto") || !label.isLabel() || !label.getLabel().equals(jump.getOperand(0)))
+            return null;
+        return List.of(label);
+    }
+
+    /**
+     * What follows a goto or a return, up to the next label, never runs.
+     */
+    private List<JasminInstruction> unreachable(List<JasminInstruction> window) {
+        JasminInstruction end = window.get(0);
+        if (end.isLabel() || !ENDS.contains(end.getOpcode()) || window.get(1).isLabel())
+            return null;
+        return List.of(end);
+    }
+
+    private List<JasminInstruction> unusedLabel(List<JasminInstruction> window) {
+        JasminInstruction label = window.get(0);
+        return label.isLabel() && jumps.getOrDefault(label.getLabel(), 0) == 0 ? List.of() : null;
+    }
+}
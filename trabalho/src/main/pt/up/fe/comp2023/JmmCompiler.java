@@ -0,0 +1,211 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.specs.util.SpecsSystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the whole pipeline (parse, semantic analysis, OLLIR generation, optimizations and Jasmin generation) for a
+ * single source. Every call creates its own stage instances, so the same JmmCompiler can be used from several threads.
+ */
+public class JmmCompiler {
+
+    public static class Result {
+        private final List<Report> reports;
+        private final OllirResult ollirResult;
+        private final JasminResult jasminResult;
+        private final String cachedOllirCode;
+        private final boolean cached;
+        private CompilerStats stats;
+
+        Result(List<Report> reports, OllirResult ollirResult, JasminResult jasminResult) {
+            this(reports, ollirResult, jasminResult, null, false);
+        }
+
+        private Result(List<Report> reports, OllirResult ollirResult, JasminResult jasminResult, String cachedOllirCode, boolean cached) {
+            this.reports = reports;
+            this.ollirResult = ollirResult;
+            this.jasminResult = jasminResult;
+            this.cachedOllirCode = cachedOllirCode;
+            this.cached = cached;
+        }
+
+        public List<Report> getReports() {
+            return reports;
+        }
+
+        public OllirResult getOllirResult() {
+            return ollirResult;
+        }
+
+        public JasminResult getJasminResult() {
+            return jasminResult;
+        }
+
+        public String getOllirCode() {
+            return ollirResult != null ? ollirResult.getOllirCode() : cachedOllirCode;
+        }
+
+        public boolean isSuccess() {
+            return jasminResult != null;
+        }
+
+        /**
+         * Results that come from the cache carry no OllirResult, only the OLLIR and Jasmin code and the reports.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        /**
+         * Only present when the compilation ran with the "stats" option.
+         */
+        public CompilerStats getStats() {
+            return stats;
+        }
+    }
+
+    private final CompilationCache cache;
+
+    public JmmCompiler() {
+        this(null);
+    }
+
+    public JmmCompiler(CompilationCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * The parser rule is looked up through a method cache in SpecsSystem that is not synchronized. Filling it once
+     * before starting the workers means they only ever read from it.
+     */
+    public static void prepareConcurrentUse() {
+        SpecsSystem.getMethod(JavammParser.class, new SimpleParser().getDefaultRule());
+    }
+
+    public Result compile(String code, Map<String, String> config) {
+        if (!"true".equals(config.get("stats")))
+            return compileCached(code, config);
+
+        CompilerStats stats = new CompilerStats();
+        stats.attach();
+        try {
+            Result result = compileCached(code, config);
+            result.stats = stats;
+            return result;
+        } finally {
+            stats.detach();
+        }
+    }
+
+    private Result compileCached(String code, Map<String, String> config) {
+        if (cache == null)
+            return run(code, config);
+
+        CompilerStats.Timer timer = CompilerStats.start("cacheLookup");
+        String key = CompilationCache.key(code, config);
+        CompilationCache.Entry entry = cache.get(key);
+        CompilerStats.stop(timer);
+        if (entry != null)
+            return fromEntry(entry, config);
+
+        Result result = run(code, config);
+        try {
+            cache.put(key, toEntry(result));
+        } catch (IOException e) {
+            List<Report> reports = new ArrayList<>(result.getReports());
+            reports.add(CompilationCache.failedWrite(key, e));
+            return new Result(reports, result.getOllirResult(), result.getJasminResult());
+        }
+        return result;
+    }
+
+    private Result run(String code, Map<String, String> config) {
+        CompilerStats.Timer timer = CompilerStats.start("parse");
+        JmmParserResult parserResult = new SimpleParser().parse(code, config);
+        CompilerStats.stop(timer);
+        if (parserResult == null) {
+            return failure(new Report(ReportType.ERROR, Stage.SYNTATIC, -1, -1, "[PARSING ERROR] Invalid characters detected, terminating."));
+        }
+        if (parserResult.getRootNode() == null) {
+            return new Result(parserResult.getReports(), null, null);
+        }
+        if (CompilerStats.current() != null)
+            CompilerStats.count("astNodes", countNodes(parserResult.getRootNode()));
+
+        timer = CompilerStats.start("semanticAnalysis");
+        JmmSemanticsResult semanticsResult = new SemanticAnalyser().semanticAnalysis(parserResult);
+        CompilerStats.stop(timer);
+        if (!semanticsResult.getReports().isEmpty()) {
+            return new Result(semanticsResult.getReports(), null, null);
+        }
+
+        OllirParser ollirParser = new OllirParser();
+        timer = CompilerStats.start("toOllir");
+        OllirResult ollirResult = ollirParser.toOllir(semanticsResult);
+        CompilerStats.stop(timer);
+
+        timer = CompilerStats.start("optimizeOllir");
+        ollirResult = ollirParser.optimize(ollirResult);
+        CompilerStats.stop(timer);
+        if (hasErrors(ollirResult.getReports())) {
+            return new Result(ollirResult.getReports(), ollirResult, null);
+        }
+
+        timer = CompilerStats.start("toJasmin");
+        JasminResult jasminResult = ClassFileBackend.of(config).toJasmin(ollirResult);
+        CompilerStats.stop(timer);
+        List<Report> reports = new ArrayList<>(ollirResult.getReports());
+        reports.addAll(jasminResult.getReports());
+        return new Result(reports, ollirResult, jasminResult);
+    }
+
+    /**
+     * Only errors stop the pipeline: a warning, like the one for spilled registers, still gives working code.
+     */
+    static boolean hasErrors(List<Report> reports) {
+        return reports.stream().anyMatch(report -> report.getType() == ReportType.ERROR);
+    }
+
+    static int countNodes(JmmNode node) {
+        int count = 1;
+        for (JmmNode child : node.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    static Result fromEntry(CompilationCache.Entry entry, Map<String, String> config) {
+        List<Report> reports = new ArrayList<>();
+        for (CompileServer.ReportEntry report : entry.reports) {
+            reports.add(report.toReport());
+        }
+        JasminResult jasminResult = null;
+        if (entry.classFile != null)
+            jasminResult = new ClassFileBackend.ClassFileResult(entry.className, entry.jasmin, Base64.getDecoder().decode(entry.classFile), reports, config);
+        else if (entry.jasmin != null)
+            jasminResult = new InProcessRunner.Result(entry.className, entry.jasmin, reports, config);
+        return new Result(reports, null, jasminResult, entry.ollir, true);
+    }
+
+    private static CompilationCache.Entry toEntry(Result result) {
+        return CompilationCache.entryOf(result.getReports(), result.getOllirCode(), result.getJasminResult());
+    }
+
+    private Result failure(Report report) {
+        return new Result(Collections.singletonList(report), null, null);
+    }
+}
@@ -1,12 +1,19 @@
 package pt.up.fe.comp2023;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
@@ -19,13 +26,47 @@ import pt.up.fe.comp.jmm.ollir.OllirResult;
 
 public class Launcher {
 
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException {
         // Setups console logging and other things
         SpecsSystem.programStandardInit();
 
         // Parse arguments as a map with predefined options
         var config = parseArgs(args);
 
+        // Everything but starting or stopping the server needs something to compile
+        if (getInputs(args).isEmpty() && !config.containsKey("serverPort") && !config.containsKey("stopServer")) {
+            printUsage();
+            System.exit(1);
+        }
+
+        // Resident compiler, and the thin client that talks to it
+        if (config.containsKey("serverPort")) {
+            new CompileServer(Integer.parseInt(config.get("serverPort")), Integer.parseInt(config.get("threads")), createCache(config)).run();
+            return;
+        }
+        if (config.containsKey("clientPort")) {
+            CompileClient client = new CompileClient(Integer.parseInt(config.get("clientPort")));
+            if (config.containsKey("stopServer")) {
+                client.shutdownServer();
+                return;
+            }
+            File outputDir = config.containsKey("outputDir") ? new File(config.get("outputDir")) : null;
+            try {
+                int failed = client.compile(BatchCompiler.collectInputFiles(getInputs(args)), config, outputDir);
+                System.exit(failed == 0 ? 0 : 1);
+            } catch (ConnectException e) {
+                // The jmm scripts always try the server first; without one the files are compiled here
+                config.remove("clientPort");
+            }
+        }
+
+        // Several files (or a folder) are compiled concurrently
+        List<String> inputs = getInputs(args);
+        if (inputs.size() > 1 || new File(inputs.get(0)).isDirectory() || inputs.get(0).startsWith("@")) {
+            compileBatch(inputs, config);
+            return;
+        }
+
         // Get input file
         File inputFile = new File(config.get("inputFile"));
 
@@ -37,45 +78,81 @@ public class Launcher {
         // Read contents of input file
         String code = SpecsIo.read(inputFile);
 
+        // Per-phase metrics, only collected with --stats
+        CompilerStats stats = null;
+        if ("true".equals(config.get("stats"))) {
+            stats = new CompilerStats();
+            stats.attach();
+        }
+
+        // An unchanged file compiled with the same options skips every stage, and prints what a full run would
+        CompilationCache cache = createCache(config);
+        String cacheKey = null;
+        CompilationCache.Entry cached = null;
+        if (cache != null) {
+            CompilerStats.Timer timer = CompilerStats.start("cacheLookup");
+            cacheKey = CompilationCache.key(code, config);
+            cached = cache.get(cacheKey);
+            CompilerStats.stop(timer);
+        }
+        if (cached != null && cached.jasmin != null) {
+            JmmCompiler.Result result = JmmCompiler.fromEntry(cached, config);
+            for (Report temp : result.getReports()) {
+                System.out.println(temp);
+            }
+            System.out.println("Ollir code:");
+            System.out.println(result.getOllirCode());
+            printAndRun(result.getJasminResult());
+            finishStats(stats, config);
+            return;
+        }
 
         // Instantiate JmmParser
-        SimpleParser parser = new SimpleParser(), copyParser = new SimpleParser();
+        SimpleParser parser = new SimpleParser();
 
         // Parse stage
-        JmmParserResult parserResult = parser.parse(code, config), copyParserResult = copyParser.parse(code, config);
+        CompilerStats.Timer timer = CompilerStats.start("parse");
+        JmmParserResult parserResult = parser.parse(code, config);
+        CompilerStats.stop(timer);
         if (parserResult == null) {
             System.out.println(new Report(ReportType.ERROR, Stage.SYNTATIC, -1, -1, "[PARSING ERROR] Invalid characters detected, terminating."));
         } else if (parserResult.getRootNode() != null) {
 
-            SemanticAnalyser analyser = new SemanticAnalyser(), copyAnalyser = new SemanticAnalyser();
-            JmmSemanticsResult jmmSemanticsResult = analyser.semanticAnalysis(parserResult), copySemanticResult = copyAnalyser.semanticAnalysis(copyParserResult);
+            if (stats != null)
+                CompilerStats.count("astNodes", JmmCompiler.countNodes(parserResult.getRootNode()));
+
+            SemanticAnalyser analyser = new SemanticAnalyser();
+            timer = CompilerStats.start("semanticAnalysis");
+            JmmSemanticsResult jmmSemanticsResult = analyser.semanticAnalysis(parserResult);
+            CompilerStats.stop(timer);
 
             if (jmmSemanticsResult.getReports().isEmpty()) {
                 OllirParser ollirParser = new OllirParser();
+                timer = CompilerStats.start("toOllir");
                 OllirResult ollirResult = ollirParser.toOllir(jmmSemanticsResult);
+                CompilerStats.stop(timer);
+                timer = CompilerStats.start("optimizeOllir");
                 ollirResult = ollirParser.optimize(ollirResult);
-                if (ollirResult.getReports().size() == 0) {
+                CompilerStats.stop(timer);
+                if (!JmmCompiler.hasErrors(ollirResult.getReports())) {
+                    for (Report temp : ollirResult.getReports()) {
+                        System.out.println(temp);
+                    }
                     System.out.println("Ollir code:");
                     System.out.println(ollirResult.getOllirCode());
 
-
-                /**/if(true){
-                    OllirParser ollirParserCopy = new OllirParser();
-                    JmmSemanticsResult optimizedResult = new OptimizeAST().optimize(copySemanticResult);
-                    OllirResult ollirResultCopy = ollirParserCopy.toOllir(optimizedResult);
-                    System.out.println("Optimized Ollir code:");
-                    System.out.println(ollirResultCopy.getOllirCode());
-                    System.out.println("\n\n\n\n-------------\nCODE IS EQUAL? "+ollirResultCopy.getOllirCode().equals(ollirResult.getOllirCode()));
-                }
-
-                    JasminConverter jasminConverter = new JasminConverter();
-                    JasminResult jasminResult = jasminConverter.toJasmin(ollirResult);
-                    System.out.println("=======================");
-                    System.out.println("Jasmin code:");
-                    System.out.println(jasminResult.getJasminCode());
-                    System.out.println("=======================");
-                    System.out.println("Output:");
-                    jasminResult.run();
+                    JasminBackend jasminBackend = ClassFileBackend.of(config);
+                    timer = CompilerStats.start("toJasmin");
+                    JasminResult jasminResult = jasminBackend.toJasmin(ollirResult);
+                    CompilerStats.stop(timer);
+                    if (cache != null) {
+                        try {
+                            cache.put(cacheKey, CompilationCache.entryOf(ollirResult.getReports(), ollirResult.getOllirCode(), jasminResult));
+                        } catch (IOException e) {
+                            System.err.println(CompilationCache.failedWrite(cacheKey, e));
+                        }
+                    }
+                    printAndRun(jasminResult);
                 } else {
                     System.out.println("OPTIMIZATION ERRORS:");
                     for (Report temp : ollirResult.getReports()) {
@@ -98,30 +175,185 @@ public class Launcher {
             }
         }
 
+        finishStats(stats, config);
     }
 
-    private static Map<String, String> parseArgs(String[] args) {
-        SpecsLogs.info("Executing with args: " + Arrays.toString(args));
+    private static void printAndRun(JasminResult jasminResult) {
+        System.out.println("=======================");
+        System.out.println("Jasmin code:");
+        System.out.println(jasminResult.getJasminCode());
+        System.out.println("=======================");
+        System.out.println("Output:");
+        jasminResult.run();
+    }
 
-        // Check if there is at least one argument
-        if (args.length < 1) {
-            throw new RuntimeException("Expected a single argument, a path to an existing input file.");
+    private static void finishStats(CompilerStats stats, Map<String, String> config) {
+        if (stats != null) {
+            stats.detach();
+            printStats(stats, config);
         }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: Launcher <file.jmm | folder | @list>... [options]");
+        System.out.println("  -o                     optimize");
+        System.out.println("  -r=<n> | -r=linear     register allocation with n registers (0 for the minimum) or linear scan");
+        System.out.println("  --rotate-loops         rotate while loops into do-while form");
+        System.out.println("  --peephole | --no-peephole");
+        System.out.println("                         Jasmin peephole optimizer (on with -o by default)");
+        System.out.println("  --backend=classfile | --backend=jasmin");
+        System.out.println("                         write class files directly (default) or assemble the Jasmin text");
+        System.out.println("  -j=<n>                 threads for batch compilation and method optimization");
+        System.out.println("  -d=<folder>            write the class files to folder");
+        System.out.println("  --cache[=<folder>]     reuse earlier compilations (--cache-limit=<MB>)");
+        System.out.println("  --stats[=<file.json>]  per-phase metrics");
+        System.out.println("  --run-timeout=<ms>     time a compiled program may run in-process");
+        System.out.println("  --fork                 run compiled programs in a separate process");
+        System.out.println("  --debug                keep the register allocation logs in the reports");
+        System.out.println("  --server[=<port>]      start a compile server");
+        System.out.println("  --client[=<port>]      compile through a running server (--stop-server stops it)");
+    }
+
+    private static void compileBatch(List<String> inputs, Map<String, String> config) {
+        List<File> files = BatchCompiler.collectInputFiles(inputs);
+        int numThreads = Integer.parseInt(config.get("threads"));
+        File outputDir = config.containsKey("outputDir") ? new File(config.get("outputDir")) : null;
+
+        BatchCompiler batchCompiler = new BatchCompiler(config, numThreads, outputDir, createCache(config));
+        int failed = 0;
+        Map<String, CompilerStats> allStats = new LinkedHashMap<>();
+        for (BatchCompiler.FileResult fileResult : batchCompiler.compile(files)) {
+            JmmCompiler.Result result = fileResult.getResult();
+            if (!result.isSuccess())
+                failed++;
+
+            System.out.println((result.isSuccess() ? "[OK] " : "[FAILED] ") + fileResult.getFile().getPath());
+            for (Report report : result.getReports()) {
+                System.out.println("    " + report);
+            }
+            if (result.isCached())
+                System.out.println("    (cached)");
+            if (fileResult.getClassFile() != null)
+                System.out.println("    -> " + fileResult.getClassFile().getPath());
+            if (result.getStats() != null && !config.containsKey("statsFile"))
+                System.out.print(result.getStats().toString().indent(4));
+            if (result.getStats() != null)
+                allStats.put(fileResult.getFile().getPath(), result.getStats());
+        }
+        if (config.containsKey("statsFile")) {
+            JsonObject summary = new JsonObject();
+            for (Map.Entry<String, CompilerStats> entry : allStats.entrySet()) {
+                summary.add(entry.getKey(), entry.getValue().toJsonTree());
+            }
+            SpecsIo.write(new File(config.get("statsFile")), new GsonBuilder().setPrettyPrinting().create().toJson(summary));
+        }
+        System.out.println((files.size() - failed) + "/" + files.size() + " files compiled successfully.");
+    }
+
+    private static void printStats(CompilerStats stats, Map<String, String> config) {
+        if (config.containsKey("statsFile")) {
+            SpecsIo.write(new File(config.get("statsFile")), stats.toJson());
+        } else {
+            System.out.println("Compilation stats:");
+            System.out.println(stats);
+        }
+    }
+
+    private static CompilationCache createCache(Map<String, String> config) {
+        if (!config.containsKey("cacheDir"))
+            return null;
+        long limit = config.containsKey("cacheLimit") ? Long.parseLong(config.get("cacheLimit")) * 1024 * 1024 : CompilationCache.DEFAULT_LIMIT;
+        return new CompilationCache(new File(config.get("cacheDir")), limit);
+    }
+
+    private static String getPort(String arg) {
+        String[] parts = arg.split("=");
+        return parts.length == 2 ? parts[1] : String.valueOf(CompileServer.DEFAULT_PORT);
+    }
+
+    private static List<String> getInputs(String[] args) {
+        List<String> inputs = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("-"))
+                inputs.add(arg);
+        }
+        return inputs;
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        SpecsLogs.info("Executing with args: " + Arrays.toString(args));
 
         // Create config
         Map<String, String> config = new HashMap<>();
-        config.put("inputFile", args[0]);
+        List<String> inputs = getInputs(args);
+        if (!inputs.isEmpty())
+            config.put("inputFile", inputs.get(0));
         config.put("optimize", "false");
         config.put("registerAllocation", "-1");
         config.put("debug", "false");
+        config.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
 
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("-o")) {
                 config.put("optimize", "true");
             }
+            if (args[i].equals("--rotate-loops")) {
+                config.put("rotateLoops", "true");
+            }
+            if (args[i].equals("--peephole") || args[i].equals("--no-peephole")) {
+                config.put("peephole", String.valueOf(args[i].equals("--peephole")));
+            }
             if (args[i].contains("-r=")) {
                 if (args[i].split("-r=").length == 2)
                     config.put("registerAllocation", args[i].split("-r=")[1]);
+                // A number of registers (0 for the minimum), or linear for linear-scan allocation
+                if (!config.get("registerAllocation").matches("-1|\\d+|linear"))
+                    throw new RuntimeException("Invalid register allocation option " + args[i] + ", expected -r=<n> or -r=linear.");
+            }
+            if (args[i].startsWith("-j=")) {
+                config.put("threads", args[i].substring(3));
+            }
+            if (args[i].startsWith("-d=")) {
+                config.put("outputDir", args[i].substring(3));
+            }
+            if (args[i].startsWith("--server")) {
+                config.put("serverPort", getPort(args[i]));
+            }
+            if (args[i].startsWith("--client")) {
+                config.put("clientPort", getPort(args[i]));
+            }
+            if (args[i].equals("--cache") || args[i].startsWith("--cache=")) {
+                config.put("cacheDir", args[i].contains("=") ? args[i].substring("--cache=".length()) : ".jmm-cache");
+            }
+            if (args[i].startsWith("--cache-limit=")) {
+                config.put("cacheLimit", args[i].substring("--cache-limit=".length()));
+            }
+            if (args[i].equals("--stats") || args[i].startsWith("--stats=")) {
+                config.put("stats", "true");
+                if (args[i].contains("="))
+                    config.put("statsFile", args[i].substring("--stats=".length()));
+            }
+            if (args[i].startsWith("--backend=")) {
+                // classfile writes the class files directly, jasmin assembles the printed text with jasmin.jar
+                config.put("backend", args[i].substring("--backend=".length()));
+                if (!config.get("backend").matches("classfile|jasmin"))
+                    throw new RuntimeException("Invalid backend option " + args[i] + ", expected --backend=classfile or --backend=jasmin.");
+            }
+            if (args[i].startsWith("--run-timeout=")) {
+                // Milliseconds a compiled program may run in-process
+                config.put("runTimeout", args[i].substring("--run-timeout=".length()));
+                if (!config.get("runTimeout").matches("\\d+"))
+                    throw new RuntimeException("Invalid run timeout " + args[i] + ", expected --run-timeout=<milliseconds>.");
+            }
+            if (args[i].equals("--debug")) {
+                config.put("debug", "true");
+            }
+            if (args[i].equals("--fork")) {
+                config.put("fork", "true");
+            }
+            if (args[i].equals("--stop-server")) {
+                config.putIfAbsent("clientPort", String.valueOf(CompileServer.DEFAULT_PORT));
+                config.put("stopServer", "true");
             }
         }
 
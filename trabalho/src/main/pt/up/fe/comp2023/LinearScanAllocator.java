@@ -0,0 +1,159 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Linear-scan register allocation (Poletto and Sarkar), for when compile time matters more than the last register.
+ * Each variable gets one live interval over the instructions in program order, from its liveness on the CFG, and the
+ * intervals are handed the lowest free local as they start. There is no limit on the registers, so nothing spills.
+ * Like RegisterAllocator, "this" keeps 0 and parameters keep their slots.
+ */
+public class LinearScanAllocator {
+
+    private final Method method;
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final Map<String, Integer> registers = new HashMap<>();
+    // Instruction i reads its operands at 2i and writes its result at 2i + 1
+    private int[] starts;
+    private int[] ends;
+    private int[] precolors;
+
+    public LinearScanAllocator(Method method) {
+        this.method = method;
+        build();
+    }
+
+    private void build() {
+        Liveness liveness = new Liveness(method);
+        int n = liveness.numVariables();
+        int[] ids = new int[n];
+        for (int v = 0; v < n; v++) {
+            String name = liveness.getVariable(v);
+            ids[v] = RegisterAllocator.isAllocatable(method, name) ? add(name) : -1;
+        }
+        // Parameters no instruction mentions still hold their slot, other such variables get any free one
+        for (Element param : method.getParams()) {
+            if (RegisterAllocator.isAllocatable(method, ((Operand) param).getName()))
+                add(((Operand) param).getName());
+        }
+        for (String name : method.getVarTable().keySet()) {
+            if (RegisterAllocator.isAllocatable(method, name))
+                add(name);
+        }
+
+        starts = new int[variables.size()];
+        ends = new int[variables.size()];
+        precolors = new int[variables.size()];
+        Arrays.fill(starts, Integer.MAX_VALUE);
+        Arrays.fill(ends, Integer.MIN_VALUE);
+        Arrays.fill(precolors, -1);
+        for (Element param : method.getParams()) {
+            String name = ((Operand) param).getName();
+            Integer index = indexes.get(name);
+            if (index != null) {
+                precolors[index] = method.getVarTable().get(name).getVirtualReg();
+                starts[index] = -1;
+                ends[index] = -1;
+            }
+        }
+
+        for (int i = 0; i < liveness.numInstructions(); i++) {
+            extend(ids, liveness.getLiveIn(i), 2 * i);
+            extend(ids, liveness.getUse(i), 2 * i);
+            extend(ids, liveness.getDef(i), 2 * i + 1);
+            extend(ids, liveness.getLiveOut(i), 2 * i + 1);
+        }
+        CompilerStats.count("regalloc.intervals", variables.size());
+    }
+
+    private int add(String name) {
+        Integer index = indexes.get(name);
+        if (index != null)
+            return index;
+        indexes.put(name, variables.size());
+        variables.add(name);
+        return variables.size() - 1;
+    }
+
+    private void extend(int[] ids, long[] set, int position) {
+        for (int w = 0; w < set.length; w++) {
+            long bits = set[w];
+            while (bits != 0) {
+                int id = ids[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                if (id != -1) {
+                    starts[id] = Math.min(starts[id], position);
+                    ends[id] = Math.max(ends[id], position);
+                }
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Assigns a local to every variable. Returns the number of locals the method needs.
+     */
+    public int allocate() {
+        int count = variables.size();
+        Integer[] order = new Integer[count];
+        for (int v = 0; v < count; v++) {
+            order[v] = v;
+        }
+        // Parameters start at -1, before any instruction, so they are active from the beginning
+        Arrays.sort(order, Comparator.comparingInt((Integer v) -> starts[v]).thenComparingInt(v -> v));
+
+        int reserved = method.isStaticMethod() ? 0 : 1;
+        int next_register = reserved;
+        for (int v = 0; v < count; v++) {
+            next_register = Math.max(next_register, precolors[v] + 1);
+        }
+        TreeSet<Integer> free = new TreeSet<>();
+        for (int register = reserved; register < next_register; register++) {
+            free.add(register);
+        }
+        for (int v = 0; v < count; v++) {
+            if (precolors[v] != -1)
+                free.remove(precolors[v]);
+        }
+
+        int[] assigned = new int[count];
+        PriorityQueue<Integer> active = new PriorityQueue<>(Comparator.comparingInt((Integer v) -> ends[v]).thenComparingInt(v -> v));
+        for (int v : order) {
+            while (!active.isEmpty() && ends[active.peek()] < starts[v]) {
+                free.add(assigned[active.poll()]);
+            }
+            if (precolors[v] != -1) {
+                assigned[v] = precolors[v];
+            } else if (!free.isEmpty()) {
+                assigned[v] = free.pollFirst();
+            } else {
+                assigned[v] = next_register++;
+            }
+            active.add(v);
+        }
+
+        for (int v = 0; v < count; v++) {
+            registers.put(variables.get(v), assigned[v]);
+        }
+        return next_register;
+    }
+
+    public int getRegister(String variable) {
+        Integer register = registers.get(variable);
+        return register == null ? -1 : register;
+    }
+
+    /**
+     * Writes the registers to the var table and removes the copies left between a variable and itself. Returns the
+     * number of instructions removed.
+     */
+    public int apply() {
+        for (Map.Entry<String, Descriptor> entry : method.getVarTable().entrySet()) {
+            if (RegisterAllocator.isAllocatable(method, entry.getKey()))
+                entry.getValue().setVirtualReg(getRegister(entry.getKey()));
+        }
+        return RegisterAllocator.removeCopies(method);
+    }
+}
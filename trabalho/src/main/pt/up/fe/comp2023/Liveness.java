@@ -0,0 +1,361 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Liveness of the variables of a method, on its CFG (Method.buildCFGs must have run). Variables are numbered densely
+ * and every def/use/in/out set is a long[] bitset, indexed by the position of the instruction in the method. The sets
+ * are solved with a worklist seeded in postorder, which is reverse postorder of the reversed CFG, so most nodes are
+ * final after one visit.
+ */
+public class Liveness {
+
+    private final List<Instruction> instructions;
+    private final Map<Node, Integer> indexes = new IdentityHashMap<>();
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> variable_indexes = new HashMap<>();
+    private final int words;
+    private final long[][] def;
+    private final long[][] use;
+    private final long[][] in;
+    private final long[][] out;
+
+    public Liveness(Method method) {
+        this.instructions = method.getInstructions();
+        int n = instructions.size();
+        for (int i = 0; i < n; i++) {
+            indexes.put(instructions.get(i), i);
+        }
+
+        List<DefAndUse> def_use = new ArrayList<>(n);
+        for (Instruction instruction : instructions) {
+            DefAndUse tmp = def_and_use_variables(instruction);
+            for (String name : tmp.def)
+                number(name);
+            for (String name : tmp.use)
+                number(name);
+            def_use.add(tmp);
+        }
+
+        this.words = (variables.size() + 63) >>> 6;
+        this.def = new long[n][words];
+        this.use = new long[n][words];
+        this.in = new long[n][words];
+        this.out = new long[n][words];
+        for (int i = 0; i < n; i++) {
+            for (String name : def_use.get(i).def)
+                set(def[i], variable_indexes.get(name));
+            for (String name : def_use.get(i).use)
+                set(use[i], variable_indexes.get(name));
+        }
+
+        solve(method);
+    }
+
+    public int numVariables() {
+        return variables.size();
+    }
+
+    public String getVariable(int index) {
+        return variables.get(index);
+    }
+
+    public int numInstructions() {
+        return instructions.size();
+    }
+
+    public int indexOf(Instruction instruction) {
+        return indexes.get(instruction);
+    }
+
+    public long[] getDef(int instruction) {
+        return def[instruction];
+    }
+
+    public long[] getUse(int instruction) {
+        return use[instruction];
+    }
+
+    public long[] getLiveIn(int instruction) {
+        return in[instruction];
+    }
+
+    public long[] getLiveOut(int instruction) {
+        return out[instruction];
+    }
+
+    /**
+     * Names of the variables in a set, in index order.
+     */
+    public List<String> names(long[] set) {
+        List<String> res = new ArrayList<>();
+        for (int w = 0; w < set.length; w++) {
+            long bits = set[w];
+            while (bits != 0) {
+                res.add(variables.get((w << 6) + Long.numberOfTrailingZeros(bits)));
+                bits &= bits - 1;
+            }
+        }
+        return res;
+    }
+
+    private void number(String name) {
+        if (!variable_indexes.containsKey(name)) {
+            variable_indexes.put(name, variables.size());
+            variables.add(name);
+        }
+    }
+
+    private static void set(long[] set, int index) {
+        set[index >>> 6] |= 1L << index;
+    }
+
+    private void solve(Method method) {
+        int n = instructions.size();
+        int[] order = postorder(method);
+        int[][] predecessors = new int[n][];
+        int[][] successors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            predecessors[i] = instruction_indexes(instructions.get(i).getPredecessors());
+            successors[i] = instruction_indexes(instructions.get(i).getSuccessors());
+        }
+
+        // Circular queue, each instruction is in it at most once
+        int[] queue = new int[n + 1];
+        boolean[] queued = new boolean[n];
+        int head = 0, tail = 0;
+        for (int i : order) {
+            queue[tail++] = i;
+            queued[i] = true;
+        }
+
+        long[] new_in = new long[words];
+        int visits = 0;
+        while (head != tail) {
+            int i = queue[head];
+            head = head == n ? 0 : head + 1;
+            queued[i] = false;
+            visits++;
+
+            // out[n] = U in[s], s in succ[n]
+            long[] live_out = out[i];
+            for (int s : successors[i]) {
+                long[] live_in = in[s];
+                for (int w = 0; w < words; w++)
+                    live_out[w] |= live_in[w];
+            }
+
+            // in[n] = use[n] U (out[n] - def[n])
+            boolean changed = false;
+            long[] live_in = in[i];
+            for (int w = 0; w < words; w++) {
+                new_in[w] = use[i][w] | (live_out[w] & ~def[i][w]);
+                changed |= new_in[w] != live_in[w];
+            }
+            if (!changed)
+                continue;
+            System.arraycopy(new_in, 0, live_in, 0, words);
+            for (int p : predecessors[i]) {
+                if (!queued[p]) {
+                    queued[p] = true;
+                    queue[tail] = p;
+                    tail = tail == n ? 0 : tail + 1;
+                }
+            }
+        }
+        CompilerStats.count("regalloc.livenessVisits", visits);
+    }
+
+    /**
+     * Postorder of the instructions from the begin node, iterative so long methods can't overflow the stack.
+     * Instructions the begin node doesn't reach are appended in program order.
+     */
+    private int[] postorder(Method method) {
+        int n = instructions.size();
+        int[] order = new int[n];
+        int count = 0;
+        boolean[] seen = new boolean[n];
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Integer> next_successor = new ArrayDeque<>();
+
+        for (int root = -1; root < n; root++) {
+            Node start;
+            if (root == -1) {
+                start = method.getBeginNode();
+            } else {
+                if (seen[root])
+                    continue;
+                start = instructions.get(root);
+                seen[root] = true;
+            }
+            nodes.push(start);
+            next_successor.push(0);
+            while (!nodes.isEmpty()) {
+                Node node = nodes.peek();
+                int s = next_successor.pop();
+                List<Node> successors = node.getSuccessors();
+                if (s < successors.size()) {
+                    next_successor.push(s + 1);
+                    Integer successor = indexes.get(successors.get(s));
+                    if (successor != null && !seen[successor]) {
+                        seen[successor] = true;
+                        nodes.push(successors.get(s));
+                        next_successor.push(0);
+                    }
+                } else {
+                    nodes.pop();
+                    Integer index = indexes.get(node);
+                    if (index != null)
+                        order[count++] = index;
+                }
+            }
+        }
+        return order;
+    }
+
+    private int[] instruction_indexes(List<Node> nodes) {
+        int[] res = new int[nodes.size()];
+        int count = 0;
+        for (Node node : nodes) {
+            Integer index = indexes.get(node);
+            if (index != null)
+                res[count++] = index;
+        }
+        return count == res.length ? res : Arrays.copyOf(res, count);
+    }
+
+    static class DefAndUse {
+        public ArrayList<String> def = new ArrayList<>();
+        public ArrayList<String> use = new ArrayList<>();
+    }
+
+    private static DefAndUse def_and_use_variables(Instruction instruction) {
+        DefAndUse tmp = new DefAndUse();
+        switch (instruction.getInstType()) {
+            case CALL -> {
+                if (!((CallInstruction) instruction).getInvocationType().name().contains("static") && !Objects.equals(((Operand) ((CallInstruction) instruction).getFirstArg()).getName(), "this"))
+                    tmp.use.add(((Operand) ((CallInstruction) instruction).getFirstArg()).getName());
+                if (((CallInstruction) instruction).getListOfOperands() != null)
+                    for (Element m : ((CallInstruction) instruction).getListOfOperands())
+                        if (!m.isLiteral()) {
+                            if (m instanceof ArrayOperand arrayOperand) {
+                                for (Element element : arrayOperand.getIndexOperands()) {
+                                    if (!element.isLiteral())
+                                        tmp.use.add(((Operand) element).getName());
+                                }
+                                tmp.use.add(arrayOperand.getName());
+                            } else {
+                                if (!m.isLiteral())
+                                    tmp.use.add(((Operand) m).getName());
+                            }
+
+                        }
+                return tmp;
+            }
+            case GOTO -> {
+                return tmp;
+            }
+            case NOPER -> {
+                Element m = ((SingleOpInstruction) instruction).getSingleOperand();
+                if (m instanceof ArrayOperand arrayOperand) {
+                    for (Element element : arrayOperand.getIndexOperands()) {
+                        if (!element.isLiteral())
+                            tmp.use.add(((Operand) element).getName());
+                    }
+                    tmp.use.add(arrayOperand.getName());
+                } else {
+                    if (!m.isLiteral())
+                        tmp.use.add(((Operand) m).getName());
+                }
+                return tmp;
+            }
+            case ASSIGN -> {
+                if (((AssignInstruction) instruction).getDest() instanceof ArrayOperand arrayOperand) {
+                    for (Element element : arrayOperand.getIndexOperands()) {
+                        if (!element.isLiteral())
+                            tmp.use.add(((Operand) element).getName());
+                    }
+                    tmp.use.add(arrayOperand.getName());
+                } else {
+                    if (!((AssignInstruction) instruction).getDest().isLiteral())
+                        tmp.def.add(((Operand) ((AssignInstruction) instruction).getDest()).getName());
+                }
+                tmp.use.addAll(def_and_use_variables(((AssignInstruction) instruction).getRhs()).use);
+                return tmp;
+            }
+            case BRANCH -> {
+                CondBranchInstruction element = ((CondBranchInstruction) instruction);
+                DefAndUse a = def_and_use_variables(element.getCondition());
+                tmp.def.addAll(a.def);
+                tmp.use.addAll(a.use);
+                return tmp;
+            }
+            case RETURN -> {
+                Element m = ((ReturnInstruction) instruction).getOperand();
+                if (m instanceof ArrayOperand arrayOperand) {
+                    for (Element element : arrayOperand.getIndexOperands()) {
+                        if (element != null && !element.isLiteral())
+                            tmp.use.add(((Operand) element).getName());
+                    }
+                    tmp.use.add(arrayOperand.getName());
+                } else {
+                    if (m != null && !m.isLiteral())
+                        tmp.use.add(((Operand) m).getName());
+                }
+                return tmp;
+            }
+            case GETFIELD -> {
+                // The second operand names the field, only the object is a variable
+                Element object = ((GetFieldInstruction) instruction).getFirstOperand();
+                if (!object.isLiteral() && !Objects.equals(((Operand) object).getName(), "this"))
+                    tmp.use.add(((Operand) object).getName());
+                return tmp;
+            }
+            case PUTFIELD -> {
+                Element object = ((PutFieldInstruction) instruction).getFirstOperand();
+                if (!object.isLiteral() && !Objects.equals(((Operand) object).getName(), "this"))
+                    tmp.use.add(((Operand) object).getName());
+                Element assigned = ((PutFieldInstruction) instruction).getThirdOperand();
+                if (assigned instanceof ArrayOperand arrayOperand) {
+                    for (Element element : arrayOperand.getIndexOperands()) {
+                        if (element != null && !element.isLiteral())
+                            tmp.use.add(((Operand) element).getName());
+                    }
+                    tmp.use.add(arrayOperand.getName());
+                } else {
+                    if (assigned != null && !assigned.isLiteral())
+                        tmp.use.add(((Operand) assigned).getName());
+                }
+                return tmp;
+            }
+            case UNARYOPER -> {
+                Element m = ((UnaryOpInstruction) instruction).getOperand();
+                if (m instanceof ArrayOperand arrayOperand) {
+                    for (Element element : arrayOperand.getIndexOperands()) {
+                        if (!element.isLiteral())
+                            tmp.use.add(((Operand) element).getName());
+                    }
+                    tmp.use.add(arrayOperand.getName());
+                } else {
+                    if (!m.isLiteral())
+                        tmp.use.add(((Operand) m).getName());
+                }
+                return tmp;
+            }
+            case BINARYOPER -> {
+                BinaryOpInstruction binaryOpInstruction = ((BinaryOpInstruction) instruction);
+                if (!binaryOpInstruction.getLeftOperand().isLiteral())
+                    tmp.use.add(((Operand) binaryOpInstruction.getLeftOperand()).getName());
+                if (!binaryOpInstruction.getRightOperand().isLiteral())
+                    tmp.use.add(((Operand) binaryOpInstruction.getRightOperand()).getName());
+                return tmp;
+            }
+            default -> {
+                System.out.println("UNKNOWN INSTRUCTION TYPE IN OPTIMIZER");
+                return new DefAndUse();
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Moves the instructions that compute the same value on every iteration of a loop to its preheader, the place just
+ * before the loop that runs once each time it is entered. Natural loops are found from the back edges of the CFG (the
+ * edges to an instruction that dominates their source), with the loops of the same header merged. An instruction
+ * moves when the values it uses come from outside the loop or from instructions that moved, and it assigns a local
+ * the loop assigns nowhere else and doesn't read before it. Arithmetic, comparisons and copies always can; getfields
+ * on this can when the loop calls nothing and doesn't put the same field; arraylength and divisions, which can throw,
+ * only from the straight run at the start of the loop that runs every time it's entered, before anything else that
+ * could throw or has an effect. Loops are done from the outside in, so an instruction leaves every loop it is
+ * invariant in.
+ */
+public class LoopInvariantCodeMotion {
+
+    private static class Loop {
+        private final int header;
+        private final boolean[] body;
+        private int size;
+        private final Map<String, Integer> assignments = new HashMap<>();
+        private final Set<String> put_fields = new HashSet<>();
+        private boolean calls;
+
+        private Loop(int header, int n) {
+            this.header = header;
+            this.body = new boolean[n];
+        }
+    }
+
+    private final Method method;
+    private final SsaForm ssa;
+    private final DominatorTree dominators;
+
+    public LoopInvariantCodeMotion(Method method) {
+        this(new SsaForm(method));
+    }
+
+    public LoopInvariantCodeMotion(SsaForm ssa) {
+        this.method = ssa.getMethod();
+        this.ssa = ssa;
+        this.dominators = ssa.getDominators();
+    }
+
+    /**
+     * Moves the invariant instructions and rebuilds the CFG. Returns the number of instructions moved.
+     */
+    public int apply() {
+        int n = dominators.numInstructions();
+        List<Loop> loops = find_loops();
+        loops.sort(Comparator.comparingInt((Loop loop) -> loop.size).reversed());
+
+        Set<Instruction> labelled = Collections.newSetFromMap(new IdentityHashMap<>());
+        labelled.addAll(method.getLabels().values());
+        boolean[] headers = new boolean[n];
+        for (Loop loop : loops) {
+            headers[loop.header] = true;
+        }
+
+        MethodEditor editor = new MethodEditor(method);
+        boolean[] moved = new boolean[n];
+        int count = 0;
+        for (Loop loop : loops) {
+            int preheader = preheader(loop, labelled, headers);
+            if (preheader == -1)
+                continue;
+            boolean[] prefix = prefix(loop);
+            boolean blocked = false;
+            for (int x : dominators.getReversePostorder()) {
+                if (!loop.body[x] || moved[x])
+                    continue;
+                Instruction instruction = dominators.getInstruction(x);
+                if (movable(x, loop, moved, prefix[x] && !blocked)) {
+                    moved[x] = true;
+                    editor.remove(x);
+                    editor.insert(preheader, instruction);
+                    count++;
+                } else if (prefix[x] && !DeadCodeElimination.isRemovable(method, instruction)) {
+                    blocked = true;
+                }
+            }
+        }
+        CompilerStats.count("licm.loops", loops.size());
+        CompilerStats.count("licm.hoisted", count);
+        editor.apply();
+        return count;
+    }
+
+    private List<Loop> find_loops() {
+        int n = dominators.numInstructions();
+        Map<Integer, Loop> loops = new LinkedHashMap<>();
+        Deque<Integer> worklist = new ArrayDeque<>();
+        for (int tail : dominators.getReversePostorder()) {
+            for (int header : dominators.getSuccessors(tail)) {
+                if (!dominators.dominates(header, tail))
+                    continue;
+                Loop loop = loops.computeIfAbsent(header, h -> new Loop(h, n));
+                loop.body[header] = true;
+                if (!loop.body[tail]) {
+                    loop.body[tail] = true;
+                    worklist.push(tail);
+                }
+                while (!worklist.isEmpty()) {
+                    for (int p : dominators.getPredecessors(worklist.pop())) {
+                        if (dominators.isReachable(p) && !loop.body[p]) {
+                            loop.body[p] = true;
+                            worklist.push(p);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Loop loop : loops.values()) {
+            for (int x = 0; x < n; x++) {
+                if (!loop.body[x])
+                    continue;
+                loop.size++;
+                Instruction instruction = dominators.getInstruction(x);
+                if (instruction instanceof PutFieldInstruction put)
+                    loop.put_fields.add(((Operand) put.getSecondOperand()).getName());
+                if (instruction instanceof AssignInstruction assign) {
+                    if (!(assign.getDest() instanceof ArrayOperand))
+                        loop.assignments.merge(((Operand) assign.getDest()).getName(), 1, Integer::sum);
+                    instruction = assign.getRhs();
+                }
+                if (instruction instanceof CallInstruction call && call.getInvocationType() != CallType.arraylength
+                        && call.getInvocationType() != CallType.NEW)
+                    loop.calls = true;
+            }
+        }
+        return new ArrayList<>(loops.values());
+    }
+
+    /**
+     * Where the instructions moved out of a loop go, -1 if the loop has no such place. They go just before the header
+     * when the only way in falls through to it (like the guard of a rotated loop), or before the goto that is the only
+     * way in.
+     */
+    private int preheader(Loop loop, Set<Instruction> labelled, boolean[] headers) {
+        int header = loop.header;
+        List<Integer> entries = new ArrayList<>();
+        for (int p : dominators.getPredecessors(header)) {
+            if (dominators.isReachable(p) && !loop.body[p])
+                entries.add(p);
+        }
+        if (header == 0)
+            return entries.isEmpty() ? 0 : -1;
+        if (entries.size() != 1)
+            return -1;
+        int entry = entries.get(0);
+        Instruction instruction = dominators.getInstruction(entry);
+        if (instruction instanceof GotoInstruction)
+            return labelled.contains(instruction) || headers[entry] ? -1 : entry;
+        // The entry has to fall through to the header, and not also jump to it
+        if (entry != header - 1 || instruction instanceof CondBranchInstruction branch
+                && method.getLabels().get(branch.getLabel()) == dominators.getInstruction(header))
+            return -1;
+        return header;
+    }
+
+    /**
+     * The straight run of instructions from the header of a loop, that runs every time the loop is entered.
+     */
+    private boolean[] prefix(Loop loop) {
+        boolean[] res = new boolean[dominators.numInstructions()];
+        int x = loop.header;
+        while (true) {
+            res[x] = true;
+            int[] successors = dominators.getSuccessors(x);
+            if (successors.length != 1)
+                break;
+            int next = successors[0];
+            if (next == loop.header || !loop.body[next] || res[next] || dominators.getPredecessors(next).length != 1)
+                break;
+            x = next;
+        }
+        return res;
+    }
+
+    private boolean movable(int x, Loop loop, boolean[] moved, boolean first) {
+        Instruction instruction = dominators.getInstruction(x);
+        if (!(instruction instanceof AssignInstruction assign) || assign.getDest() instanceof ArrayOperand)
+            return false;
+        int def = ssa.getDefinedValue(x);
+        if (def == -1 || loop.assignments.get(((Operand) assign.getDest()).getName()) != 1)
+            return false;
+        // A local live into the header is read before the assignment, or after the loop when it doesn't run
+        int variable = ssa.getVariable(def);
+        if ((ssa.getLiveness().getLiveIn(loop.header)[variable >>> 6] & (1L << variable)) != 0)
+            return false;
+
+        Instruction rhs = assign.getRhs();
+        List<Element> operands = new ArrayList<>();
+        if (rhs instanceof GetFieldInstruction get) {
+            if (!(get.getFirstOperand() instanceof Operand object) || !object.getName().equals("this") || loop.calls
+                    || loop.put_fields.contains(((Operand) get.getSecondOperand()).getName()))
+                return false;
+        } else if (rhs instanceof CallInstruction call && call.getInvocationType() == CallType.arraylength) {
+            if (!first)
+                return false;
+            operands.add(call.getFirstArg());
+        } else if (rhs instanceof BinaryOpInstruction binary) {
+            if (!first && !DeadCodeElimination.isRemovable(method, instruction))
+                return false;
+            operands.add(binary.getLeftOperand());
+            operands.add(binary.getRightOperand());
+        } else if (rhs instanceof UnaryOpInstruction unary) {
+            operands.add(unary.getOperand());
+        } else if (rhs instanceof SingleOpInstruction single) {
+            operands.add(single.getSingleOperand());
+        } else {
+            return false;
+        }
+
+        for (Element operand : operands) {
+            if (operand instanceof ArrayOperand)
+                return false;
+            if (operand.isLiteral() || !(operand instanceof Operand local))
+                continue;
+            int value = ssa.getUse(x, local.getName());
+            if (value == -1)
+                return false;
+            int at = ssa.getInstruction(value);
+            if (at != -1 && loop.body[at] && (ssa.isPhi(value) || !moved[at]))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,208 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Edits to the instructions of a method, by their position when the editor was created, applied all at once so the
+ * positions the analyses computed stay valid until then. Labels follow the instructions: a replacement keeps the
+ * labels of the instruction it replaces, the labels of a removed instruction move to the next one left, and
+ * instructions inserted before one don't take its labels, so jumps to it skip them.
+ */
+public class MethodEditor {
+
+    private final Method method;
+    private final List<Instruction> instructions;
+    private final Instruction[] replacements;
+    private final boolean[] removed;
+    private final List<List<Instruction>> insertions;
+
+    public MethodEditor(Method method) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+        this.replacements = new Instruction[instructions.size()];
+        this.removed = new boolean[instructions.size()];
+        this.insertions = new ArrayList<>(Collections.nCopies(instructions.size(), null));
+    }
+
+    public void replace(int index, Instruction instruction) {
+        replacements[index] = instruction;
+    }
+
+    public void remove(int index) {
+        removed[index] = true;
+    }
+
+    /**
+     * Adds an instruction before the one at a position, after the ones already inserted there.
+     */
+    public void insert(int index, Instruction instruction) {
+        if (insertions.get(index) == null)
+            insertions.set(index, new ArrayList<>());
+        insertions.get(index).add(instruction);
+    }
+
+    public boolean isRemoved(int index) {
+        return removed[index];
+    }
+
+    /**
+     * The instruction at a position, with its replacement if it has one.
+     */
+    public Instruction get(int index) {
+        return replacements[index] != null ? replacements[index] : instructions.get(index);
+    }
+
+    /**
+     * Applies the edits and rebuilds the CFG. Returns the number of instructions replaced, removed or inserted.
+     */
+    public int apply() {
+        int n = instructions.size();
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(label.getValue(), instruction -> new ArrayList<>()).add(label.getKey());
+        }
+
+        // A labelled instruction at the end has nowhere to move its labels, so it stays
+        Instruction next = null;
+        for (int i = n - 1; i >= 0; i--) {
+            if (removed[i] && next == null && labels.containsKey(instructions.get(i)))
+                removed[i] = false;
+            if (!removed[i])
+                next = get(i);
+            if (insertions.get(i) != null)
+                next = insertions.get(i).get(0);
+        }
+
+        int edits = 0;
+        List<String> moving = new ArrayList<>();
+        List<Instruction> res = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            if (insertions.get(i) != null) {
+                for (Instruction instruction : insertions.get(i)) {
+                    for (String label : moving) {
+                        method.getLabels().put(label, instruction);
+                    }
+                    moving.clear();
+                    res.add(instruction);
+                    edits++;
+                }
+            }
+            List<String> own = labels.get(instructions.get(i));
+            if (own != null)
+                moving.addAll(own);
+            if (removed[i]) {
+                edits++;
+                continue;
+            }
+            Instruction instruction = get(i);
+            if (replacements[i] != null)
+                edits++;
+            for (String label : moving) {
+                method.getLabels().put(label, instruction);
+            }
+            moving.clear();
+            res.add(instruction);
+        }
+
+        if (edits == 0)
+            return 0;
+        instructions.clear();
+        instructions.addAll(res);
+        rebuildCFG(method);
+        return edits;
+    }
+
+    /**
+     * Method.buildCFG only adds edges, so the old ones are cleared first.
+     */
+    public static void rebuildCFG(Method method) {
+        method.getBeginNode().getSuccessors().clear();
+        method.getEndNode().getPredecessors().clear();
+        for (Instruction instruction : method.getInstructions()) {
+            instruction.getSuccessors().clear();
+            instruction.getPredecessors().clear();
+        }
+        method.buildCFG();
+    }
+
+    /**
+     * Replaces the operands an instruction reads (not the local an assignment writes) with what replacement returns
+     * for them, in place. Returns how many were replaced.
+     */
+    public static int replaceOperands(Instruction instruction, UnaryOperator<Element> replacement) {
+        int count = 0;
+        Element res;
+        switch (instruction.getInstType()) {
+            case ASSIGN -> count += replaceOperands(((AssignInstruction) instruction).getRhs(), replacement);
+            case BRANCH -> count += replaceOperands(((CondBranchInstruction) instruction).getCondition(), replacement);
+            case NOPER -> {
+                SingleOpInstruction single = (SingleOpInstruction) instruction;
+                if ((res = replacement.apply(single.getSingleOperand())) != single.getSingleOperand()) {
+                    single.setSingleOperand(res);
+                    count++;
+                }
+            }
+            case UNARYOPER -> {
+                UnaryOpInstruction unary = (UnaryOpInstruction) instruction;
+                if ((res = replacement.apply(unary.getOperand())) != unary.getOperand()) {
+                    unary.setOperand(res);
+                    count++;
+                }
+            }
+            case BINARYOPER -> {
+                BinaryOpInstruction binary = (BinaryOpInstruction) instruction;
+                if ((res = replacement.apply(binary.getLeftOperand())) != binary.getLeftOperand()) {
+                    binary.setLeftOperand(res);
+                    count++;
+                }
+                if ((res = replacement.apply(binary.getRightOperand())) != binary.getRightOperand()) {
+                    binary.setRightOperand(res);
+                    count++;
+                }
+            }
+            case CALL -> {
+                List<Element> arguments = ((CallInstruction) instruction).getListOfOperands();
+                if (arguments == null)
+                    break;
+                for (int k = 0; k < arguments.size(); k++) {
+                    if ((res = replacement.apply(arguments.get(k))) != arguments.get(k)) {
+                        arguments.set(k, res);
+                        count++;
+                    }
+                }
+            }
+            case RETURN -> {
+                ReturnInstruction ret = (ReturnInstruction) instruction;
+                if (ret.hasReturnValue() && (res = replacement.apply(ret.getOperand())) != ret.getOperand()) {
+                    ret.setOperand(res);
+                    count++;
+                }
+            }
+            case PUTFIELD -> {
+                PutFieldInstruction put = (PutFieldInstruction) instruction;
+                if ((res = replacement.apply(put.getThirdOperand())) != put.getThirdOperand()) {
+                    put.setThirdOperand(res);
+                    count++;
+                }
+            }
+            default -> {
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Array operands can be shared between instructions, so a new index makes a new one.
+     */
+    public static ArrayOperand withIndex(ArrayOperand array, Element index) {
+        ArrayList<Element> indexes = new ArrayList<>();
+        indexes.add(index);
+        ArrayOperand res = new ArrayOperand(array.getName(), array.getType(), indexes);
+        if (array.isParameter())
+            res.setParamId(array.getParamId());
+        return res;
+    }
+}
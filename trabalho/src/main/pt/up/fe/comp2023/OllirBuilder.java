@@ -0,0 +1,282 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds an OLLIR ClassUnit directly, with the same objects the OLLIR parser creates for the equivalent code, so the
+ * optimizations and the backend see exactly what they would see after parsing. The text is only produced, by
+ * OllirPrinter, when someone asks for it.
+ */
+public class OllirBuilder {
+
+    /**
+     * OllirResult of a built ClassUnit. OllirResult parses whatever code it is given, so the superclass only gets an
+     * empty class; the getters return the built class and print its code the first time it is needed.
+     */
+    public static class ClassUnitResult extends OllirResult {
+        private static final String EMPTY_CLASS = "Empty {}";
+
+        private final ClassUnit classUnit;
+        private final SymbolTable symbolTable;
+        private String ollirCode;
+
+        public ClassUnitResult(ClassUnit classUnit, SymbolTable symbolTable, Map<String, String> config) {
+            super(EMPTY_CLASS, config);
+            this.classUnit = classUnit;
+            this.symbolTable = symbolTable;
+        }
+
+        @Override
+        public ClassUnit getOllirClass() {
+            return classUnit;
+        }
+
+        @Override
+        public SymbolTable getSymbolTable() {
+            return symbolTable;
+        }
+
+        @Override
+        public String getOllirCode() {
+            if (ollirCode == null)
+                ollirCode = OllirPrinter.print(classUnit);
+            return ollirCode;
+        }
+    }
+
+    private final ClassUnit classUnit = new ClassUnit();
+    private final List<String> labels = new ArrayList<>();
+    private Method method;
+
+    public OllirBuilder(String className, String superClass) {
+        classUnit.setClassName(className);
+        if (superClass != null && !superClass.isEmpty())
+            classUnit.setSuperClass(superClass);
+    }
+
+    public void addImport(String name) {
+        classUnit.addImport(name);
+    }
+
+    public void addField(String name, Type type) {
+        Field field = new Field();
+        field.setFieldAccessModifier(AccessModifiers.PRIVATE);
+        field.setFieldName(name);
+        field.setFieldType(type);
+        classUnit.addField(field);
+    }
+
+    public Method beginMethod(String name, AccessModifiers accessModifier, boolean isStatic, boolean isConstructor, Type returnType) {
+        method = new Method(classUnit);
+        if (isConstructor)
+            method.setConstructMethod();
+        if (accessModifier != AccessModifiers.DEFAULT)
+            method.setMethodAccessModifier(accessModifier);
+        if (isStatic)
+            method.setStaticMethod();
+        method.setMethodName(name);
+        method.setReturnType(returnType);
+        return method;
+    }
+
+    /**
+     * Parameters are numbered like the OLLIR parser does: from 0 in static methods and from 1 otherwise.
+     */
+    public void addParam(String name, Type type) {
+        method.addParam(parameter(name, type, method.getParams().size() + (method.isStaticMethod() ? 0 : 1)));
+    }
+
+    /**
+     * The label goes to the next instruction emitted.
+     */
+    public void label(String label) {
+        labels.add(label);
+    }
+
+    public <T extends Instruction> T emit(T instruction) {
+        for (String label : labels) {
+            method.addLabel(label, instruction);
+        }
+        labels.clear();
+        method.addInstr(instruction);
+        return instruction;
+    }
+
+    public void endMethod() {
+        if (!labels.isEmpty())
+            throw new IllegalStateException("Labels " + labels + " of method " + method.getMethodName() + " are not followed by an instruction");
+        classUnit.addMethod(method);
+        method = null;
+    }
+
+    public ClassUnit build() {
+        classUnit.buildVarTables();
+        return classUnit;
+    }
+
+    public static Type intType() {
+        return new Type(ElementType.INT32);
+    }
+
+    public static Type boolType() {
+        return new Type(ElementType.BOOLEAN);
+    }
+
+    public static Type voidType() {
+        return new Type(ElementType.VOID);
+    }
+
+    public static Type stringType() {
+        return new Type(ElementType.STRING);
+    }
+
+    public static ClassType classType(String name) {
+        return new ClassType(ElementType.OBJECTREF, name);
+    }
+
+    public static ArrayType arrayType(Type elementType) {
+        ArrayType type = new ArrayType();
+        type.setNumDimensions(1);
+        type.setTypeOfElements(elementType.getTypeOfElement());
+        if (elementType instanceof ClassType)
+            type.setElementClass(((ClassType) elementType).getName());
+        else if (elementType.getTypeOfElement() == ElementType.STRING)
+            type.setElementClass("String");
+        return type;
+    }
+
+    public static LiteralElement literal(int value) {
+        return literal(Integer.toString(value));
+    }
+
+    public static LiteralElement literal(String integer) {
+        return new LiteralElement(integer, intType());
+    }
+
+    public static LiteralElement literal(boolean value) {
+        return new LiteralElement(value ? "1" : "0", boolType());
+    }
+
+    public static Operand operand(String name, Type type) {
+        return new Operand(name, type);
+    }
+
+    public static Operand parameter(String name, Type type, int paramId) {
+        Operand operand = new Operand(name, type);
+        operand.setParamId(paramId);
+        return operand;
+    }
+
+    public static ArrayOperand arrayAccess(Operand array, Element index) {
+        ArrayList<Element> indexes = new ArrayList<>();
+        indexes.add(index);
+        ArrayOperand element = new ArrayOperand(array.getName(), ((ArrayType) array.getType()).getElementType(), indexes);
+        if (array.isParameter())
+            element.setParamId(array.getParamId());
+        return element;
+    }
+
+    /**
+     * "this" as the object of a call or of a field access.
+     */
+    public Operand thisObject() {
+        return new Operand("this", new ClassType(ElementType.THIS, classUnit.getClassName()));
+    }
+
+    /**
+     * "this" as a value (an argument or the right side of an assignment).
+     */
+    public Operand thisValue() {
+        return new Operand("this", classType(classUnit.getClassName()));
+    }
+
+    public static AssignInstruction assign(Element dest, Instruction rhs) {
+        return new AssignInstruction(dest, dest.getType(), rhs);
+    }
+
+    public static SingleOpInstruction single(Element element) {
+        return new SingleOpInstruction(element);
+    }
+
+    public static BinaryOpInstruction binary(Element left, OperationType operation, Type type, Element right) {
+        return new BinaryOpInstruction(left, new Operation(operation, type), right);
+    }
+
+    public static UnaryOpInstruction not(Element operand) {
+        return new UnaryOpInstruction(new Operation(OperationType.NOTB, boolType()), operand);
+    }
+
+    public static CallInstruction invokeVirtual(Element object, String method, ArrayList<Element> args, Type returnType) {
+        return new CallInstruction(CallType.invokevirtual, object, methodName(method), args, returnType);
+    }
+
+    public static CallInstruction invokeSpecial(Element object, String method, ArrayList<Element> args, Type returnType) {
+        return new CallInstruction(CallType.invokespecial, object, methodName(method), args, returnType);
+    }
+
+    public CallInstruction invokeStatic(String className, String method, ArrayList<Element> args, Type returnType) {
+        // The parser types the class operand with the name of the class being compiled, not the called one
+        Operand target = new Operand(className, new ClassType(ElementType.CLASS, classUnit.getClassName()));
+        return new CallInstruction(CallType.invokestatic, target, methodName(method), args, returnType);
+    }
+
+    public static CallInstruction newObject(String className) {
+        return new CallInstruction(CallType.NEW, new Operand(className, classType(className)), new ArrayList<>(), classType(className));
+    }
+
+    public static CallInstruction newArray(Element size, Type elementType) {
+        ArrayList<Element> args = new ArrayList<>();
+        args.add(size);
+        return new CallInstruction(CallType.NEW, new Operand("array", new ArrayType()), args, arrayType(elementType));
+    }
+
+    public static CallInstruction arrayLength(Element array) {
+        return new CallInstruction(CallType.arraylength, array, intType());
+    }
+
+    public static GetFieldInstruction getField(Element object, String field, Type type) {
+        return new GetFieldInstruction(object, operand(field, type), type);
+    }
+
+    public static PutFieldInstruction putField(Element object, String field, Type type, Element value) {
+        return new PutFieldInstruction(object, operand(field, type), value, voidType());
+    }
+
+    public static CondBranchInstruction branch(Element condition, String label) {
+        CondBranchInstruction branch = new SingleOpCondInstruction(single(condition));
+        branch.setLabel(label);
+        return branch;
+    }
+
+    public static CondBranchInstruction branch(OpInstruction condition, String label) {
+        CondBranchInstruction branch = new OpCondInstruction(condition);
+        branch.setLabel(label);
+        return branch;
+    }
+
+    public static GotoInstruction jump(String label) {
+        return new GotoInstruction(label);
+    }
+
+    public static ReturnInstruction ret(Element value, Type type) {
+        ReturnInstruction instruction = new ReturnInstruction(value);
+        instruction.setReturnType(type);
+        return instruction;
+    }
+
+    public static ReturnInstruction ret() {
+        ReturnInstruction instruction = new ReturnInstruction();
+        instruction.setReturnType(voidType());
+        return instruction;
+    }
+
+    private static LiteralElement methodName(String method) {
+        return new LiteralElement("\"" + method + "\"", stringType());
+    }
+}
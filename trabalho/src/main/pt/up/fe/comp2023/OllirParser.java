@@ -3,8 +3,8 @@ package pt.up.fe.comp2023;
 import org.specs.comp.ollir.*;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
 import pt.up.fe.comp.jmm.analysis.table.Symbol;
-import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2023.AstNode.Kind;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
@@ -12,6 +12,7 @@ import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 public class OllirParser implements JmmOptimization {
 
@@ -21,998 +22,768 @@ public class OllirParser implements JmmOptimization {
         if (imports != null)
             for (Symbol i : imports) {
                 if (Objects.equals(i.getType().getName(), "library")) {
-                    res.append("import ").append(i.getName()).append(";\n");
+                    builder.addImport(i.getName());
                 }
             }
     }
 
-    private void write_class(Symbol single_class, List<String> class_methods) {
-        if (Objects.equals(single_class.getType().getName(), "class")) {
-            this.res.append(single_class.getName()).append(Objects.equals(this.symbol_table.getSuper(), "") ? "" : " extends " + this.symbol_table.getSuper()).append(" {\n\n");
-            write_fields();
-            this.res.append("\n");
-            this.write_methods(class_methods, single_class.getName());
+    private void write_class(List<String> class_methods) {
+        write_fields();
+        this.write_methods(class_methods);
 
-            if (!this.has_constructor) {
-                res.append(".construct ").append(single_class.getName()).append("(").append(this.write_parameters(this.symbol_table.getParameters(single_class.getName()))).append(").V {\n\tinvokespecial(this, \"<init>\").V;\n}\n");
-            }
-
-            this.res.append("\n}\n");
-        }
+        builder.beginMethod(this.symbol_table.getClassName(), AccessModifiers.DEFAULT, false, true, OllirBuilder.voidType());
+        builder.emit(OllirBuilder.invokeSpecial(builder.thisObject(), "<init>", new ArrayList<>(), OllirBuilder.voidType()));
+        builder.endMethod();
     }
 
-    private void write_method(String class_method_name, String class_name, List<Symbol> fields_method) {
+    private void write_method(String class_method_name, List<Symbol> fields_method) {
         String[] tmp = class_method_name.split(" ");
         String method_name = tmp[tmp.length - 1];
-        if (Objects.equals(method_name, class_name)) {
-            res.append(".construct ").append(method_name).append("(").append(this.write_parameters(fields_method)).append(").V {\n\tinvokespecial(this, \"<init>\").V;\n");
-            this.method_insides_new(class_method_name);
-            res.append("}\n\n");
-            this.has_constructor = true;
-        }
-        res.append(".method ").append(class_method_name).append("(").append(this.write_parameters(fields_method)).append(").").append(this.convert_type(this.symbol_table.getReturnType(class_method_name))).append(" {\n");
+        AccessModifiers access = Objects.equals(tmp[0], "public") ? AccessModifiers.PUBLIC : AccessModifiers.PRIVATE;
+        boolean is_static = Arrays.asList(tmp).contains("static");
+
+        this.method_return_type = this.convert_type(this.symbol_table.getReturnType(class_method_name));
+        builder.beginMethod(method_name, access, is_static, false, this.method_return_type);
+        this.write_parameters(fields_method);
         this.method_insides_new(class_method_name);
-        res.append("\n}\n");
+        builder.endMethod();
     }
 
-    private JmmNode get_method_from_ast(String method_name) {
-        List<JmmNode> methods = this.root_node.getJmmChild(this.root_node.getNumChildren() - 1).getChildren();
+    private AstNode get_method_from_ast(String method_name) {
+        List<JmmNode> methods = this.root_node.getChild(this.root_node.getNumChildren() - 1).getChildren();
         for (JmmNode m : methods) {
-            if (Objects.equals(m.getKind(), "MethodDeclaration")) {
-                if (Objects.equals(m.get("methodName"), method_name)) {
-                    return m;
+            AstNode method = (AstNode) m;
+            if (method.is(Kind.METHOD_DECLARATION)) {
+                if (Objects.equals(method.getName(), method_name)) {
+                    return method;
                 }
             }
         }
         return null;
     }
 
-    private boolean exists_in_variable(List<Symbol> local_variables, String var_name) {
-        for (Symbol lv : local_variables) {
+    private Symbol find_symbol(List<Symbol> variables, String var_name) {
+        for (Symbol lv : variables) {
             if (Objects.equals(lv.getName(), var_name)) {
-                return true;
+                return lv;
             }
         }
-        return false;
+        return null;
     }
 
-    private String write_parameters(List<Symbol> fields_method) {
-        StringBuilder res = new StringBuilder();
+    private void write_parameters(List<Symbol> fields_method) {
         for (Symbol f : fields_method) {
-            res.append(f.getName()).append(".").append(this.convert_type(f.getType())).append(", ");
-        }
-        if (res.length() > 2) {
-            res.delete(res.length() - 2, res.length());
+            builder.addParam(f.getName(), this.convert_type(f.getType()));
         }
-        return res.toString();
     }
 
-    private void write_methods(List<String> class_methods, String class_name) {
+    private void write_methods(List<String> class_methods) {
         for (String m : class_methods) {
-            write_method(m, class_name, this.symbol_table.getParameters(m));
+            CompilerStats.Timer timer = CompilerStats.start("toOllir/" + m.substring(m.lastIndexOf(' ') + 1));
+            write_method(m, this.symbol_table.getParameters(m));
+            CompilerStats.stop(timer);
         }
     }
 
     private void write_fields() {
         List<Symbol> fields = this.symbol_table.getFields();
         for (Symbol f : fields) {
-            res.append(".field private ").append(f.getName()).append(".").append(this.convert_type(f.getType())).append(";\n");
+            builder.addField(f.getName(), this.convert_type(f.getType()));
         }
     }
 
     @Override
     public OllirResult toOllir(JmmSemanticsResult jmmSemanticsResult) {
+        return new OllirBuilder.ClassUnitResult(build_class(jmmSemanticsResult), jmmSemanticsResult.getSymbolTable(), jmmSemanticsResult.getConfig());
+    }
+
+    ClassUnit build_class(JmmSemanticsResult jmmSemanticsResult) {
         this.symbol_table = (SymbolTable) jmmSemanticsResult.getSymbolTable();
-        this.root_node = jmmSemanticsResult.getRootNode();
+        this.root_node = (AstNode) jmmSemanticsResult.getRootNode();
+        // The counters belong to a single compilation, so an instance can be reused
+        this.temp_n = 0;
+        this.label_n = 0;
+        this.rotate_loops = jmmSemanticsResult.getConfig() != null && Objects.equals(jmmSemanticsResult.getConfig().get("rotateLoops"), "true");
+        this.builder = new OllirBuilder(this.symbol_table.getClassName(), this.symbol_table.getSuper());
         write_import(this.symbol_table.getSomethingFromTable("import"));
-        res.append("\n");
-        write_class(this.symbol_table.getSomethingFromTable("class").get(0), this.symbol_table.getMethods());
+        write_class(this.symbol_table.getMethods());
+        CompilerStats.count("ollir.temporaries", this.temp_n);
 
-        return new OllirResult(this.res.toString(), jmmSemanticsResult.getConfig());
+        return builder.build();
     }
 
     @Override
     public OllirResult optimize(OllirResult ollirResult) {
         this.config = ollirResult.getConfig();
 
-        if (!(config.containsKey("registerAllocation") && Integer.parseInt(config.get("registerAllocation")) != -1)) {
+        boolean optimize = Objects.equals(config.get("optimize"), "true");
+        boolean allocate = config.containsKey("registerAllocation") && !Objects.equals(config.get("registerAllocation"), "-1");
+        if (!optimize && !allocate) {
             return ollirResult;
         }
 
         ollirResult.getOllirClass().buildCFGs();
-        for (int i = 0; i < ollirResult.getOllirClass().getMethods().size(); i++) {
-            Report report = optimization_register_allocation(ollirResult.getOllirClass().getMethod(i));
-            if (report.getType() == ReportType.ERROR)
-                ollirResult.getReports().add(report);
-        }
-
-        return ollirResult;
-    }
-
-    private Report optimization_register_allocation(Method method) {
-        // Iterate through the nodes in reverse topological order
-        HashMap<Node, ArrayList<String>> LiveIn_prev = new HashMap<>();
-        HashMap<Node, ArrayList<String>> LiveOut_prev = new HashMap<>();
-
-        Node checking_node = method.getEndNode();
-
-        HashMap<Node, ArrayList<String>> LiveInCopy;
-        HashMap<Node, ArrayList<String>> LiveOutCopy;
-
-        HashMap<Node, DefAndUse> def_use_table = new HashMap<>();
-
-        do {
-            ArrayList<Node> visited = new ArrayList<>();
-            LiveInCopy = new HashMap<>(LiveIn_prev);
-            LiveOutCopy = new HashMap<>(LiveOut_prev);
-            loop_through_nodes(checking_node, LiveIn_prev, LiveOut_prev, visited, method, def_use_table);
-        } while (!LiveIn_prev.equals(LiveInCopy) || !LiveOut_prev.equals(LiveOutCopy));
-
-        HashMap<Node, HashSet<String>> LiveOut = convert_arraylist_hashset(LiveOut_prev);
-
-        InterferenceGraph interferenceGraph = new InterferenceGraph();
-
-        // Iterate over each instruction node
-        for (Node instruction : method.getInstructions()) {
-
-            // Get the LiveOut set for the current instruction
-            HashSet<String> liveOut = LiveOut.get(instruction);
-            liveOut.addAll(def_use_table.get(instruction).def);
-
-            // Add variables as nodes to the interference graph
-            for (String variable : liveOut) {
-                interferenceGraph.addInterferenceGraphNode(new InterferenceGraphNode(variable));
-            }
-
-            // Add interference edges between variables in the LiveOut set
-            for (String u : liveOut) {
-                for (String v : liveOut) {
-                    if (!u.equals(v)) {
-                        interferenceGraph.addEdge(u, v);
+        List<Method> methods = ollirResult.getOllirClass().getMethods();
+        Report[] reports = new Report[methods.size()];
+        CompilerStats stats = CompilerStats.current();
+
+        // Every method has its own analyses and interference graph, so they are optimized in parallel
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < methods.size(); i++) {
+            int index = i;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                CompilerStats previous = CompilerStats.current();
+                if (stats != null)
+                    stats.attach();
+                try {
+                    CompilerStats.Timer timer = CompilerStats.start("optimizeOllir/" + methods.get(index).getMethodName());
+                    if (optimize) {
+                        new ConstantPropagation(methods.get(index)).apply();
+                        new ValueNumbering(methods.get(index)).apply();
+                        new LoopInvariantCodeMotion(methods.get(index)).apply();
+                        new DeadCodeElimination(methods.get(index)).apply();
                     }
+                    if (allocate)
+                        reports[index] = optimization_register_allocation(methods.get(index));
+                    CompilerStats.stop(timer);
+                } finally {
+                    if (previous != null)
+                        previous.attach();
+                    else if (stats != null)
+                        stats.detach();
                 }
-            }
+            }));
         }
-
-        int colorsNeeded = 0;
-        if (Integer.parseInt(config.get("registerAllocation")) == 0) {
-            int i = 1;
-            colorsNeeded = interferenceGraph.colorGraph(i);
-            while (colorsNeeded == -1 && interferenceGraph.numNodes() != 0) {
-                i++;
-                colorsNeeded = interferenceGraph.colorGraph(i);
-            }
-
-            if (interferenceGraph.numNodes() == 0)
-                colorsNeeded = 0;
+        if (Integer.parseInt(config.getOrDefault("threads", "1")) > 1 && tasks.size() > 1) {
+            ForkJoinTask.invokeAll(tasks);
         } else {
-            if (interferenceGraph.numNodes() != 0)
-                colorsNeeded = interferenceGraph.colorGraph(Integer.parseInt(config.get("registerAllocation")));
-        }
-
-        if (colorsNeeded == -1) {
-            int i = 1;
-            colorsNeeded = interferenceGraph.colorGraph(i);
-            while (colorsNeeded == -1 && interferenceGraph.numNodes() != 0) {
-                i++;
-                colorsNeeded = interferenceGraph.colorGraph(i);
-            }
-
-            String report_message = ("Method " + method.getMethodName() + " needs a minimum of " + i + " registers.");
-            return new Report(ReportType.ERROR, Stage.OPTIMIZATION, -1, report_message);
-        }
-
-        //interferenceGraph.visualizeGraph();
-
-        System.out.print("COLOR GRAPHING SOLUTION: ");
-        System.out.println(colorsNeeded);
-
-        ArrayList<String> colors = new ArrayList<>();
-        colors.add("this_color");
-
-        Set<InterferenceGraphNode> graph_nodes = interferenceGraph.getNodes();
-
-
-        for (Map.Entry<String, Descriptor> entry : method.getVarTable().entrySet()) {
-            if (!entry.getValue().getScope().equals(VarScope.LOCAL)) {
-                for (InterferenceGraphNode n : graph_nodes) {
-                    if (Objects.equals(n.getRegister(), entry.getKey())) {
-                        if (!colors.contains(n.getColor()))
-                            colors.add(n.getColor());
-                        break;
-                    }
-                }
+            for (ForkJoinTask<?> task : tasks) {
+                task.invoke();
             }
         }
 
-
-        for (Map.Entry<String, Descriptor> entry : method.getVarTable().entrySet()) {
-            for (InterferenceGraphNode graph_node : graph_nodes) {
-                if (Objects.equals(graph_node.getRegister(), entry.getKey())) {
-
-                    if (!colors.contains(graph_node.getColor()))
-                        colors.add(graph_node.getColor());
-
-                    entry.getValue().setVirtualReg(colors.indexOf(graph_node.getColor()));
-                    method.getVarTable().put(entry.getKey(), entry.getValue());
-                }
-            }
+        // Merged in method order, whatever order the tasks finished in; the allocation logs only in debug mode
+        boolean debug = "true".equals(config.get("debug"));
+        for (int i = 0; i < methods.size(); i++) {
+            if (reports[i] != null && (reports[i].getType() == ReportType.WARNING || debug))
+                ollirResult.getReports().add(reports[i]);
         }
 
-        return new Report(ReportType.LOG, Stage.OPTIMIZATION, -1, "Optimization complete on method " + method.getMethodName());
+        return ollirResult;
     }
 
-    private HashMap<Node, HashSet<String>> convert_arraylist_hashset(HashMap<Node, ArrayList<String>> a) {
-        HashMap<Node, HashSet<String>> res = new HashMap<>();
-        for (Map.Entry<Node, ArrayList<String>> entry : a.entrySet()) {
-            res.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    private Report optimization_register_allocation(Method method) {
+        if (Objects.equals(config.get("registerAllocation"), "linear")) {
+            LinearScanAllocator allocator = new LinearScanAllocator(method);
+            int registers = allocator.allocate();
+            allocator.apply();
+            return new Report(ReportType.LOG, Stage.OPTIMIZATION, -1, "Linear scan allocated " + registers + " locals on method " + method.getMethodName());
         }
 
-        return res;
-    }
-
-    private void loop_through_nodes(Node checking_node, HashMap<Node, ArrayList<String>> LiveIn, HashMap<Node, ArrayList<String>> LiveOut, ArrayList<Node> visited, Method method, HashMap<Node, DefAndUse> def_use_table) {
-        if (checking_node.getNodeType().name().equals("BEGIN")) {
+        RegisterAllocator allocator = new RegisterAllocator(method);
+        int max_registers = Integer.parseInt(config.get("registerAllocation"));
 
-            for (Element m : method.getParams()) {
-                AssignInstruction temp_arg = new AssignInstruction(m, m.getType(), new SingleOpInstruction(m));
-                visited.add(temp_arg);
-                loop_through_nodes(temp_arg, LiveIn, LiveOut, visited, method, def_use_table);
-            }
-
-        } else if (checking_node.getNodeType().name().equals("END")) {
-
-            for (Node node : new HashSet<>(checking_node.getPredecessors())) {
-                loop_through_nodes(node, LiveIn, LiveOut, visited, method, def_use_table);
-            }
-
-        } else if (!visited.contains(checking_node)) {
-
-            DefAndUse tmp = def_and_use_variables((Instruction) checking_node);
-            def_use_table.put(checking_node, tmp);
-
-
-            // LiveOut - U ( in[n] | S € succ[n] )
-            if (!LiveOut.containsKey(checking_node)) {
-                LiveOut.put(checking_node, new ArrayList<>());
-            }
-            for (int i = 0; i < checking_node.getSuccessors().size(); i++) {
-                if (LiveIn.containsKey(checking_node.getSuccessors().get(i))) {
-                    if (LiveOut.containsKey(checking_node)) {
-                        LiveOut.get(checking_node).addAll(LiveIn.get(checking_node.getSuccessors().get(i)));
-                    }
-                }
-            }
-
-            // LiveIn - use[n] U ( out[n] - def[n] )
-            if (LiveIn.containsKey(checking_node)) {
-                LiveIn.get(checking_node).addAll(tmp.use);
-            } else {
-                LiveIn.put(checking_node, tmp.use);
-            }
-            LiveIn.get(checking_node).addAll(all_but_select_few(LiveOut.get(checking_node), tmp.def));
-
-            visited.add(checking_node);
-            for (Node node : checking_node.getPredecessors()) {
-                loop_through_nodes(node, LiveIn, LiveOut, visited, method, def_use_table);
-            }
+        int registers;
+        if (max_registers == 0) {
+            registers = allocator.allocateMinimum();
+        } else {
+            registers = allocator.allocate(max_registers);
         }
-    }
+        allocator.apply();
 
-    private ArrayList<String> all_but_select_few(ArrayList<String> total, ArrayList<String> removed) {
-        ArrayList<String> tmp = new ArrayList<>();
-        for (int i = 0; i < total.size(); i++) {
-            if (!removed.contains(total.get(i)))
-                tmp.add(total.get(i));
-        }
-        return tmp;
-    }
-
-    static class DefAndUse {
-        public ArrayList<String> def = new ArrayList<>();
-        public ArrayList<String> use = new ArrayList<>();
-    }
-
-    private DefAndUse def_and_use_variables(Instruction instruction) {
-        DefAndUse tmp = new DefAndUse();
-        switch (instruction.getInstType()) {
-            case CALL -> {
-                if (!((CallInstruction) instruction).getInvocationType().name().contains("static") && !Objects.equals(((Operand) ((CallInstruction) instruction).getFirstArg()).getName(), "this"))
-                    tmp.use.add(((Operand) ((CallInstruction) instruction).getFirstArg()).getName());
-                if (((CallInstruction) instruction).getListOfOperands() != null)
-                    for (Element m : ((CallInstruction) instruction).getListOfOperands())
-                        if (!m.isLiteral()) {
-                            if (m instanceof ArrayOperand arrayOperand) {
-                                for (Element element : arrayOperand.getIndexOperands()) {
-                                    if (!element.isLiteral())
-                                        tmp.use.add(((Operand) element).getName());
-                                }
-                                tmp.use.add(arrayOperand.getName());
-                            } else {
-                                if (!m.isLiteral())
-                                    tmp.use.add(((Operand) m).getName());
-                            }
-
-                        }
-                return tmp;
-            }
-            case GOTO -> {
-                return tmp;
-            }
-            case NOPER -> {
-                Element m = ((SingleOpInstruction) instruction).getSingleOperand();
-                if (m instanceof ArrayOperand arrayOperand) {
-                    for (Element element : arrayOperand.getIndexOperands()) {
-                        if (!element.isLiteral())
-                            tmp.use.add(((Operand) element).getName());
-                    }
-                    tmp.use.add(arrayOperand.getName());
-                } else {
-                    if (!m.isLiteral())
-                        tmp.use.add(((Operand) m).getName());
-                }
-                return tmp;
-            }
-            case ASSIGN -> {
-                if (((AssignInstruction) instruction).getDest() instanceof ArrayOperand arrayOperand) {
-                    for (Element element : arrayOperand.getIndexOperands()) {
-                        if (!element.isLiteral())
-                            tmp.use.add(((Operand) element).getName());
-                    }
-                    tmp.use.add(arrayOperand.getName());
-                } else {
-                    if (!((AssignInstruction) instruction).getDest().isLiteral())
-                        tmp.def.add(((Operand) ((AssignInstruction) instruction).getDest()).getName());
-                }
-                tmp.use.addAll(def_and_use_variables(((AssignInstruction) instruction).getRhs()).use);
-                return tmp;
-            }
-            case BRANCH -> {
-                CondBranchInstruction element = ((CondBranchInstruction) instruction);
-                DefAndUse a = def_and_use_variables(element.getCondition());
-                tmp.def.addAll(a.def);
-                tmp.use.addAll(a.use);
-                return tmp;
-            }
-            case RETURN -> {
-                Element m = ((ReturnInstruction) instruction).getOperand();
-                if (m instanceof ArrayOperand arrayOperand) {
-                    for (Element element : arrayOperand.getIndexOperands()) {
-                        if (element != null && !element.isLiteral())
-                            tmp.use.add(((Operand) element).getName());
-                    }
-                    tmp.use.add(arrayOperand.getName());
-                } else {
-                    if (m != null && !m.isLiteral())
-                        tmp.use.add(((Operand) m).getName());
-                }
-                return tmp;
-            }
-            case GETFIELD -> {
-                Element m = ((GetFieldInstruction) instruction).getSecondOperand();
-                if (m instanceof ArrayOperand arrayOperand) {
-                    for (Element element : arrayOperand.getIndexOperands()) {
-                        if (element != null && !element.isLiteral())
-                            tmp.use.add(((Operand) element).getName());
-                    }
-                    tmp.use.add(arrayOperand.getName());
-                } else {
-                    if (m != null && !m.isLiteral())
-                        tmp.use.add(((Operand) m).getName());
-                }
-                return tmp;
-            }
-            case PUTFIELD -> {
-                Element assignee = ((PutFieldInstruction) instruction).getSecondOperand();
-                if (assignee instanceof ArrayOperand arrayOperand) {
-                    for (Element element : arrayOperand.getIndexOperands()) {
-                        if (element != null && !element.isLiteral())
-                            tmp.def.add(((Operand) element).getName());
-                    }
-                    tmp.use.add(arrayOperand.getName());
-                } else {
-                    if (assignee != null && !assignee.isLiteral())
-                        tmp.def.add(((Operand) assignee).getName());
-                }
-                Element assigned = ((PutFieldInstruction) instruction).getThirdOperand();
-                if (assigned instanceof ArrayOperand arrayOperand) {
-                    for (Element element : arrayOperand.getIndexOperands()) {
-                        if (element != null && !element.isLiteral())
-                            tmp.use.add(((Operand) element).getName());
-                    }
-                    tmp.use.add(arrayOperand.getName());
-                } else {
-                    if (assigned != null && !assigned.isLiteral())
-                        tmp.use.add(((Operand) assigned).getName());
-                }
-                return tmp;
-            }
-            case UNARYOPER -> {
-                Element m = ((UnaryOpInstruction) instruction).getOperand();
-                if (m instanceof ArrayOperand arrayOperand) {
-                    for (Element element : arrayOperand.getIndexOperands()) {
-                        if (!element.isLiteral())
-                            tmp.use.add(((Operand) element).getName());
-                    }
-                    tmp.use.add(arrayOperand.getName());
-                } else {
-                    if (!m.isLiteral())
-                        tmp.use.add(((Operand) m).getName());
-                }
-                return tmp;
-            }
-            case BINARYOPER -> {
-                BinaryOpInstruction binaryOpInstruction = ((BinaryOpInstruction) instruction);
-                if (!binaryOpInstruction.getLeftOperand().isLiteral())
-                    tmp.use.add(((Operand) binaryOpInstruction.getLeftOperand()).getName());
-                if (!binaryOpInstruction.getRightOperand().isLiteral())
-                    tmp.use.add(((Operand) binaryOpInstruction.getRightOperand()).getName());
-                return tmp;
-            }
-            default -> {
-                System.out.println("UNKNOWN INSTRUCTION TYPE IN OPTIMIZER");
-                return new DefAndUse();
-            }
+        if (allocator.getSpilled() != 0) {
+            String report_message = "Method " + method.getMethodName() + " needs more than " + max_registers + " registers, "
+                    + allocator.getSpilled() + " variables were spilled to " + registers + " locals.";
+            return new Report(ReportType.WARNING, Stage.OPTIMIZATION, -1, report_message);
         }
+        String minimum = allocator.isMinimal() ? " (proven minimal)" : "";
+        return new Report(ReportType.LOG, Stage.OPTIMIZATION, -1, "Graph coloring allocated " + registers + " locals on method " + method.getMethodName() + minimum);
     }
 
     SymbolTable symbol_table;
-    JmmNode root_node;
+    AstNode root_node;
+    OllirBuilder builder;
 
     int temp_n;
-    boolean has_constructor;
+    int label_n;
+    boolean rotate_loops;
 
-    StringBuilder res;
+    List<Symbol> local_variables;
+    List<Symbol> parameter_variables;
+    List<Symbol> classfield_variables;
+    boolean is_static;
+    Type method_return_type;
 
     public OllirParser() {
         this.symbol_table = null;
         this.root_node = null;
         this.temp_n = 0;
-        this.res = new StringBuilder();
-        this.has_constructor = false;
+        this.label_n = 0;
     }
 
     private void method_insides_new(String class_method) {
-
-        //this.symbol_table.get
         String[] tmp = class_method.split(" ");
         String method_name = tmp[tmp.length - 1];
 
-        JmmNode method_node = this.get_method_from_ast(method_name);
-        List<Symbol> local_variables = this.symbol_table.getLocalVariables(method_name);
-        List<Symbol> parameter_variables = this.symbol_table.getParameters(method_name);
-        List<Symbol> classfield_variables = this.symbol_table.getFields();
+        AstNode method_node = this.get_method_from_ast(method_name);
+        this.local_variables = this.symbol_table.getLocalVariables(method_name);
+        this.parameter_variables = this.symbol_table.getParameters(method_name);
+        this.classfield_variables = this.symbol_table.getFields();
+        this.is_static = Arrays.asList(tmp).contains("static");
 
         assert method_node != null;
-        for (JmmNode statement : method_node.getChildren()) {
-            if (!Objects.equals(statement.getKind(), "ReturnType") && !Objects.equals(statement.getKind(), "MethodArgument"))
-                method_insides_handler(statement, local_variables, parameter_variables, classfield_variables);
-        }
-        res.append("\n");
         boolean has_ret = false;
-        for (JmmNode statement : method_node.getChildren()) {
-            if (!Objects.equals(statement.getKind(), "ReturnType") && !Objects.equals(statement.getKind(), "MethodArgument") && statement.hasAttribute("ollirhelper")) {
-                res.append(statement.get("beforehand")).append("\n");
-                res.append(statement.get("ollirhelper")).append("\n");
-            }
-            if (Objects.equals(statement.getKind(), "ReturnStmt"))
+        for (int i = 0; i < method_node.getNumChildren(); i++) {
+            AstNode statement = method_node.getChild(i);
+            if (!statement.is(Kind.RETURN_TYPE) && !statement.is(Kind.METHOD_ARGUMENT))
+                method_insides_handler(statement);
+            if (statement.is(Kind.RETURN_STMT))
                 has_ret = true;
         }
         if (!has_ret)
-            res.append("ret.V;\n");
+            builder.emit(OllirBuilder.ret());
     }
 
-    private void method_insides_handler(JmmNode node, List<Symbol> local_variables, List<Symbol> parameter_variables, List<Symbol> classfield_variables) {
-        node.put("beforehand", "");
-        if (node.getNumChildren() != 0) {
-            for (JmmNode statement : node.getChildren()) {
-                method_insides_handler(statement, local_variables, parameter_variables, classfield_variables);
-            }
-            switch (node.getKind()) {
-                case "ReturnStmt" -> node.put("ollirhelper", handle_return_statement(node));
-                case "VarDeclaration" ->
-                        node.put("ollirhelper", handle_variable_declaration(node, local_variables, parameter_variables, classfield_variables));
-                case "BinaryOp" -> node.put("ollirhelper", handle_binary_ops(node));
-                case "Condition" -> {
-                    node.put("ollirhelper", node.getJmmChild(0).get("ollirhelper"));
-                    handle_before_hand(node, new StringBuilder());
-                }
-                case "Body", "ElseStmtBody" -> node.put("ollirhelper", handle_bodies(node));
-                case "Assignment" ->
-                        node.put("ollirhelper", handle_assignments(node, local_variables, parameter_variables, classfield_variables));
-                case "MethodCall" ->
-                        node.put("ollirhelper", handle_method_calls(node, local_variables, parameter_variables, classfield_variables));
-                case "Parenthesis" -> node.put("ollirhelper", handle_parenthesis(node));
-                case "IfStatement" -> node.put("ollirhelper", handle_ifs(node));
-                case "Stmt" -> handle_before_hand(node, new StringBuilder());
-                case "WhileLoop" -> node.put("ollirhelper", handle_whiles(node));
-                case "Length" -> node.put("ollirhelper", handle_lengths(node));
-                case "ArrayIndex" -> node.put("ollirhelper", handle_array_index(node));
-                case "UnaryOp" -> node.put("ollirhelper", handle_unary_ops(node));
-                case "ArrayDeclaration" -> node.put("ollirhelper", handle_array_declaration(node));
-                case "NewArrayInstantiation" -> node.put("ollirhelper", handle_new_array_instantiation(node));
-            }
-        } else {
-            switch (node.getKind()) {
-                case "Type" -> handle_before_hand(node, new StringBuilder());
-                case "Literal", "LiteralS" ->
-                        node.put("ollirhelper", handle_literals(node, local_variables, parameter_variables, classfield_variables));
-                case "ObjectInstantiation" -> {
-                    node.put("ollirhelper", handle_object_instantiation(node));
-                    node.put("id", node.get("ollirhelper"));
-                }
-                case "Object" -> {
-                    node.put("ollirhelper", "this." + root_node.getJmmChild(root_node.getNumChildren()-1).get("className"));
-                    handle_before_hand(node, new StringBuilder());
-                }
-                case "Body" -> node.put("ollirhelper", "");
-            }
+    private void method_insides_handler(AstNode node) {
+        switch (node.getAstKind()) {
+            case RETURN_STMT -> handle_return_statement(node);
+            case VAR_DECLARATION -> handle_variable_declaration(node);
+            case BODY, ELSE_STMT_BODY -> handle_bodies(node);
+            case ASSIGNMENT -> handle_assignments(node);
+            case ASSIGNMENT_ARRAY -> handle_array_initialization(node);
+            case ARRAY_DECLARATION -> handle_array_declaration(node);
+            case IF_STATEMENT -> handle_ifs(node);
+            case WHILE_LOOP -> handle_whiles(node);
+            case FOR_LOOP -> handle_fors(node);
+            case STMT -> handle_expression_statement(node.getChild(0));
+            default -> throw new RuntimeException("Unexpected statement " + node.getKind());
         }
     }
 
-    private String handle_new_array_instantiation(JmmNode node) {
-        String var_type = convert_type(new Type(node.get("varType"), true));
-        StringBuilder res = new StringBuilder();
-        res.append("temp_").append(this.temp_n).append(".").append(var_type).append(" :=.").append(var_type).append(" new(array, ").append(node.getJmmChild(0).get("ollirhelper")).append(").").append(var_type).append(";");
-        this.temp_n++;
-        handle_before_hand(node, res);
-        return "temp_" + (this.temp_n-1) + "." + var_type;
-
+    private void handle_variable_declaration(AstNode node) {
+        // Only declarations with an assignment generate code
+        if (node.getNumChildren() > 1)
+            method_insides_handler(node.getChild(1));
     }
 
-    private String handle_unary_ops(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        res.append("temp_").append(this.temp_n).append(".bool :=.bool ").append(node.get("op") + ".bool " + node.getJmmChild(0).get("ollirhelper")).append(";\n");
-        this.temp_n++;
-        handle_before_hand(node, res);
-        return "temp_" + (this.temp_n-1) + ".bool";
+    private void handle_bodies(AstNode node) {
+        for (int i = 0; i < node.getNumChildren(); i++) {
+            method_insides_handler(node.getChild(i));
+        }
     }
 
-    private String handle_array_index(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        String argument = node.getJmmChild(0).get("ollirhelper").replace(node.getJmmChild(0).get("id") + ".array", "");
-        String variable;
-        if (argument.contains("$")) {
-            variable = argument.split("\\$[0-9]+\\.")[1];
-            argument = argument.split(variable)[0];
+    private void handle_return_statement(AstNode node) {
+        AstNode argument = skip_parenthesis(node.getChild(0));
+        if (argument.is(Kind.LITERAL)) {
+            builder.emit(OllirBuilder.ret(handle_literals(argument), this.method_return_type));
         } else {
-            variable = argument;
-            argument = "";
+            Operand temp = new_temp(this.method_return_type);
+            handle_expression_into(temp, argument);
+            builder.emit(OllirBuilder.ret(temp, this.method_return_type));
+        }
+    }
+
+    private void handle_expression_statement(AstNode node) {
+        node = skip_parenthesis(node);
+        if (node.is(Kind.METHOD_CALL))
+            builder.emit(handle_method_calls(node, true));
+        else
+            handle_expression(node);
+    }
+
+    private void handle_ifs(AstNode node) {
+        String else_label = "else" + label_n;
+        String end_label = "endif" + label_n;
+        label_n++;
+        boolean has_else = node.getNumChildren() == 3;
+
+        handle_condition_jump(node.getChild(0), false, has_else ? else_label : end_label);
+        method_insides_handler(node.getChild(1));
+        if (has_else) {
+            builder.emit(OllirBuilder.jump(end_label));
+            builder.label(else_label);
+            method_insides_handler(node.getChild(2));
+        }
+        builder.label(end_label);
+    }
+
+    private void handle_whiles(AstNode node) {
+        String start_label = "loopstart" + label_n;
+        String body_label = "whilestart" + label_n;
+        String end_label = "loopend" + label_n;
+        label_n++;
+
+        if (this.rotate_loops) {
+            handle_rotated_loop(node.getChild(0), body_label, end_label, () -> method_insides_handler(node.getChild(1)));
+            return;
+        }
+        builder.label(start_label);
+        handle_condition_jump(node.getChild(0), false, end_label);
+        method_insides_handler(node.getChild(1));
+        builder.emit(OllirBuilder.jump(start_label));
+        builder.label(end_label);
+    }
+
+    private void handle_fors(AstNode node) {
+        String start_label = "loopstart" + label_n;
+        String body_label = "forstart" + label_n;
+        String end_label = "loopend" + label_n;
+        label_n++;
+
+        if (node.getChild(0).is(Kind.VAR_DECLARATION))
+            method_insides_handler(node.getChild(0));
+        else
+            handle_expression_statement(node.getChild(0));
+        if (this.rotate_loops) {
+            handle_rotated_loop(node.getChild(1), body_label, end_label, () -> {
+                method_insides_handler(node.getChild(3));
+                handle_expression_statement(node.getChild(2));
+            });
+            return;
+        }
+        builder.label(start_label);
+        handle_condition_jump(node.getChild(1), false, end_label);
+        method_insides_handler(node.getChild(3));
+        handle_expression_statement(node.getChild(2));
+        builder.emit(OllirBuilder.jump(start_label));
+        builder.label(end_label);
+    }
+
+    /**
+     * A loop with the test at the bottom, so an iteration takes a single branch: the condition is tested once before
+     * the loop to skip it, and again after the body to go back to it.
+     */
+    private void handle_rotated_loop(AstNode condition_node, String body_label, String end_label, Runnable body) {
+        handle_condition_jump(condition_node, false, end_label);
+        builder.label(body_label);
+        body.run();
+        handle_condition_jump(condition_node, true, body_label);
+        builder.label(end_label);
+    }
+
+    private void handle_condition_jump(AstNode node, boolean when, String label) {
+        if (node.is(Kind.CONDITION))
+            node = node.getChild(0);
+        handle_jump(node, when, label);
+    }
+
+    /**
+     * Jumps to the label when the condition is the given value, and falls through otherwise. && and || only evaluate
+     * their right side when the left one doesn't decide the result, and ! swaps the value tested, so neither needs a
+     * boolean of its own.
+     */
+    private void handle_jump(AstNode node, boolean when, String label) {
+        node = skip_parenthesis(node);
+        if (node.is(Kind.UNARY_OP)) {
+            handle_jump(node.getChild(0), !when, label);
+            return;
+        }
+        if (node.is(Kind.BINARY_OP) && is_logical(node.getOperator())) {
+            // a && b is false as soon as a is, a || b is true as soon as a is
+            boolean decides = node.getOperator() == AstNode.Operator.OR;
+            if (when == decides) {
+                handle_jump(node.getChild(0), when, label);
+                handle_jump(node.getChild(1), when, label);
+            } else {
+                String skip_label = "skip" + label_n++;
+                handle_jump(node.getChild(0), decides, skip_label);
+                handle_jump(node.getChild(1), when, label);
+                builder.label(skip_label);
+            }
+            return;
         }
+        Element condition = handle_expression(node);
+        if (when)
+            builder.emit(OllirBuilder.branch(condition, label));
+        else
+            builder.emit(OllirBuilder.branch(OllirBuilder.not(condition), label));
+    }
 
-        if (Objects.equals(node.getJmmChild(1).getKind(), "Literal")) {
-            res.append("temp_").append(this.temp_n).append(".").append(convert_type(new Type(node.getJmmChild(1).get("varType"), false))).append(" :=.").append(convert_type(new Type(node.getJmmChild(1).get("varType"), false))).append(" ").append(node.getJmmChild(1).get("ollirhelper")).append(";\n");
-            this.temp_n++;
-            node.getJmmChild(1).put("ollirhelper", "temp_" + (this.temp_n - 1) + "." + convert_type(new Type(node.getJmmChild(1).get("varType"), false)));
+    private void handle_assignments(AstNode node) {
+        if (node.getNumChildren() != 1) {
+            // it is an array assignment
+            Operand array = get_array(node.getName());
+            Element index = handle_index(node.getChild(0));
+            Element value = handle_expression(node.getChild(1));
+            builder.emit(OllirBuilder.assign(OllirBuilder.arrayAccess(array, index), OllirBuilder.single(value)));
+            return;
         }
-        res.append("temp_").append(this.temp_n).append(variable).append(" :=").append(variable).append(" ").append(argument + node.getJmmChild(0).get("id")).append("[");
-        res.append(node.getJmmChild(1).get("ollirhelper")).append("]").append(variable).append(";");
-        this.temp_n++;
-        handle_before_hand(node, res);
-        return "temp_" + (this.temp_n - 1) + variable;
-    }
-
-    private String handle_array_declaration(JmmNode node) {
-        String var_type = convert_type(new Type(node.get("varType"), true));
-        handle_before_hand(node, new StringBuilder());
-        return node.get("variable") + "." + var_type + " :=." + var_type + " new(array, " + node.getJmmChild(0).get("ollirhelper") + ".i32)." + var_type + ";";
-    }
-
-    private String handle_lengths(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        res.append("temp_").append(this.temp_n).append(".i32 :=.i32 arraylength(").append(node.getJmmChild(0).get("ollirhelper")).append(").i32;");
-        this.temp_n++;
-        handle_before_hand(node, res);
-        return "temp_" + (this.temp_n - 1) + ".i32";
-    }
-
-    private String handle_whiles(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        res.append("loopstart").append(temp_n).append(":\n");
-        temp_n++;
-        res.append(node.getJmmChild(0).get("beforehand"));
-        res.append("if (").append(node.getJmmChild(0).get("ollirhelper")).append(") goto whilestart").append(temp_n).append(";\n");
-        temp_n++;
-        res.append("goto loopend").append(temp_n).append(";\n");
-        temp_n++;
-        res.append("whilestart").append(temp_n - 2).append(":\n");
-        if (Objects.equals(node.getJmmChild(1).getKind(), "Body")) {
-            for (JmmNode child : node.getJmmChild(1).getChildren()) {
-                res.append(child.get("beforehand"));
-                res.append(child.get("ollirhelper"));
-            }
-        } else {
-            res.append(node.getJmmChild(1).get("beforehand"));
-            res.append(node.getJmmChild(1).get("ollirhelper"));
+
+        String var_name = node.getName();
+        Operand variable = get_variable(var_name);
+        if (variable != null) {
+            handle_expression_into(variable, node.getChild(0));
+            return;
         }
-        res.append("\ngoto loopstart").append(temp_n - 3).append(";\n");
-        res.append("loopend").append(temp_n - 1).append(":\n");
+        Element value = handle_expression(node.getChild(0));
+        builder.emit(OllirBuilder.putField(builder.thisObject(), var_name, get_field_type(var_name), value));
+    }
 
-        return res.toString();
+    private void handle_array_declaration(AstNode node) {
+        Element size = handle_expression(node.getChild(0));
+        store_variable(node.getName(), OllirBuilder.newArray(size, OllirBuilder.intType()));
     }
 
-    private String handle_return_statement(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        JmmNode argument = node.getJmmChild(0);
-        if (Objects.equals(argument.getKind(), "Literal")) {
-            res.append("ret").append(".").append(get_var_type_from_name(node.getJmmChild(0).get("ollirhelper"))).append(" ").append(node.getJmmChild(0).get("ollirhelper")).append(";\n");
-        } else {
-            res.append("temp_").append(this.temp_n).append(".").append(get_var_type_from_name(argument.get("ollirhelper"))).append(" :=.").append(get_var_type_from_name(argument.get("ollirhelper"))).append(" ").append(argument.get("ollirhelper")).append(";\n");
-            this.temp_n++;
-            res.append("ret").append(".").append(get_var_type_from_name(node.getJmmChild(0).get("ollirhelper"))).append(" ").append("temp_").append(this.temp_n - 1).append(".").append(get_var_type_from_name(argument.get("ollirhelper"))).append(";\n");
+    private void handle_array_initialization(AstNode node) {
+        List<String> contents = node.getObjectAsList("contents", String.class);
+
+        Operand array = store_variable(node.getName(), OllirBuilder.newArray(OllirBuilder.literal(contents.size()), OllirBuilder.intType()));
+        for (int i = 0; i < contents.size(); i++) {
+            Operand index = new_temp(OllirBuilder.intType());
+            builder.emit(OllirBuilder.assign(index, OllirBuilder.single(OllirBuilder.literal(i))));
+            builder.emit(OllirBuilder.assign(OllirBuilder.arrayAccess(array, index), OllirBuilder.single(OllirBuilder.literal(contents.get(i)))));
         }
-        handle_before_hand(node, new StringBuilder());
-        return res.toString();
     }
 
-    private String handle_bodies(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        if (Objects.equals(node.getJmmChild(0).getKind(), "Body") || Objects.equals(node.getJmmChild(0).getKind(), "ElseStmtBody")) {
-            res.append(node.getJmmChild(0).get("ollirhelper")).append("\n");
-        } else {
-            for (JmmNode c : node.getChildren()) {
-                res.append(c.get("ollirhelper"));
-                if (!c.get("ollirhelper").contains(";"))
-                    res.append(";\n");
-            }
+    /**
+     * Assigns the array created by rhs to a variable, going through a temporary for class fields. Returns the operand
+     * that holds the array.
+     */
+    private Operand store_variable(String var_name, CallInstruction rhs) {
+        Operand variable = get_variable(var_name);
+        if (variable != null) {
+            builder.emit(OllirBuilder.assign(variable, rhs));
+            return variable;
         }
-        handle_before_hand(node, new StringBuilder());
-        return res.toString();
+        Operand temp = new_temp(get_field_type(var_name));
+        builder.emit(OllirBuilder.assign(temp, rhs));
+        builder.emit(OllirBuilder.putField(builder.thisObject(), var_name, temp.getType(), temp));
+        return temp;
     }
 
-    private String handle_ifs(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        res.append("if (").append(node.getJmmChild(0).get("ollirhelper")).append(") goto ifstart").append(temp_n).append(";\n");
-        temp_n++;
-        if (node.getNumChildren() == 3) {
-            res.append("goto else").append(temp_n).append(";\n");
-            temp_n++;
-        } else {
-            res.append("goto endif").append(temp_n).append(";\n");
-            temp_n++;
-        }
-        res.append("ifstart").append(temp_n - 2).append(":\n");
-        res.append(node.getJmmChild(1).get("beforehand"));
-        res.append(node.getJmmChild(1).get("ollirhelper"));
-        if (node.getNumChildren() == 3) {
-            res.append("goto endif").append(temp_n).append(";\nelse").append(temp_n - 1).append(":\n");
-            res.append(node.getJmmChild(2).get("beforehand"));
-            res.append(node.getJmmChild(2).get("ollirhelper"));
-        }
-        res.append("endif");
-        if (node.getNumChildren() == 2) {
-            res.append(temp_n - 1);
-        } else {
-            res.append(temp_n);
-            temp_n++;
-        }
-        res.append(":\n");
-        node.put("beforehand", node.getJmmChild(0).get("beforehand"));
-        return res.toString();
-    }
-
-    private String handle_parenthesis(JmmNode node) {
-        node.replace(node.getJmmChild(0));
-        return "";
-    }
-
-    private String handle_method_calls(JmmNode node, List<Symbol> local_variables, List<Symbol> parameter_variables, List<Symbol> classfield_variables) {
-        StringBuilder res = new StringBuilder();
-        ArrayList<Integer> args_is_bin_ops = new ArrayList<>();
-        if (node.getChildren().size() > 1) {
-            List<JmmNode> arguments = node.getChildren();
-            for (int j = 1; j < arguments.size(); j++) {
-                if (Objects.equals(arguments.get(j).getKind(), "BinaryOp")) {
-                    args_is_bin_ops.add(this.temp_n);
-                    res.append("temp_").append(this.temp_n).append(".").append(get_var_type_from_name(arguments.get(j).get("ollirhelper"))).append(" :=.").append(get_var_type_from_name(arguments.get(j).get("ollirhelper"))).append(" ").append(arguments.get(j).get("ollirhelper")).append(";\n");
-                    this.temp_n++;
-                } else {
-                    args_is_bin_ops.add(-1);
-                }
+    /**
+     * Generates the code of an expression and returns the element that holds its value: literals and variables are
+     * used directly, everything else goes to a new temporary.
+     */
+    private Element handle_expression(AstNode node) {
+        switch (node.getAstKind()) {
+            case LITERAL, LITERAL_S, OBJECT -> {
+                Element element = handle_literals(node);
+                if (element == null)
+                    throw new RuntimeException(node.getName() + " is not a value");
+                return element;
             }
-        }
-        String tmp_var = node.getJmmParent().hasAttribute("variable") ? node.getJmmParent().get("variable") : "V";
-        if (!Objects.equals(node.getJmmParent().getKind(), "Stmt")) {
-            res.append("temp_").append(this.temp_n).append(".");
-            this.temp_n++;
-            if (Objects.equals(get_return_type_of_method(node.get("method")), "unknown")) {
-                if (exists_in_variable(local_variables, tmp_var)) {
-                    // its a local variable
-                    tmp_var = get_local_variable(tmp_var, local_variables);
-                } else if (exists_in_variable(parameter_variables, tmp_var)) {
-                    tmp_var = get_parameter_variable(tmp_var, parameter_variables);
-                } else if (exists_in_variable(classfield_variables, tmp_var)) {
-                    tmp_var = get_classfield_variable(node.getJmmParent(), tmp_var, classfield_variables);
-                } else {
-                    tmp_var = "V";
-                }
-                res.append(get_var_type_from_name(tmp_var));
-                res.append(" :=.").append(get_var_type_from_name(tmp_var)).append(" ");
-            } else {
-                res.append(get_return_type_of_method(node.get("method")));
-                res.append(" :=.").append(get_return_type_of_method(node.get("method"))).append(" ");
+            case PARENTHESIS -> {
+                return handle_expression(node.getChild(0));
             }
-        }
+            case OBJECT_INSTANTIATION -> {
+                Operand temp = new_temp(type_of(node));
+                handle_object_instantiation(temp, node);
+                return temp;
+            }
+            default -> {
+                Instruction rhs = handle_rhs(node);
+                Operand temp = new_temp(type_of(node));
+                builder.emit(OllirBuilder.assign(temp, rhs));
+                return temp;
+            }
+        }
+    }
+
+    private void handle_expression_into(Operand dest, AstNode node) {
+        node = skip_parenthesis(node);
+        if (node.is(Kind.OBJECT_INSTANTIATION))
+            handle_object_instantiation(dest, node);
+        else
+            builder.emit(OllirBuilder.assign(dest, handle_rhs(node)));
+    }
+
+    /**
+     * The instruction that computes an expression, to be used as the right side of an assignment.
+     */
+    private Instruction handle_rhs(AstNode node) {
+        return switch (node.getAstKind()) {
+            case PARENTHESIS -> handle_rhs(node.getChild(0));
+            case BINARY_OP -> handle_binary_ops(node);
+            case UNARY_OP -> handle_unary_ops(node);
+            case ARRAY_INDEX -> handle_array_index(node);
+            case LENGTH -> handle_lengths(node);
+            case NEW_ARRAY_INSTANTIATION -> handle_new_array_instantiation(node);
+            case METHOD_CALL -> handle_method_calls(node, false);
+            case CLASS_VARIABLE -> handle_class_variable(node);
+            case LITERAL, LITERAL_S, OBJECT, OBJECT_INSTANTIATION -> OllirBuilder.single(handle_expression(node));
+            default -> throw new RuntimeException("Unexpected expression " + node.getKind());
+        };
+    }
 
-        boolean is_variable = false;
-        String variable = "";
-        if (exists_in_variable(local_variables, node.getJmmChild(0).get("id"))) {
-            // its a local variable
-            is_variable = true;
-            variable = get_local_variable(node.getJmmChild(0).get("id"), local_variables);
-        } else if (exists_in_variable(parameter_variables, node.getJmmChild(0).get("id"))) {
-            is_variable = true;
-            variable = get_parameter_variable(node.getJmmChild(0).get("id"), parameter_variables);
-        } else if (exists_in_variable(classfield_variables, node.getJmmChild(0).get("id"))) {
-            is_variable = true;
-            variable = get_classfield_variable(node.getJmmChild(0), node.getJmmChild(0).get("id"), classfield_variables);
-        }
+    private Instruction handle_binary_ops(AstNode node) {
+        if (is_logical(node.getOperator()) && !is_pure(node.getChild(1)))
+            return handle_logical_ops(node);
+        Element left = handle_expression(node.getChild(0));
+        Element right = handle_expression(node.getChild(1));
+        Type type = type_of(node);
+        return switch (node.getOperator()) {
+            case LT -> OllirBuilder.binary(left, OperationType.LTH, OllirBuilder.boolType(), right);
+            case GT -> OllirBuilder.binary(left, OperationType.GTH, OllirBuilder.boolType(), right);
+            case LE -> OllirBuilder.binary(left, OperationType.LTE, OllirBuilder.boolType(), right);
+            case GE -> OllirBuilder.binary(left, OperationType.GTE, OllirBuilder.boolType(), right);
+            case EQ -> OllirBuilder.binary(left, OperationType.EQ, OllirBuilder.boolType(), right);
+            case NE -> OllirBuilder.binary(left, OperationType.NEQ, OllirBuilder.boolType(), right);
+            case ADD -> OllirBuilder.binary(left, OperationType.ADD, type, right);
+            case SUB -> OllirBuilder.binary(left, OperationType.SUB, type, right);
+            case MUL -> OllirBuilder.binary(left, OperationType.MUL, type, right);
+            case DIV -> OllirBuilder.binary(left, OperationType.DIV, type, right);
+            case AND -> OllirBuilder.binary(left, OperationType.ANDB, OllirBuilder.boolType(), right);
+            case OR -> OllirBuilder.binary(left, OperationType.ORB, OllirBuilder.boolType(), right);
+            default -> throw new RuntimeException("Unexpected operator " + node.getOperator().getSymbol());
+        };
+    }
 
-        res.append((!Objects.equals(node.getJmmChild(0).get("id"), "this") && !is_variable && !node.getJmmChild(0).get("ollirhelper").contains("temp_") ? "invokestatic(" + node.getJmmChild(0).get("id") : "invokevirtual(" + node.getJmmChild(0).get("id") + (!Objects.equals(node.getJmmChild(0).get("id"), "this") && !node.getJmmChild(0).get("ollirhelper").contains("temp_") ? "." + get_var_type_from_name(variable) : ""))).append(",\"").append(node.get("method")).append("\"");
-        if (node.getChildren().size() > 1) {
-            List<JmmNode> arguments = node.getChildren();
-            for (int j = 1; j < arguments.size(); j++) {
-                res.append(",");
-                res.append(args_is_bin_ops.get(j - 1) != -1 ? "temp_" + args_is_bin_ops.get(j - 1) + "." + get_var_type_from_name(arguments.get(j).get("ollirhelper")) : arguments.get(j).get("ollirhelper"));
-            }
-        }
-        res.append(").").append(!Objects.equals(node.getJmmChild(0).get("id"), "this") && !is_variable && !node.getJmmChild(0).get("ollirhelper").contains("temp_") ? "V" : (Objects.equals(get_return_type_of_method(node.get("method")), "unknown") ? get_var_type_from_name(tmp_var) : get_return_type_of_method(node.get("method")))).append(";\n");
-        if (Objects.equals(node.getJmmParent().getKind(), "Stmt")) {
-            handle_before_hand(node, new StringBuilder());
-            node.getJmmParent().put("ollirhelper", res.toString());
-        } else
-            handle_before_hand(node, res);
-
-        return !Objects.equals(node.getJmmChild(0).get("id"), "this") && !is_variable && !node.getJmmChild(0).get("ollirhelper").contains("temp_") ? "" : "temp_" + (this.temp_n - 1) + "." + (Objects.equals(get_return_type_of_method(node.get("method")), "unknown") ? get_var_type_from_name(tmp_var) : get_return_type_of_method(node.get("method")));
-    }
-
-    private void handle_before_hand(JmmNode node, StringBuilder append) {
-        StringBuilder res = new StringBuilder();
-        for (JmmNode c : node.getChildren())
-            if (!Objects.equals(c.get("beforehand"), ""))
-                res.append(c.get("beforehand")).append("\n");
-        res.append(append);
-        node.put("beforehand", res.toString());
-    }
-
-    private String get_return_type_of_method(String method_name) {
-        String res = "unknown";
-        try {
-            res = this.convert_type(this.symbol_table.getReturnType(method_name));
-        } catch (Exception ignored) {
-        }
-        return res;
+    private boolean is_logical(AstNode.Operator op) {
+        return op == AstNode.Operator.AND || op == AstNode.Operator.OR;
     }
 
-    private String handle_assignments(JmmNode node, List<Symbol> local_variables, List<Symbol> parameter_variables, List<Symbol> classfield_variables) {
-        if (node.getNumChildren() != 1) {
-            // it is an array assignment
-            StringBuilder res = new StringBuilder();
-            res.append("temp_").append(this.temp_n).append(".i32 :=.i32 ").append(node.getJmmChild(0).get("ollirhelper")).append(";");
-            this.temp_n++;
-            String variable;
-            if (exists_in_variable(local_variables, node.get("id"))) {
-                // its a local variable
-                variable = get_local_variable(node.get("id"), local_variables);
-                variable = variable.split("array")[1];
-                handle_before_hand(node, res);
-                return node.get("id") + "[temp_" + (this.temp_n - 1) + ".i32]" + variable + " :=" + variable + " " + node.getJmmChild(1).get("ollirhelper") + ";";
-            } else if (exists_in_variable(parameter_variables, node.get("id"))) {
-                variable = get_parameter_variable(node.get("id"), parameter_variables);
-                String argument = (variable.contains("$") ? variable.split(node.get("id"))[0] : "");
-                variable = variable.split("array")[1];
-                handle_before_hand(node, res);
-                return argument + node.get("id") + "[temp_" + (this.temp_n - 1) + ".i32]" + variable + " :=" + variable + " " + node.getJmmChild(1).get("ollirhelper") + ";";
-            } else {
-                variable = get_classfield_variable(node, node.get("id"), classfield_variables);
-                String var_type = variable.split("array")[1];
-                return variable + " :=" + var_type + " " + node.getJmmChild(1).get("ollirhelper") + ";";
-            }
+    /**
+     * Whether evaluating an expression can't have an effect or throw, so it doesn't matter if it's skipped: literals,
+     * variables and their negations.
+     */
+    private boolean is_pure(AstNode node) {
+        node = skip_parenthesis(node);
+        return switch (node.getAstKind()) {
+            case LITERAL, LITERAL_S, OBJECT -> true;
+            case UNARY_OP -> is_pure(node.getChild(0));
+            default -> false;
+        };
+    }
 
-        } else {
-            String array = "";
-            if (Objects.equals(node.getJmmChild(0).getKind(), "ArrayIndex")) {
-                String[] tmp = node.getJmmChild(0).get("beforehand").split(" ");
-                array = tmp[tmp.length - 1];
-                ArrayList<String> tmp2 = new ArrayList<>(List.of(String.join(" ", tmp).split("\n")));
-                tmp2.remove(tmp2.size() - 1);
-                tmp = tmp2.toArray(new String[0]);
-                node.getJmmChild(0).put("beforehand", String.join(" ", tmp));
-            }
+    /**
+     * The value of a && b is a when a is false (a || b, when a is true), otherwise it's b, which is only evaluated then.
+     */
+    private Instruction handle_logical_ops(AstNode node) {
+        boolean decides = node.getOperator() == AstNode.Operator.OR;
+        String end_label = "skip" + label_n++;
+        Operand temp = new_temp(OllirBuilder.boolType());
+        handle_expression_into(temp, node.getChild(0));
+        if (decides)
+            builder.emit(OllirBuilder.branch(temp, end_label));
+        else
+            builder.emit(OllirBuilder.branch(OllirBuilder.not(temp), end_label));
+        handle_expression_into(temp, node.getChild(1));
+        builder.label(end_label);
+        return OllirBuilder.single(temp);
+    }
 
-            String variable;
-            if (exists_in_variable(local_variables, node.get("variable"))) {
-                // its a local variable
-                variable = get_local_variable(node.get("variable"), local_variables);
-            } else if (exists_in_variable(parameter_variables, node.get("variable"))) {
-                variable = get_parameter_variable(node.get("variable"), parameter_variables);
-            } else {
-                variable = get_classfield_variable(node, node.get("variable"), classfield_variables);
-                handle_before_hand(node, new StringBuilder());
-                return "putfield(this, " + node.get("variable") + "." + get_var_type_from_name(variable) + ", " + node.getJmmChild(0).get("ollirhelper") + ").V;";
-            }
+    private Instruction handle_unary_ops(AstNode node) {
+        return OllirBuilder.not(handle_expression(node.getChild(0)));
+    }
 
-            if (node.getJmmChild(0).get("beforehand").split("\n").length == 1 && !Objects.equals(node.getJmmChild(0).get("beforehand"), "")) {
-                ArrayList<String> tmp = new ArrayList<>(List.of(node.getJmmChild(0).get("beforehand").split(" ")));
-                tmp.remove(0);
-                tmp.remove(0);
-                return variable + " :=." + get_var_type_from_name(variable) + " " + (Objects.equals(array, "") ? String.join(" ", tmp.toArray(new String[0])) : array);
-            }
+    private Instruction handle_array_index(AstNode node) {
+        Operand array = (Operand) handle_expression(node.getChild(0));
+        Element index = handle_index(node.getChild(1));
+        return OllirBuilder.single(OllirBuilder.arrayAccess(array, index));
+    }
 
-            handle_before_hand(node, new StringBuilder());
-            return variable + " :=." + get_var_type_from_name(variable) + " " + (Objects.equals(array, "") ? node.getJmmChild(0).get("ollirhelper") + ";" : array);
-        }
+    /**
+     * Array indexes are always variables, literal indexes go through a temporary.
+     */
+    private Element handle_index(AstNode node) {
+        Element index = handle_expression(node);
+        if (!index.isLiteral())
+            return index;
+        Operand temp = new_temp(OllirBuilder.intType());
+        builder.emit(OllirBuilder.assign(temp, OllirBuilder.single(index)));
+        return temp;
     }
 
-    private String handle_binary_ops(JmmNode condition) {
+    private Instruction handle_lengths(AstNode node) {
+        return OllirBuilder.arrayLength(handle_expression(node.getChild(0)));
+    }
 
-        StringBuilder res_beforehand = new StringBuilder();
-        Type tmp = new Type(condition.get("varType"), false);
-        res_beforehand.append("temp_").append(this.temp_n).append(".").append(convert_type(tmp)).append(" :=.").append(convert_type(tmp)).append(" ");
-        this.temp_n++;
-        String variable = convert_type(tmp);
-        variable = switch (condition.get("op")) {
-            case "<", ">", "<=", ">=", "==", "!=" -> "bool";
-            default -> variable;
-        };
-        res_beforehand.append(condition.getJmmChild(0).get("ollirhelper")).append(" ").append(condition.get("op")).append(".").append(variable).append(" ").append(condition.getJmmChild(1).get("ollirhelper")).append(";\n");
-        handle_before_hand(condition, res_beforehand);
-        return "temp_" + (this.temp_n - 1) + "." + convert_type(tmp);
+    private Instruction handle_new_array_instantiation(AstNode node) {
+        return OllirBuilder.newArray(handle_expression(node.getChild(0)), OllirBuilder.intType());
     }
 
-    private String get_var_type_from_name(String variable) {
-        String var_type = "";
-        String[] splitted = variable.split("\\.");
-        if (variable.contains("array")) {
-            var_type += "array.";
-        }
-        var_type += splitted[splitted.length - 1];
-        return var_type;
-    }
-
-    private String handle_variable_declaration(JmmNode node, List<Symbol> local_variables, List<Symbol> parameter_variables, List<Symbol> classfield_variables) {
-        if (node.getNumChildren() > 1) {
-            List<JmmNode> stat_child = node.getChildren();
-            String var_name;
-
-            var_name = stat_child.get(1).get("variable");
-            String var_type;
-            if (exists_in_variable(local_variables, var_name))
-                var_type = get_local_variable(var_name, local_variables);
-            else if (exists_in_variable(local_variables, var_name))
-                var_type = get_parameter_variable(var_name, parameter_variables);
-            else
-                var_type = get_classfield_variable(stat_child.get(1), var_name, classfield_variables);
-
-            if (var_type.contains("array")) {
-                StringBuilder res = new StringBuilder();
-                // Is an array
-                String c_string = stat_child.get(1).get("contents");
-                String[] contents = c_string.split(", ");
-                contents[0] = contents[0].substring(1);
-                contents[contents.length - 1] = contents[contents.length - 1].substring(0, contents[contents.length - 1].length() - 1);
-
-                res.append(var_name).append(var_type).append(" :=").append(var_type).append(" new(array, ").append(contents.length).append(".i32)").append(var_type).append(";\n");
-
-                String type_var_no_array = var_type.split("\\.")[2];
-                int i = 0;
-                for (String c : contents) {
-                    res.append("i.i32 :=.i32 ").append(i).append(".i32;\n");
-                    res.append(var_name).append("[").append("i").append(".i32].").append(type_var_no_array).append(" :=.").append(type_var_no_array).append(" ").append(c).append(".").append(type_var_no_array).append(";\n");
-                    i++;
-                }
-                handle_before_hand(node, new StringBuilder());
-                return res.toString();
-            } else {
-                handle_before_hand(node, new StringBuilder());
-                return node.getJmmChild(1).get("ollirhelper");
-            }
-        } else if (Objects.equals(node.get("isArray"), "true")) {
-            String res = node.get("variableName") + convert_type(new Type(node.get("varType"), true)) + " :=" + convert_type(new Type(node.get("varType"), true)) + " new(array, " + "contents-length" + ".i32)" + convert_type(new Type(node.get("varType"), true)) + ";\n";
-            node.put("ollirhelper", res);
-        }
-        handle_before_hand(node, new StringBuilder());
-        return "";
-    }
-
-    private String handle_object_instantiation(JmmNode node) {
-        StringBuilder res = new StringBuilder();
-        res.append("temp_").append(this.temp_n).append(".").append(node.get("objectName")).append(" :=.").append(node.get("objectName")).append(" new(").append(node.get("objectName")).append(").").append(node.get("objectName")).append(";\n");
-        this.temp_n++;
-        res.append("invokespecial(").append("temp_").append(this.temp_n - 1).append(".").append(node.get("objectName")).append(",\"<init>\").V;\n");
-        handle_before_hand(node, res);
-        return "temp_" + (this.temp_n - 1) + "." + node.get("objectName");
-    }
-
-    private String handle_literals(JmmNode node, List<Symbol> local_variables, List<Symbol> parameter_variables, List<Symbol> classfield_variables) {
-        if (node.hasAttribute("id")) {
-            String variable_name = node.get("id");
-            if (exists_in_variable(local_variables, variable_name)) {
-                // its a local variable
-                return get_local_variable(variable_name, local_variables);
-            } else if (exists_in_variable(parameter_variables, variable_name)) {
-                return get_parameter_variable(variable_name, parameter_variables);
-            } else {
-                return get_classfield_variable(node, variable_name, classfield_variables);
-            }
-        }
-        handle_before_hand(node, new StringBuilder());
-        return get_value_from_terminal_literal(node);
+    private void handle_object_instantiation(Operand dest, AstNode node) {
+        String class_name = node.getName();
+        builder.emit(OllirBuilder.assign(dest, OllirBuilder.newObject(class_name)));
+        builder.emit(OllirBuilder.invokeSpecial(dest, "<init>", new ArrayList<>(), OllirBuilder.voidType()));
+    }
+
+    private Instruction handle_class_variable(AstNode node) {
+        AstNode object = skip_parenthesis(node.getChild(0));
+        Element first = object.is(Kind.OBJECT) ? builder.thisObject() : handle_expression(object);
+        return OllirBuilder.getField(first, node.getName(), type_of(node));
     }
 
-    private String get_value_from_terminal_literal(JmmNode literal) {
-        if (literal.hasAttribute("bool")) {
-            return (Objects.equals(literal.get("bool"), "true") ? "1" : "0") + ".bool";
-        } else if (literal.hasAttribute("integer")) {
-            return literal.get("integer") + ".i32";
+    private CallInstruction handle_method_calls(AstNode node, boolean is_statement) {
+        AstNode target = skip_parenthesis(node.getChild(0));
+        String method_name = node.getName();
+        // A call whose type is not known only gets one from its context when the value is used
+        Type return_type = is_statement && !has_known_type(node) ? OllirBuilder.voidType() : type_of(node);
+
+        if (target.is(Kind.OBJECT))
+            return OllirBuilder.invokeVirtual(builder.thisObject(), method_name, handle_arguments(node), return_type);
+
+        if (target.is(Kind.LITERAL_S) && !is_variable(target.getName()))
+            return builder.invokeStatic(target.getName(), method_name, handle_arguments(node), return_type);
+
+        Element object = handle_expression(target);
+        return OllirBuilder.invokeVirtual(object, method_name, handle_arguments(node), return_type);
+    }
+
+    private ArrayList<Element> handle_arguments(AstNode node) {
+        ArrayList<Element> arguments = new ArrayList<>();
+        for (int j = 1; j < node.getNumChildren(); j++) {
+            arguments.add(handle_expression(node.getChild(j)));
         }
-        return "unknown.unknown";
+        return arguments;
     }
 
-    private String convert_type(Type t) {
-        String tmp = "";
-        if (t.isArray())
-            tmp = "array.";
-        String name = t.getName();
-        if (name.contains("[]"))
-            name = name.substring(0, name.length() - 2);
-        switch (name) {
-            case "int", "integer" -> {
-                return tmp + "i32";
-            }
-            case "bool", "boolean" -> {
-                return tmp + "bool";
+    /**
+     * Literals, variables and "this". Returns null for names that are not variables (imported classes).
+     */
+    private Element handle_literals(AstNode node) {
+        switch (node.getAstKind()) {
+            case OBJECT -> {
+                return builder.thisValue();
             }
-            case "void" -> {
-                return tmp + "V";
-            }
-            case "String" -> {
-                return tmp + "String";
+            case LITERAL -> {
+                if (node.hasBool())
+                    return OllirBuilder.literal(node.getBool());
+                // Integers that don't fit an int are only kept as text
+                return node.hasInteger() ? OllirBuilder.literal(node.getInteger()) : OllirBuilder.literal(node.get("integer"));
             }
         }
-        return name;
+        String variable_name = node.getName();
+        Operand variable = get_variable(variable_name);
+        if (variable != null)
+            return variable;
+        Symbol field = find_symbol(this.classfield_variables, variable_name);
+        if (field == null)
+            return null;
+        Type type = this.convert_type(field.getType());
+        Operand temp = new_temp(type);
+        builder.emit(OllirBuilder.assign(temp, OllirBuilder.getField(builder.thisObject(), variable_name, type)));
+        return temp;
     }
 
-    private String get_local_variable(String var_name, List<Symbol> local_variables) {
-        for (Symbol lv : local_variables) {
-            if (Objects.equals(lv.getName(), var_name)) {
-                return var_name + "." + convert_type(lv.getType());
-            }
+    /**
+     * The operand of a local variable or parameter, or null if the name is neither.
+     */
+    private Operand get_variable(String var_name) {
+        Symbol local = find_symbol(this.local_variables, var_name);
+        if (local != null)
+            return OllirBuilder.operand(var_name, this.convert_type(local.getType()));
+        for (int i = 0; i < this.parameter_variables.size(); i++) {
+            Symbol parameter = this.parameter_variables.get(i);
+            if (Objects.equals(parameter.getName(), var_name))
+                return OllirBuilder.parameter(var_name, this.convert_type(parameter.getType()), i + (this.is_static ? 0 : 1));
         }
-        return "error.error";
+        return null;
     }
 
-    private String get_parameter_variable(String var_name, List<Symbol> parameter_variables) {
-        int i = 1;
-        for (Symbol lv : parameter_variables) {
-            if (Objects.equals(lv.getName(), var_name)) {
-                return "$" + i + "." + var_name + "." + convert_type(lv.getType());
-            }
-            i++;
-        }
-        return "error.error";
+    private boolean is_variable(String var_name) {
+        return get_variable(var_name) != null || find_symbol(this.classfield_variables, var_name) != null;
     }
 
-    private String get_classfield_variable(JmmNode node, String var_name, List<Symbol> classfield_variables) {
-        StringBuilder res = new StringBuilder();
-        for (Symbol lv : classfield_variables) {
-            if (Objects.equals(lv.getName(), var_name)) {
-                res.append("temp_").append(this.temp_n).append(".").append(convert_type(lv.getType())).append(" :=.").append(convert_type(lv.getType())).append(" getfield(this, ").append(var_name).append(".").append(convert_type(lv.getType())).append(").").append(convert_type(lv.getType())).append(";\n");
-                this.temp_n++;
-                handle_before_hand(node, res);
-                return "temp_" + (this.temp_n - 1) + "." + convert_type(lv.getType());
-            }
-        }
-        handle_before_hand(node, res);
-        return "error.error";
+    private Operand get_array(String var_name) {
+        Operand variable = get_variable(var_name);
+        if (variable != null)
+            return variable;
+        Type type = get_field_type(var_name);
+        Operand temp = new_temp(type);
+        builder.emit(OllirBuilder.assign(temp, OllirBuilder.getField(builder.thisObject(), var_name, type)));
+        return temp;
     }
 
-    @Override
-    public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult) {
+    private Type get_field_type(String var_name) {
+        Symbol field = find_symbol(this.classfield_variables, var_name);
+        if (field == null)
+            throw new RuntimeException("Unknown variable " + var_name);
+        return this.convert_type(field.getType());
+    }
+
+    private Type get_variable_type(String var_name) {
+        Operand variable = get_variable(var_name);
+        return variable != null ? variable.getType() : get_field_type(var_name);
+    }
+
+    private Operand new_temp(Type type) {
+        return OllirBuilder.operand("temp_" + this.temp_n++, type);
+    }
 
-        if(!semanticsResult.getConfig().isEmpty() && semanticsResult.getConfig().containsKey("optimize") && semanticsResult.getConfig().get("optimize").equals("true")){
-            semanticsResult = (new OptimizeAST()).optimize(semanticsResult);
+    private AstNode skip_parenthesis(AstNode node) {
+        while (node.is(Kind.PARENTHESIS))
+            node = node.getChild(0);
+        return node;
+    }
+
+    private boolean has_known_type(AstNode node) {
+        if (node.getVarType() == null)
+            return false;
+        return switch (node.getVarType()) {
+            case "unknown", "undefined", "library" -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * The OLLIR type of an expression. Calls to imported classes have no type after the semantic analysis, they get
+     * the one their context expects.
+     */
+    private Type type_of(AstNode node) {
+        if (!has_known_type(node))
+            return expected_type(node);
+        return this.convert_type(new pt.up.fe.comp.jmm.analysis.table.Type(node.getVarType(), node.isArray()));
+    }
+
+    private Type expected_type(AstNode node) {
+        AstNode parent = node.getParent();
+        int index = node.getIndexOfSelf();
+        switch (parent.getAstKind()) {
+            case PARENTHESIS -> {
+                return type_of(parent);
+            }
+            case ASSIGNMENT -> {
+                if (parent.getNumChildren() == 1)
+                    return get_variable_type(parent.getName());
+                if (index == 1)
+                    return ((ArrayType) get_variable_type(parent.getName())).getElementType();
+            }
+            case BINARY_OP -> {
+                if (is_logical(parent.getOperator()))
+                    return OllirBuilder.boolType();
+            }
+            case UNARY_OP, CONDITION, WHILE_LOOP -> {
+                return OllirBuilder.boolType();
+            }
+            case FOR_LOOP -> {
+                if (index == 1)
+                    return OllirBuilder.boolType();
+            }
+            case ARRAY_INDEX, LENGTH -> {
+                if (index == 0)
+                    return OllirBuilder.arrayType(OllirBuilder.intType());
+            }
+            case RETURN_STMT -> {
+                return this.method_return_type;
+            }
+            case METHOD_CALL -> {
+                AstNode target = skip_parenthesis(parent.getChild(0));
+                boolean own_class = target.is(Kind.OBJECT) || Objects.equals(target.getVarType(), this.symbol_table.getClassName());
+                if (index > 0 && own_class) {
+                    List<Symbol> parameters = this.symbol_table.getParameters(parent.getName());
+                    if (index <= parameters.size())
+                        return this.convert_type(parameters.get(index - 1).getType());
+                }
+            }
         }
-        return semanticsResult;
+        // Everything else that takes a value without a declared type (operands, indexes, sizes, arguments of library
+        // calls) is an int
+        return OllirBuilder.intType();
+    }
+
+    private Type convert_type(pt.up.fe.comp.jmm.analysis.table.Type t) {
+        String name = t.getName();
+        if (name.contains("[]"))
+            name = name.substring(0, name.length() - 2);
+        Type type = switch (name) {
+            case "int", "integer" -> OllirBuilder.intType();
+            case "bool", "boolean" -> OllirBuilder.boolType();
+            case "void" -> OllirBuilder.voidType();
+            case "String" -> OllirBuilder.stringType();
+            default -> OllirBuilder.classType(name);
+        };
+        return t.isArray() ? OllirBuilder.arrayType(type) : type;
     }
 }
@@ -0,0 +1,260 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints a ClassUnit as OLLIR code that the OLLIR parser reads back into the same objects.
+ */
+public class OllirPrinter {
+
+    private final StringBuilder res = new StringBuilder();
+    private final String className;
+
+    private OllirPrinter(String className) {
+        this.className = className;
+    }
+
+    public static String print(ClassUnit classUnit) {
+        OllirPrinter printer = new OllirPrinter(classUnit.getClassName());
+        printer.print_class(classUnit);
+        return printer.res.toString();
+    }
+
+    private void print_class(ClassUnit classUnit) {
+        for (String name : classUnit.getImports()) {
+            res.append("import ").append(name).append(";\n");
+        }
+        res.append("\n");
+        print_modifiers(classUnit.getClassAccessModifier(), classUnit.isStaticClass(), classUnit.isFinalClass());
+        res.append(classUnit.getClassName());
+        if (classUnit.getSuperClass() != null)
+            res.append(" extends ").append(classUnit.getSuperClass());
+        res.append(" {\n\n");
+
+        for (Field field : classUnit.getFields()) {
+            res.append(".field ");
+            print_modifiers(field.getFieldAccessModifier(), field.isStaticField(), field.isFinalField());
+            res.append(field.getFieldName()).append(type(field.getFieldType()));
+            if (field.isInitialized())
+                res.append(" = ").append(field.getInitialValue());
+            res.append(";\n");
+        }
+
+        for (Method method : classUnit.getMethods()) {
+            res.append("\n");
+            print_method(method);
+        }
+        res.append("\n}\n");
+    }
+
+    private void print_modifiers(AccessModifiers accessModifier, boolean isStatic, boolean isFinal) {
+        if (accessModifier != AccessModifiers.DEFAULT)
+            res.append(accessModifier.name().toLowerCase()).append(" ");
+        if (isStatic)
+            res.append("static ");
+        if (isFinal)
+            res.append("final ");
+    }
+
+    private void print_method(Method method) {
+        res.append(method.isConstructMethod() ? ".construct " : ".method ");
+        print_modifiers(method.getMethodAccessModifier(), method.isStaticMethod(), method.isFinalMethod());
+        res.append(method.getMethodName()).append("(");
+        for (int i = 0; i < method.getParams().size(); i++) {
+            Operand param = (Operand) method.getParam(i);
+            if (i > 0)
+                res.append(", ");
+            res.append(param.getName()).append(type(param.getType()));
+        }
+        res.append(")").append(type(method.getReturnType())).append(" {\n");
+
+        // Method.getLabels(Instruction) caches its index on first use, this one is always up to date
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(label.getValue(), instruction -> new ArrayList<>()).add(label.getKey());
+        }
+        for (Instruction instruction : method.getInstructions()) {
+            List<String> instructionLabels = labels.get(instruction);
+            if (instructionLabels != null) {
+                instructionLabels.sort(null);
+                for (String label : instructionLabels) {
+                    res.append("    ").append(label).append(":\n");
+                }
+            }
+            res.append("        ");
+            instruction(instruction);
+            res.append(";\n");
+        }
+        res.append("}\n");
+    }
+
+    private void instruction(Instruction instruction) {
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                element(assign.getDest());
+                res.append(" :=").append(type(assign.getTypeOfAssign())).append(" ");
+                instruction(assign.getRhs());
+            }
+            case CALL -> call((CallInstruction) instruction);
+            case GOTO -> res.append("goto ").append(((GotoInstruction) instruction).getLabel());
+            case BRANCH -> {
+                CondBranchInstruction branch = (CondBranchInstruction) instruction;
+                res.append("if (");
+                instruction(branch.getCondition());
+                res.append(") goto ").append(branch.getLabel());
+            }
+            case RETURN -> {
+                ReturnInstruction ret = (ReturnInstruction) instruction;
+                res.append("ret").append(type(ret.getReturnType()));
+                if (ret.hasReturnValue()) {
+                    res.append(" ");
+                    element(ret.getOperand());
+                }
+            }
+            case PUTFIELD -> {
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                res.append("putfield(");
+                element(putField.getFirstOperand());
+                res.append(", ");
+                element(putField.getSecondOperand());
+                res.append(", ");
+                element(putField.getThirdOperand());
+                res.append(")").append(type(putField.getFieldType()));
+            }
+            case GETFIELD -> {
+                GetFieldInstruction getField = (GetFieldInstruction) instruction;
+                res.append("getfield(");
+                element(getField.getFirstOperand());
+                res.append(", ");
+                element(getField.getSecondOperand());
+                res.append(")").append(type(getField.getFieldType()));
+            }
+            case UNARYOPER -> {
+                UnaryOpInstruction unary = (UnaryOpInstruction) instruction;
+                operation(unary.getOperation());
+                res.append(" ");
+                element(unary.getOperand());
+            }
+            case BINARYOPER -> {
+                BinaryOpInstruction binary = (BinaryOpInstruction) instruction;
+                element(binary.getLeftOperand());
+                res.append(" ");
+                operation(binary.getOperation());
+                res.append(" ");
+                element(binary.getRightOperand());
+            }
+            case NOPER -> element(((SingleOpInstruction) instruction).getSingleOperand());
+        }
+    }
+
+    private void call(CallInstruction call) {
+        switch (call.getInvocationType()) {
+            case NEW -> {
+                Element object = call.getFirstArg();
+                res.append("new(").append(object.getType() instanceof ArrayType ? "array" : ((Operand) object).getName());
+                arguments(call);
+                res.append(")");
+            }
+            case arraylength -> {
+                res.append("arraylength(");
+                element(call.getFirstArg());
+                res.append(")");
+            }
+            case ldc -> {
+                res.append("ldc(").append(((LiteralElement) call.getFirstArg()).getLiteral()).append(")");
+            }
+            default -> {
+                res.append(call.getInvocationType().name()).append("(");
+                if (call.getInvocationType() == CallType.invokestatic)
+                    res.append(((Operand) call.getFirstArg()).getName());
+                else
+                    element(call.getFirstArg());
+                res.append(", ").append(((LiteralElement) call.getSecondArg()).getLiteral());
+                arguments(call);
+                res.append(")");
+            }
+        }
+        res.append(type(call.getReturnType()));
+    }
+
+    private void arguments(CallInstruction call) {
+        if (call.getListOfOperands() == null)
+            return;
+        for (Element argument : call.getListOfOperands()) {
+            res.append(", ");
+            element(argument);
+        }
+    }
+
+    private void operation(Operation operation) {
+        res.append(switch (operation.getOpType()) {
+            case ADD -> "+";
+            case SUB -> "-";
+            case MUL -> "*";
+            case DIV -> "/";
+            case AND -> "&";
+            case OR -> "|";
+            case XOR -> "^";
+            case ANDB -> "&&";
+            case ORB -> "||";
+            case NOTB -> "!";
+            case LTH -> "<";
+            case GTH -> ">";
+            case LTE -> "<=";
+            case GTE -> ">=";
+            case EQ -> "==";
+            case NEQ -> "!=";
+            default -> throw new RuntimeException("Operation " + operation.getOpType() + " has no OLLIR syntax");
+        }).append(type(operation.getTypeInfo()));
+    }
+
+    private void element(Element element) {
+        if (element instanceof LiteralElement literal) {
+            res.append(literal.getLiteral());
+            if (literal.getType().getTypeOfElement() != ElementType.STRING)
+                res.append(type(literal.getType()));
+            return;
+        }
+        Operand operand = (Operand) element;
+        if (operand.getType().getTypeOfElement() == ElementType.THIS && ((ClassType) operand.getType()).getName().equals(className)) {
+            res.append("this");
+            return;
+        }
+        if (operand.isParameter())
+            res.append("$").append(operand.getParamId()).append(".");
+        res.append(operand.getName());
+        if (operand instanceof ArrayOperand arrayOperand) {
+            for (Element index : arrayOperand.getIndexOperands()) {
+                res.append("[");
+                element(index);
+                res.append("]");
+            }
+        }
+        res.append(type(operand.getType()));
+    }
+
+    private static String type(Type type) {
+        if (type instanceof ArrayType arrayType) {
+            StringBuilder res = new StringBuilder();
+            for (int i = 0; i < arrayType.getNumDimensions(); i++) {
+                res.append(".array");
+            }
+            return res.append(type(arrayType.getElementType())).toString();
+        }
+        if (type instanceof ClassType classType)
+            return "." + classType.getName();
+        return switch (type.getTypeOfElement()) {
+            case INT32 -> ".i32";
+            case BOOLEAN -> ".bool";
+            case STRING -> ".String";
+            case VOID -> ".V";
+            default -> throw new RuntimeException("Type " + type + " has no OLLIR syntax");
+        };
+    }
+}
@@ -0,0 +1,578 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Iterated register coalescing (George and Appel) over the local variables of a method. Colours are local variable
+ * numbers: "this" keeps 0 and the parameters keep the slots the JVM passes them in, as precoloured nodes. Variables
+ * that don't fit in the requested number of registers are spilled to additional locals, which are the only memory a
+ * method has anyway. Copies between coalesced variables end up as self-assignments and are removed by apply.
+ */
+public class RegisterAllocator {
+
+    private static final int PRECOLORED = 0;
+    private static final int INITIAL = 1;
+    private static final int SIMPLIFY = 2;
+    private static final int FREEZE = 3;
+    private static final int SPILL = 4;
+    private static final int SPILLED = 5;
+    private static final int COALESCED = 6;
+    private static final int COLORED = 7;
+    private static final int SELECT = 8;
+
+    private static final int MOVE_WORKLIST = 0;
+    private static final int MOVE_ACTIVE = 1;
+    private static final int MOVE_COALESCED = 2;
+    private static final int MOVE_CONSTRAINED = 3;
+    private static final int MOVE_FROZEN = 4;
+
+    private final Method method;
+    private final InterferenceGraph interference = new InterferenceGraph();
+    // {dest, source} of every copy between two variables
+    private final List<int[]> moves = new ArrayList<>();
+    private final int reserved;
+    private int[] precolors;
+
+    private InterferenceGraph graph;
+    private int k;
+    private int max_registers;
+    private int[] state;
+    private int[] degree;
+    private int[] alias;
+    private int[] color;
+    private int[] move_state;
+    private List<List<Integer>> move_list;
+    private Set<Integer> simplify_worklist;
+    private Set<Integer> freeze_worklist;
+    private Set<Integer> spill_worklist;
+    private Deque<Integer> worklist_moves;
+    private Deque<Integer> select_stack;
+    private int spilled;
+    private int coalesced;
+    private boolean minimal;
+
+    public RegisterAllocator(Method method) {
+        this.method = method;
+        this.reserved = method.isStaticMethod() ? 0 : 1;
+        build();
+    }
+
+    /**
+     * Variables that had to go to locals past the requested number of registers in the last allocation.
+     */
+    public int getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Whether the last allocateMinimum used as many locals as a clique of the interference graph needs, so no
+     * allocation can use fewer.
+     */
+    public boolean isMinimal() {
+        return minimal;
+    }
+
+    /**
+     * Whether the allocator decides the register of a variable: everything in the var table but this and fields.
+     */
+    static boolean isAllocatable(Method method, String name) {
+        Descriptor descriptor = method.getVarTable().get(name);
+        return descriptor != null && !Objects.equals(name, "this") && descriptor.getScope() != VarScope.FIELD;
+    }
+
+    /**
+     * The variables copied by instruction, as {dest, source}, or null if it isn't a copy between two variables.
+     */
+    static String[] copyOf(Instruction instruction) {
+        if (!(instruction instanceof AssignInstruction assign) || !(assign.getRhs() instanceof SingleOpInstruction rhs))
+            return null;
+        Element dest = assign.getDest();
+        Element source = rhs.getSingleOperand();
+        if (dest instanceof ArrayOperand || source instanceof ArrayOperand || dest.isLiteral() || source.isLiteral())
+            return null;
+        return new String[]{((Operand) dest).getName(), ((Operand) source).getName()};
+    }
+
+    private void build() {
+        // Parameters first so their ids don't depend on the code, then every other variable
+        List<Integer> entry = new ArrayList<>();
+        for (Element param : method.getParams()) {
+            String name = ((Operand) param).getName();
+            if (isAllocatable(method, name))
+                entry.add(interference.addNode(name));
+        }
+        List<String> names = new ArrayList<>(method.getVarTable().keySet());
+        names.sort(null);
+        for (String name : names) {
+            if (isAllocatable(method, name))
+                interference.addNode(name);
+        }
+
+        Liveness liveness = new Liveness(method);
+        int[] graph_ids = new int[liveness.numVariables()];
+        for (int v = 0; v < graph_ids.length; v++) {
+            graph_ids[v] = interference.getId(liveness.getVariable(v));
+        }
+
+        // The method entry defines the parameters, and anything read before being written
+        if (liveness.numInstructions() > 0) {
+            for (String name : liveness.names(liveness.getLiveIn(0))) {
+                int node = interference.getId(name);
+                if (node != -1 && !entry.contains(node))
+                    entry.add(node);
+            }
+        }
+        for (int u = 0; u < entry.size(); u++) {
+            for (int v = u + 1; v < entry.size(); v++) {
+                interference.addEdge(entry.get(u), entry.get(v));
+            }
+        }
+
+        // Every definition interferes with what is live after it, except the source of a copy
+        for (int i = 0; i < liveness.numInstructions(); i++) {
+            int source = -1;
+            String[] copy = copyOf(method.getInstructions().get(i));
+            if (copy != null) {
+                int dest_node = interference.getId(copy[0]);
+                int source_node = interference.getId(copy[1]);
+                if (dest_node != -1 && source_node != -1 && dest_node != source_node) {
+                    moves.add(new int[]{dest_node, source_node});
+                    source = source_node;
+                }
+            }
+
+            long[] def = liveness.getDef(i);
+            long[] live_out = liveness.getLiveOut(i);
+            for (int d : indexes(def)) {
+                int def_node = graph_ids[d];
+                if (def_node == -1)
+                    continue;
+                for (int l : indexes(live_out)) {
+                    int live_node = graph_ids[l];
+                    if (live_node != -1 && live_node != source)
+                        interference.addEdge(def_node, live_node);
+                }
+            }
+        }
+
+        precolors = new int[interference.numNodes()];
+        Arrays.fill(precolors, -1);
+        for (Element param : method.getParams()) {
+            int node = interference.getId(((Operand) param).getName());
+            if (node != -1)
+                precolors[node] = method.getVarTable().get(((Operand) param).getName()).getVirtualReg();
+        }
+
+        CompilerStats.count("regalloc.interferenceNodes", interference.numNodes());
+        CompilerStats.count("regalloc.interferenceEdges", interference.numEdges());
+        CompilerStats.count("regalloc.moves", moves.size());
+    }
+
+    private static int[] indexes(long[] set) {
+        int count = 0;
+        for (long word : set) {
+            count += Long.bitCount(word);
+        }
+        int[] res = new int[count];
+        int i = 0;
+        for (int w = 0; w < set.length; w++) {
+            long bits = set[w];
+            while (bits != 0) {
+                res[i++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Colours the variables with locals 0 to maxRegisters - 1, spilling what doesn't fit to the following ones.
+     * Returns the number of locals the method needs.
+     */
+    public int allocate(int maxRegisters) {
+        CompilerStats.count("regalloc.colouringAttempts", 1);
+        this.graph = interference.copy();
+        this.max_registers = maxRegisters;
+        this.k = Math.max(0, maxRegisters - reserved);
+        this.spilled = 0;
+        this.coalesced = 0;
+        this.minimal = false;
+
+        int n = graph.numNodes();
+        state = new int[n];
+        degree = new int[n];
+        alias = new int[n];
+        color = new int[n];
+        move_list = new ArrayList<>(n);
+        simplify_worklist = new LinkedHashSet<>();
+        freeze_worklist = new LinkedHashSet<>();
+        spill_worklist = new LinkedHashSet<>();
+        worklist_moves = new ArrayDeque<>();
+        select_stack = new ArrayDeque<>();
+        for (int node = 0; node < n; node++) {
+            alias[node] = node;
+            color[node] = precolors[node];
+            state[node] = precolors[node] == -1 ? INITIAL : PRECOLORED;
+            // Precoloured nodes never leave the graph, so their degree never matters
+            degree[node] = precolors[node] == -1 ? graph.degree(node) : Integer.MAX_VALUE / 2;
+            move_list.add(new ArrayList<>());
+        }
+        move_state = new int[moves.size()];
+        for (int m = 0; m < moves.size(); m++) {
+            move_state[m] = MOVE_WORKLIST;
+            worklist_moves.add(m);
+            move_list.get(moves.get(m)[0]).add(m);
+            move_list.get(moves.get(m)[1]).add(m);
+        }
+
+        make_worklist();
+        while (true) {
+            if (!simplify_worklist.isEmpty())
+                simplify();
+            else if (!worklist_moves.isEmpty())
+                coalesce();
+            else if (!freeze_worklist.isEmpty())
+                freeze();
+            else if (!spill_worklist.isEmpty())
+                select_spill();
+            else
+                break;
+        }
+        assign_colors();
+
+        int registers = reserved;
+        for (int node = 0; node < n; node++) {
+            graph.setColor(node, color[node]);
+            registers = Math.max(registers, color[node] + 1);
+        }
+        CompilerStats.count("regalloc.spills", spilled);
+        CompilerStats.count("regalloc.coalescedMoves", coalesced);
+        return registers;
+    }
+
+    /**
+     * Allocation with as few locals as possible. A smallest-last colouring gives the number of locals in one pass, and
+     * coalescing is kept when the allocator manages with that many; otherwise the smallest-last colouring is used.
+     * Every variable of a clique needs its own local, so the search for fewer locals stops at the clique size.
+     */
+    public int allocateMinimum() {
+        int registers = Math.max(reserved, interference.colorSmallestLast(precolors, reserved));
+        int[] smallest_last = new int[interference.numNodes()];
+        for (int node = 0; node < smallest_last.length; node++) {
+            smallest_last[node] = interference.getColor(node);
+        }
+        int bound = interference.getCliqueSize() + reserved;
+        CompilerStats.count("regalloc.cliqueBound", bound);
+
+        int best = allocate(registers);
+        if (spilled != 0) {
+            color = smallest_last;
+            spilled = 0;
+            coalesced = 0;
+            best = registers;
+        } else {
+            // Smallest-last can miss the minimum; fewer locals are tried until the allocator spills or hits the bound
+            while (best > bound) {
+                int fewer = allocate(best - 1);
+                if (spilled != 0 || fewer >= best) {
+                    allocate(best);
+                    break;
+                }
+                best = fewer;
+            }
+        }
+        minimal = best <= bound;
+        CompilerStats.count("regalloc.provenMinimal", minimal ? 1 : 0);
+        return best;
+    }
+
+    private void make_worklist() {
+        for (int node = 0; node < state.length; node++) {
+            if (state[node] != INITIAL)
+                continue;
+            if (degree[node] >= k)
+                move_to(node, SPILL);
+            else if (move_related(node))
+                move_to(node, FREEZE);
+            else
+                move_to(node, SIMPLIFY);
+        }
+    }
+
+    private void move_to(int node, int new_state) {
+        switch (state[node]) {
+            case SIMPLIFY -> simplify_worklist.remove(node);
+            case FREEZE -> freeze_worklist.remove(node);
+            case SPILL -> spill_worklist.remove(node);
+        }
+        state[node] = new_state;
+        switch (new_state) {
+            case SIMPLIFY -> simplify_worklist.add(node);
+            case FREEZE -> freeze_worklist.add(node);
+            case SPILL -> spill_worklist.add(node);
+        }
+    }
+
+    private List<Integer> adjacent(int node) {
+        List<Integer> res = new ArrayList<>();
+        for (int i = 0; i < graph.degree(node); i++) {
+            int neighbour = graph.neighbour(node, i);
+            if (state[neighbour] != SELECT && state[neighbour] != COALESCED)
+                res.add(neighbour);
+        }
+        return res;
+    }
+
+    private List<Integer> node_moves(int node) {
+        List<Integer> res = new ArrayList<>();
+        for (int m : move_list.get(node)) {
+            if (move_state[m] == MOVE_ACTIVE || move_state[m] == MOVE_WORKLIST)
+                res.add(m);
+        }
+        return res;
+    }
+
+    private boolean move_related(int node) {
+        for (int m : move_list.get(node)) {
+            if (move_state[m] == MOVE_ACTIVE || move_state[m] == MOVE_WORKLIST)
+                return true;
+        }
+        return false;
+    }
+
+    private void simplify() {
+        int node = simplify_worklist.iterator().next();
+        move_to(node, SELECT);
+        select_stack.push(node);
+        for (int neighbour : adjacent(node)) {
+            decrement_degree(neighbour);
+        }
+    }
+
+    private void decrement_degree(int node) {
+        if (state[node] == PRECOLORED)
+            return;
+        int d = degree[node]--;
+        if (d == k) {
+            List<Integer> nodes = adjacent(node);
+            nodes.add(node);
+            enable_moves(nodes);
+            if (state[node] == SPILL)
+                move_to(node, move_related(node) ? FREEZE : SIMPLIFY);
+        }
+    }
+
+    private void enable_moves(List<Integer> nodes) {
+        for (int node : nodes) {
+            for (int m : node_moves(node)) {
+                if (move_state[m] == MOVE_ACTIVE) {
+                    move_state[m] = MOVE_WORKLIST;
+                    worklist_moves.add(m);
+                }
+            }
+        }
+    }
+
+    private void coalesce() {
+        int m = worklist_moves.poll();
+        if (move_state[m] != MOVE_WORKLIST)
+            return;
+        int x = get_alias(moves.get(m)[0]);
+        int y = get_alias(moves.get(m)[1]);
+        int u = state[y] == PRECOLORED ? y : x;
+        int v = state[y] == PRECOLORED ? x : y;
+
+        if (u == v) {
+            move_state[m] = MOVE_COALESCED;
+            coalesced++;
+            add_work_list(u);
+        } else if (state[v] == PRECOLORED || graph.interferes(u, v)) {
+            move_state[m] = MOVE_CONSTRAINED;
+            add_work_list(u);
+            add_work_list(v);
+        } else if (state[u] == PRECOLORED ? all_ok(adjacent(v), u) : conservative(adjacent(u), adjacent(v))) {
+            move_state[m] = MOVE_COALESCED;
+            coalesced++;
+            combine(u, v);
+            add_work_list(u);
+        } else {
+            move_state[m] = MOVE_ACTIVE;
+        }
+    }
+
+    private void add_work_list(int node) {
+        if (state[node] != PRECOLORED && !move_related(node) && degree[node] < k)
+            move_to(node, SIMPLIFY);
+    }
+
+    /**
+     * George's test, for coalescing into a precoloured node.
+     */
+    private boolean all_ok(List<Integer> nodes, int r) {
+        for (int t : nodes) {
+            if (!(degree[t] < k || state[t] == PRECOLORED || graph.interferes(t, r)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Briggs' test: the combined node has fewer than k neighbours of significant degree.
+     */
+    private boolean conservative(List<Integer> u, List<Integer> v) {
+        Set<Integer> nodes = new HashSet<>(u);
+        nodes.addAll(v);
+        int significant = 0;
+        for (int node : nodes) {
+            if (degree[node] >= k)
+                significant++;
+        }
+        return significant < k;
+    }
+
+    private int get_alias(int node) {
+        while (state[node] == COALESCED)
+            node = alias[node];
+        return node;
+    }
+
+    private void combine(int u, int v) {
+        move_to(v, COALESCED);
+        alias[v] = u;
+        move_list.get(u).addAll(move_list.get(v));
+        enable_moves(List.of(v));
+        for (int t : adjacent(v)) {
+            if (t != u && !graph.interferes(t, u)) {
+                graph.addEdge(t, u);
+                if (state[t] != PRECOLORED)
+                    degree[t]++;
+                if (state[u] != PRECOLORED)
+                    degree[u]++;
+            }
+            decrement_degree(t);
+        }
+        if (degree[u] >= k && state[u] == FREEZE)
+            move_to(u, SPILL);
+    }
+
+    private void freeze() {
+        int node = freeze_worklist.iterator().next();
+        move_to(node, SIMPLIFY);
+        freeze_moves(node);
+    }
+
+    private void freeze_moves(int u) {
+        for (int m : node_moves(u)) {
+            int x = moves.get(m)[0];
+            int y = moves.get(m)[1];
+            int v = get_alias(y) == get_alias(u) ? get_alias(x) : get_alias(y);
+            move_state[m] = MOVE_FROZEN;
+            if (state[v] == FREEZE && !move_related(v) && degree[v] < k)
+                move_to(v, SIMPLIFY);
+        }
+    }
+
+    private void select_spill() {
+        // Spill the node blocking the most others
+        int chosen = -1;
+        for (int node : spill_worklist) {
+            if (chosen == -1 || degree[node] > degree[chosen])
+                chosen = node;
+        }
+        move_to(chosen, SIMPLIFY);
+        freeze_moves(chosen);
+    }
+
+    private void assign_colors() {
+        List<Integer> spilled_nodes = new ArrayList<>();
+        while (!select_stack.isEmpty()) {
+            int node = select_stack.pop();
+            Set<Integer> used = neighbour_colors(node);
+            int c = reserved;
+            while (c < max_registers && used.contains(c))
+                c++;
+            if (c < max_registers) {
+                state[node] = COLORED;
+                color[node] = c;
+            } else {
+                state[node] = SPILLED;
+                spilled_nodes.add(node);
+            }
+        }
+
+        // Spilled nodes take the first locals past the requested ones that their neighbours leave free
+        for (int node : spilled_nodes) {
+            Set<Integer> used = neighbour_colors(node);
+            int c = Math.max(max_registers, reserved);
+            while (used.contains(c))
+                c++;
+            color[node] = c;
+            spilled++;
+        }
+
+        for (int node = 0; node < state.length; node++) {
+            if (state[node] == COALESCED)
+                color[node] = color[get_alias(node)];
+        }
+    }
+
+    private Set<Integer> neighbour_colors(int node) {
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < graph.degree(node); i++) {
+            int neighbour = get_alias(graph.neighbour(node, i));
+            if (color[neighbour] != -1)
+                used.add(color[neighbour]);
+        }
+        return used;
+    }
+
+    /**
+     * Writes the registers of the last allocation to the var table and removes the copies left between a variable
+     * and itself. Returns the number of instructions removed.
+     */
+    public int apply() {
+        for (Map.Entry<String, Descriptor> entry : method.getVarTable().entrySet()) {
+            int node = interference.getId(entry.getKey());
+            if (node != -1)
+                entry.getValue().setVirtualReg(color[node]);
+        }
+
+        return removeCopies(method);
+    }
+
+    /**
+     * Removes the copies between two variables that ended up in the same register, moving their labels to the next
+     * instruction. Returns the number of instructions removed.
+     */
+    static int removeCopies(Method method) {
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(label.getValue(), instruction -> new ArrayList<>()).add(label.getKey());
+        }
+
+        int removed = 0;
+        // The last instruction is never a copy worth removing, and keeps any labels somewhere to go
+        for (int i = instructions.size() - 2; i >= 0; i--) {
+            String[] copy = copyOf(instructions.get(i));
+            if (copy == null || !isAllocatable(method, copy[0]) || !isAllocatable(method, copy[1]))
+                continue;
+            if (method.getVarTable().get(copy[0]).getVirtualReg() != method.getVarTable().get(copy[1]).getVirtualReg())
+                continue;
+            Instruction next = instructions.get(i + 1);
+            List<String> moved = labels.remove(instructions.get(i));
+            if (moved != null) {
+                for (String label : moved) {
+                    method.getLabels().put(label, next);
+                }
+                labels.computeIfAbsent(next, instruction -> new ArrayList<>()).addAll(moved);
+            }
+            instructions.remove(i);
+            removed++;
+        }
+        CompilerStats.count("regalloc.copiesRemoved", removed);
+        return removed;
+    }
+}
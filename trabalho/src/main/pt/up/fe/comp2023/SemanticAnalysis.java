@@ -10,31 +10,32 @@ import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.specs.util.SpecsCollections;
 
 import java.util.*;
+import java.util.function.BiFunction;
 
 public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Report>> {
 
     @Override
     protected void buildVisitor() {
-        addVisit("MethodCall", this::dealWithMethodCall);
-        addVisit("Parenthesis", this::dealWithParenthesis);
-        addVisit("BinaryOp", this::dealWithBinaryOp);
-        addVisit("UnaryOp", this::dealWithUnaryOp);
-        addVisit("LiteralS", this::dealWithLiteralS);
-        addVisit("ArrayIndex", this::dealWithArrayIndex);
-        addVisit("Literal", this::dealWithLiteral);
-        addVisit("WhileLoop", this::dealWithWhileLoop);
-        addVisit("Assignment", this::dealWithAssignment);
-        addVisit("ObjectInstantiation", this::dealWithObjectInstantiation);
-        addVisit("VarDeclaration", this::dealWithVarDeclaration);
-        addVisit("ClassVariable", this::dealWithClassVariable);
-        addVisit("ReturnStmt", this::dealWithReturnStmt);
-        addVisit("IfStatement", this::dealWithIfStatement);
-        addVisit("Stmt", this::dealWithStmt);
-        addVisit("Object", this::dealWithObject);
-        addVisit("ArrayDeclaration", this::dealWithArray);
-        addVisit("AssignmentArray", this::dealWithArray);
-        addVisit("Length", this::dealWithLength);
-        addVisit("NewArrayInstantiation", this::dealWithNewArrayInstantiation);
+        addVisit("MethodCall", typed(this::dealWithMethodCall));
+        addVisit("Parenthesis", typed(this::dealWithParenthesis));
+        addVisit("BinaryOp", typed(this::dealWithBinaryOp));
+        addVisit("UnaryOp", typed(this::dealWithUnaryOp));
+        addVisit("LiteralS", typed(this::dealWithLiteralS));
+        addVisit("ArrayIndex", typed(this::dealWithArrayIndex));
+        addVisit("Literal", typed(this::dealWithLiteral));
+        addVisit("WhileLoop", typed(this::dealWithWhileLoop));
+        addVisit("Assignment", typed(this::dealWithAssignment));
+        addVisit("ObjectInstantiation", typed(this::dealWithObjectInstantiation));
+        addVisit("VarDeclaration", typed(this::dealWithVarDeclaration));
+        addVisit("ClassVariable", typed(this::dealWithClassVariable));
+        addVisit("ReturnStmt", typed(this::dealWithReturnStmt));
+        addVisit("IfStatement", typed(this::dealWithIfStatement));
+        addVisit("Stmt", typed(this::dealWithStmt));
+        addVisit("Object", typed(this::dealWithObject));
+        addVisit("ArrayDeclaration", typed(this::dealWithArray));
+        addVisit("AssignmentArray", typed(this::dealWithArray));
+        addVisit("Length", typed(this::dealWithLength));
+        addVisit("NewArrayInstantiation", typed(this::dealWithNewArrayInstantiation));
     }
 
     SemanticAnalysis(){
@@ -43,6 +44,11 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         this.setDefaultVisit(this::visitDefault);
     }
 
+    // Every node comes from AstBuilder, so the visits read its typed attributes
+    private BiFunction<JmmNode, SymbolTable, List<Report>> typed(BiFunction<AstNode, SymbolTable, List<Report>> visit) {
+        return (jmmNode, symbolTable) -> visit.apply((AstNode) jmmNode, symbolTable);
+    }
+
     private List<Report> joinReports(List<Report> reps1, List<Report> reps2) {
         return SpecsCollections.concatList(reps1, reps2);
     }
@@ -90,41 +96,49 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return types.contains(nameType);
     }
 
-    private Type getVarType(JmmNode jmmNode){
-        if(jmmNode.hasAttribute("isArray") && jmmNode.hasAttribute("varType")){
-            boolean isArray = jmmNode.get("isArray").equals("true");
-            return new Type(jmmNode.get("varType"), isArray);
+    private Type getVarType(AstNode jmmNode){
+        if(jmmNode.hasType()){
+            return new Type(jmmNode.getVarType(), jmmNode.isArray());
         }
-        else if(jmmNode.hasAttribute("varType")){
-            if(jmmNode.get("varType").equals("int")){
+        else if(jmmNode.getVarType() != null){
+            if(jmmNode.getVarType().equals("int")){
                 return new Type("integer", false);
             }
-            else if(jmmNode.get("varType").equals("int[]")){
+            else if(jmmNode.getVarType().equals("int[]")){
                 return new Type("integer", true);
             }
             else {
-                return new Type(jmmNode.get("varType"), false);
+                return new Type(jmmNode.getVarType(), false);
             }
         }
         else {
-            return new Type(jmmNode.get("undefined"), false);
+            throw new RuntimeException("Node " + jmmNode.getKind() + " has no type");
         }
     }
 
-    private void putType(JmmNode jmmNode, Type tp){
-        jmmNode.put("varType", tp.getName().equals("int")? "integer": tp.getName());
-        jmmNode.put("isArray", Boolean.toString(tp.isArray()));
+    private int getLine(AstNode jmmNode){
+        return jmmNode.getLine();
+    }
+
+    private void putType(AstNode jmmNode, Type tp){
+        jmmNode.setType(tp.getName().equals("int")? "integer": tp.getName(), tp.isArray());
     }
 
     /** Returns the name of the function that calls a variable (given by JmmNode). If not a node with a MethodDeclaration ancestor returns empty string */
-    private String getCallerFunctionName(JmmNode jmmNode){
-        java.util.Optional<JmmNode> ancestor = jmmNode.getAncestor("MethodDeclaration");
-        String functionName = "";
-        if(ancestor.isPresent()){
-            functionName = ancestor.get().get("methodName");
-        }
+    private String getCallerFunctionName(AstNode jmmNode){
+        AstNode ancestor = jmmNode.getAncestor(AstNode.Kind.METHOD_DECLARATION);
+        return ancestor != null ? ancestor.getName() : "";
+    }
 
-        return functionName;
+    /** Returns the MethodDeclaration ancestor of a node that uses 'this' inside a static method, or null if the method isn't static */
+    private AstNode getStaticMethod(AstNode jmmNode){
+        AstNode ancestor = jmmNode.getAncestor(AstNode.Kind.METHOD_DECLARATION);
+        return ancestor != null && ancestor.hasAttribute("isStatic") ? ancestor : null;
+    }
+
+    /** Whether a node is a variable name or 'this', the only expressions with an id */
+    private boolean hasId(AstNode jmmNode){
+        return jmmNode.is(AstNode.Kind.LITERAL_S) || jmmNode.is(AstNode.Kind.OBJECT);
     }
 
     /** Returns whether two variables have equivalent type. Child class equivalent to parent class  */
@@ -199,21 +213,21 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
     }
 
     /** Returns a boolean if number and type of the arguments matches the function method */
-    private boolean checkMethodCallArguments(JmmNode jmmNode, SymbolTable symbolTable){
+    private boolean checkMethodCallArguments(AstNode jmmNode, SymbolTable symbolTable){
 
-        if(!jmmNode.hasAttribute("method")){
+        if(jmmNode.getName() == null){
             return false;
         }
 
-        else if(symbolTable.getParameters(jmmNode.get("method")).size() != (jmmNode.getNumChildren()-1)){
+        else if(symbolTable.getParameters(jmmNode.getName()).size() != (jmmNode.getNumChildren()-1)){
             return false;
         }
 
-        List<Symbol> functionParams = symbolTable.getParameters(jmmNode.get("method"));
+        List<Symbol> functionParams = symbolTable.getParameters(jmmNode.getName());
 
         for (int i=0; i<functionParams.size(); i++) {
             Type typeOfParam = functionParams.get(i).getType();
-            Type typeOfParamSanitized = new Type(typeOfParam.getName().equals("int")? "integer" : typeOfParam.getName(), typeOfParam.isArray()), typeOfArg = getVarType(jmmNode.getJmmChild(i+1));
+            Type typeOfParamSanitized = new Type(typeOfParam.getName().equals("int")? "integer" : typeOfParam.getName(), typeOfParam.isArray()), typeOfArg = getVarType(jmmNode.getChild(i+1));
             boolean equalType = typeOfArg.equals(typeOfParamSanitized);
             if(!equalType){return false;}
         }
@@ -224,32 +238,32 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return new ArrayList<>();
     }
 
-    private List<Report> dealWithArrayIndex(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithArrayIndex(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        JmmNode child1 = jmmNode.getJmmChild(0), child2 = jmmNode.getJmmChild(1);
+        AstNode child1 = jmmNode.getChild(0), child2 = jmmNode.getChild(1);
 
-        if(!child1.hasAttribute("varType") || !child1.hasAttribute("isArray") || !child2.hasAttribute("varType") || !child2.hasAttribute("isArray")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found."));
+        if(!child1.hasType() || !child2.hasType()){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
         }
 
-        else if(child1.get("varType").equals("integer") && child1.get("isArray").equals("true")){
-            if(child2.get("varType").equals("integer") && child2.get("isArray").equals("false")){
+        else if(child1.getVarType().equals("integer") && child1.isArray()){
+            if(child2.getVarType().equals("integer") && !child2.isArray()){
                 putType(jmmNode, new Type("integer", false));
             }
             else{
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Array access must be of type Integer."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Array access must be of type Integer."));
                 putType(jmmNode, new Type("undefined", false));
             }
         }
 
         else {
-            if(!child1.hasAttribute("id")){
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable not of type integer array."));
+            if(!hasId(child1)){
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable not of type integer array."));
             }
             else {
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+child1.get("id")+" not of type integer array."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+child1.getName()+" not of type integer array."));
             }
             putType(jmmNode, new Type("undefined", false));
         }
@@ -259,30 +273,30 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithLiteralS(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithLiteralS(AstNode jmmNode, SymbolTable symbolTable) {
 
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.hasAttribute("id")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable ID couldn't be found."));
+        if(jmmNode.getName() == null){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable ID couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
-        Type variable = matchVariable(getAccessibleVariables(getCallerFunctionName(jmmNode), symbolTable), jmmNode.get("id"));
+        Type variable = matchVariable(getAccessibleVariables(getCallerFunctionName(jmmNode), symbolTable), jmmNode.getName());
 
         if(variable!=null){
             putType(jmmNode, variable);
         }
 
         else{
-            boolean isImport = getImports(symbolTable).contains(jmmNode.get("id"));
+            boolean isImport = getImports(symbolTable).contains(jmmNode.getName());
             if(isImport){
                 putType(jmmNode, new Type("library", false));
             }
             else{
                 putType(jmmNode, new Type("undefined", false));
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+ jmmNode.get("id") +" does not exist."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+ jmmNode.getName() +" does not exist."));
             }
         }
         
@@ -290,54 +304,53 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
 
     }
 
-    private List<Report> dealWithBinaryOp(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithBinaryOp(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        List<JmmNode> children = jmmNode.getChildren();
-        if(!(children.get(0).hasAttribute("varType") && children.get(0).hasAttribute("isArray") && children.get(1).hasAttribute("varType") && children.get(1).hasAttribute("isArray"))){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found."));
+        AstNode child1 = jmmNode.getChild(0), child2 = jmmNode.getChild(1);
+        if(!(child1.hasType() && child2.hasType())){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
-        String child1_type = children.get(0).get("varType"), child2_type = children.get(1).get("varType");
-        boolean child1_isArray = getVarType(children.get(0)).isArray(), child2_isArray = getVarType(children.get(1)).isArray();
+        String child1_type = child1.getVarType(), child2_type = child2.getVarType();
+        boolean child1_isArray = child1.isArray(), child2_isArray = child2.isArray();
 
         Type child1Type = new Type(child1_type, child1_isArray), child2Type = new Type(child2_type, child2_isArray);
 
         boolean everythingOk;
+        AstNode.Operator op = jmmNode.getOperator();
 
-        List<String> boolOp = Arrays.asList("&&", "||", "!=", "==", "<" , ">" , "<=" , ">=");
-
-        switch (jmmNode.get("op")) {
-            case "&&", "||" -> {
+        switch (op) {
+            case AND, OR -> {
                 everythingOk = equalTypes(child1Type, child2Type, symbolTable) && !((child1_type.equals("undefined")) || child1_type.equals("integer")) && !(child1_isArray || child2_isArray);
                 if (!everythingOk) {
-                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Binary operator " + jmmNode.get("op") + " not defined for given type."));
+                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Binary operator " + op.getSymbol() + " not defined for given type."));
                 }
             }
-            case "!=", "==" -> {
+            case NE, EQ -> {
                 everythingOk = equalTypes(child1Type, child2Type, symbolTable) && !(child1_type.equals("undefined")) && !(child1_isArray || child2_isArray);
                 if (!everythingOk) {
-                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Binary operator " + jmmNode.get("op") + " expects two non-null variables of the same type."));
+                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Binary operator " + op.getSymbol() + " expects two non-null variables of the same type."));
                 }
             }
-            case "*", "/", "+", "-", "<", ">", "<=", ">=" -> {
+            case MUL, DIV, ADD, SUB, LT, GT, LE, GE -> {
                 everythingOk = equalTypes(child1Type, child2Type, symbolTable) && !(child1_type.equals("undefined") || child1_type.equals("boolean")) && !(child1_isArray || child2_isArray);
                 if (!everythingOk) {
-                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Binary operator " + jmmNode.get("op") + " not defined for given type."));
+                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Binary operator " + op.getSymbol() + " not defined for given type."));
                 }
             }
             default -> {
                 everythingOk = false;
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Binary operation incorrect."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Binary operation incorrect."));
             }
         }
 
         if(!everythingOk) {
             putType(jmmNode, new Type("undefined", false));
         }
-        else if(boolOp.contains(jmmNode.get("op"))) {
+        else if(op.isComparison() || op == AstNode.Operator.AND || op == AstNode.Operator.OR) {
             putType(jmmNode, new Type("boolean",false));
         }
         else{
@@ -348,9 +361,9 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithLiteral(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithLiteral(AstNode jmmNode, SymbolTable symbolTable) {
 
-        boolean isInteger = jmmNode.hasAttribute("integer");
+        boolean isInteger = !jmmNode.hasBool();
         if(isInteger){
             putType(jmmNode, new Type("integer", false));
         }
@@ -360,31 +373,33 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return new ArrayList<>();
     }
 
-    private List<Report> dealWithParenthesis(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithParenthesis(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!(jmmNode.getJmmChild(0).hasAttribute("varType") && jmmNode.getJmmChild(0).hasAttribute("isArray"))){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found."));
+        AstNode child = jmmNode.getChild(0);
+        if(!child.hasType()){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
-        putType(jmmNode, new Type(jmmNode.getJmmChild(0).get("varType"), Boolean.getBoolean(jmmNode.getJmmChild(0).get("isArray"))));
+        putType(jmmNode, new Type(child.getVarType(), child.isArray()));
         return reports;
     }
 
-    private List<Report> dealWithUnaryOp(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithUnaryOp(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.getJmmChild(0).hasAttribute("varType")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found."));
+        String childType = jmmNode.getChild(0).getVarType();
+        if(childType == null){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
-        else if(!(jmmNode.getJmmChild(0).get("varType").equals("boolean") || jmmNode.getJmmChild(0).get("varType").equals("unknown"))){
+        else if(!(childType.equals("boolean") || childType.equals("unknown"))){
             putType(jmmNode, new Type("undefined", false));
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Unary operator ! must be used on variable of type boolean."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Unary operator ! must be used on variable of type boolean."));
         }
         else{
             putType(jmmNode, new Type("boolean", false));
@@ -394,47 +409,49 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithWhileLoop(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithWhileLoop(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!(jmmNode.getJmmChild(0).hasAttribute("varType") && jmmNode.getJmmChild(0).hasAttribute("isArray"))){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found."));
+        AstNode condition = jmmNode.getChild(0);
+        if(!condition.hasType()){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
 
-        if(!(jmmNode.getJmmChild(0).get("varType").equals("boolean") || jmmNode.getJmmChild(0).get("varType").equals("unknown")) || (jmmNode.getJmmChild(0).get("isArray").equals("true"))){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "While loop condition must be of type boolean."));
+        if(!(condition.getVarType().equals("boolean") || condition.getVarType().equals("unknown")) || condition.isArray()){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "While loop condition must be of type boolean."));
         }
 
         
         return reports;
     }
 
-    private List<Report> dealWithMethodCall(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithMethodCall(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
-        JmmNode child = jmmNode.getJmmChild(0);
+        AstNode child = jmmNode.getChild(0);
 
-        if(!jmmNode.hasAttribute("method")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "No method attribute was found."));
+        if(jmmNode.getName() == null){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "No method attribute was found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
 
-        boolean methodExists = methodExists(jmmNode.get("method"), symbolTable);
+        boolean methodExists = methodExists(jmmNode.getName(), symbolTable);
+        AstNode staticMethod = getStaticMethod(jmmNode);
 
         // If function is static, can't invoke 'this' keyword
-        if(child.getKind().equals("Object") && jmmNode.getAncestor("MethodDeclaration").isPresent() && jmmNode.getAncestor("MethodDeclaration").get().hasAttribute("isStatic") && jmmNode.getAncestor("MethodDeclaration").get().get("isStatic").equals("static")){
+        if(child.is(AstNode.Kind.OBJECT) && staticMethod != null){
             putType(jmmNode, new Type("undefined", false));
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Method "+jmmNode.getAncestor("MethodDeclaration").get().get("methodName")+" is static, can't use 'this' keyword."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Method "+staticMethod.getName()+" is static, can't use 'this' keyword."));
         }
 
         // If function caller is a 'this' object or an object with the class type
-        else if(child.getKind().equals("Object") || (child.hasAttribute("varType") && child.get("varType").equals(symbolTable.getClassName()))){
+        else if(child.is(AstNode.Kind.OBJECT) || symbolTable.getClassName().equals(child.getVarType())){
             if(methodExists && checkMethodCallArguments(jmmNode, symbolTable)){
-                Type tp = symbolTable.getReturnType(jmmNode.get("method"));
+                Type tp = symbolTable.getReturnType(jmmNode.getName());
                 putType(jmmNode, tp);
             }
 
@@ -446,25 +463,25 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
             // If class does not extend any other class and method isn't declared
             else{
                 putType(jmmNode, new Type("undefined", false));
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Method "+jmmNode.get("method")+" ("+ (jmmNode.getNumChildren() - 1) +") couldn't be found."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Method "+jmmNode.getName()+" ("+ (jmmNode.getNumChildren() - 1) +") couldn't be found."));
             }
         }
 
         else {
 
-            if(!child.hasAttribute("varType")){
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found."));
+            if(child.getVarType() == null){
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found."));
                 putType(jmmNode, new Type("undefined", false));
                 return reports;
             }
 
-            boolean isValidType = isValidType(child.get("varType"), symbolTable, false);
+            boolean isValidType = isValidType(child.getVarType(), symbolTable, false);
             if(isValidType){
                 putType(jmmNode, new Type("unknown", false));
             }
             else{
                 putType(jmmNode, new Type("undefined", false));
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Method "+jmmNode.get("method")+" ("+ (jmmNode.getNumChildren() - 1) +") couldn't be found."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Method "+jmmNode.getName()+" ("+ (jmmNode.getNumChildren() - 1) +") couldn't be found."));
             }
         }
 
@@ -474,17 +491,14 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
 
     }
 
-    private List<Report> dealWithAssignment(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithAssignment(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
-        JmmNode child1 = jmmNode.getJmmChild(0);
+        AstNode child1 = jmmNode.getChild(0);
 
         // If it is a class field being declared and assigned outside a method
         if(getCallerFunctionName(jmmNode).equals("")){
-            String id;
-            if(jmmNode.hasAttribute("id")){
-                id = jmmNode.get("id");
-            }
-            else { id = jmmNode.get("variable");}
+            // The variable for a scalar assignment, the id for an array element one
+            String id = jmmNode.getName();
 
             Type tp = matchVariable(symbolTable.getFields(), id);
 
@@ -493,23 +507,19 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
                 putType(jmmNode, getVarType(child1));
             }
             else{
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+id+" is of type "+tp.getName()+"."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+id+" is of type "+tp.getName()+"."));
                 putType(jmmNode, new Type("undefined", false));
             }
         }
 
         else{
             List<Symbol> accessibleVars = getAccessibleVariables(getCallerFunctionName(jmmNode),symbolTable);
-            String id;
-            if(jmmNode.hasAttribute("id")){
-                id = jmmNode.get("id");
-            }
-            else { id = jmmNode.get("variable");}
+            String id = jmmNode.getName();
 
             Type tp = matchVariable(accessibleVars, id);
             // If variable does not exist:
             if(tp == null){
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+id+" couldn't be found."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+id+" couldn't be found."));
                 putType(jmmNode, new Type("undefined", false));
             }
             // If variable does exist, it can be an array element assignment (2 children nodes) or a regular variable assignment (1 child node).
@@ -520,22 +530,22 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
                         putType(jmmNode, tp);
                     }
                     else{
-                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+id+" is of type "+tp.getName()+"."));
+                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+id+" is of type "+tp.getName()+"."));
                         putType(jmmNode, new Type("undefined", false));
                     }
                 }
                 // If it's an array element assignment, check if variable is of type int[], if array access is integer and if assigned value is integer.
                 else{
                     if(!tp.isArray()){
-                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+id+" is of type "+tp.getName()+"."));
+                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+id+" is of type "+tp.getName()+"."));
                         putType(jmmNode, new Type("undefined", false));
                     }
                     else if(!getVarType(child1).equals(new Type("integer", false))){
-                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Array access must be of type integer."));
+                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Array access must be of type integer."));
                         putType(jmmNode, new Type("undefined", false));
                     }
-                    else if(!getVarType(jmmNode.getJmmChild(1)).equals(new Type("integer", false))){
-                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Array element must be of type integer."));
+                    else if(!getVarType(jmmNode.getChild(1)).equals(new Type("integer", false))){
+                        reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Array element must be of type integer."));
                         putType(jmmNode, new Type("undefined", false));
                     }
                     else{
@@ -549,28 +559,25 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithNewArrayInstantiation(JmmNode jmmNode, SymbolTable symbolTable){
+    private List<Report> dealWithNewArrayInstantiation(AstNode jmmNode, SymbolTable symbolTable){
         List<Report> reports = new ArrayList<>();
         List<Symbol> accessibleVars = getAccessibleVariables(getCallerFunctionName(jmmNode),symbolTable);
-        JmmNode child1 = jmmNode.getJmmChild(0);
-        String id;
-        if(jmmNode.getJmmParent().hasAttribute("id")){
-            id = jmmNode.getJmmParent().get("id");
-        }
-        else { id = jmmNode.getJmmParent().get("variable");}
+        AstNode child1 = jmmNode.getChild(0), parent = jmmNode.getParent();
+        // Only an assignment names the variable that holds the new array
+        String id = parent.is(AstNode.Kind.ASSIGNMENT) ? parent.getName() : null;
         Type tp = matchVariable(accessibleVars, id);
 
         if(tp == null){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable not found."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable not found."));
             putType(jmmNode, new Type("undefined", false));
         }
 
         else if(!tp.isArray()){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+id+" is of type "+tp.getName()+"."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+id+" is of type "+tp.getName()+"."));
             putType(jmmNode, new Type("undefined", false));
         }
         else if(!getVarType(child1).equals(new Type("integer", false))){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Array access must be of type integer."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Array access must be of type integer."));
             putType(jmmNode, new Type("undefined", false));
         }
         else{
@@ -579,21 +586,21 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
 
         return reports;
     }
-    private List<Report> dealWithObjectInstantiation(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithObjectInstantiation(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.hasAttribute("objectName")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Object name couldn't be found"));
+        if(jmmNode.getName() == null){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Object name couldn't be found"));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
-        boolean validVar = isValidType(jmmNode.get("objectName"), symbolTable, false);
+        boolean validVar = isValidType(jmmNode.getName(), symbolTable, false);
         if(validVar){
-            putType(jmmNode, new Type(jmmNode.get("objectName"), false));
+            putType(jmmNode, new Type(jmmNode.getName(), false));
         }
         else{
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type "+jmmNode.get("objectName")+" does not exist."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type "+jmmNode.getName()+" does not exist."));
             putType(jmmNode, new Type("undefined", false));
         }
 
@@ -601,21 +608,22 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithVarDeclaration(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithVarDeclaration(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.getJmmChild(0).hasAttribute("varType")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found"));
+        AstNode type = jmmNode.getChild(0);
+        if(type.getVarType() == null){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found"));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
-        boolean isValidType = isValidType(jmmNode.getJmmChild(0).get("varType"), symbolTable, true);
+        boolean isValidType = isValidType(type.getVarType(), symbolTable, true);
         if(!isValidType){
-            Report rep = new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Type "+jmmNode.getJmmChild(0).get("varType")+" does not exist.");
+            Report rep = new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Type "+type.getVarType()+" does not exist.");
             reports.add(rep);
         }
         else{
-            Type tp = getVarType(jmmNode.getJmmChild(0));
+            Type tp = getVarType(type);
             putType(jmmNode, tp);
         }
 
@@ -623,34 +631,36 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithClassVariable(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithClassVariable(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.getJmmChild(0).hasAttribute("id")){
+        AstNode child = jmmNode.getChild(0);
+        if(!hasId(child)){
             //putType(jmmNode, new Type("undefined", false));
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Class variable couldn't be found."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Class variable couldn't be found."));
             return reports;
         }
 
-        String childId = jmmNode.getJmmChild(0).get("id"), childType = "";
-        if(jmmNode.getJmmChild(0).hasAttribute("varType")){
-            childType = jmmNode.getJmmChild(0).get("varType");
+        String childId = child.getName(), childType = "";
+        if(child.getVarType() != null){
+            childType = child.getVarType();
         }
+        AstNode staticMethod = getStaticMethod(jmmNode);
 
         // If method is static, can't access 'this' keyword.
-        if(jmmNode.getJmmChild(0).getKind().equals("Object") && jmmNode.getAncestor("MethodDeclaration").isPresent() && jmmNode.getAncestor("MethodDeclaration").get().hasAttribute("isStatic") && jmmNode.getAncestor("MethodDeclaration").get().get("isStatic").equals("static")){
+        if(child.is(AstNode.Kind.OBJECT) && staticMethod != null){
             putType(jmmNode, new Type("undefined", false));
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Method "+jmmNode.getAncestor("MethodDeclaration").get().get("methodName")+" is static, can't use 'this' keyword."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Method "+staticMethod.getName()+" is static, can't use 'this' keyword."));
         }
 
         // If variable is of type equal to declared class or a 'this' object.
         else if(childId.equals("this") || childType.equals(symbolTable.getClassName())){
-            if(!jmmNode.hasAttribute("method")){
+            if(jmmNode.getName() == null){
                 putType(jmmNode, new Type("undefined", false));
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Class field couldn't be found"));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Class field couldn't be found"));
                 return reports;
             }
-            Type tp = matchVariable(symbolTable.getFields(), jmmNode.get("method"));
+            Type tp = matchVariable(symbolTable.getFields(), jmmNode.getName());
             // If variable is declared class field.
             if(tp != null){
                 putType(jmmNode, tp);
@@ -659,7 +669,7 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
             else{
                 // If class extends another class, any method call is allowed.
                 if(symbolTable.getSuper().equals("")){
-                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Class field "+jmmNode.get("method")+" does not exist."));
+                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Class field "+jmmNode.getName()+" does not exist."));
                     putType(jmmNode, new Type("undefined", false));
                 }
                 else{
@@ -671,7 +681,7 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         else {
             // Non-existent variable.
             if(childType.equals("undefined")){
-                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Can't read field of "+childId+", variable does not exist."));
+                reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Can't read field of "+childId+", variable does not exist."));
                 putType(jmmNode, new Type("undefined", false));
 
             }
@@ -688,7 +698,7 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
                     putType(jmmNode, new Type("unknown", false));
                 }
                 else{
-                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "No field "+jmmNode.get("method")+" associated with var of type "+childType+"."));
+                    reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "No field "+jmmNode.getName()+" associated with var of type "+childType+"."));
                     putType(jmmNode, new Type("undefined", false));
                 }
             }
@@ -698,20 +708,21 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithReturnStmt(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithReturnStmt(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.getJmmParent().hasAttribute("methodName")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Method name couldn't be found."));
+        AstNode method = jmmNode.getParent();
+        if(!method.is(AstNode.Kind.METHOD_DECLARATION)){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Method name couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
-        Type statementType = getVarType(jmmNode.getJmmChild(0)), functionType = symbolTable.getReturnType(jmmNode.getJmmParent().get("methodName"));
+        Type statementType = getVarType(jmmNode.getChild(0)), functionType = symbolTable.getReturnType(method.getName());
         Type functionTypeSanitized = new Type(functionType.getName().equals("int")? "integer" : functionType.getName(), functionType.isArray());
         boolean returnCorrect = equalTypes(statementType, functionTypeSanitized, symbolTable);
         if(!returnCorrect){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Method "+jmmNode.getJmmParent().get("methodName")+" returns type "+functionTypeSanitized.getName()+" ."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Method "+method.getName()+" returns type "+functionTypeSanitized.getName()+" ."));
             putType(jmmNode, new Type("undefined", false));
         }
         else{
@@ -722,64 +733,64 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithIfStatement(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithIfStatement(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.getJmmChild(0).getJmmChild(0).hasAttribute("varType") || !jmmNode.getJmmChild(0).getJmmChild(0).hasAttribute("isArray")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Condition type couldn't be found."));
+        AstNode condition = jmmNode.getChild(0).getChild(0);
+        if(!condition.hasType()){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Condition type couldn't be found."));
             return reports;
         }
 
-        String type = jmmNode.getJmmChild(0).getJmmChild(0).get("varType");
-        boolean isArray = jmmNode.getJmmChild(0).getJmmChild(0).get("isArray").equals("true");
-        if(!equalTypes(new Type(type, isArray), new Type("boolean", false),symbolTable)){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "If statement condition must be of type boolean."));
+        if(!equalTypes(new Type(condition.getVarType(), condition.isArray()), new Type("boolean", false),symbolTable)){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "If statement condition must be of type boolean."));
         }
 
         
         return reports;
     }
 
-    private List<Report> dealWithStmt(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithStmt(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
-        JmmNode child = jmmNode.getJmmChild(0);
+        AstNode child = jmmNode.getChild(0);
+        AstNode staticMethod = getStaticMethod(jmmNode);
 
         // If 'this' object is used and function is static
-        if(child.getKind().equals("Object") && jmmNode.getAncestor("MethodDeclaration").isPresent() && jmmNode.getAncestor("MethodDeclaration").get().hasAttribute("isStatic") && jmmNode.getAncestor("MethodDeclaration").get().get("isStatic").equals("static")){
+        if(child.is(AstNode.Kind.OBJECT) && staticMethod != null){
             putType(jmmNode, new Type("undefined", false));
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Method "+jmmNode.getAncestor("MethodDeclaration").get().get("methodName")+" is static, can't use 'this' keyword."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Method "+staticMethod.getName()+" is static, can't use 'this' keyword."));
         }
 
         else{
-            putType(jmmNode, getVarType(jmmNode.getJmmChild(0)));
+            putType(jmmNode, getVarType(child));
         }
 
         
         return reports;
     }
 
-    private List<Report> dealWithObject(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithObject(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
         putType(jmmNode, new Type(symbolTable.getClassName(), false));
         
         return reports;
     }
 
-    private List<Report> dealWithArray(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithArray(AstNode jmmNode, SymbolTable symbolTable) {
         List<Report> reports = new ArrayList<>();
         List<Symbol> accessibleVars = getAccessibleVariables(getCallerFunctionName(jmmNode),symbolTable);
 
-        if(!jmmNode.hasAttribute("variable")){
+        if(jmmNode.getName() == null){
             putType(jmmNode, new Type("undefined", false));
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable couldn't be found."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable couldn't be found."));
             return reports;
         }
 
-        Type tp = matchVariable(accessibleVars, jmmNode.get("variable")), intArray = new Type("integer", true);
+        Type tp = matchVariable(accessibleVars, jmmNode.getName()), intArray = new Type("integer", true);
 
         if(!equalTypes(tp, intArray, symbolTable)){
             putType(jmmNode, new Type("undefined", false));
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable "+jmmNode.get("variable")+" not of type integer array."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable "+jmmNode.getName()+" not of type integer array."));
         }
         else{
             putType(jmmNode, intArray);
@@ -789,20 +800,21 @@ public class SemanticAnalysis extends PostorderJmmVisitor<SymbolTable, List<Repo
         return reports;
     }
 
-    private List<Report> dealWithLength(JmmNode jmmNode, SymbolTable symbolTable) {
+    private List<Report> dealWithLength(AstNode jmmNode, SymbolTable symbolTable) {
 
         List<Report> reports = new ArrayList<>();
 
-        if(!jmmNode.getJmmChild(0).hasAttribute("varType") || !jmmNode.getJmmChild(0).hasAttribute("isArray")){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable type couldn't be found."));
+        AstNode child = jmmNode.getChild(0);
+        if(!child.hasType()){
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable type couldn't be found."));
             putType(jmmNode, new Type("undefined", false));
             return reports;
         }
 
-        Type tp = new Type(jmmNode.getJmmChild(0).get("varType"), jmmNode.getJmmChild(0).get("isArray").equals("true"));
+        Type tp = new Type(child.getVarType(), child.isArray());
 
         if(tp.getName().equals("boolean") || (tp.getName().equals("integer") && !tp.isArray())){
-            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, Integer.parseInt(jmmNode.get("lineStart")), "Variable not of type array."));
+            reports.add(new Report(ReportType.ERROR, Stage.SEMANTIC, getLine(jmmNode), "Variable not of type array."));
         }
 
         putType(jmmNode, new Type("integer", false));
@@ -1,8 +1,15 @@
 package pt.up.fe.comp2023;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CommonTokenStream;
-import pt.up.fe.comp.jmm.ast.antlr.AntlrParser;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.antlr.ThrowingErrorListener;
 import pt.up.fe.comp.jmm.parser.JmmParser;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
@@ -11,12 +18,14 @@ import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2023.JavammLexer;
 import pt.up.fe.comp2023.JavammParser;
 import pt.up.fe.comp.jmm.jasmin.JasminBackend;
+import pt.up.fe.specs.util.SpecsSystem;
 
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Arrays;
+import java.util.Optional;
 
 /**
  * Copyright 2022 SPeCS.
@@ -51,8 +60,9 @@ public class SimpleParser implements JmmParser {
         var parser = new JavammParser(tokens);
 
         try {
-            // Convert ANTLR CST to JmmNode AST
-            return AntlrParser.parse(lex, parser, startingRule)
+            // Convert ANTLR CST to the typed AST
+            return parseTree(lex, parser, startingRule)
+                    .map(tree -> (JmmNode) new AstBuilder(tokens).build(tree))
                     // If there were no errors and a root node was generated, create a JmmParserResult with the node
                     .map(root2 -> new JmmParserResult(root2, Collections.emptyList(), config))
                     // If there were errors, create an error JmmParserResult without root node
@@ -72,4 +82,47 @@ public class SimpleParser implements JmmParser {
 
         return null;
     }
+
+    /**
+     * Same error handling as AntlrParser.parse: lexer errors throw, parser errors are counted. The first attempt uses
+     * SLL prediction, which is much cheaper and enough for every valid program of this grammar; only when it fails is
+     * the input parsed again with full LL, so syntax errors are reported exactly as before.
+     */
+    private static Optional<ParserRuleContext> parseTree(JavammLexer lex, JavammParser parser, String startingRule) {
+        lex.removeErrorListeners();
+        lex.addErrorListener(new ThrowingErrorListener());
+
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        try {
+            return Optional.of(invokeRule(parser, startingRule));
+        } catch (RuntimeException e) {
+            if (!isCancellation(e))
+                throw e;
+            parser.reset();
+        }
+
+        parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        ParserRuleContext tree = invokeRule(parser, startingRule);
+        if (parser.getNumberOfSyntaxErrors() > 0) {
+            return Optional.empty();
+        }
+        return Optional.of(tree);
+    }
+
+    // SpecsSystem.invoke wraps what the rule throws
+    private static boolean isCancellation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ParseCancellationException)
+                return true;
+        }
+        return false;
+    }
+
+    private static ParserRuleContext invokeRule(JavammParser parser, String startingRule) {
+        return startingRule.equals("program") ? parser.program() : (ParserRuleContext) SpecsSystem.invoke(parser, startingRule);
+    }
 }
@@ -0,0 +1,380 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Static single assignment view of a method (Method.buildCFGs must have run). OLLIR has no phi instruction, so the
+ * method is left as it is: every definition of a local becomes a numbered value, phis are placed on the iterated
+ * dominance frontiers where the variable is live (pruned SSA), and every use of a local in a reachable instruction is
+ * mapped to the one value that reaches it. Values 0 to numVariables() - 1 are the values the variables have on entry
+ * to the method. Variables are numbered as in Liveness, "this" and fields are not SSA variables.
+ */
+public class SsaForm {
+
+    private final Method method;
+    private final DominatorTree dominators;
+    private final Liveness liveness;
+    private final int num_variables;
+    private final boolean[] renamed;
+
+    private int num_values;
+    private int[] value_variables;
+    private int[] value_instructions;
+    private boolean[] value_phis;
+    private int[][] phi_operands;
+
+    private final int[][] phis;
+    private final int[] defined_values;
+    private final int[][] use_variables;
+    private final int[][] use_values;
+    private int[][] users;
+    private int[][] phi_users;
+
+    public SsaForm(Method method) {
+        this(method, new DominatorTree(method), new Liveness(method));
+    }
+
+    public SsaForm(Method method, DominatorTree dominators, Liveness liveness) {
+        this.method = method;
+        this.dominators = dominators;
+        this.liveness = liveness;
+        this.num_variables = liveness.numVariables();
+        int n = dominators.numInstructions();
+
+        renamed = new boolean[num_variables];
+        value_variables = new int[num_variables + n];
+        value_instructions = new int[num_variables + n];
+        value_phis = new boolean[num_variables + n];
+        phi_operands = new int[num_variables + n][];
+        for (int v = 0; v < num_variables; v++) {
+            renamed[v] = RegisterAllocator.isAllocatable(method, liveness.getVariable(v));
+            add_value(v, -1, false);
+        }
+
+        phis = new int[n][];
+        defined_values = new int[n];
+        use_variables = new int[n][];
+        use_values = new int[n][];
+        Arrays.fill(defined_values, -1);
+        place_phis();
+        rename();
+        link_users();
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public DominatorTree getDominators() {
+        return dominators;
+    }
+
+    public Liveness getLiveness() {
+        return liveness;
+    }
+
+    public int numVariables() {
+        return num_variables;
+    }
+
+    public int numValues() {
+        return num_values;
+    }
+
+    public int getVariable(int value) {
+        return value_variables[value];
+    }
+
+    /**
+     * The instruction that defines a value, or where its phi is. -1 for the values on entry.
+     */
+    public int getInstruction(int value) {
+        return value_instructions[value];
+    }
+
+    public boolean isPhi(int value) {
+        return value_phis[value];
+    }
+
+    /**
+     * Phis at the start of an instruction.
+     */
+    public int[] getPhis(int instruction) {
+        return phis[instruction];
+    }
+
+    /**
+     * Operands of a phi, one for each predecessor of its instruction in DominatorTree.getPredecessors order. The phis
+     * of the first instruction have one more operand at the end, the value on entry, for the edge from the begin node.
+     */
+    public int[] getPhiOperands(int phi) {
+        return phi_operands[phi];
+    }
+
+    /**
+     * The value an instruction defines, -1 if it defines none.
+     */
+    public int getDefinedValue(int instruction) {
+        return defined_values[instruction];
+    }
+
+    /**
+     * The value of a variable where an instruction uses it, -1 if the instruction doesn't use it as an SSA variable.
+     */
+    public int getUse(int instruction, String variable) {
+        int[] variables = use_variables[instruction];
+        if (variables == null)
+            return -1;
+        for (int k = 0; k < variables.length; k++) {
+            if (liveness.getVariable(variables[k]).equals(variable))
+                return use_values[instruction][k];
+        }
+        return -1;
+    }
+
+    /**
+     * The values an instruction uses, empty for unreachable instructions.
+     */
+    public int[] getUses(int instruction) {
+        return use_values[instruction] == null ? new int[0] : use_values[instruction];
+    }
+
+    /**
+     * Instructions that use a value.
+     */
+    public int[] getUsers(int value) {
+        return users[value];
+    }
+
+    /**
+     * Phis that have a value as an operand.
+     */
+    public int[] getPhiUsers(int value) {
+        return phi_users[value];
+    }
+
+    private int add_value(int variable, int instruction, boolean phi) {
+        if (num_values == value_variables.length) {
+            int capacity = num_values * 2 + 1;
+            value_variables = Arrays.copyOf(value_variables, capacity);
+            value_instructions = Arrays.copyOf(value_instructions, capacity);
+            value_phis = Arrays.copyOf(value_phis, capacity);
+            phi_operands = Arrays.copyOf(phi_operands, capacity);
+        }
+        value_variables[num_values] = variable;
+        value_instructions[num_values] = instruction;
+        value_phis[num_values] = phi;
+        return num_values++;
+    }
+
+    private int single_def(int instruction) {
+        long[] def = liveness.getDef(instruction);
+        for (int w = 0; w < def.length; w++) {
+            if (def[w] != 0) {
+                int v = (w << 6) + Long.numberOfTrailingZeros(def[w]);
+                return renamed[v] ? v : -1;
+            }
+        }
+        return -1;
+    }
+
+    private void place_phis() {
+        int n = dominators.numInstructions();
+        List<List<Integer>> def_sites = new ArrayList<>(num_variables);
+        for (int v = 0; v < num_variables; v++) {
+            def_sites.add(new ArrayList<>());
+        }
+        for (int i : dominators.getReversePostorder()) {
+            int v = single_def(i);
+            if (v != -1)
+                def_sites.get(v).add(i);
+        }
+
+        List<List<Integer>> placed = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            placed.add(null);
+        }
+        // Stamped with the variable, so the marks don't have to be cleared between variables
+        int[] has_phi = new int[n];
+        int[] in_worklist = new int[n];
+        Arrays.fill(has_phi, -1);
+        Arrays.fill(in_worklist, -1);
+        int[] worklist = new int[n];
+        int count = 0;
+        for (int v = 0; v < num_variables; v++) {
+            if (!renamed[v])
+                continue;
+            int size = 0;
+            for (int i : def_sites.get(v)) {
+                in_worklist[i] = v;
+                worklist[size++] = i;
+            }
+            while (size > 0) {
+                int x = worklist[--size];
+                for (int y : dominators.getFrontier(x)) {
+                    if (has_phi[y] == v)
+                        continue;
+                    has_phi[y] = v;
+                    long[] live_in = liveness.getLiveIn(y);
+                    if ((live_in[v >>> 6] & (1L << v)) == 0)
+                        continue;
+                    int phi = add_value(v, y, true);
+                    int operands = dominators.getPredecessors(y).length;
+                    phi_operands[phi] = new int[y == 0 ? operands + 1 : operands];
+                    Arrays.fill(phi_operands[phi], -1);
+                    if (y == 0)
+                        phi_operands[phi][operands] = v;
+                    if (placed.get(y) == null)
+                        placed.set(y, new ArrayList<>());
+                    placed.get(y).add(phi);
+                    count++;
+                    if (in_worklist[y] != v) {
+                        in_worklist[y] = v;
+                        worklist[size++] = y;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            List<Integer> at = placed.get(i);
+            phis[i] = new int[at == null ? 0 : at.size()];
+            for (int k = 0; k < phis[i].length; k++) {
+                phis[i][k] = at.get(k);
+            }
+        }
+        CompilerStats.count("ssa.phis", count);
+    }
+
+    private void rename() {
+        int[] reverse_postorder = dominators.getReversePostorder();
+        if (reverse_postorder.length == 0)
+            return;
+        int n = dominators.numInstructions();
+        int[] top = new int[num_variables];
+        for (int v = 0; v < num_variables; v++) {
+            top[v] = v;
+        }
+        // Pushes are undone by restoring the previous top, in pairs (variable, previous value). There is at most one
+        // push for each phi and one for each instruction
+        int[] undo = new int[2 * (num_values + n)];
+        int undo_size = 0;
+        int[] marks = new int[n];
+
+        int[] nodes = new int[n];
+        int[] next_child = new int[n];
+        int size = 0;
+        nodes[size++] = reverse_postorder[0];
+        next_child[reverse_postorder[0]] = -1;
+        while (size > 0) {
+            int node = nodes[size - 1];
+            if (next_child[node] == -1) {
+                next_child[node] = 0;
+                marks[node] = undo_size;
+                for (int phi : phis[node]) {
+                    undo[undo_size++] = value_variables[phi];
+                    undo[undo_size++] = top[value_variables[phi]];
+                    top[value_variables[phi]] = phi;
+                }
+
+                long[] use = liveness.getUse(node);
+                int count = 0;
+                for (long word : use)
+                    count += Long.bitCount(word);
+                int[] variables = new int[count];
+                int[] values = new int[count];
+                count = 0;
+                for (int w = 0; w < use.length; w++) {
+                    long bits = use[w];
+                    while (bits != 0) {
+                        int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        if (!renamed[v])
+                            continue;
+                        variables[count] = v;
+                        values[count++] = top[v];
+                    }
+                }
+                use_variables[node] = Arrays.copyOf(variables, count);
+                use_values[node] = Arrays.copyOf(values, count);
+
+                int v = single_def(node);
+                if (v != -1) {
+                    int value = add_value(v, node, false);
+                    defined_values[node] = value;
+                    undo[undo_size++] = v;
+                    undo[undo_size++] = top[v];
+                    top[v] = value;
+                }
+
+                for (int s : dominators.getSuccessors(node)) {
+                    int[] predecessors = dominators.getPredecessors(s);
+                    for (int k = 0; k < predecessors.length; k++) {
+                        if (predecessors[k] != node)
+                            continue;
+                        for (int phi : phis[s]) {
+                            phi_operands[phi][k] = top[value_variables[phi]];
+                        }
+                    }
+                }
+            }
+
+            int[] children = dominators.getChildren(node);
+            if (next_child[node] < children.length) {
+                int child = children[next_child[node]++];
+                next_child[child] = -1;
+                nodes[size++] = child;
+            } else {
+                while (undo_size > marks[node]) {
+                    int previous = undo[--undo_size];
+                    top[undo[--undo_size]] = previous;
+                }
+                size--;
+            }
+        }
+    }
+
+    private void link_users() {
+        int[] counts = new int[num_values];
+        int[] phi_counts = new int[num_values];
+        int n = dominators.numInstructions();
+        for (int i = 0; i < n; i++) {
+            if (use_values[i] == null)
+                continue;
+            for (int value : use_values[i])
+                counts[value]++;
+        }
+        for (int phi = 0; phi < num_values; phi++) {
+            if (!value_phis[phi])
+                continue;
+            for (int value : phi_operands[phi]) {
+                if (value != -1)
+                    phi_counts[value]++;
+            }
+        }
+
+        users = new int[num_values][];
+        phi_users = new int[num_values][];
+        for (int value = 0; value < num_values; value++) {
+            users[value] = new int[counts[value]];
+            phi_users[value] = new int[phi_counts[value]];
+            counts[value] = 0;
+            phi_counts[value] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            if (use_values[i] == null)
+                continue;
+            for (int value : use_values[i])
+                users[value][counts[value]++] = i;
+        }
+        for (int phi = 0; phi < num_values; phi++) {
+            if (!value_phis[phi])
+                continue;
+            for (int value : phi_operands[phi]) {
+                if (value != -1)
+                    phi_users[value][phi_counts[value]++] = phi;
+            }
+        }
+    }
+}
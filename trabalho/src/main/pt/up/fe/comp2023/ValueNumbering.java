@@ -0,0 +1,249 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Dominator-based global value numbering. The dominator tree is walked with a scoped table of the expressions computed
+ * so far, keyed by the operation and the value numbers of the SSA values of its operands, so an expression found in
+ * the table was computed by an instruction that dominates this one, on the same values. The recomputation then
+ * becomes a copy of the local that holds the result, and the uses of the copy read that local instead, which leaves
+ * the copy to DeadCodeElimination. Only locals assigned once in the whole method (like the temporaries OllirParser
+ * makes) are reused, so they still hold the result wherever the copy is used.
+ * Arithmetic, comparisons, logical operators and arraylength are reused freely. Array loads also carry a version of
+ * the memory, a pseudo variable defined by every array store and call and merged where their dominance frontiers
+ * meet, so a load is only reused when no store or call can come between the two.
+ */
+public class ValueNumbering {
+
+    private final Method method;
+    private final SsaForm ssa;
+    private final DominatorTree dominators;
+    private final int[] numbers;
+    private final Map<String, Integer> assignments = new HashMap<>();
+
+    public ValueNumbering(Method method) {
+        this(new SsaForm(method));
+    }
+
+    public ValueNumbering(SsaForm ssa) {
+        this.method = ssa.getMethod();
+        this.ssa = ssa;
+        this.dominators = ssa.getDominators();
+        this.numbers = new int[ssa.numValues()];
+        for (int value = 0; value < numbers.length; value++) {
+            numbers[value] = value;
+        }
+        for (Instruction instruction : method.getInstructions()) {
+            if (instruction instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand))
+                assignments.merge(((Operand) assign.getDest()).getName(), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Replaces the recomputed expressions with copies and rebuilds the CFG. Returns the number of expressions reused.
+     */
+    public int apply() {
+        int[] reverse_postorder = dominators.getReversePostorder();
+        if (reverse_postorder.length == 0)
+            return 0;
+        int n = dominators.numInstructions();
+        boolean[] memory_phis = memory_phis();
+        MethodEditor editor = new MethodEditor(method);
+        Operand[] forwarded = new Operand[ssa.numValues()];
+
+        // Expression key -> instruction that computed it, with the keys added at each node undone on the way back up
+        Map<String, Integer> available = new HashMap<>();
+        Deque<String> added = new ArrayDeque<>();
+        int[] marks = new int[n];
+        int[] memory_marks = new int[n];
+        int memory = 0, memory_versions = 1;
+        Deque<Integer> memory_stack = new ArrayDeque<>();
+
+        int reused = 0;
+        int[] nodes = new int[n];
+        int[] next_child = new int[n];
+        int size = 0;
+        nodes[size++] = reverse_postorder[0];
+        next_child[reverse_postorder[0]] = -1;
+        while (size > 0) {
+            int node = nodes[size - 1];
+            if (next_child[node] == -1) {
+                next_child[node] = 0;
+                marks[node] = added.size();
+                memory_marks[node] = memory_stack.size();
+                if (memory_phis[node]) {
+                    memory_stack.push(memory);
+                    memory = memory_versions++;
+                }
+
+                Instruction instruction = dominators.getInstruction(node);
+                if (instruction instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand)) {
+                    Operand dest = (Operand) assign.getDest();
+                    int def = ssa.getDefinedValue(node);
+                    String key = key(node, assign.getRhs(), memory);
+                    Integer previous = key == null ? null : available.get(key);
+                    if (previous != null) {
+                        Operand source = (Operand) ((AssignInstruction) dominators.getInstruction(previous)).getDest();
+                        editor.replace(node, OllirBuilder.assign(dest, OllirBuilder.single(source)));
+                        if (def != -1) {
+                            numbers[def] = numbers[ssa.getDefinedValue(previous)];
+                            forwarded[def] = new Operand(source.getName(), source.getType());
+                        }
+                        reused++;
+                    } else if (assign.getRhs() instanceof SingleOpInstruction single && !single.getSingleOperand().isLiteral()
+                            && !(single.getSingleOperand() instanceof ArrayOperand) && def != -1) {
+                        int copied = ssa.getUse(node, ((Operand) single.getSingleOperand()).getName());
+                        if (copied != -1)
+                            numbers[def] = numbers[copied];
+                    } else if (key != null && def != -1 && assignments.get(dest.getName()) == 1) {
+                        available.put(key, node);
+                        added.push(key);
+                    }
+                }
+                if (writes_memory(instruction)) {
+                    memory_stack.push(memory);
+                    memory = memory_versions++;
+                }
+            }
+
+            int[] children = dominators.getChildren(node);
+            if (next_child[node] < children.length) {
+                int child = children[next_child[node]++];
+                next_child[child] = -1;
+                nodes[size++] = child;
+            } else {
+                while (added.size() > marks[node])
+                    available.remove(added.pop());
+                while (memory_stack.size() > memory_marks[node])
+                    memory = memory_stack.pop();
+                size--;
+            }
+        }
+
+        int uses = 0;
+        for (int i : reverse_postorder) {
+            Instruction instruction = editor.get(i);
+            uses += MethodEditor.replaceOperands(instruction, element -> forward(i, element, forwarded));
+            if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof ArrayOperand array
+                    && !array.getIndexOperands().isEmpty()) {
+                Element index = forward(i, array.getIndexOperands().get(0), forwarded);
+                if (index != array.getIndexOperands().get(0)) {
+                    editor.replace(i, new AssignInstruction(MethodEditor.withIndex(array, index), assign.getTypeOfAssign(), assign.getRhs()));
+                    uses++;
+                }
+            }
+        }
+        CompilerStats.count("gvn.reused", reused);
+        CompilerStats.count("gvn.forwardedUses", uses);
+        editor.apply();
+        return reused;
+    }
+
+    /**
+     * Whether an instruction can change the contents of an array: array stores and calls.
+     */
+    private static boolean writes_memory(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign) {
+            if (assign.getDest() instanceof ArrayOperand)
+                return true;
+            instruction = assign.getRhs();
+        }
+        if (instruction instanceof CallInstruction call) {
+            CallType type = call.getInvocationType();
+            return type != CallType.arraylength && type != CallType.NEW;
+        }
+        return false;
+    }
+
+    /**
+     * Instructions where the memory needs a phi: the iterated dominance frontier of the ones that write it.
+     */
+    private boolean[] memory_phis() {
+        int n = dominators.numInstructions();
+        boolean[] res = new boolean[n];
+        boolean[] queued = new boolean[n];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        for (int i : dominators.getReversePostorder()) {
+            if (writes_memory(dominators.getInstruction(i))) {
+                queued[i] = true;
+                worklist.add(i);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            int x = worklist.poll();
+            for (int y : dominators.getFrontier(x)) {
+                if (res[y])
+                    continue;
+                res[y] = true;
+                if (!queued[y]) {
+                    queued[y] = true;
+                    worklist.add(y);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The local a use of a reused copy can read instead, or the element itself.
+     */
+    private Element forward(int node, Element element, Operand[] forwarded) {
+        if (element instanceof ArrayOperand array) {
+            if (array.getIndexOperands().isEmpty())
+                return element;
+            Element index = forward(node, array.getIndexOperands().get(0), forwarded);
+            return index == array.getIndexOperands().get(0) ? element : MethodEditor.withIndex(array, index);
+        }
+        if (element.isLiteral() || !(element instanceof Operand operand))
+            return element;
+        int value = ssa.getUse(node, operand.getName());
+        return value == -1 || forwarded[value] == null ? element : forwarded[value];
+    }
+
+    private String operand_key(int node, Element element) {
+        if (element.isLiteral())
+            return "#" + ((LiteralElement) element).getLiteral();
+        if (element instanceof ArrayOperand || !(element instanceof Operand operand))
+            return null;
+        int value = ssa.getUse(node, operand.getName());
+        return value == -1 ? null : "v" + numbers[value];
+    }
+
+    /**
+     * The key of an expression that can be reused, or null.
+     */
+    private String key(int node, Instruction rhs, int memory) {
+        if (rhs instanceof BinaryOpInstruction binary) {
+            String left = operand_key(node, binary.getLeftOperand());
+            String right = operand_key(node, binary.getRightOperand());
+            if (left == null || right == null)
+                return null;
+            OperationType operation = binary.getOperation().getOpType();
+            boolean commutative = switch (operation) {
+                case ADD, MUL, EQ, NEQ, AND, ANDB, OR, ORB -> true;
+                default -> false;
+            };
+            if (commutative && left.compareTo(right) > 0)
+                return operation + " " + right + " " + left;
+            return operation + " " + left + " " + right;
+        }
+        if (rhs instanceof UnaryOpInstruction unary) {
+            String operand = operand_key(node, unary.getOperand());
+            return operand == null ? null : unary.getOperation().getOpType() + " " + operand;
+        }
+        if (rhs instanceof SingleOpInstruction single && single.getSingleOperand() instanceof ArrayOperand array) {
+            int value = ssa.getUse(node, array.getName());
+            if (value == -1 || array.getIndexOperands().size() != 1)
+                return null;
+            String index = operand_key(node, array.getIndexOperands().get(0));
+            return index == null ? null : "load v" + numbers[value] + " " + index + " m" + memory;
+        }
+        if (rhs instanceof CallInstruction call && call.getInvocationType() == CallType.arraylength) {
+            String array = operand_key(node, call.getFirstArg());
+            return array == null ? null : "arraylength " + array;
+        }
+        return null;
+    }
+}
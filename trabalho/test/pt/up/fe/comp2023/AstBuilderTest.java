@@ -0,0 +1,75 @@
+package pt.up.fe.comp2023;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.antlr.AntlrParser;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * The typed AST must be indistinguishable, through the JmmNode interface, from the one AntlrParser builds.
+ */
+public class AstBuilderTest {
+
+    private static final File CORPUS = new File("test/pt/up/fe/comp/cpf");
+
+    @Test
+    public void sameTreeAsAntlrParserOnCpfCorpus() throws IOException {
+        List<File> sources;
+        try (Stream<Path> files = Files.walk(CORPUS.toPath())) {
+            sources = files.map(Path::toFile).filter(file -> file.getName().endsWith(".jmm")).sorted().collect(Collectors.toList());
+        }
+        assertFalse(sources.isEmpty());
+
+        int compared = 0;
+        for (File source : sources) {
+            String code = SpecsIo.read(source);
+            var lex = new JavammLexer(new ANTLRInputStream(code));
+            var parser = new JavammParser(new CommonTokenStream(lex));
+            JmmNode expected;
+            try {
+                expected = AntlrParser.parse(lex, parser, "program").orElse(null);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (expected == null)
+                continue;
+
+            var result = new SimpleParser().parse(code, Map.of());
+            assertEquals(source.getName(), describe(expected), describe(result.getRootNode()));
+            compared++;
+        }
+        assertFalse(compared == 0);
+    }
+
+    private static String describe(JmmNode node) {
+        StringBuilder res = new StringBuilder();
+        describe(node, "", res);
+        return res.toString();
+    }
+
+    private static void describe(JmmNode node, String indent, StringBuilder res) {
+        Map<String, String> attributes = new TreeMap<>();
+        for (String attribute : node.getAttributes()) {
+            attributes.put(attribute, node.get(attribute));
+        }
+        res.append(indent).append(node.getKind()).append(" ").append(node.getHierarchy()).append(" ").append(attributes).append("\n");
+        for (JmmNode child : node.getChildren()) {
+            describe(child, indent + "  ", res);
+        }
+    }
+}
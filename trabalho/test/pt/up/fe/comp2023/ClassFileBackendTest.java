@@ -0,0 +1,126 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.spi.ToolProvider;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Differential test between the two backends: every OLLIR file of the cpf Jasmin corpus is compiled through Jasmin
+ * text + jasmin.jar and through ClassFileBackend, and both class files must disassemble to the same code and print
+ * the same output.
+ */
+public class ClassFileBackendTest {
+
+    private static final File CORPUS = new File("test/pt/up/fe/comp/cpf/4_jasmin");
+    private static final Pattern INSTRUCTION = Pattern.compile("\\s*(\\d+): (.*)");
+    private static final Pattern BRANCH = Pattern.compile("((?:if|goto)\\S*\\s+)(\\d+)");
+
+    @Test
+    public void sameCodeAsJasminOnCpfCorpus() throws IOException {
+        List<File> sources;
+        try (Stream<java.nio.file.Path> files = Files.walk(CORPUS.toPath())) {
+            sources = files.map(java.nio.file.Path::toFile).filter(file -> file.getName().endsWith(".ollir")).sorted().collect(Collectors.toList());
+        }
+        assertFalse(sources.isEmpty());
+
+        for (File source : sources) {
+            String ollirCode = SpecsIo.read(source);
+
+            File textDir = Files.createTempDirectory("jasmin-text").toFile();
+            JasminResult textResult = new JasminConverter().toJasmin(new OllirResult(ollirCode, Collections.emptyMap()));
+            File textClass = textResult.compile(textDir);
+
+            File binaryDir = Files.createTempDirectory("jasmin-binary").toFile();
+            JasminResult binaryResult = new ClassFileBackend().toJasmin(new OllirResult(ollirCode, Collections.emptyMap()));
+            File binaryClass = binaryResult.compile(binaryDir);
+
+            assertEquals(source.getName(), disassemble(textClass), disassemble(binaryClass));
+            assertEquals(source.getName(), textResult.run(), binaryResult.run());
+        }
+    }
+
+    @Test
+    public void batchOutputComesFromTheClassFileBackend() throws IOException {
+        File source = new File(CORPUS.getParentFile(), "4_jasmin/control_flow/SimpleWhileStat.jmm");
+        File outputDir = Files.createTempDirectory("jmm-classes").toFile();
+        File cacheDir = Files.createTempDirectory("jmm-cache").toFile();
+        try {
+            CompilationCache cache = new CompilationCache(cacheDir, CompilationCache.DEFAULT_LIMIT);
+            // The second build is served by the cache, which keeps the class file
+            for (int i = 0; i < 2; i++) {
+                BatchCompiler.FileResult result = new BatchCompiler(new HashMap<>(), 1, outputDir, cache).compile(List.of(source)).get(0);
+                assertTrue(result.getResult().getJasminResult() instanceof ClassFileBackend.ClassFileResult);
+                assertEquals(i == 1, result.getResult().isCached());
+                assertArrayEquals(((ClassFileBackend.ClassFileResult) result.getResult().getJasminResult()).getClassFile(),
+                        Files.readAllBytes(result.getClassFile().toPath()));
+            }
+        } finally {
+            SpecsIo.deleteFolder(outputDir);
+            SpecsIo.deleteFolder(cacheDir);
+        }
+    }
+
+    private static String disassemble(File classFile) {
+        StringWriter out = new StringWriter();
+        ToolProvider javap = ToolProvider.findFirst("javap").orElseThrow();
+        javap.run(new PrintWriter(out), new PrintWriter(out), "-c", "-p", classFile.getAbsolutePath());
+
+        // Constant pool indexes depend on the order in which each tool adds the constants, and jasmin.jar always
+        // writes iinc in its wide form, so offsets are turned into instruction indexes before comparing
+        List<String> lines = out.toString().lines()
+                .filter(line -> !line.startsWith("Compiled from"))
+                .map(line -> line.replaceAll("#\\d+\\s*", "# ").replaceAll("iinc_w\\s*", "iinc ").replaceAll("iinc\\s+", "iinc "))
+                .collect(Collectors.toList());
+
+        // Offsets restart on every method, so they are keyed by the line where the method starts
+        Map<String, String> indexes = new HashMap<>();
+        int method = 0, index = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            Matcher matcher = INSTRUCTION.matcher(lines.get(i));
+            if (matcher.matches())
+                indexes.put(method + ":" + matcher.group(1), "@" + index++);
+            else {
+                method = i;
+                index = 0;
+            }
+        }
+
+        StringBuilder res = new StringBuilder();
+        method = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            Matcher matcher = INSTRUCTION.matcher(lines.get(i));
+            if (!matcher.matches()) {
+                method = i;
+                res.append(lines.get(i)).append("\n");
+                continue;
+            }
+            String instruction = matcher.group(2);
+            Matcher branch = BRANCH.matcher(instruction);
+            if (branch.matches())
+                instruction = branch.group(1) + indexes.get(method + ":" + branch.group(2));
+            res.append(instruction).append("\n");
+        }
+        return res.toString();
+    }
+}
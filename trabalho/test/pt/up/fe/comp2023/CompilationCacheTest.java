@@ -0,0 +1,126 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CompilationCacheTest {
+
+    private static final String WHILE = "pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleWhileStat.jmm";
+
+    @Test
+    public void sameSourceAndOptionsHit() throws IOException {
+        File folder = Files.createTempDirectory("jmm-cache").toFile();
+        try {
+            JmmCompiler compiler = new JmmCompiler(new CompilationCache(folder, CompilationCache.DEFAULT_LIMIT));
+            String code = SpecsIo.getResource(WHILE);
+            assertFalse(compiler.compile(code, new HashMap<>(Map.of("optimize", "true"))).isCached());
+
+            // The number of threads doesn't change the output, so it shares the entry
+            JmmCompiler.Result hit = compiler.compile(code, new HashMap<>(Map.of("optimize", "true", "threads", "4")));
+            assertTrue(hit.isCached());
+            assertEquals("Result: 0\nResult: 1\nResult: 2", hit.getJasminResult().run().strip());
+        } finally {
+            SpecsIo.deleteFolder(folder);
+        }
+    }
+
+    @Test
+    public void optionsThatChangeTheOutputMiss() throws IOException {
+        File folder = Files.createTempDirectory("jmm-cache").toFile();
+        try {
+            JmmCompiler compiler = new JmmCompiler(new CompilationCache(folder, CompilationCache.DEFAULT_LIMIT));
+            String code = SpecsIo.getResource(WHILE);
+            assertFalse(compiler.compile(code, new HashMap<>()).isCached());
+
+            for (Map<String, String> changed : List.of(Map.of("optimize", "true"), Map.of("registerAllocation", "0"), Map.of("backend", "jasmin"))) {
+                assertFalse(changed.toString(), compiler.compile(code, new HashMap<>(changed)).isCached());
+                assertTrue(changed.toString(), compiler.compile(code, new HashMap<>(changed)).isCached());
+            }
+        } finally {
+            SpecsIo.deleteFolder(folder);
+        }
+    }
+
+    @Test
+    public void failedWritesOnlyWarn() throws IOException {
+        File folder = Files.createTempDirectory("jmm-cache").toFile();
+        JmmCompiler compiler = new JmmCompiler(new CompilationCache(folder, CompilationCache.DEFAULT_LIMIT));
+        SpecsIo.deleteFolder(folder);
+
+        JmmCompiler.Result result = compiler.compile(SpecsIo.getResource(WHILE), new HashMap<>());
+        assertTrue(result.isSuccess());
+        assertTrue(result.getReports().stream().anyMatch(report -> report.getType() == ReportType.WARNING));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedFirst() throws IOException {
+        File folder = Files.createTempDirectory("jmm-cache").toFile();
+        try {
+            CompilationCache unlimited = new CompilationCache(folder, CompilationCache.DEFAULT_LIMIT);
+            String[] keys = new String[5];
+            File[] files = new File[5];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = CompilationCache.key("class A" + i + " {}", Map.of());
+                files[i] = new File(folder, keys[i] + ".json");
+            }
+            // Entries of the same size, used in order 0, 1, 2
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 3; i++) {
+                unlimited.put(keys[i], CompilationCache.entryOf(Collections.emptyList(), "A" + i + " {}", null));
+                assertTrue(files[i].setLastModified(now - (3 - i) * 10_000));
+            }
+
+            // Room for three entries; reading 0 makes 1 the least recently used
+            CompilationCache cache = new CompilationCache(folder, 3 * files[0].length());
+            assertNotNull(cache.get(keys[0]));
+            cache.put(keys[3], CompilationCache.entryOf(Collections.emptyList(), "A3 {}", null));
+            assertTrue(files[0].exists());
+            assertFalse(files[1].exists());
+            assertTrue(files[2].exists());
+            assertTrue(files[3].exists());
+
+            // Going over the limit again evicts the next least recently used
+            cache.put(keys[4], CompilationCache.entryOf(Collections.emptyList(), "A4 {}", null));
+            assertFalse(files[2].exists());
+            assertTrue(files[0].exists());
+            assertTrue(files[3].exists());
+            assertTrue(files[4].exists());
+        } finally {
+            SpecsIo.deleteFolder(folder);
+        }
+    }
+
+    @Test
+    public void interruptedWritesAreCleanedUp() throws IOException {
+        File folder = Files.createTempDirectory("jmm-cache").toFile();
+        try {
+            File stale = new File(folder, "interrupted.tmp");
+            File fresh = new File(folder, "writing.tmp");
+            SpecsIo.write(stale, "{");
+            SpecsIo.write(fresh, "{");
+            assertTrue(stale.setLastModified(System.currentTimeMillis() - 60 * 60 * 1000));
+
+            CompilationCache cache = new CompilationCache(folder, CompilationCache.DEFAULT_LIMIT);
+            String key = CompilationCache.key("class A {}", Map.of());
+            cache.put(key, CompilationCache.entryOf(Collections.emptyList(), "A {}", null));
+
+            // A recent temporary file may belong to a write still in progress in another process
+            assertFalse(stale.exists());
+            assertTrue(fresh.exists());
+            assertEquals("A {}", cache.get(key).ollir);
+        } finally {
+            SpecsIo.deleteFolder(folder);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CompileServerTest {
+
+    private static final String WHILE = "pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleWhileStat.jmm";
+
+    private final Gson gson = new Gson();
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        // The server may still be starting
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (ConnectException e) {
+                if (attempt == 100)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private CompileServer.Response send(PrintWriter out, BufferedReader in, String code) throws IOException {
+        CompileServer.Request request = new CompileServer.Request();
+        request.code = code;
+        request.config = Map.of("optimize", "true");
+        out.println(gson.toJson(request));
+        String line = in.readLine();
+        assertNotNull("Compile server closed the connection", line);
+        return gson.fromJson(line, CompileServer.Response.class);
+    }
+
+    private static Thread start(CompileServer server) {
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void stop(int port, Thread thread) throws IOException, InterruptedException {
+        new CompileClient(port).shutdownServer();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void servesCachedCompilationsOnTheSameConnection() throws Exception {
+        File folder = Files.createTempDirectory("jmm-cache").toFile();
+        int port = freePort();
+        Thread thread = start(new CompileServer(port, 2, new CompilationCache(folder, CompilationCache.DEFAULT_LIMIT)));
+
+        try (Socket socket = connect(port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            // The second request is a cache hit, the first one stored the result after generating the Jasmin
+            for (int i = 0; i < 2; i++) {
+                CompileServer.Response response = send(out, in, SpecsIo.getResource(WHILE));
+                assertTrue(gson.toJson(response.reports), response.success);
+                assertEquals("SimpleWhileStat", response.className);
+                assertTrue(response.ollir.contains(".construct SimpleWhileStat"));
+                assertTrue(response.jasmin.contains(".method public <init>()V"));
+            }
+        } finally {
+            stop(port, thread);
+            SpecsIo.deleteFolder(folder);
+        }
+    }
+
+    @Test
+    public void malformedRequestsGetAnErrorResponse() throws Exception {
+        int port = freePort();
+        Thread thread = start(new CompileServer(port, 1, null));
+
+        try (Socket socket = connect(port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            for (String line : new String[]{"{\"code\": ", "null"}) {
+                out.println(line);
+                CompileServer.Response response = gson.fromJson(in.readLine(), CompileServer.Response.class);
+                assertFalse(response.success);
+                assertEquals("ERROR", response.reports.get(0).type);
+                assertTrue(response.reports.get(0).message.startsWith("Malformed request"));
+            }
+
+            // The connection is still usable
+            assertTrue(send(out, in, SpecsIo.getResource(WHILE)).success);
+        } finally {
+            stop(port, thread);
+        }
+    }
+
+    @Test
+    public void idleConnectionsDoNotHoldTheWorkers() throws Exception {
+        int port = freePort();
+        Thread thread = start(new CompileServer(port, 1, null));
+
+        // The only worker would be taken by the idle connection if connections and compilations shared it
+        try (Socket idle = connect(port);
+             Socket socket = connect(port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            socket.setSoTimeout(30000);
+            assertTrue(send(out, in, SpecsIo.getResource(WHILE)).success);
+            assertTrue(idle.isConnected());
+        } finally {
+            stop(port, thread);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CompilerStatsTest {
+
+    private static final String CODE = "class Methods {\n" +
+            "    public int first(int a, int b) { int c; int d; c = a + b; d = c * a; return d - b; }\n" +
+            "    public int second(int a) { int i; int s; i = 0; s = 0; while (i < a) { s = s + i; i = i + 1; } return s; }\n" +
+            "    public int third(int a, int b, int c) { int d; int e; d = a * b; e = d + c; return e * d; }\n" +
+            "    public static void main(String[] args) { }\n" +
+            "}";
+
+    @Test
+    public void jsonNamesThePhasesAndCounters() {
+        JmmCompiler.Result result = new JmmCompiler().compile(CODE, new HashMap<>(Map.of("stats", "true", "optimize", "true", "registerAllocation", "0")));
+        assertTrue(result.getReports().toString(), result.isSuccess());
+
+        // The --stats output is read by scripts, so the field names are part of its format
+        JsonObject json = JsonParser.parseString(result.getStats().toJson()).getAsJsonObject();
+        Set<String> phases = new HashSet<>();
+        for (JsonElement element : json.getAsJsonArray("phases")) {
+            JsonObject phase = element.getAsJsonObject();
+            assertTrue(phase.keySet().containsAll(Set.of("name", "wallNanos", "cpuNanos", "allocatedBytes")));
+            phases.add(phase.get("name").getAsString());
+        }
+        assertTrue(phases.toString(), phases.containsAll(Set.of("parse", "semanticAnalysis", "toOllir", "optimizeOllir", "toJasmin",
+                "optimizeOllir/first", "optimizeOllir/second", "optimizeOllir/third")));
+
+        JsonObject counters = json.getAsJsonObject("counters");
+        for (String counter : new String[]{"astNodes", "ollir.temporaries", "regalloc.interferenceNodes", "regalloc.colouringAttempts"}) {
+            assertTrue(counter + " in " + counters, counters.has(counter));
+        }
+        assertTrue(counters.get("astNodes").getAsLong() > 0);
+    }
+
+    @Test
+    public void statsAreOffUnlessAsked() {
+        assertNull(new JmmCompiler().compile(CODE, new HashMap<>()).getStats());
+        assertNull(CompilerStats.current());
+
+        // Nothing is attached, so recording is a no-op
+        CompilerStats.count("ignored", 1);
+        assertNull(CompilerStats.start("ignored"));
+    }
+
+    @Test
+    public void workerCountersReachTheCaller() {
+        CompilerStats serial = optimize("1");
+        CompilerStats parallel = optimize("4");
+
+        // Each method's counters are recorded on whichever worker optimized it, into the caller's stats
+        assertEquals(serial.getCounters(), parallel.getCounters());
+        assertTrue(parallel.getCounters().get("regalloc.interferenceNodes") > 0);
+        Set<String> phases = new HashSet<>();
+        for (CompilerStats.Phase phase : parallel.getPhases()) {
+            phases.add(phase.getName());
+        }
+        assertEquals(Set.of("optimizeOllir/Methods", "optimizeOllir/first", "optimizeOllir/second", "optimizeOllir/third", "optimizeOllir/main"), phases);
+    }
+
+    private static CompilerStats optimize(String threads) {
+        Map<String, String> config = new HashMap<>(Map.of("optimize", "true", "registerAllocation", "0", "threads", threads));
+        JmmSemanticsResult semanticsResult = new SemanticAnalyser().semanticAnalysis(new SimpleParser().parse(CODE, config));
+        OllirParser ollirParser = new OllirParser();
+        OllirResult ollirResult = ollirParser.toOllir(semanticsResult);
+
+        CompilerStats stats = new CompilerStats();
+        stats.attach();
+        try {
+            ollirParser.optimize(ollirResult);
+
+            // The caller may run one of the tasks itself; its stats have to survive that
+            assertSame(stats, CompilerStats.current());
+        } finally {
+            stats.detach();
+        }
+        return stats;
+    }
+}
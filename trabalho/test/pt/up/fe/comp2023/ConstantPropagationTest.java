@@ -0,0 +1,77 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2023.OllirBuilderTest.build;
+import static pt.up.fe.comp2023.OllirBuilderTest.local;
+
+public class ConstantPropagationTest {
+
+    private static String literal(Element element) {
+        assertTrue(element.isLiteral());
+        return ((LiteralElement) element).getLiteral();
+    }
+
+    @Test
+    public void constantsFlowThroughLoops() {
+        // a := 10; i := 0; loop: if (a <= i) goto end; i := i + 1; goto loop; end: r := i * a; ret r
+        OllirBuilder builder = new OllirBuilder("Loop", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.emit(OllirBuilder.assign(local("a"), OllirBuilder.single(OllirBuilder.literal(10))));
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.single(OllirBuilder.literal(0))));
+        builder.label("loop");
+        builder.emit(OllirBuilder.branch(OllirBuilder.binary(local("a"), OperationType.LTE, OllirBuilder.boolType(), local("i")), "end"));
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.binary(local("i"), OperationType.ADD, OllirBuilder.intType(), OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.jump("loop"));
+        builder.label("end");
+        builder.emit(OllirBuilder.assign(local("r"), OllirBuilder.binary(local("i"), OperationType.MUL, OllirBuilder.intType(), local("a"))));
+        builder.emit(OllirBuilder.ret(local("r"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        ConstantPropagation propagation = new ConstantPropagation(method);
+        for (int i = 0; i < method.getInstructions().size(); i++) {
+            assertTrue(propagation.isReachable(i));
+        }
+        assertEquals(2, propagation.apply());
+
+        // i changes in the loop, a doesn't
+        BinaryOpInstruction condition = (BinaryOpInstruction) ((CondBranchInstruction) method.getInstr(2)).getCondition();
+        assertEquals("10", literal(condition.getLeftOperand()));
+        assertFalse(condition.getRightOperand().isLiteral());
+        BinaryOpInstruction product = (BinaryOpInstruction) ((AssignInstruction) method.getInstr(5)).getRhs();
+        assertEquals("10", literal(product.getRightOperand()));
+    }
+
+    @Test
+    public void branchesOnConstantsAreFolded() {
+        // c := 1 < 2; if (c) goto yes; r := 1; goto end; yes: r := 2; end: ret r
+        OllirBuilder builder = new OllirBuilder("Branch", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        Operand c = OllirBuilder.operand("c", OllirBuilder.boolType());
+        builder.emit(OllirBuilder.assign(c, OllirBuilder.binary(OllirBuilder.literal(1), OperationType.LTH, OllirBuilder.boolType(), OllirBuilder.literal(2))));
+        builder.emit(OllirBuilder.branch(c, "yes"));
+        builder.emit(OllirBuilder.assign(local("r"), OllirBuilder.single(OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.jump("end"));
+        builder.label("yes");
+        builder.emit(OllirBuilder.assign(local("r"), OllirBuilder.single(OllirBuilder.literal(2))));
+        builder.label("end");
+        builder.emit(OllirBuilder.ret(local("r"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        ConstantPropagation propagation = new ConstantPropagation(method);
+        assertFalse(propagation.isReachable(2));
+        assertFalse(propagation.isReachable(3));
+        propagation.apply();
+
+        // The comparison is folded, the branch is now a goto and only r := 2 reaches the return
+        assertEquals("1", literal(((SingleOpInstruction) ((AssignInstruction) method.getInstr(0)).getRhs()).getSingleOperand()));
+        assertEquals(InstructionType.GOTO, method.getInstr(1).getInstType());
+        assertEquals("yes", ((GotoInstruction) method.getInstr(1)).getLabel());
+        assertEquals("2", literal(((ReturnInstruction) method.getInstr(5)).getOperand()));
+        // The CFG is rebuilt around the goto
+        assertEquals(1, method.getInstr(1).getSuccessors().size());
+        assertSame(method.getInstr(4), method.getInstr(1).getSucc1());
+    }
+}
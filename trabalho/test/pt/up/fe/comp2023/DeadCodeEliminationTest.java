@@ -0,0 +1,66 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2023.OllirBuilderTest.build;
+import static pt.up.fe.comp2023.OllirBuilderTest.local;
+
+public class DeadCodeEliminationTest {
+
+    @Test
+    public void deadChainsGoEffectsStay() {
+        // a := x + 1; b := a * 2; c := x / y; d := f(x); e := x; ret e
+        OllirBuilder builder = new OllirBuilder("Dead", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, false, false, OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        builder.addParam("y", OllirBuilder.intType());
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 1);
+        Operand y = OllirBuilder.parameter("y", OllirBuilder.intType(), 2);
+        builder.emit(OllirBuilder.assign(local("a"), OllirBuilder.binary(x, OperationType.ADD, OllirBuilder.intType(), OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.assign(local("b"), OllirBuilder.binary(local("a"), OperationType.MUL, OllirBuilder.intType(), OllirBuilder.literal(2))));
+        builder.emit(OllirBuilder.assign(local("c"), OllirBuilder.binary(x, OperationType.DIV, OllirBuilder.intType(), y)));
+        ArrayList<Element> arguments = new ArrayList<>();
+        arguments.add(x);
+        builder.emit(OllirBuilder.assign(local("d"), OllirBuilder.invokeVirtual(builder.thisObject(), "f", arguments, OllirBuilder.intType())));
+        builder.emit(OllirBuilder.assign(local("e"), OllirBuilder.single(x)));
+        builder.emit(OllirBuilder.ret(local("e"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        assertEquals(2, new DeadCodeElimination(method).apply());
+        assertEquals(4, method.getInstructions().size());
+        // The division could throw and the call has effects of its own
+        assertEquals("c", ((Operand) ((AssignInstruction) method.getInstr(0)).getDest()).getName());
+        assertEquals("d", ((Operand) ((AssignInstruction) method.getInstr(1)).getDest()).getName());
+        assertSame(method.getInstr(1), method.getInstr(0).getSucc1());
+    }
+
+    @Test
+    public void foldedBranchesLeaveNothingBehind() {
+        // c := 0 < 1; if (c) goto yes; r := 1; goto end; yes: r := 2; end: ret r
+        OllirBuilder builder = new OllirBuilder("Branch", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        Operand c = OllirBuilder.operand("c", OllirBuilder.boolType());
+        builder.emit(OllirBuilder.assign(c, OllirBuilder.binary(OllirBuilder.literal(0), OperationType.LTH, OllirBuilder.boolType(), OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.branch(c, "yes"));
+        builder.emit(OllirBuilder.assign(local("r"), OllirBuilder.single(OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.jump("end"));
+        builder.label("yes");
+        builder.emit(OllirBuilder.assign(local("r"), OllirBuilder.single(OllirBuilder.literal(2))));
+        builder.label("end");
+        builder.emit(OllirBuilder.ret(local("r"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        new ConstantPropagation(method).apply();
+        new DeadCodeElimination(method).apply();
+
+        // Only the return of the constant is left, with every label on it
+        assertEquals(1, method.getInstructions().size());
+        assertEquals(InstructionType.RETURN, method.getInstr(0).getInstType());
+        assertSame(method.getInstr(0), method.getLabels().get("yes"));
+        assertSame(method.getInstr(0), method.getLabels().get("end"));
+    }
+}
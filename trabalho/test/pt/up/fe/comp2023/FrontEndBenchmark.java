@@ -0,0 +1,98 @@
+package pt.up.fe.comp2023;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.antlr.AntlrParser;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Allocation per source line of parsing, with the AST built by AntlrParser (JmmNodeImpl) and by AstBuilder (AstNode),
+ * and of the whole front-end (parse, semantic analysis and OLLIR generation), which reads AstBuilder's typed AST. The
+ * OLLIR ClassUnit is built directly and its text is never printed. Run with: java FrontEndBenchmark [folder] [iterations]
+ */
+public class FrontEndBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        File folder = new File(args.length > 0 ? args[0] : "test/pt/up/fe/comp/cpf");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<String> sources = new ArrayList<>();
+        int lines = 0;
+        try (Stream<Path> files = Files.walk(folder.toPath())) {
+            for (File file : files.map(Path::toFile).filter(f -> f.getName().endsWith(".jmm")).sorted().collect(Collectors.toList())) {
+                String code = SpecsIo.read(file);
+                // Only programs the whole front-end accepts
+                if (frontEnd(code) == null)
+                    continue;
+                sources.add(code);
+                lines += code.split("\n").length;
+            }
+        }
+        System.out.println(sources.size() + " programs, " + lines + " lines, " + iterations + " iterations");
+
+        for (int round = 0; round < 2; round++) {
+            // First round warms up the JIT
+            report("legacy parse", measure(sources, iterations, code -> legacyTree(code)), lines, iterations, round);
+            report("typed parse", measure(sources, iterations, code -> typedTree(code)), lines, iterations, round);
+            report("front-end", measure(sources, iterations, FrontEndBenchmark::frontEnd), lines, iterations, round);
+        }
+    }
+
+    private static JmmNode legacyTree(String code) {
+        var lex = new JavammLexer(new ANTLRInputStream(code));
+        var parser = new JavammParser(new CommonTokenStream(lex));
+        return AntlrParser.parse(lex, parser, "program").orElseThrow();
+    }
+
+    private static JmmNode typedTree(String code) {
+        return new SimpleParser().parse(code, Collections.emptyMap()).getRootNode();
+    }
+
+    private static ClassUnit frontEnd(String code) {
+        try {
+            JmmParserResult parserResult = new JmmParserResult(typedTree(code), Collections.emptyList(), Collections.emptyMap());
+            JmmSemanticsResult semanticsResult = new SemanticAnalyser().semanticAnalysis(parserResult);
+            if (!semanticsResult.getReports().isEmpty())
+                return null;
+            return new OllirParser().build_class(semanticsResult);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long[] measure(List<String> sources, int iterations, Function<String, Object> work) {
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String code : sources) {
+                work.apply(code);
+            }
+        }
+        return new long[]{THREADS.getCurrentThreadAllocatedBytes() - allocated, System.nanoTime() - start};
+    }
+
+    private static void report(String name, long[] result, int lines, int iterations, int round) {
+        if (round == 0)
+            return;
+        long totalLines = (long) lines * iterations;
+        System.out.printf("%-20s %10d bytes/line %10.2f us/line%n", name, result[0] / totalLines, result[1] / 1e3 / totalLines);
+    }
+}
@@ -0,0 +1,93 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.specs.util.system.ProcessOutputAsString;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InProcessRunnerTest {
+
+    private static final String ECHO = ".class public Echo\n.super java/lang/Object\n\n"
+            + ".method public static main([Ljava/lang/String;)V\n.limit stack 2\n.limit locals 1\n"
+            + "invokestatic io/read()I\ninvokestatic io/println(I)V\nreturn\n.end method\n";
+
+    private static final String LOOP = ".class public Loop\n.super java/lang/Object\n\n"
+            + ".method public static main([Ljava/lang/String;)V\n.limit stack 1\n.limit locals 1\n"
+            + "Again:\ngoto Again\n.end method\n";
+
+    private static final String PRINT = ".class public Print\n.super java/lang/Object\n\n"
+            + ".method public static main([Ljava/lang/String;)V\n.limit stack 1\n.limit locals 1\n"
+            + "bipush 10\ninvokestatic io/println(I)V\niconst_3\ninvokestatic io/print(I)V\nreturn\n.end method\n";
+
+    @Test
+    public void capturesInputAndOutput() {
+        var result = new InProcessRunner.Result("Echo", ECHO, Collections.emptyList(), Map.of());
+        ProcessOutputAsString output = result.runWithFullOutput("42\n");
+        assertEquals(0, output.getReturnValue());
+        assertEquals("42", output.getOutput().strip());
+    }
+
+    @Test
+    public void runsAreIsolated() {
+        // io buffers what it reads in a static field, a second run must not see the first one's input
+        var result = new InProcessRunner.Result("Echo", ECHO, Collections.emptyList(), Map.of());
+        assertEquals("1", result.run("1 2\n").strip());
+        assertEquals("3", result.run("3\n").strip());
+    }
+
+    @Test
+    public void stopsWaitingAfterTimeout() {
+        File classFile = new InProcessRunner.Result("Loop", LOOP, Collections.emptyList(), Map.of()).compile();
+        var runner = new InProcessRunner(List.of(classFile.getParentFile(), new File(TestUtils.getLibsClasspath())), 200);
+        ProcessOutputAsString output = runner.run("Loop", Collections.emptyList(), null);
+        assertEquals(-1, output.getReturnValue());
+        assertTrue(output.getStdErr().contains("Timed out"));
+    }
+
+    @Test
+    public void timeoutComesFromTheConfig() {
+        var result = new InProcessRunner.Result("Loop", LOOP, Collections.emptyList(), Map.of("runTimeout", "200"));
+        long start = System.nanoTime();
+        ProcessOutputAsString output = result.runWithFullOutput("");
+        assertEquals(-1, output.getReturnValue());
+        assertTrue((System.nanoTime() - start) / 1_000_000 < InProcessRunner.DEFAULT_TIMEOUT_MS);
+    }
+
+    @Test
+    public void sameOutputAsTheProcessRunner() {
+        // The last line has no newline, the process runner still ends it with one
+        String inProcess = new InProcessRunner.Result("Print", PRINT, Collections.emptyList(), Map.of()).run();
+        String forked = new InProcessRunner.Result("Print", PRINT, Collections.emptyList(), Map.of("fork", "true")).run();
+        assertEquals("10\n3\n", inProcess);
+        assertEquals(forked, inProcess);
+    }
+
+    @Test
+    public void concurrentRunsUseTheirOwnClassFiles() throws Exception {
+        var result = new InProcessRunner.Result("Echo", ECHO, Collections.emptyList(), Map.of());
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> outputs = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String input = i + "\n";
+                outputs.add(workers.submit(() -> result.run(input)));
+            }
+            for (int i = 0; i < outputs.size(); i++) {
+                assertEquals(i + "\n", outputs.get(i).get());
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+}
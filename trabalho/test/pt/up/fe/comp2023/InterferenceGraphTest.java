@@ -0,0 +1,119 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InterferenceGraphTest {
+
+    @Test
+    public void edgesAreStoredOnce() {
+        InterferenceGraph graph = new InterferenceGraph();
+        int a = graph.addNode("a");
+        int b = graph.addNode("b");
+        assertEquals(a, graph.addNode("a"));
+
+        graph.addEdge(a, b);
+        graph.addEdge("b", "a");
+        graph.addEdge(a, a);
+        graph.addEdge("a", "unknown");
+
+        assertEquals(1, graph.numEdges());
+        assertTrue(graph.interferes(b, a));
+        assertFalse(graph.interferes(a, a));
+        assertEquals(1, graph.degree(a));
+        assertEquals(b, graph.neighbour(a, 0));
+    }
+
+    @Test
+    public void matrixGrowsWithTheNodes() {
+        InterferenceGraph graph = new InterferenceGraph();
+        int n = 300;
+        for (int i = 0; i < n; i++) {
+            graph.addNode("v" + i);
+            for (int j = 0; j < i; j += 7) {
+                graph.addEdge(i, j);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                assertEquals(j % 7 == 0, graph.interferes(i, j));
+            }
+        }
+    }
+
+    @Test
+    public void colouringKeepsTheGraph() {
+        // A 4-clique with a tail: needs 4 colours
+        InterferenceGraph graph = new InterferenceGraph();
+        for (String name : new String[]{"a", "b", "c", "d", "e"}) {
+            graph.addNode(name);
+        }
+        for (int i = 0; i < 4; i++) {
+            for (int j = i + 1; j < 4; j++) {
+                graph.addEdge(i, j);
+            }
+        }
+        graph.addEdge(3, 4);
+
+        assertEquals(4, graph.colorSmallestLast(new int[]{-1, -1, -1, -1, -1}, 0));
+        assertEquals(4, graph.getCliqueSize());
+        assertEquals(7, graph.numEdges());
+        for (int node = 0; node < graph.numNodes(); node++) {
+            for (int k = 0; k < graph.degree(node); k++) {
+                assertNotEquals(graph.getColor(node), graph.getColor(graph.neighbour(node, k)));
+            }
+        }
+    }
+
+    @Test
+    public void copiesHaveTheirOwnEdges() {
+        // The allocator coalesces on a copy, so the next attempt starts from the original graph
+        InterferenceGraph graph = new InterferenceGraph();
+        int a = graph.addNode("a");
+        int b = graph.addNode("b");
+        int c = graph.addNode("c");
+        graph.addEdge(a, b);
+
+        InterferenceGraph copy = graph.copy();
+        copy.addEdge(b, c);
+        copy.setColor(a, 2);
+
+        assertTrue(copy.interferes(b, c));
+        assertFalse(graph.interferes(b, c));
+        assertEquals(1, graph.degree(b));
+        assertEquals(2, copy.degree(b));
+        assertEquals(1, graph.numEdges());
+        assertEquals(-1, graph.getColor(a));
+        assertEquals(c, copy.getId("c"));
+    }
+
+    @Test
+    public void smallestLastFindsTheClique() {
+        // Wheel: a 5-cycle around a hub needs 4 colours, its largest clique is a triangle
+        InterferenceGraph graph = new InterferenceGraph();
+        for (int i = 0; i < 6; i++) {
+            graph.addNode("v" + i);
+        }
+        for (int i = 1; i <= 5; i++) {
+            graph.addEdge(0, i);
+            graph.addEdge(i, i % 5 + 1);
+        }
+
+        int[] precolors = {-1, -1, -1, -1, -1, -1};
+        assertEquals(4, graph.colorSmallestLast(precolors, 0));
+        assertEquals(3, graph.getCliqueSize());
+        assertEquals(10, graph.numEdges());
+
+        // A precoloured node keeps its colour, the others start from firstColor
+        precolors[0] = 7;
+        assertEquals(8, graph.colorSmallestLast(precolors, 1));
+        assertEquals(7, graph.getColor(0));
+        for (int node = 1; node < graph.numNodes(); node++) {
+            assertTrue(graph.getColor(node) >= 1 && graph.getColor(node) <= 3);
+            for (int k = 0; k < graph.degree(node); k++) {
+                assertNotEquals(graph.getColor(node), graph.getColor(graph.neighbour(node, k)));
+            }
+        }
+    }
+}
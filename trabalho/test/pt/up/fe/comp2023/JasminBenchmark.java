@@ -0,0 +1,64 @@
+package pt.up.fe.comp2023;
+
+import org.specs.comp.ollir.*;
+
+import java.util.Map;
+
+/**
+ * Time per branch of the back-end (JasminConverter.buildClass and the Jasmin text) on a synthetic method with a
+ * growing number of if statements, each with its own label. When the time per branch stays flat as the method doubles,
+ * the back-end scales linearly with the size of the method. Run with: java JasminBenchmark [branches] [iterations]
+ */
+public class JasminBenchmark {
+
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        for (int round = 0; round < 2; round++) {
+            // First round warms up the JIT
+            for (int branches = largest / 8; branches <= largest; branches *= 2) {
+                ClassUnit classUnit = synthetic(branches);
+                report("branches " + branches, measure(classUnit, Map.of(), iterations), branches, iterations, round);
+                report("  with peephole", measure(classUnit, Map.of("peephole", "true"), iterations), branches, iterations, round);
+            }
+        }
+    }
+
+    /**
+     * static f(x): s := 0; then for each k: c := x < k; if (!c) goto skip_k; s := s + k; skip_k: ... ret s
+     */
+    private static ClassUnit synthetic(int branches) {
+        OllirBuilder builder = new OllirBuilder("Branches", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 0);
+        Operand s = OllirBuilder.operand("s", OllirBuilder.intType());
+        builder.emit(OllirBuilder.assign(s, OllirBuilder.single(OllirBuilder.literal(0))));
+        for (int k = 0; k < branches; k++) {
+            Operand c = OllirBuilder.operand("c" + k, OllirBuilder.boolType());
+            builder.emit(OllirBuilder.assign(c, OllirBuilder.binary(x, OperationType.LTH, OllirBuilder.boolType(), OllirBuilder.literal(k))));
+            builder.emit(OllirBuilder.branch(OllirBuilder.not(c), "skip" + k));
+            builder.emit(OllirBuilder.assign(s, OllirBuilder.binary(s, OperationType.ADD, OllirBuilder.intType(), OllirBuilder.literal(k))));
+            builder.label("skip" + k);
+        }
+        builder.emit(OllirBuilder.ret(s, OllirBuilder.intType()));
+        builder.endMethod();
+        return builder.build();
+    }
+
+    private static long measure(ClassUnit classUnit, Map<String, String> config, int iterations) {
+        OllirBuilder.ClassUnitResult ollirResult = new OllirBuilder.ClassUnitResult(classUnit, null, config);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            new JasminConverter().buildClass(ollirResult).toJasmin();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos, int branches, int iterations, int round) {
+        if (round == 0)
+            return;
+        System.out.printf("%-20s %10.2f ms/method %10.3f us/branch%n", name, nanos / 1e6 / iterations, nanos / 1e3 / iterations / branches);
+    }
+}
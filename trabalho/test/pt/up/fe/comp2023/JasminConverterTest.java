@@ -0,0 +1,110 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JasminConverterTest {
+
+    private static JasminResult compile(String main) {
+        String ollirCode = "import ioPlus;\nCompare {\n"
+                + ".construct Compare().V {\ninvokespecial(this, \"<init>\").V;\n}\n"
+                + ".method public static main(args.array.String).V {\n" + main + "ret.V;\n}\n}\n";
+        return new JasminConverter().toJasmin(new OllirResult(ollirCode, Collections.emptyMap()));
+    }
+
+    @Test
+    public void comparisonsFeedingABranchAreASingleCompareAndBranch() {
+        // y - x overflows, so comparing through isub would say y isn't less than x
+        JasminResult result = compile("""
+                x.i32 :=.i32 2147483647.i32;
+                y.i32 :=.i32 0.i32 -.i32 2.i32;
+                c.bool :=.bool y.i32 <.bool x.i32;
+                if (c.bool) goto less;
+                invokestatic(ioPlus, "printResult", 0.i32).V;
+                goto done;
+                less:
+                invokestatic(ioPlus, "printResult", 1.i32).V;
+                done:
+                """);
+
+        String code = result.getJasminCode();
+        assertTrue(code, code.contains("if_icmplt less"));
+        // The comparison isn't stored in c first
+        assertFalse(code, code.contains("istore_3"));
+        assertEquals("Result: 1", result.run().trim());
+    }
+
+    @Test
+    public void comparisonsWithZeroAndValuesUseTheirOwnBranches() {
+        JasminResult result = compile("""
+                x.i32 :=.i32 2147483647.i32;
+                y.i32 :=.i32 0.i32 -.i32 2.i32;
+                b.bool :=.bool y.i32 <.bool x.i32;
+                c.bool :=.bool b.bool &&.bool b.bool;
+                if (c.bool) goto less;
+                invokestatic(ioPlus, "printResult", 0.i32).V;
+                less:
+                z.bool :=.bool 0.i32 <.bool y.i32;
+                if (!.bool z.bool) goto done;
+                invokestatic(ioPlus, "printResult", 2.i32).V;
+                done:
+                invokestatic(ioPlus, "printResult", 3.i32).V;
+                """);
+
+        String code = result.getJasminCode();
+        // b is used twice, so it is a value; z is compared with zero, and the branch is on its negation
+        assertTrue(code, code.contains("if_icmplt"));
+        assertTrue(code, code.contains("ifle done"));
+        assertEquals("Result: 3", result.run().trim());
+    }
+
+    @Test
+    public void stackLimitIsTheDeepestPathThroughTheMethod() {
+        String ollirCode = """
+                import ioPlus;
+                Depth {
+                .construct Depth().V {
+                invokespecial(this, "<init>").V;
+                }
+                .method public one().i32 {
+                ret.i32 1.i32;
+                }
+                .method public calls().i32 {
+                invokevirtual(this, "one").i32;
+                invokevirtual(this, "one").i32;
+                a.i32 :=.i32 invokevirtual(this, "one").i32;
+                if (a.i32 <.bool 2.i32) goto small;
+                b.i32 :=.i32 a.i32 +.i32 a.i32;
+                goto done;
+                small:
+                b.i32 :=.i32 a.i32;
+                done:
+                ret.i32 b.i32;
+                }
+                .method public static main(args.array.String).V {
+                d.Depth :=.Depth new(Depth).Depth;
+                invokespecial(d.Depth, "<init>").V;
+                r.i32 :=.i32 invokevirtual(d.Depth, "calls").i32;
+                invokestatic(ioPlus, "printResult", r.i32).V;
+                ret.V;
+                }
+                }
+                """;
+        JasminClass jasminClass = new JasminConverter().buildClass(new OllirResult(ollirCode, Collections.emptyMap()));
+
+        // The calls take this, their results are popped, and each arm of the if only counts on its own path
+        Map<String, Integer> limits = new HashMap<>();
+        for (JasminClass.Method method : jasminClass.getMethods()) {
+            limits.put(method.getName(), method.getMaxStack());
+        }
+        assertEquals(Map.of("<init>", 1, "one", 1, "calls", 2, "main", 1), limits);
+        assertEquals("Result: 1", new JasminConverter().toJasmin(new OllirResult(ollirCode, Collections.emptyMap())).run().trim());
+    }
+}
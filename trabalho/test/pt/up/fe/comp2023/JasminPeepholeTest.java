@@ -0,0 +1,106 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class JasminPeepholeTest {
+
+    private static JasminInstruction op(String opcode, String... operands) {
+        return new JasminInstruction(opcode, operands);
+    }
+
+    private static List<String> lines(List<JasminInstruction> code) {
+        return code.stream().map(JasminInstruction::toString).collect(Collectors.toList());
+    }
+
+    @Test
+    public void materializedComparisonsBranchDirectly() {
+        // c := a < b stored in a local only read by the branch right after it
+        JasminPeephole peephole = new JasminPeephole(List.of(
+                op("iload_1"), op("iload_2"), op("if_icmplt", "T"), op("iconst_0"), op("goto", "D"),
+                JasminInstruction.label("T"), op("iconst_1"), JasminInstruction.label("D"),
+                op("istore_3"), op("iload_3"), op("ifeq", "L"),
+                op("iconst_1"), op("ireturn"), JasminInstruction.label("L"), op("iconst_0"), op("ireturn")));
+
+        assertEquals(List.of("iload_1", "iload_2", "if_icmpge L", "iconst_1", "ireturn", "L:", "iconst_0", "ireturn"),
+                lines(peephole.apply()));
+        assertEquals(Map.of("storeLoad", 1, "materializedBranch", 1), peephole.getHits());
+    }
+
+    @Test
+    public void everyComparisonHasItsNegation() {
+        Map<String, String> negations = Map.of("if_icmple", "if_icmpgt", "if_icmpgt", "if_icmple", "iflt", "ifge",
+                "if_acmpeq", "if_acmpne", "ifnull", "ifnonnull", "ifnonnull", "ifnull");
+        for (Map.Entry<String, String> negation : negations.entrySet()) {
+            JasminPeephole peephole = new JasminPeephole(List.of(
+                    op("aload_1"), op(negation.getKey(), "T"), op("iconst_0"), op("goto", "D"),
+                    JasminInstruction.label("T"), op("iconst_1"), JasminInstruction.label("D"), op("ifeq", "L"),
+                    op("iconst_1"), op("ireturn"), JasminInstruction.label("L"), op("iconst_0"), op("ireturn")));
+
+            assertEquals(negation.getKey(), negation.getValue() + " L", lines(peephole.apply()).get(1));
+        }
+    }
+
+    @Test
+    public void rewritesEnableEachOtherUntilNothingChanges() {
+        JasminPeephole peephole = new JasminPeephole(List.of(
+                op("iconst_0"), op("ifeq", "A"), op("iload_1"), op("pop"), JasminInstruction.label("A"),
+                op("goto", "B"), JasminInstruction.label("B"), op("iload_1"), op("istore_2"),
+                op("iconst_1"), op("ireturn")));
+
+        // The constant branch becomes a goto over dead code to the next label, and x := a is never read
+        assertEquals(List.of("iconst_1", "ireturn"), lines(peephole.apply()));
+        Map<String, Integer> hits = peephole.getHits();
+        assertEquals(1, (int) hits.get("constantBranch"));
+        assertEquals(2, (int) hits.get("unreachable"));
+        assertEquals(2, (int) hits.get("jumpToNext"));
+        assertEquals(2, (int) hits.get("unusedLabel"));
+        assertEquals(1, (int) hits.get("deadStore"));
+        assertEquals(1, (int) hits.get("pushPop"));
+    }
+
+    @Test
+    public void labelsThatAreStillJumpedToStay() {
+        List<JasminInstruction> code = List.of(
+                op("iload_1"), op("ifne", "T"), op("iconst_0"), op("goto", "D"), JasminInstruction.label("T"),
+                op("iconst_1"), JasminInstruction.label("D"), op("ifeq", "L"), op("iload_1"), op("ifeq", "D"),
+                JasminInstruction.label("L"), op("return"));
+
+        // D is also the target of the second branch, so the 0/1 value is still needed
+        JasminPeephole peephole = new JasminPeephole(code);
+        assertEquals(lines(code), lines(peephole.apply()));
+        assertTrue(peephole.getHits().isEmpty());
+    }
+
+    @Test
+    public void runsInTheBackendWhenEnabled() {
+        String ollirCode = "import ioPlus;\nNegate {\n"
+                + ".construct Negate().V {\ninvokespecial(this, \"<init>\").V;\n}\n"
+                + ".method public static main(args.array.String).V {\n"
+                + """
+                c.bool :=.bool 0.i32 <.bool 1.i32;
+                t.bool :=.bool !.bool c.bool;
+                if (t.bool) goto done;
+                invokestatic(ioPlus, "printResult", 1.i32).V;
+                done:
+                ret.V;
+                }
+                }
+                """;
+        JasminResult plain = new JasminConverter().toJasmin(new OllirResult(ollirCode, Map.of()));
+        JasminResult optimized = new JasminConverter().toJasmin(new OllirResult(ollirCode, Map.of("peephole", "true")));
+
+        // The negation is branched on directly, without being stored in t
+        assertTrue(plain.getJasminCode().contains("ixor"));
+        assertFalse(optimized.getJasminCode(), optimized.getJasminCode().contains("ixor"));
+        assertEquals(plain.run().trim(), optimized.run().trim());
+        assertEquals("Result: 1", optimized.run().trim());
+    }
+}
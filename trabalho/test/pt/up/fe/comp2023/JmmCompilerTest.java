@@ -0,0 +1,69 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JmmCompilerTest {
+
+    private static final String WHILE = "pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleWhileStat.jmm";
+
+    @Test
+    public void cachedCompilationsKeepTheOllirCode() throws IOException {
+        File folder = Files.createTempDirectory("jmm-cache").toFile();
+        try {
+            JmmCompiler compiler = new JmmCompiler(new CompilationCache(folder, CompilationCache.DEFAULT_LIMIT));
+            Map<String, String> config = new HashMap<>(Map.of("optimize", "true"));
+
+            // Printing the OLLIR after the Jasmin is generated is what the cache does when it stores the result
+            JmmCompiler.Result first = compiler.compile(SpecsIo.getResource(WHILE), config);
+            assertTrue(first.getReports().toString(), first.isSuccess());
+            assertFalse(first.isCached());
+            assertTrue(first.getOllirCode().contains(".construct SimpleWhileStat"));
+
+            JmmCompiler.Result second = compiler.compile(SpecsIo.getResource(WHILE), config);
+            assertTrue(second.isCached());
+            assertEquals(first.getOllirCode(), second.getOllirCode());
+            assertEquals(first.getJasminResult().getJasminCode(), second.getJasminResult().getJasminCode());
+            assertEquals("Result: 0\nResult: 1\nResult: 2", second.getJasminResult().run().strip());
+        } finally {
+            SpecsIo.deleteFolder(folder);
+        }
+    }
+
+    @Test
+    public void tooFewRegistersStillGiveRunnableCode() {
+        JmmCompiler.Result result = new JmmCompiler().compile(SpecsIo.getResource(WHILE), new HashMap<>(Map.of("registerAllocation", "1")));
+
+        // The spill is a warning, not an error
+        assertTrue(result.getReports().toString(), result.isSuccess());
+        assertTrue(result.getReports().stream().anyMatch(report -> report.getType() == ReportType.WARNING));
+        assertTrue(result.getReports().stream().map(Report::getType).noneMatch(ReportType.ERROR::equals));
+        assertEquals("Result: 0\nResult: 1\nResult: 2", result.getJasminResult().run().strip());
+    }
+
+    @Test
+    public void oneAnalysisFeedsTheOptimizedAndUnoptimizedOllir() {
+        // Nothing after the analysis rewrites the tree, so both paths start from the same result without copying it
+        JmmSemanticsResult semanticsResult = new SemanticAnalyser().semanticAnalysis(new SimpleParser().parse(SpecsIo.getResource(WHILE), new HashMap<>()));
+        OllirParser ollirParser = new OllirParser();
+        OllirResult plain = ollirParser.optimize(new OllirBuilder.ClassUnitResult(ollirParser.build_class(semanticsResult),
+                semanticsResult.getSymbolTable(), new HashMap<>()));
+        OllirResult optimized = ollirParser.optimize(new OllirBuilder.ClassUnitResult(ollirParser.build_class(semanticsResult),
+                semanticsResult.getSymbolTable(), new HashMap<>(Map.of("optimize", "true"))));
+
+        assertNotEquals(plain.getOllirCode(), optimized.getOllirCode());
+        assertEquals(new JasminConverter().toJasmin(plain).run(), new JasminConverter().toJasmin(optimized).run());
+    }
+}
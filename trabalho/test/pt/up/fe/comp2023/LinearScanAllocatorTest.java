@@ -0,0 +1,50 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static pt.up.fe.comp2023.OllirBuilderTest.build;
+import static pt.up.fe.comp2023.OllirBuilderTest.local;
+
+public class LinearScanAllocatorTest {
+
+    @Test
+    public void loopCarriedVariablesKeepTheirRegisters() {
+        // i := 0; loop: if (n <= i) goto end; t0 := i + 1; ... t9 := t8 + 1; i := t9; goto loop; end: ret i
+        OllirBuilder builder = new OllirBuilder("Loop", null);
+        builder.beginMethod("run", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.addParam("n", OllirBuilder.intType());
+        Operand n = OllirBuilder.parameter("n", OllirBuilder.intType(), 0);
+        Operand i = local("i");
+        builder.emit(OllirBuilder.assign(i, OllirBuilder.single(OllirBuilder.literal(0))));
+        builder.label("loop");
+        builder.emit(OllirBuilder.branch(OllirBuilder.binary(n, OperationType.LTE, OllirBuilder.boolType(), i), "end"));
+        Operand previous = i;
+        for (int k = 0; k < 10; k++) {
+            Operand temp = local("t" + k);
+            builder.emit(OllirBuilder.assign(temp, OllirBuilder.binary(previous, OperationType.ADD, OllirBuilder.intType(), OllirBuilder.literal(1))));
+            previous = temp;
+        }
+        builder.emit(OllirBuilder.assign(i, OllirBuilder.single(previous)));
+        builder.emit(OllirBuilder.jump("loop"));
+        builder.label("end");
+        builder.emit(OllirBuilder.ret(i, OllirBuilder.intType()));
+        Method method = build(builder);
+
+        LinearScanAllocator allocator = new LinearScanAllocator(method);
+        // n, i and one local the whole chain of temporaries goes through
+        assertEquals(3, allocator.allocate());
+        assertEquals(0, allocator.getRegister("n"));
+        assertNotEquals(allocator.getRegister("n"), allocator.getRegister("i"));
+        for (int k = 0; k < 10; k++) {
+            assertNotEquals(allocator.getRegister("i"), allocator.getRegister("t" + k));
+            assertNotEquals(allocator.getRegister("n"), allocator.getRegister("t" + k));
+        }
+
+        // i is live across the loop, so i := t9 stays a real copy
+        assertEquals(0, allocator.apply());
+        assertEquals(allocator.getRegister("t0"), method.getVarTable().get("t9").getVirtualReg());
+    }
+}
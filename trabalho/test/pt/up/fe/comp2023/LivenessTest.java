@@ -0,0 +1,72 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LivenessTest {
+
+    /**
+     * while (i < n) { t0 = i + 1; t1 = t0 + 1; ... i = tk; } return i;
+     */
+    private static ClassUnit loop(int length) {
+        OllirBuilder builder = new OllirBuilder("Loop", null);
+        builder.beginMethod("run", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.addParam("n", OllirBuilder.intType());
+        Operand n = OllirBuilder.parameter("n", OllirBuilder.intType(), 0);
+        Operand i = OllirBuilder.operand("i", OllirBuilder.intType());
+
+        builder.emit(OllirBuilder.assign(i, OllirBuilder.single(OllirBuilder.literal(0))));
+        builder.label("loop");
+        builder.emit(OllirBuilder.branch(OllirBuilder.binary(n, OperationType.LTE, OllirBuilder.boolType(), i), "end"));
+        Operand previous = i;
+        for (int k = 0; k < length; k++) {
+            Operand temp = OllirBuilder.operand("t" + k, OllirBuilder.intType());
+            builder.emit(OllirBuilder.assign(temp, OllirBuilder.binary(previous, OperationType.ADD, OllirBuilder.intType(), OllirBuilder.literal(1))));
+            previous = temp;
+        }
+        builder.emit(OllirBuilder.assign(i, OllirBuilder.single(previous)));
+        builder.emit(OllirBuilder.jump("loop"));
+        builder.label("end");
+        builder.emit(OllirBuilder.ret(i, OllirBuilder.intType()));
+        builder.endMethod();
+
+        ClassUnit classUnit = builder.build();
+        classUnit.buildCFGs();
+        return classUnit;
+    }
+
+    @Test
+    public void loopCarriedVariables() {
+        Liveness liveness = new Liveness(loop(2).getMethod(0));
+
+        // i := 0; if (n <= i) goto end; t0 := i + 1; t1 := t0 + 1; i := t1; goto loop; ret i
+        assertEquals(List.of("n"), liveness.names(liveness.getLiveIn(0)));
+        assertEquals(List.of("i", "n"), sorted(liveness.names(liveness.getLiveIn(1))));
+        assertEquals(List.of("n", "t0"), sorted(liveness.names(liveness.getLiveOut(2))));
+        assertEquals(List.of("i", "n"), sorted(liveness.names(liveness.getLiveOut(4))));
+        assertEquals(List.of("i", "n"), sorted(liveness.names(liveness.getLiveIn(5))));
+        assertEquals(List.of("i"), liveness.names(liveness.getLiveIn(6)));
+        assertEquals(List.of(), liveness.names(liveness.getLiveOut(6)));
+    }
+
+    @Test
+    public void longMethodDoesNotRecurse() {
+        int length = 20000;
+        Liveness liveness = new Liveness(loop(length).getMethod(0));
+
+        assertEquals(length + 5, liveness.numInstructions());
+        assertEquals(List.of("i", "n"), sorted(liveness.names(liveness.getLiveIn(1))));
+        assertEquals(List.of("n", "t" + (length / 2)), sorted(liveness.names(liveness.getLiveOut(2 + length / 2))));
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> res = new ArrayList<>(names);
+        res.sort(null);
+        return res;
+    }
+}
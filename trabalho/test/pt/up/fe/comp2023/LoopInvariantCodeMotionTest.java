@@ -0,0 +1,114 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2023.OllirBuilderTest.build;
+import static pt.up.fe.comp2023.OllirBuilderTest.local;
+
+public class LoopInvariantCodeMotionTest {
+
+    private static String dest(Instruction instruction) {
+        return ((Operand) ((AssignInstruction) instruction).getDest()).getName();
+    }
+
+    @Test
+    public void invariantsMoveBeforeTheLoop() {
+        // i := 0; loop: n := arraylength(a); c := i < n; if (c) goto body; goto end;
+        // body: t := x + y; f := getfield(this, k); u := i + t; i := u + f; goto loop; end: ret i
+        OllirBuilder builder = new OllirBuilder("Invariant", null);
+        builder.addField("k", OllirBuilder.intType());
+        builder.beginMethod("f", AccessModifiers.PUBLIC, false, false, OllirBuilder.intType());
+        builder.addParam("a", OllirBuilder.arrayType(OllirBuilder.intType()));
+        builder.addParam("x", OllirBuilder.intType());
+        builder.addParam("y", OllirBuilder.intType());
+        Operand a = OllirBuilder.parameter("a", OllirBuilder.arrayType(OllirBuilder.intType()), 1);
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 2);
+        Operand y = OllirBuilder.parameter("y", OllirBuilder.intType(), 3);
+        Operand c = OllirBuilder.operand("c", OllirBuilder.boolType());
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.single(OllirBuilder.literal(0))));
+        builder.label("loop");
+        builder.emit(OllirBuilder.assign(local("n"), OllirBuilder.arrayLength(a)));
+        builder.emit(OllirBuilder.assign(c, OllirBuilder.binary(local("i"), OperationType.LTH, OllirBuilder.boolType(), local("n"))));
+        builder.emit(OllirBuilder.branch(c, "body"));
+        builder.emit(OllirBuilder.jump("end"));
+        builder.label("body");
+        builder.emit(OllirBuilder.assign(local("t"), OllirBuilder.binary(x, OperationType.ADD, OllirBuilder.intType(), y)));
+        builder.emit(OllirBuilder.assign(local("f"), OllirBuilder.getField(builder.thisObject(), "k", OllirBuilder.intType())));
+        builder.emit(OllirBuilder.assign(local("u"), OllirBuilder.binary(local("i"), OperationType.ADD, OllirBuilder.intType(), local("t"))));
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.binary(local("u"), OperationType.ADD, OllirBuilder.intType(), local("f"))));
+        builder.emit(OllirBuilder.jump("loop"));
+        builder.label("end");
+        builder.emit(OllirBuilder.ret(local("i"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        assertEquals(3, new LoopInvariantCodeMotion(method).apply());
+        assertEquals("n", dest(method.getInstr(1)));
+        assertEquals("t", dest(method.getInstr(2)));
+        assertEquals("f", dest(method.getInstr(3)));
+        // The back edge skips the preheader
+        assertSame(method.getInstr(4), method.getLabels().get("loop"));
+        assertEquals("c", dest(method.getInstr(4)));
+        assertEquals("u", dest(method.getLabels().get("body")));
+    }
+
+    @Test
+    public void callsAndEarlierReadsKeepInstructionsInTheLoop() {
+        // s := 0; i := 0; loop: c := i < s; if (c) goto body; goto end;
+        // body: s := x + x; f := getfield(this, k); r := g(); i := i + f; goto loop; end: ret i
+        OllirBuilder builder = new OllirBuilder("Variant", null);
+        builder.addField("k", OllirBuilder.intType());
+        builder.beginMethod("f", AccessModifiers.PUBLIC, false, false, OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 1);
+        Operand c = OllirBuilder.operand("c", OllirBuilder.boolType());
+        builder.emit(OllirBuilder.assign(local("s"), OllirBuilder.single(OllirBuilder.literal(0))));
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.single(OllirBuilder.literal(0))));
+        builder.label("loop");
+        builder.emit(OllirBuilder.assign(c, OllirBuilder.binary(local("i"), OperationType.LTH, OllirBuilder.boolType(), local("s"))));
+        builder.emit(OllirBuilder.branch(c, "body"));
+        builder.emit(OllirBuilder.jump("end"));
+        builder.label("body");
+        builder.emit(OllirBuilder.assign(local("s"), OllirBuilder.binary(x, OperationType.ADD, OllirBuilder.intType(), x)));
+        builder.emit(OllirBuilder.assign(local("f"), OllirBuilder.getField(builder.thisObject(), "k", OllirBuilder.intType())));
+        builder.emit(OllirBuilder.assign(local("r"), OllirBuilder.invokeVirtual(builder.thisObject(), "g", new ArrayList<>(), OllirBuilder.intType())));
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.binary(local("i"), OperationType.ADD, OllirBuilder.intType(), local("f"))));
+        builder.emit(OllirBuilder.jump("loop"));
+        builder.label("end");
+        builder.emit(OllirBuilder.ret(local("i"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        // The first test reads s before the loop assigns it, and g could put k
+        assertEquals(0, new LoopInvariantCodeMotion(method).apply());
+        assertEquals(11, method.getInstructions().size());
+    }
+
+    @Test
+    public void rotatedLoopsGetThePreheaderAfterTheGuard() {
+        // i := 0; if (!(i < x)) goto end; body: t := x + x; i := i + t; c := i < x; if (c) goto body; end: ret i
+        OllirBuilder builder = new OllirBuilder("Rotated", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, false, false, OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 1);
+        Operand c = OllirBuilder.operand("c", OllirBuilder.boolType());
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.single(OllirBuilder.literal(0))));
+        builder.emit(OllirBuilder.assign(c, OllirBuilder.binary(local("i"), OperationType.LTH, OllirBuilder.boolType(), x)));
+        builder.emit(OllirBuilder.branch(OllirBuilder.not(c), "end"));
+        builder.label("body");
+        builder.emit(OllirBuilder.assign(local("t"), OllirBuilder.binary(x, OperationType.ADD, OllirBuilder.intType(), x)));
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.binary(local("i"), OperationType.ADD, OllirBuilder.intType(), local("t"))));
+        builder.emit(OllirBuilder.assign(c, OllirBuilder.binary(local("i"), OperationType.LTH, OllirBuilder.boolType(), x)));
+        builder.emit(OllirBuilder.branch(c, "body"));
+        builder.label("end");
+        builder.emit(OllirBuilder.ret(local("i"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        assertEquals(1, new LoopInvariantCodeMotion(method).apply());
+        assertEquals("t", dest(method.getInstr(3)));
+        assertEquals("i", dest(method.getLabels().get("body")));
+        assertSame(method.getInstr(4), method.getLabels().get("body"));
+    }
+}
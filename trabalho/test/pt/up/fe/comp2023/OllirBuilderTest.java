@@ -0,0 +1,184 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirUtils;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The ClassUnit built by OllirParser must be the one the OLLIR parser reads back from its printed code.
+ */
+public class OllirBuilderTest {
+
+    private static final File CORPUS = new File("test/pt/up/fe/comp/cpf");
+
+    @Test
+    public void printedCodeParsesIntoSameClassOnCpfCorpus() throws IOException {
+        assertFalse(compareCorpus(Map.of()) == 0);
+    }
+
+    @Test
+    public void rotatedLoopsParseIntoSameClassOnCpfCorpus() throws IOException {
+        assertFalse(compareCorpus(Map.of("rotateLoops", "true")) == 0);
+    }
+
+    @Test
+    public void rotatedWhileTakesOneBranchPerIteration() {
+        String code = "class Loop { public int count(int n) { int i; i = 0; while (i < n) { i = i + 1; } return i; } }";
+        Method method = buildMethod(code, Map.of("rotateLoops", "true"), "count");
+
+        // The guard skips the loop, the test at the bottom goes back to the body, and nothing else jumps
+        List<Instruction> instructions = method.getInstructions();
+        assertTrue(instructions.stream().noneMatch(instruction -> instruction instanceof GotoInstruction));
+        List<CondBranchInstruction> branches = branches(instructions);
+        assertEquals(2, branches.size());
+        assertEquals("loopend0", branches.get(0).getLabel());
+        assertEquals("whilestart0", branches.get(1).getLabel());
+        assertTrue(instructions.indexOf(branches.get(1)) > instructions.indexOf(method.getLabels().get("whilestart0")));
+    }
+
+    @Test
+    public void conditionsShortCircuitWithoutABoolean() {
+        String code = "class Logic { public boolean f() { return true; } public boolean g() { return false; } "
+                + "public int test(int n) { int r; r = 0; if (0 < n && this.f() || !this.g()) { r = 1; } return r; } }";
+        Method method = buildMethod(code, Map.of(), "test");
+
+        // Each operand branches on its own, and g is only called when the left side of || is false
+        List<Instruction> instructions = method.getInstructions();
+        List<CondBranchInstruction> branches = branches(instructions);
+        assertEquals(3, branches.size());
+        assertTrue(instructions.stream().noneMatch(instruction -> isLogical(instruction)));
+        int call_g = -1;
+        for (int i = 0; i < instructions.size(); i++) {
+            if (instructions.get(i) instanceof AssignInstruction assign && assign.getRhs() instanceof CallInstruction call
+                    && ((LiteralElement) call.getSecondArg()).getLiteral().equals("\"g\""))
+                call_g = i;
+        }
+        assertTrue(call_g > instructions.indexOf(branches.get(1)));
+        assertEquals("endif0", branches.get(2).getLabel());
+    }
+
+    @Test
+    public void logicalValuesOnlyBranchWhenTheRightSideHasEffects() {
+        String code = "class Logic { public boolean g() { return false; } "
+                + "public boolean test(boolean x, boolean y) { boolean a; boolean b; a = x && !y; b = a || this.g(); return b; } }";
+        Method method = buildMethod(code, Map.of(), "test");
+
+        // x && !y is a single operation, this.g() is skipped when a is true
+        List<Instruction> instructions = method.getInstructions();
+        assertEquals(1, instructions.stream().filter(instruction -> isLogical(instruction)).count());
+        List<CondBranchInstruction> branches = branches(instructions);
+        assertEquals(1, branches.size());
+        assertTrue(method.getLabels().containsKey(branches.get(0).getLabel()));
+    }
+
+    /**
+     * An int local of a method written with OllirBuilder, for the optimization tests.
+     */
+    static Operand local(String name) {
+        return OllirBuilder.operand(name, OllirBuilder.intType());
+    }
+
+    /**
+     * Ends the only method of the builder and returns it, with its CFG built.
+     */
+    static Method build(OllirBuilder builder) {
+        builder.endMethod();
+        ClassUnit classUnit = builder.build();
+        classUnit.buildCFGs();
+        return classUnit.getMethod(0);
+    }
+
+    private static Method buildMethod(String code, Map<String, String> config, String name) {
+        var parserResult = new SimpleParser().parse(code, config);
+        ClassUnit built = new OllirParser().build_class(new SemanticAnalyser().semanticAnalysis(parserResult));
+        return built.getMethods().stream().filter(m -> m.getMethodName().equals(name)).findFirst().orElseThrow();
+    }
+
+    private static boolean isLogical(Instruction instruction) {
+        if (!(instruction instanceof AssignInstruction assign) || !(assign.getRhs() instanceof BinaryOpInstruction binary))
+            return false;
+        OperationType operation = binary.getOperation().getOpType();
+        return operation == OperationType.ANDB || operation == OperationType.ORB;
+    }
+
+    private static List<CondBranchInstruction> branches(List<Instruction> instructions) {
+        return instructions.stream().filter(instruction -> instruction instanceof CondBranchInstruction)
+                .map(instruction -> (CondBranchInstruction) instruction).collect(Collectors.toList());
+    }
+
+    private static int compareCorpus(Map<String, String> config) throws IOException {
+        List<File> sources;
+        try (Stream<Path> files = Files.walk(CORPUS.toPath())) {
+            sources = files.map(Path::toFile).filter(file -> file.getName().endsWith(".jmm")).sorted().collect(Collectors.toList());
+        }
+        assertFalse(sources.isEmpty());
+
+        int compared = 0;
+        for (File source : sources) {
+            JmmSemanticsResult semantics;
+            try {
+                var parserResult = new SimpleParser().parse(SpecsIo.read(source), config);
+                if (parserResult.getRootNode() == null)
+                    continue;
+                semantics = new SemanticAnalyser().semanticAnalysis(parserResult);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (!semantics.getReports().isEmpty())
+                continue;
+
+            ClassUnit built = new OllirParser().build_class(semantics);
+            ClassUnit parsed = OllirUtils.parse(OllirPrinter.print(built));
+            parsed.buildVarTables();
+            assertEquals(source.getName(), describe(parsed), describe(built));
+            compared++;
+        }
+        return compared;
+    }
+
+    private static String describe(ClassUnit classUnit) {
+        StringBuilder res = new StringBuilder();
+        res.append(classUnit.getClassName()).append(" extends ").append(classUnit.getSuperClass()).append(" ").append(classUnit.getImports()).append("\n");
+        for (Field field : classUnit.getFields()) {
+            res.append("field ").append(field.getFieldAccessModifier()).append(" ").append(field.getFieldName()).append(" ").append(field.getFieldType()).append("\n");
+        }
+        for (Method method : classUnit.getMethods()) {
+            res.append(method.isConstructMethod() ? "construct " : "method ").append(method.getMethodAccessModifier()).append(method.isStaticMethod() ? " static " : " ")
+                    .append(method.getMethodName()).append(" ").append(method.getReturnType()).append("\n");
+            for (Element param : method.getParams()) {
+                res.append("  param ").append(param).append(" $").append(((Operand) param).getParamId()).append("\n");
+            }
+            List<Instruction> instructions = method.getInstructions();
+            for (Instruction instruction : instructions) {
+                res.append("  ").append(instruction).append("\n");
+            }
+            Map<String, Integer> labels = new TreeMap<>();
+            for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
+                labels.put(label.getKey(), instructions.indexOf(label.getValue()));
+            }
+            res.append("  labels ").append(labels).append("\n");
+            for (Map.Entry<String, Descriptor> variable : new TreeMap<>(method.getVarTable()).entrySet()) {
+                Descriptor descriptor = variable.getValue();
+                res.append("  var ").append(variable.getKey()).append(" ").append(descriptor.getScope()).append(" ")
+                        .append(descriptor.getVirtualReg()).append(" ").append(descriptor.getVarType()).append("\n");
+            }
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2023.OllirBuilderTest.build;
+import static pt.up.fe.comp2023.OllirBuilderTest.local;
+
+public class RegisterAllocatorTest {
+
+    @Test
+    public void copiesAreCoalesced() {
+        // a := x; b := a + 1; c := b; ret c
+        OllirBuilder builder = new OllirBuilder("Copies", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, false, false, OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        builder.emit(OllirBuilder.assign(local("a"), OllirBuilder.single(OllirBuilder.parameter("x", OllirBuilder.intType(), 1))));
+        builder.emit(OllirBuilder.assign(local("b"), OllirBuilder.binary(local("a"), OperationType.ADD, OllirBuilder.intType(), OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.assign(local("c"), OllirBuilder.single(local("b"))));
+        builder.emit(OllirBuilder.ret(local("c"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        RegisterAllocator allocator = new RegisterAllocator(method);
+        assertEquals(2, allocator.allocate(4));
+        assertEquals(0, allocator.getSpilled());
+        assertEquals(2, allocator.apply());
+
+        // Everything lives in the parameter's slot, only the addition and the return are left
+        assertEquals(2, method.getInstructions().size());
+        for (String variable : new String[]{"a", "b", "c"}) {
+            assertEquals(1, method.getVarTable().get(variable).getVirtualReg());
+        }
+    }
+
+    @Test
+    public void spillsPastTheRequestedRegisters() {
+        // a := 1; b := 2; c := 3; t := a + b; t := t + c; ret t
+        OllirBuilder builder = new OllirBuilder("Spills", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.emit(OllirBuilder.assign(local("a"), OllirBuilder.single(OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.assign(local("b"), OllirBuilder.single(OllirBuilder.literal(2))));
+        builder.emit(OllirBuilder.assign(local("c"), OllirBuilder.single(OllirBuilder.literal(3))));
+        builder.emit(OllirBuilder.assign(local("t"), OllirBuilder.binary(local("a"), OperationType.ADD, OllirBuilder.intType(), local("b"))));
+        builder.emit(OllirBuilder.assign(local("t"), OllirBuilder.binary(local("t"), OperationType.ADD, OllirBuilder.intType(), local("c"))));
+        builder.emit(OllirBuilder.ret(local("t"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        RegisterAllocator allocator = new RegisterAllocator(method);
+        assertEquals(3, allocator.allocate(2));
+        assertEquals(1, allocator.getSpilled());
+        assertEquals(3, allocator.allocate(3));
+        assertEquals(0, allocator.getSpilled());
+
+        allocator.apply();
+        int a = method.getVarTable().get("a").getVirtualReg();
+        int b = method.getVarTable().get("b").getVirtualReg();
+        int c = method.getVarTable().get("c").getVirtualReg();
+        assertNotEquals(a, b);
+        assertNotEquals(a, c);
+        assertNotEquals(b, c);
+    }
+
+    @Test
+    public void minimumStopsAtTheCliqueBound() {
+        // a := 1; b := 2; c := 3; t := a + b; t := t + c; ret t
+        OllirBuilder builder = new OllirBuilder("Minimum", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.emit(OllirBuilder.assign(local("a"), OllirBuilder.single(OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.assign(local("b"), OllirBuilder.single(OllirBuilder.literal(2))));
+        builder.emit(OllirBuilder.assign(local("c"), OllirBuilder.single(OllirBuilder.literal(3))));
+        builder.emit(OllirBuilder.assign(local("t"), OllirBuilder.binary(local("a"), OperationType.ADD, OllirBuilder.intType(), local("b"))));
+        builder.emit(OllirBuilder.assign(local("t"), OllirBuilder.binary(local("t"), OperationType.ADD, OllirBuilder.intType(), local("c"))));
+        builder.emit(OllirBuilder.ret(local("t"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        // a, b and c are live together, so 3 locals is the fewest any allocation can use
+        RegisterAllocator allocator = new RegisterAllocator(method);
+        assertEquals(3, allocator.allocateMinimum());
+        assertEquals(0, allocator.getSpilled());
+        assertTrue(allocator.isMinimal());
+
+        assertEquals(3, allocator.allocate(4));
+        assertFalse(allocator.isMinimal());
+    }
+
+    @Test
+    public void methodsAreAllocatedInParallelAndReportedInOrder() {
+        // Each method keeps i + 1 values live at once, so with 2 registers all but the first ones spill
+        OllirBuilder builder = new OllirBuilder("Parallel", null);
+        int numMethods = 12;
+        for (int i = 0; i < numMethods; i++) {
+            builder.beginMethod("f" + i, AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+            for (int k = 0; k <= i + 1; k++) {
+                builder.emit(OllirBuilder.assign(local("v" + k), OllirBuilder.single(OllirBuilder.literal(k))));
+            }
+            for (int k = 1; k <= i + 1; k++) {
+                builder.emit(OllirBuilder.assign(local("v0"), OllirBuilder.binary(local("v0"), OperationType.ADD, OllirBuilder.intType(), local("v" + k))));
+            }
+            builder.emit(OllirBuilder.ret(local("v0"), OllirBuilder.intType()));
+            builder.endMethod();
+        }
+        Map<String, String> config = new HashMap<>();
+        config.put("registerAllocation", "2");
+        config.put("threads", "4");
+        OllirResult result = new OllirParser().optimize(new OllirBuilder.ClassUnitResult(builder.build(), null, config));
+
+        assertEquals(numMethods - 1, result.getReports().size());
+        for (int i = 1; i < numMethods; i++) {
+            Report report = result.getReports().get(i - 1);
+            assertEquals(ReportType.WARNING, report.getType());
+            assertTrue(report.getMessage().startsWith("Method f" + i + " "));
+        }
+    }
+}
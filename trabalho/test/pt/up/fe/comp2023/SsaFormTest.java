@@ -0,0 +1,75 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2023.OllirBuilderTest.build;
+import static pt.up.fe.comp2023.OllirBuilderTest.local;
+
+public class SsaFormTest {
+
+    @Test
+    public void phiAtTheJoinOfABranch() {
+        // 0: if (x < 0) goto negative; 1: a := 1; 2: goto join; 3: negative: a := 2; 4: join: ret a
+        OllirBuilder builder = new OllirBuilder("Diamond", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 0);
+        builder.emit(OllirBuilder.branch(OllirBuilder.binary(x, OperationType.LTH, OllirBuilder.boolType(), OllirBuilder.literal(0)), "negative"));
+        builder.emit(OllirBuilder.assign(local("a"), OllirBuilder.single(OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.jump("join"));
+        builder.label("negative");
+        builder.emit(OllirBuilder.assign(local("a"), OllirBuilder.single(OllirBuilder.literal(2))));
+        builder.label("join");
+        builder.emit(OllirBuilder.ret(local("a"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        SsaForm ssa = new SsaForm(method);
+        DominatorTree dominators = ssa.getDominators();
+        assertEquals(0, dominators.getImmediateDominator(4));
+        assertEquals(1, dominators.getImmediateDominator(2));
+        assertArrayEquals(new int[]{4}, dominators.getFrontier(1));
+        assertArrayEquals(new int[]{4}, dominators.getFrontier(3));
+        assertTrue(dominators.dominates(0, 3));
+        assertFalse(dominators.dominates(1, 4));
+
+        assertEquals(1, ssa.getPhis(4).length);
+        int phi = ssa.getPhis(4)[0];
+        assertEquals(phi, ssa.getUse(4, "a"));
+        int[] operands = ssa.getPhiOperands(phi);
+        int[] predecessors = dominators.getPredecessors(4);
+        for (int k = 0; k < predecessors.length; k++) {
+            int definition = predecessors[k] == 2 ? 1 : 3;
+            assertEquals(ssa.getDefinedValue(definition), operands[k]);
+        }
+        assertArrayEquals(new int[]{phi}, ssa.getPhiUsers(ssa.getDefinedValue(1)));
+        // x is never assigned, so it keeps its value on entry
+        assertEquals(-1, ssa.getInstruction(ssa.getUse(0, "x")));
+    }
+
+    @Test
+    public void loopBackToTheFirstInstruction() {
+        // 0: loop: i := i + 1; 1: if (i < n) goto loop; 2: ret i
+        OllirBuilder builder = new OllirBuilder("Loop", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, true, false, OllirBuilder.intType());
+        builder.addParam("n", OllirBuilder.intType());
+        Operand n = OllirBuilder.parameter("n", OllirBuilder.intType(), 0);
+        builder.label("loop");
+        builder.emit(OllirBuilder.assign(local("i"), OllirBuilder.binary(local("i"), OperationType.ADD, OllirBuilder.intType(), OllirBuilder.literal(1))));
+        builder.emit(OllirBuilder.branch(OllirBuilder.binary(local("i"), OperationType.LTH, OllirBuilder.boolType(), n), "loop"));
+        builder.emit(OllirBuilder.ret(local("i"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        SsaForm ssa = new SsaForm(method);
+        assertEquals(1, ssa.getPhis(0).length);
+        int phi = ssa.getPhis(0)[0];
+        assertEquals(phi, ssa.getUse(0, "i"));
+        // One operand from the branch, the last one from the begin node
+        int[] operands = ssa.getPhiOperands(phi);
+        assertEquals(2, operands.length);
+        assertEquals(ssa.getDefinedValue(0), operands[0]);
+        assertEquals(-1, ssa.getInstruction(operands[1]));
+        assertEquals(ssa.getDefinedValue(0), ssa.getUse(2, "i"));
+    }
+}
@@ -0,0 +1,80 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2023.OllirBuilderTest.build;
+import static pt.up.fe.comp2023.OllirBuilderTest.local;
+
+public class ValueNumberingTest {
+
+    private static String name(Element element) {
+        return ((Operand) element).getName();
+    }
+
+    @Test
+    public void commutedAndLoadsAreReusedUntilAStore() {
+        // t0 := x * y; t1 := y * x; t2 := a[i]; t3 := a[i]; a[i] := t0; t4 := a[i]; r := t1 + t3; s := r + t4; ret s
+        OllirBuilder builder = new OllirBuilder("Reuse", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, false, false, OllirBuilder.intType());
+        builder.addParam("a", OllirBuilder.arrayType(OllirBuilder.intType()));
+        builder.addParam("i", OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        builder.addParam("y", OllirBuilder.intType());
+        Operand a = OllirBuilder.parameter("a", OllirBuilder.arrayType(OllirBuilder.intType()), 1);
+        Operand i = OllirBuilder.parameter("i", OllirBuilder.intType(), 2);
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 3);
+        Operand y = OllirBuilder.parameter("y", OllirBuilder.intType(), 4);
+        builder.emit(OllirBuilder.assign(local("t0"), OllirBuilder.binary(x, OperationType.MUL, OllirBuilder.intType(), y)));
+        builder.emit(OllirBuilder.assign(local("t1"), OllirBuilder.binary(y, OperationType.MUL, OllirBuilder.intType(), x)));
+        builder.emit(OllirBuilder.assign(local("t2"), OllirBuilder.single(OllirBuilder.arrayAccess(a, i))));
+        builder.emit(OllirBuilder.assign(local("t3"), OllirBuilder.single(OllirBuilder.arrayAccess(a, i))));
+        builder.emit(OllirBuilder.assign(OllirBuilder.arrayAccess(a, i), OllirBuilder.single(local("t0"))));
+        builder.emit(OllirBuilder.assign(local("t4"), OllirBuilder.single(OllirBuilder.arrayAccess(a, i))));
+        builder.emit(OllirBuilder.assign(local("r"), OllirBuilder.binary(local("t1"), OperationType.ADD, OllirBuilder.intType(), local("t3"))));
+        builder.emit(OllirBuilder.assign(local("s"), OllirBuilder.binary(local("r"), OperationType.ADD, OllirBuilder.intType(), local("t4"))));
+        builder.emit(OllirBuilder.ret(local("s"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        assertEquals(2, new ValueNumbering(method).apply());
+        // The uses of the copies read the first results, so the copies are dead
+        BinaryOpInstruction sum = (BinaryOpInstruction) ((AssignInstruction) method.getInstr(6)).getRhs();
+        assertEquals("t0", name(sum.getLeftOperand()));
+        assertEquals("t2", name(sum.getRightOperand()));
+        assertEquals(2, new DeadCodeElimination(method).apply());
+
+        // The load after the store reads the array again
+        AssignInstruction load = (AssignInstruction) method.getInstr(3);
+        assertEquals("t4", name(load.getDest()));
+        assertTrue(((SingleOpInstruction) load.getRhs()).getSingleOperand() instanceof ArrayOperand);
+    }
+
+    @Test
+    public void onlyDominatingExpressionsAreReused() {
+        // t0 := x + y; if (x < y) goto yes; t1 := x * y; goto end; yes: t2 := x * y; end: t3 := x * y; t4 := y + x; ret t4
+        OllirBuilder builder = new OllirBuilder("Dominating", null);
+        builder.beginMethod("f", AccessModifiers.PUBLIC, false, false, OllirBuilder.intType());
+        builder.addParam("x", OllirBuilder.intType());
+        builder.addParam("y", OllirBuilder.intType());
+        Operand x = OllirBuilder.parameter("x", OllirBuilder.intType(), 1);
+        Operand y = OllirBuilder.parameter("y", OllirBuilder.intType(), 2);
+        builder.emit(OllirBuilder.assign(local("t0"), OllirBuilder.binary(x, OperationType.ADD, OllirBuilder.intType(), y)));
+        builder.emit(OllirBuilder.branch(OllirBuilder.binary(x, OperationType.LTH, OllirBuilder.boolType(), y), "yes"));
+        builder.emit(OllirBuilder.assign(local("t1"), OllirBuilder.binary(x, OperationType.MUL, OllirBuilder.intType(), y)));
+        builder.emit(OllirBuilder.jump("end"));
+        builder.label("yes");
+        builder.emit(OllirBuilder.assign(local("t2"), OllirBuilder.binary(x, OperationType.MUL, OllirBuilder.intType(), y)));
+        builder.label("end");
+        builder.emit(OllirBuilder.assign(local("t3"), OllirBuilder.binary(x, OperationType.MUL, OllirBuilder.intType(), y)));
+        builder.emit(OllirBuilder.assign(local("t4"), OllirBuilder.binary(y, OperationType.ADD, OllirBuilder.intType(), x)));
+        builder.emit(OllirBuilder.ret(local("t4"), OllirBuilder.intType()));
+        Method method = build(builder);
+
+        // Neither arm dominates the other or the join, only the sum before the branch dominates the one after it
+        assertEquals(1, new ValueNumbering(method).apply());
+        assertEquals(InstructionType.BINARYOPER, ((AssignInstruction) method.getInstr(4)).getRhs().getInstType());
+        assertEquals(InstructionType.BINARYOPER, ((AssignInstruction) method.getInstr(5)).getRhs().getInstType());
+        assertEquals("t0", name(((ReturnInstruction) method.getInstr(7)).getOperand()));
+    }
+}